@@ -39,6 +39,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -63,8 +64,11 @@ import com.caucho.relaxng.CompactVerifierFactoryImpl;
 import com.caucho.relaxng.Schema;
 import com.caucho.relaxng.Verifier;
 import com.caucho.relaxng.VerifierFilter;
+import com.caucho.util.Crc64;
 import com.caucho.util.DisplayableException;
 import com.caucho.util.L10N;
+import com.caucho.util.LruCache;
+import com.caucho.vfs.Depend;
 import com.caucho.vfs.Path;
 import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.Vfs;
@@ -84,6 +88,10 @@ public class Config {
 
   private static final EnvironmentLocal<ConfigProperties> _envProperties
     = new EnvironmentLocal<ConfigProperties>();
+
+  // parsed and validated documents, shared by redeploys of the same file
+  private static final LruCache<String,ParseCacheEntry> _parseCache
+    = new LruCache<String,ParseCacheEntry>(256);
   
   // the context class loader of the config
   private ClassLoader _classLoader;
@@ -404,27 +412,64 @@ public class Config {
     throws LineConfigException, IOException, org.xml.sax.SAXException
   {
     // server/2d33
-    SoftReference<QDocument> docRef = null;//_parseCache.get(path);
-    QDocument doc;
-
-    if (docRef != null) {
-      doc = docRef.get();
+    String key = path.getURL();
+    QDocument doc = getCachedDocument(key, path, schema);
 
-      if (doc != null && ! doc.isModified())
-        return doc;
+    if (doc != null) {
+      ConfigAdmin.registerPath(path);
+      
+      return doc;
     }
 
     ReadStream is = path.openRead();
 
     try {
       doc = parseDocument(is, schema);
+    } finally {
+      is.close();
+    }
 
-      // _parseCache.put(path, new SoftReference<QDocument>(doc));
+    if (doc.getDependList() != null) {
+      _parseCache.put(key, new ParseCacheEntry(doc, schema,
+                                               _allowResinInclude));
+    }
+
+    return doc;
+  }
+
+  /**
+   * Returns the cached document if its files are unchanged. The
+   * timestamps are checked first, and the digest only when they differ,
+   * so a redeploy which rewrites identical files still hits the cache.
+   */
+  private QDocument getCachedDocument(String key, Path path, Schema schema)
+  {
+    ParseCacheEntry entry = _parseCache.get(key);
 
+    if (entry == null
+        || entry.getSchema() != schema
+        || entry.isResinInclude() != _allowResinInclude) {
+      return null;
+    }
+
+    QDocument doc = entry.getDocument();
+
+    if (doc == null)
+      return null;
+    else if (! entry.isModified())
+      return doc;
+    else if (entry.getDigest() == ParseCacheEntry.digest(doc)) {
+      if (log.isLoggable(Level.FINER))
+        log.finer(L.l("{0} reusing parsed configuration with unchanged digest",
+                      path.getNativePath()));
+
+      _parseCache.put(key, new ParseCacheEntry(doc, schema,
+                                               _allowResinInclude));
+      
       return doc;
-    } finally {
-      is.close();
     }
+    else
+      return null;
   }
 
   /**
@@ -931,5 +976,74 @@ public class Config {
       return getClass().getSimpleName() + "[]";
     }
   }
-}
 
+  /**
+   * A parsed document with the digest of the files it was parsed from.
+   */
+  static class ParseCacheEntry {
+    private final SoftReference<QDocument> _docRef;
+    private final Schema _schema;
+    private final boolean _isResinInclude;
+    private final ArrayList<Depend> _depends = new ArrayList<Depend>();
+    private final long _digest;
+
+    ParseCacheEntry(QDocument doc, Schema schema, boolean isResinInclude)
+    {
+      _docRef = new SoftReference<QDocument>(doc);
+
+      for (Path path : doc.getDependList()) {
+        _depends.add(new Depend(path));
+      }
+      
+      _schema = schema;
+      _isResinInclude = isResinInclude;
+      _digest = digest(doc);
+    }
+
+    QDocument getDocument()
+    {
+      return _docRef.get();
+    }
+
+    Schema getSchema()
+    {
+      return _schema;
+    }
+
+    boolean isResinInclude()
+    {
+      return _isResinInclude;
+    }
+
+    long getDigest()
+    {
+      return _digest;
+    }
+
+    boolean isModified()
+    {
+      for (int i = 0; i < _depends.size(); i++) {
+        if (_depends.get(i).isModified())
+          return true;
+      }
+
+      return false;
+    }
+
+    static long digest(QDocument doc)
+    {
+      ArrayList<Path> depends = doc.getDependList();
+
+      long digest = 0;
+
+      for (int i = 0; depends != null && i < depends.size(); i++) {
+        Path depend = depends.get(i);
+        
+        digest = Crc64.generate(digest, depend.getURL());
+        digest = Crc64.generate(digest, depend.getCrc64());
+      }
+
+      return digest;
+    }
+  }
+}
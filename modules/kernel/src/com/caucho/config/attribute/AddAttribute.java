@@ -51,6 +51,7 @@ public class AddAttribute<T> extends Attribute {
   
   private final ConfigType<T> _configType;
   private final Method _setMethod;
+  private final MethodInvoker _setInvoker;
 
   private AddAttribute(Class<T> cl)
   {
@@ -61,6 +62,7 @@ public class AddAttribute<T> extends Attribute {
   {
     _configType = configType;
     _setMethod = setMethod;
+    _setInvoker = setMethod != null ? new MethodInvoker(setMethod) : null;
   }
 
   @Override
@@ -154,7 +156,7 @@ public class AddAttribute<T> extends Attribute {
                                         _setMethod.getName(),
                                         value));
 
-        _setMethod.invoke(bean, value);
+        _setInvoker.invoke(bean, value);
       }
     } catch (Exception e) {
       throw ConfigException.create(e);
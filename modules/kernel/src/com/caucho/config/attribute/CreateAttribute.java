@@ -39,6 +39,7 @@ import com.caucho.xml.QName;
 public class CreateAttribute<T> extends Attribute {
   private final Method _create;
   private final Method _setter;
+  private final MethodInvoker _invoker;
   private Class<T> _type;
   
   private ConfigType<T> _configType;
@@ -51,6 +52,7 @@ public class CreateAttribute<T> extends Attribute {
     _type = type;
 
     _setter = null;
+    _invoker = null;
   }
 
   public CreateAttribute(Method create, Class<T> type, Method setter)
@@ -63,7 +65,9 @@ public class CreateAttribute<T> extends Attribute {
 
     _setter = setter;
     if (_setter != null)
-      _setter.setAccessible(true);
+      _invoker = new MethodInvoker(setter);
+    else
+      _invoker = null;
   }
   
   /**
@@ -120,7 +124,7 @@ public class CreateAttribute<T> extends Attribute {
   {
     try {
       if (_setter != null)
-        _setter.invoke(bean, value);
+        _invoker.invoke(bean, value);
     } catch (Exception e) {
       throw ConfigException.create(_setter, e);
     }
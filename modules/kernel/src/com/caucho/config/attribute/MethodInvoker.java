@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.config.attribute;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Invokes a single-argument configuration setter through a bound
+ * MethodHandle, falling back to reflection for argument conversions
+ * the handle can't perform, like primitive widening.
+ *
+ * Errors are reported like Method.invoke, so callers keep their
+ * reflection exception handling.
+ */
+public final class MethodInvoker {
+  private static final Logger log
+    = Logger.getLogger(MethodInvoker.class.getName());
+
+  private static final MethodType SETTER_TYPE
+    = MethodType.methodType(void.class, Object.class, Object.class);
+
+  private final Method _method;
+  private final Class<?> _beanType;
+  private final Class<?> _argType;
+  private final Class<?> _boxType;
+  private final MethodHandle _handle;
+
+  public MethodInvoker(Method method)
+  {
+    _method = method;
+    _method.setAccessible(true);
+
+    Class<?> []params = method.getParameterTypes();
+
+    _beanType = method.getDeclaringClass();
+    _argType = params.length == 1 ? params[0] : Object.class;
+    _boxType = box(_argType);
+
+    MethodHandle handle = null;
+
+    if (params.length == 1 && ! Modifier.isStatic(method.getModifiers())) {
+      try {
+        handle = MethodHandles.lookup().unreflect(method).asType(SETTER_TYPE);
+      } catch (Exception e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+
+    _handle = handle;
+  }
+
+  /**
+   * Returns the underlying setter.
+   */
+  public Method getMethod()
+  {
+    return _method;
+  }
+
+  /**
+   * Calls the setter with the value.
+   */
+  public void invoke(Object bean, Object value)
+    throws IllegalAccessException, InvocationTargetException
+  {
+    MethodHandle handle = _handle;
+
+    if (handle == null
+        || ! _beanType.isInstance(bean)
+        || (value == null ? _argType.isPrimitive() : ! _boxType.isInstance(value))) {
+      // reflection reports the illegal argument or widens the primitive
+      _method.invoke(bean, value);
+      return;
+    }
+
+    try {
+      handle.invokeExact(bean, value);
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  private static Class<?> box(Class<?> cl)
+  {
+    if (! cl.isPrimitive())
+      return cl;
+    else if (boolean.class.equals(cl))
+      return Boolean.class;
+    else if (char.class.equals(cl))
+      return Character.class;
+    else if (byte.class.equals(cl))
+      return Byte.class;
+    else if (short.class.equals(cl))
+      return Short.class;
+    else if (int.class.equals(cl))
+      return Integer.class;
+    else if (long.class.equals(cl))
+      return Long.class;
+    else if (float.class.equals(cl))
+      return Float.class;
+    else if (double.class.equals(cl))
+      return Double.class;
+    else
+      return cl;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _method + "]";
+  }
+}
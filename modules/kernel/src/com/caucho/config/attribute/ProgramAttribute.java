@@ -38,12 +38,13 @@ import com.caucho.xml.QName;
 
 public class ProgramAttribute extends Attribute {
   private final Method _setter;
+  private final MethodInvoker _invoker;
   private final ConfigType _type;
 
   public ProgramAttribute(Method setter, ConfigType type)
   {
     _setter = setter;
-    _setter.setAccessible(true);
+    _invoker = new MethodInvoker(setter);
     _type = type;
   }
   
@@ -71,7 +72,7 @@ public class ProgramAttribute extends Attribute {
     throws ConfigException
   {
     try {
-      _setter.invoke(bean, value);
+      _invoker.invoke(bean, value);
     } catch (Exception e) {
       throw ConfigException.create(e);
     }
@@ -40,13 +40,14 @@ public class SetterAttribute<T> extends Attribute {
   private static final L10N L = new L10N(SetterAttribute.class);
   
   private final Method _setter;
+  private final MethodInvoker _invoker;
   private final Class<T> _type;
   private ConfigType<T> _configType;
 
   public SetterAttribute(Method setter, Class<T> type)
   {
     _setter = setter;
-    _setter.setAccessible(true);
+    _invoker = new MethodInvoker(setter);
     _type = type;
   }
   
@@ -130,7 +131,7 @@ public class SetterAttribute<T> extends Attribute {
     try {
       ConfigType<?> configType = getConfigType();
 
-      _setter.invoke(bean, configType.valueOf(value));
+      _invoker.invoke(bean, configType.valueOf(value));
     } catch (Exception e) {
       throw ConfigException.create(_setter, e);
     }
@@ -144,7 +145,7 @@ public class SetterAttribute<T> extends Attribute {
     throws ConfigException
   {
     try {
-      _setter.invoke(bean, value);
+      _invoker.invoke(bean, value);
     } catch (IllegalArgumentException e) {
       throw ConfigException.create(_setter,
                                    L.l("'{0}' is an illegal value.",
@@ -38,12 +38,14 @@ import com.caucho.xml.QName;
 
 public class TextAttribute<T> extends Attribute {
   private final Method _setter;
+  private final MethodInvoker _invoker;
   private final Class<T> _type;
   private ConfigType<T> _configType;
 
   public TextAttribute(Method setter, Class<T> type)
   {
     _setter = setter;
+    _invoker = new MethodInvoker(setter);
     _type = type;
   }
   
@@ -82,7 +84,7 @@ public class TextAttribute<T> extends Attribute {
     throws ConfigException
   {
     try {
-      _setter.invoke(bean, getConfigType().valueOf(value));
+      _invoker.invoke(bean, getConfigType().valueOf(value));
     } catch (Exception e) {
       throw ConfigException.create(_setter, e);
     }
@@ -96,7 +98,7 @@ public class TextAttribute<T> extends Attribute {
     throws ConfigException
   {
     try {
-      _setter.invoke(bean, value);
+      _invoker.invoke(bean, value);
     } catch (Exception e) {
       throw ConfigException.create(_setter, e);
     }
@@ -205,6 +205,7 @@ class NamespaceConfig {
     addBean("data-source", "com.caucho.config.types.DataSourceRef");
     addBean("dependency", "com.caucho.make.DependencyConfig");
     addBean("dependency-check-interval", "com.caucho.loader.DependencyCheckInterval");
+    addBean("dependency-watch", "com.caucho.loader.DependencyWatch");
     addBean("ejb-local-ref", "com.caucho.config.types.EjbLocalRef");
     addBean("ejb-message-bean", "com.caucho.ejb.cfg.MessageBeanConfig");
     addBean("ejb-ref", "com.caucho.config.types.EjbRef");
@@ -37,6 +37,7 @@ import javax.enterprise.context.spi.CreationalContext;
 import com.caucho.config.*;
 import com.caucho.config.program.ConfigProgram;
 import com.caucho.config.attribute.Attribute;
+import com.caucho.config.attribute.MethodInvoker;
 import com.caucho.config.cfg.BeanConfig;
 import com.caucho.config.type.*;
 import com.caucho.config.types.AnnotationConfig;
@@ -51,6 +52,7 @@ public class XmlBeanAttribute extends Attribute {
 
   private final ConfigType<?> _configType;
   private final Method _setMethod;
+  private final MethodInvoker _setInvoker;
 
   private XmlBeanAttribute()
   {
@@ -61,6 +63,7 @@ public class XmlBeanAttribute extends Attribute {
   {
     _configType = configType;
     _setMethod = setMethod;
+    _setInvoker = setMethod != null ? new MethodInvoker(setMethod) : null;
   }
 
   @Override
@@ -191,7 +194,7 @@ public class XmlBeanAttribute extends Attribute {
                                         value));
 
 
-        _setMethod.invoke(bean, value);
+        _setInvoker.invoke(bean, value);
       }
     } catch (Exception e) {
       throw ConfigException.create(e);
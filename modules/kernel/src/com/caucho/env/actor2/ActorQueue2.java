@@ -103,6 +103,22 @@ public class ActorQueue2<T> implements ActorQueueApi<T>
     return true;
   }
 
+  /**
+   * Offers a value, waiting up to the timeout for queue space.
+   *
+   * @return true if the value was queued
+   */
+  public final boolean offer(T value, long timeout, TimeUnit unit)
+  {
+    if (! _actorQueue.offer(value, timeout, unit)) {
+      return false;
+    }
+
+    wake();
+
+    return true;
+  }
+
   public String getWorkerState()
   {
     return _worker.getState();
@@ -35,7 +35,7 @@ public final class ActiveMeter extends AbstractMeter implements ActiveSensor {
   // sample data
   private final AtomicLong _activeCount = new AtomicLong();
   private final AtomicLong _activeCountMax = new AtomicLong();
-  private final AtomicLong _totalCount = new AtomicLong();
+  private final StripedCounter _totalCount = new StripedCounter();
 
   private long _lastTotal;
   private long _delta;
@@ -49,7 +49,7 @@ public final class ActiveMeter extends AbstractMeter implements ActiveSensor {
   public final void start()
   {
     long activeCount = _activeCount.incrementAndGet();
-    _totalCount.incrementAndGet();
+    _totalCount.increment();
 
     long max;
 
@@ -97,7 +97,7 @@ public final class ActiveMeter extends AbstractMeter implements ActiveSensor {
    */
   public final void sample()
   {
-    long totalCount = _totalCount.get();
+    long totalCount = _totalCount.sum();
 
     _delta = totalCount - _lastTotal;
     
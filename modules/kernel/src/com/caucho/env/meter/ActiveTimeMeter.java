@@ -43,8 +43,8 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
   // sample data
   private final AtomicLong _activeCount = new AtomicLong();
   private final AtomicLong _activeCountMax = new AtomicLong();
-  private final AtomicLong _totalCount = new AtomicLong();
-  private final AtomicLong _sum = new AtomicLong();
+  private final StripedCounter _totalCount = new StripedCounter();
+  private final StripedCounter _sum = new StripedCounter();
   private final AtomicLong _max = new AtomicLong();
   private double _sumSquare;
 
@@ -85,7 +85,7 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
   @Override
   public final long end(long startTime)
   {
-    _totalCount.incrementAndGet();
+    _totalCount.increment();
     _activeCount.decrementAndGet();
 
     long endTime = CurrentTime.getCurrentTime();
@@ -93,7 +93,7 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
     long value = endTime - startTime;
 
     double sqValue = value * value;
-    _sum.addAndGet(value);
+    _sum.add(value);
     _sumSquare += sqValue;
 
     long max;
@@ -135,11 +135,11 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
   public final void sample()
   {
     synchronized (_lock) {
-      long count = _totalCount.get();
+      long count = _totalCount.sum();
       long lastCount = _lastAvgTotalCount;
       _lastAvgTotalCount = count;
 
-      long sum = _sum.get();
+      long sum = _sum.sum();
       double lastSum = _lastAvgSum;
       _lastAvgSum = sum;
 
@@ -179,7 +179,7 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
    */
   public final double sampleTotalCount()
   {
-    long count = _totalCount.get();
+    long count = _totalCount.sum();
     long lastCount = _lastTotalCount;
     _lastTotalCount = count;
 
@@ -192,11 +192,11 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
   public final double sampleSigma(int n)
   {
     synchronized (_lock) {
-      long count = _totalCount.get();
+      long count = _totalCount.sum();
       long lastCount = _lastStdTotalCount;
       _lastStdTotalCount = count;
 
-      double sum = _sum.get();
+      double sum = _sum.sum();
       double lastSum = _lastStdSum;
       _lastStdSum = sum;
 
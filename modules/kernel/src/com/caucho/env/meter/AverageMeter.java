@@ -37,8 +37,8 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   private final Object _lock = new Object();
 
   // sample data
-  private final AtomicLong _count = new AtomicLong();
-  private final AtomicLong _sum = new AtomicLong();
+  private final StripedCounter _count = new StripedCounter();
+  private final StripedCounter _sum = new StripedCounter();
   private final AtomicLong _max = new AtomicLong();
   private double _sumSquare;
 
@@ -80,8 +80,8 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   {
     double sqValue = value * value;
 
-    _count.incrementAndGet();
-    _sum.addAndGet(value);
+    _count.increment();
+    _sum.add(value);
     _sumSquare += sqValue;
 
     long max;
@@ -97,11 +97,11 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   public final void sample()
   {
     synchronized (_lock) {
-      long count = _count.get();
+      long count = _count.sum();
       long lastCount = _lastAvgCount;
       _lastAvgCount = count;
 
-      long sum = _sum.get();
+      long sum = _sum.sum();
       double lastSum = _lastAvgSum;
       _lastAvgSum = sum;
 
@@ -121,7 +121,7 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   @Override
   public double getTotal()
   {
-    return _sum.get();
+    return _sum.sum();
   }
 
   /**
@@ -130,7 +130,7 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   public final double sampleCount()
   {
     synchronized (_lock) {
-      long count = _count.get();
+      long count = _count.sum();
       long lastCount = _lastCount;
       _lastCount = count;
 
@@ -144,11 +144,11 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   public final double sampleSigma(int n)
   {
     synchronized (_lock) {
-      long count = _count.get();
+      long count = _count.sum();
       long lastCount = _lastStdCount;
       _lastStdCount = count;
 
-      double sum = _sum.get();
+      double sum = _sum.sum();
       double lastSum = _lastStdSum;
       _lastStdSum = sum;
 
@@ -205,7 +205,7 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
     @Override
     public double getTotal()
     {
-      return _count.get();
+      return _count.sum();
     }
   }
 
@@ -28,13 +28,12 @@
 
 package com.caucho.env.meter;
 
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicInteger;
-
-
 public final class AverageTimeMeter extends AbstractMeter {
-  private final AtomicLong _sum = new AtomicLong();
-  private final AtomicInteger _count = new AtomicInteger();
+  private final StripedCounter _sum = new StripedCounter();
+  private final StripedCounter _count = new StripedCounter();
+
+  private long _lastSum;
+  private long _lastCount;
   
   private double _value;
 
@@ -45,13 +44,8 @@ public final class AverageTimeMeter extends AbstractMeter {
 
   public final void addData(long time)
   {
-    long oldValue;
-
-    do {
-      oldValue = _sum.get();
-    } while (! _sum.compareAndSet(oldValue, oldValue + time));
-
-    _count.incrementAndGet();
+    _sum.add(time);
+    _count.increment();
   }
   
   /**
@@ -59,8 +53,14 @@ public final class AverageTimeMeter extends AbstractMeter {
    */
   public final void sample()
   {
-    long sum = _sum.getAndSet(0);
-    int count = _count.getAndSet(0);
+    long totalSum = _sum.sum();
+    long totalCount = _count.sum();
+
+    long sum = totalSum - _lastSum;
+    long count = totalCount - _lastCount;
+
+    _lastSum = totalSum;
+    _lastCount = totalCount;
 
     if (count != 0)
       _value =sum / (double) count;
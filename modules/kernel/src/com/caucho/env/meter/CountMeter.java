@@ -28,14 +28,12 @@
 
 package com.caucho.env.meter;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 import com.caucho.util.ConcurrentArrayList;
 
 
 public final class CountMeter extends AbstractMeter implements CountSensor {
   // sample data
-  private final AtomicLong _totalCount = new AtomicLong();
+  private final StripedCounter _totalCount = new StripedCounter();
   
   private ConcurrentArrayList<CountSensor> _listeners;
   
@@ -51,7 +49,7 @@ public final class CountMeter extends AbstractMeter implements CountSensor {
   @Override
   public final void start()
   {
-    _totalCount.incrementAndGet();
+    _totalCount.increment();
     
     if (_listeners != null) {
       for (CountSensor sensor : _listeners.toArray()) {
@@ -66,7 +64,7 @@ public final class CountMeter extends AbstractMeter implements CountSensor {
   @Override
   public final void sample()
   {
-    long totalCount = _totalCount.get();
+    long totalCount = _totalCount.sum();
     long lastTotal = _lastTotal;
     _lastTotal = totalCount;
 
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * as published by the Free Software Foundation.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.env.meter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory log-linear histogram of the values in each sample period.
+ *
+ * Values below 16 have their own bucket. Larger values are split into
+ * 16 linear buckets per power of two, so a reported quantile is within
+ * 1/16 of the true value. The bucket counts are cumulative, and each
+ * sample takes the difference from the previous sample.
+ *
+ * The meter itself reports the median. The other quantiles and the
+ * maximum are reported by the probes created in MeterService.
+ */
+public final class HistogramMeter extends AbstractMeter
+  implements TimeSensor, QuantileMeter
+{
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int SUB_MASK = SUB_COUNT - 1;
+
+  private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+  private final String _histogramName;
+
+  private final AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+  private final long []_lastCounts = new long[BUCKET_COUNT];
+
+  private final AtomicLong _max = new AtomicLong();
+
+  private final Object _lock = new Object();
+
+  private final double []_quantiles;
+  private final double []_values;
+
+  private double _maxValue;
+
+  public HistogramMeter(String histogramName, String name, double []quantiles)
+  {
+    super(name);
+
+    _histogramName = histogramName;
+
+    _quantiles = quantiles.clone();
+    _values = new double[quantiles.length];
+  }
+
+  @Override
+  public String getHistogramName()
+  {
+    return _histogramName;
+  }
+
+  @Override
+  public double getQuantile()
+  {
+    return 0.5;
+  }
+
+  public AbstractMeter createQuantile(String name, double quantile)
+  {
+    for (int i = 0; i < _quantiles.length; i++) {
+      if (_quantiles[i] == quantile)
+        return new QuantileProbe(name, i);
+    }
+
+    throw new IllegalArgumentException(String.valueOf(quantile));
+  }
+
+  public AbstractMeter createMax(String name)
+  {
+    return new MaxProbe(name);
+  }
+
+  /**
+   * Adds a value, typically a time, to the histogram.
+   */
+  @Override
+  public final void add(long value)
+  {
+    if (value < 0)
+      value = 0;
+
+    _counts.getAndIncrement(getBucket(value));
+
+    long max;
+    while ((max = _max.get()) < value
+           && ! _max.compareAndSet(max, value)) {
+    }
+  }
+
+  /**
+   * Calculates the quantiles of the values since the last sample.
+   */
+  @Override
+  public final void sample()
+  {
+    synchronized (_lock) {
+      long []counts = new long[BUCKET_COUNT];
+      long count = 0;
+
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        long value = _counts.get(i);
+
+        counts[i] = value - _lastCounts[i];
+        _lastCounts[i] = value;
+
+        count += counts[i];
+      }
+
+      long max = _max.getAndSet(0);
+
+      _maxValue = max;
+
+      for (int i = 0; i < _quantiles.length; i++) {
+        _values[i] = getQuantile(counts, count, _quantiles[i], max);
+      }
+    }
+  }
+
+  @Override
+  public final double calculate()
+  {
+    return getQuantileValue(0);
+  }
+
+  final double getQuantileValue(int index)
+  {
+    synchronized (_lock) {
+      return _values[index];
+    }
+  }
+
+  final double getMaxValue()
+  {
+    synchronized (_lock) {
+      return _maxValue;
+    }
+  }
+
+  private static double getQuantile(long []counts, long count,
+                                    double quantile, long max)
+  {
+    if (count == 0)
+      return 0;
+
+    long rank = (long) Math.ceil(quantile * count);
+
+    if (rank < 1)
+      rank = 1;
+
+    long sum = 0;
+
+    for (int i = 0; i < counts.length; i++) {
+      sum += counts[i];
+
+      if (rank <= sum) {
+        // the bucket's upper bound, which can't exceed the true maximum
+        long upper = getLowerBound(i + 1) - 1;
+
+        return Math.min(upper, max);
+      }
+    }
+
+    return max;
+  }
+
+  static int getBucket(long value)
+  {
+    if (value < SUB_COUNT)
+      return (int) value;
+
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - SUB_BITS)) & SUB_MASK;
+
+    return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+  }
+
+  static long getLowerBound(int bucket)
+  {
+    if (bucket < SUB_COUNT)
+      return bucket;
+    else if (BUCKET_COUNT <= bucket)
+      return Long.MAX_VALUE;
+
+    int exp = (bucket >> SUB_BITS) + SUB_BITS - 1;
+    int sub = bucket & SUB_MASK;
+
+    return ((long) (SUB_COUNT + sub)) << (exp - SUB_BITS);
+  }
+
+  class QuantileProbe extends AbstractMeter implements QuantileMeter {
+    private final int _index;
+
+    private double _value;
+    
+    QuantileProbe(String name, int index)
+    {
+      super(name);
+
+      _index = index;
+    }
+
+    @Override
+    public String getHistogramName()
+    {
+      return _histogramName;
+    }
+
+    @Override
+    public double getQuantile()
+    {
+      return _quantiles[_index];
+    }
+
+    @Override
+    public void sample()
+    {
+      _value = getQuantileValue(_index);
+    }
+    
+    @Override
+    public double calculate()
+    {
+      return _value;
+    }
+  }
+
+  class MaxProbe extends AbstractMeter {
+    private double _value;
+    
+    MaxProbe(String name)
+    {
+      super(name);
+    }
+
+    @Override
+    public void sample()
+    {
+      _value = getMaxValue();
+    }
+    
+    @Override
+    public double calculate()
+    {
+      return _value;
+    }
+  }
+}
@@ -279,6 +279,40 @@ public class MeterService extends AbstractResinSubSystem {
     return (AverageMeter) meter;
   }
 
+  /**
+   * Creates a histogram meter reporting the median, 90%, 99%, 99.9%
+   * and maximum of each sample period, e.g. "Resin|Http|Request Latency 99%".
+   * The generated names must not already be in use, since createMeter
+   * keeps an existing meter and the colliding probe would be dropped.
+   */
+  public static HistogramMeter createHistogramMeter(String baseName)
+  {
+    return create().createHistogramMeterImpl(baseName);
+  }
+
+  private HistogramMeter createHistogramMeterImpl(String baseName)
+  {
+    String name = baseName + " 50%";
+
+    AbstractMeter meter = _meterMap.get(name);
+
+    if (meter == null) {
+      double []quantiles = new double[] { 0.5, 0.9, 0.99, 0.999 };
+
+      meter = createMeter(new HistogramMeter(baseName, name, quantiles));
+
+      HistogramMeter histogramMeter = (HistogramMeter) meter;
+
+      createMeter(histogramMeter.createQuantile(baseName + " 90%", 0.9));
+      createMeter(histogramMeter.createQuantile(baseName + " 99%", 0.99));
+      createMeter(histogramMeter.createQuantile(baseName + " 99.9%", 0.999));
+
+      createMeter(histogramMeter.createMax(baseName + " Max"));
+    }
+
+    return (HistogramMeter) meter;
+  }
+
   public static ActiveTimeMeter createActiveTimeMeter(String name)
   {
     return create().createActiveTimeMeterImpl(name, "Time", null);
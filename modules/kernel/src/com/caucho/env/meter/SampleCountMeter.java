@@ -32,7 +32,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 
 public final class SampleCountMeter extends AbstractMeter {
-  private final AtomicLong _count = new AtomicLong();
+  private final StripedCounter _count = new StripedCounter();
   private final AtomicLong _lastCount = new AtomicLong();
   
   private long _value;
@@ -44,7 +44,7 @@ public final class SampleCountMeter extends AbstractMeter {
 
   public final void addData()
   {
-    _count.incrementAndGet();
+    _count.increment();
   }
   
   /**
@@ -53,7 +53,7 @@ public final class SampleCountMeter extends AbstractMeter {
   @Override
   public final void sample()
   {
-    long count = _count.get();
+    long count = _count.sum();
     long lastCount = _lastCount.getAndSet(count);
     
     _value = count - lastCount;
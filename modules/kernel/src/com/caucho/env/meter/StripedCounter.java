@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * as published by the Free Software Foundation.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.env.meter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over cache-line padded cells, so concurrent threads
+ * rarely update the same cell. Reading the sum adds all the cells, which
+ * is only done when a meter is sampled.
+ */
+public final class StripedCounter {
+  // longs per 64-byte cache line
+  private static final int PAD = 8;
+  private static final int STRIPES;
+  
+  private final AtomicLongArray _cells
+    = new AtomicLongArray((STRIPES + 1) * PAD);
+
+  public StripedCounter()
+  {
+  }
+
+  public final void increment()
+  {
+    _cells.getAndIncrement(getIndex());
+  }
+
+  public final void add(long value)
+  {
+    _cells.getAndAdd(getIndex(), value);
+  }
+
+  /**
+   * Returns the current sum of the cells.
+   */
+  public final long sum()
+  {
+    long sum = 0;
+
+    for (int i = STRIPES; i > 0; i--) {
+      sum += _cells.get(i * PAD);
+    }
+
+    return sum;
+  }
+
+  private static int getIndex()
+  {
+    long id = Thread.currentThread().getId();
+
+    int hash = (int) ((id * 0x9e3779b97f4a7c15L) >>> 32);
+
+    // cell 0 is skipped to pad the front of the array
+    return ((hash & (STRIPES - 1)) + 1) * PAD;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + sum() + "]";
+  }
+
+  static {
+    int cpus = Runtime.getRuntime().availableProcessors();
+
+    int stripes = 1;
+
+    while (stripes < 2 * cpus && stripes < 16) {
+      stripes *= 2;
+    }
+
+    STRIPES = stripes;
+  }
+}
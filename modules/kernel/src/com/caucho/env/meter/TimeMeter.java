@@ -28,12 +28,12 @@
 
 package com.caucho.env.meter;
 
-import java.util.concurrent.atomic.AtomicLong;
-
-
 public final class TimeMeter extends AbstractMeter implements TimeSensor {
-  private final AtomicLong _count = new AtomicLong();
-  private final AtomicLong _time = new AtomicLong();
+  private final StripedCounter _count = new StripedCounter();
+  private final StripedCounter _time = new StripedCounter();
+
+  private long _lastCount;
+  private long _lastTime;
   
   private double _value;
 
@@ -45,8 +45,8 @@ public final class TimeMeter extends AbstractMeter implements TimeSensor {
   @Override
   public final void add(long time)
   {
-    _count.incrementAndGet();
-    _time.addAndGet(time);
+    _count.increment();
+    _time.add(time);
   }
   
   /**
@@ -55,8 +55,14 @@ public final class TimeMeter extends AbstractMeter implements TimeSensor {
   @Override
   public final void sample()
   {
-    long count = _count.getAndSet(0);
-    long time = _time.getAndSet(0);
+    long totalCount = _count.sum();
+    long totalTime = _time.sum();
+
+    long count = totalCount - _lastCount;
+    long time = totalTime - _lastTime;
+
+    _lastCount = totalCount;
+    _lastTime = totalTime;
 
     if (count == 0)
       _value = 0;
@@ -36,8 +36,8 @@ public final class TimeRangeMeter extends AbstractMeter implements TimeSensor {
   private final double _scale;
 
   private final AtomicLong _activeCount = new AtomicLong();
-  private final AtomicLong _count = new AtomicLong();
-  private final AtomicLong _time = new AtomicLong();
+  private final StripedCounter _count = new StripedCounter();
+  private final StripedCounter _time = new StripedCounter();
   private final AtomicLong _timeMax = new AtomicLong();
   
   private final AtomicLong _lastAvgCount = new AtomicLong();
@@ -83,8 +83,8 @@ public final class TimeRangeMeter extends AbstractMeter implements TimeSensor {
     
     long time = CurrentTime.getCurrentTime() - startTime;
     
-    _count.incrementAndGet();
-    _time.addAndGet(time);
+    _count.increment();
+    _time.add(time);
 
     long max = _timeMax.get();
     while (max < time) {
@@ -98,9 +98,9 @@ public final class TimeRangeMeter extends AbstractMeter implements TimeSensor {
    */
   public final void sample()
   {
-    long count = _count.get();
+    long count = _count.sum();
     long lastCount = _lastAvgCount.getAndSet(count);
-    long time = _time.get();
+    long time = _time.sum();
     long lastTime = _lastAvgTime.getAndSet(time);
 
     if (count == lastCount)
@@ -119,7 +119,7 @@ public final class TimeRangeMeter extends AbstractMeter implements TimeSensor {
    */
   public final double sampleCount()
   {
-    long count = _count.get();
+    long count = _count.sum();
     long lastCount = _lastCount.getAndSet(count);
 
     return count - lastCount;
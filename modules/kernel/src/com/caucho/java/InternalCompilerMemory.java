@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import com.caucho.config.ConfigException;
+import com.caucho.server.util.CauchoSystem;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.Crc64;
+import com.caucho.vfs.Encoding;
+import com.caucho.vfs.MemoryStream;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Compiles Java source in-process through javax.tools, keeping the
+ * generated class bytes in memory until the compile succeeds.
+ *
+ * The StandardJavaFileManager for a classpath is kept between compiles,
+ * so the classpath jars are opened and indexed once instead of for every
+ * JSP. A manager is used by a single compile at a time, which lets
+ * independent batches compile in parallel.
+ */
+public class InternalCompilerMemory extends AbstractJavaCompiler {
+  private static final Logger log
+    = Logger.getLogger(InternalCompilerMemory.class.getName());
+
+  private static final int FILE_MANAGER_MAX = 16;
+
+  private static final
+    ConcurrentHashMap<String,ConcurrentLinkedQueue<StandardJavaFileManager>>
+    _fileManagerMap
+    = new ConcurrentHashMap<String,ConcurrentLinkedQueue<StandardJavaFileManager>>();
+
+  private static JavaCompiler _javac;
+
+  public InternalCompilerMemory(JavaCompilerUtil compiler)
+  {
+    super(compiler);
+  }
+
+  /**
+   * Compiles the named files.
+   */
+  @Override
+  protected void compileInt(String []path, LineMap lineMap)
+    throws IOException, JavaCompileException
+  {
+    JavaCompiler javac = getJavaCompiler();
+
+    String classPath = _compiler.getClassPath();
+    Charset charset = getCharset();
+
+    String key = getFileManagerKey(classPath, charset);
+
+    StandardJavaFileManager fileManager = allocateFileManager(javac, key,
+                                                              classPath,
+                                                              charset);
+
+    MemoryStream tempStream = new MemoryStream();
+    WriteStream error = new WriteStream(tempStream);
+    boolean isValid = false;
+
+    try {
+      ArrayList<File> sourceList = new ArrayList<File>();
+
+      for (int i = 0; i < path.length; i++) {
+        Path javaPath = _compiler.getSourceDir().lookup(path[i]);
+        sourceList.add(new File(javaPath.getNativePath()));
+      }
+
+      Iterable<? extends JavaFileObject> sources
+        = fileManager.getJavaFileObjectsFromFiles(sourceList);
+
+      ArrayList<String> options = new ArrayList<String>();
+
+      ArrayList<String> args = _compiler.getArgs();
+      if (args != null)
+        options.addAll(args);
+
+      if (log.isLoggable(Level.FINER)) {
+        CharBuffer msg = new CharBuffer();
+        msg.append("javac(memory)");
+        for (String option : options) {
+          msg.append(" ");
+          msg.append(option);
+        }
+        for (File source : sourceList) {
+          msg.append(" ");
+          msg.append(source.getPath());
+        }
+
+        log.finer(msg.toString());
+      }
+
+      MemoryFileManager memoryManager = new MemoryFileManager(fileManager);
+
+      Writer errorWriter = new OutputStreamWriter(error);
+
+      boolean isSuccess = javac.getTask(errorWriter, memoryManager, null,
+                                        options, null, sources).call();
+
+      errorWriter.flush();
+      error.close();
+      tempStream.close();
+
+      ReadStream read = tempStream.openReadAndSaveBuffer();
+      JavacErrorParser parser
+        = new JavacErrorParser(this, path[0], _compiler.getEncoding());
+
+      String errors = parser.parseErrors((InputStream) read, lineMap);
+      read.close();
+
+      if (errors != null)
+        errors = errors.trim();
+
+      if (! isSuccess)
+        throw new JavaCompileException(errors);
+
+      if (errors != null && ! errors.equals("")) {
+        final String msg = errors;
+
+        new com.caucho.loader.ClassLoaderContext(_compiler.getClassLoader()) {
+          public void run()
+          {
+            log.warning(msg);
+          }
+        };
+      }
+
+      memoryManager.writeClasses(_compiler.getClassDir());
+
+      isValid = true;
+    } finally {
+      tempStream.destroy();
+
+      freeFileManager(key, fileManager, isValid);
+    }
+  }
+
+  private Charset getCharset()
+  {
+    String encoding = _compiler.getEncoding();
+
+    if (encoding == null)
+      return null;
+
+    String javaEncoding = Encoding.getJavaName(encoding);
+
+    if (javaEncoding == null || javaEncoding.equals("ISO8859_1"))
+      return null;
+
+    try {
+      return Charset.forName(encoding);
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return Charset.forName(javaEncoding);
+    }
+  }
+
+  private static JavaCompiler getJavaCompiler()
+  {
+    synchronized (InternalCompilerMemory.class) {
+      if (_javac != null)
+        return _javac;
+
+      JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+
+      if (javac == null) {
+        Iterator<JavaCompiler> iter
+          = ServiceLoader.load(JavaCompiler.class).iterator();
+
+        if (iter.hasNext())
+          javac = iter.next();
+      }
+
+      if (javac == null)
+        throw new ConfigException(L.l("javac compiler is not available in {0}. Check that you are using the JDK, not the JRE.",
+                                      System.getProperty("java.runtime.name")
+                                      + " " + System.getProperty("java.runtime.version")));
+
+      _javac = javac;
+
+      return javac;
+    }
+  }
+
+  /**
+   * Returns the cache key for a classpath. The key includes the
+   * timestamps of the classpath archives because the file manager
+   * caches their contents.
+   */
+  private static String getFileManagerKey(String classPath, Charset charset)
+  {
+    long crc = Crc64.generate(classPath);
+
+    if (charset != null)
+      crc = Crc64.generate(crc, charset.name());
+
+    char sep = CauchoSystem.getPathSeparatorChar();
+
+    for (String name : classPath.split("[" + sep + "]")) {
+      if (name.endsWith(".jar") || name.endsWith(".zip")) {
+        File file = new File(name);
+
+        crc = Crc64.generate(crc, file.lastModified());
+        crc = Crc64.generate(crc, file.length());
+      }
+    }
+
+    return Long.toHexString(crc);
+  }
+
+  private static StandardJavaFileManager
+    allocateFileManager(JavaCompiler javac,
+                        String key,
+                        String classPath,
+                        Charset charset)
+    throws IOException
+  {
+    ConcurrentLinkedQueue<StandardJavaFileManager> queue
+      = _fileManagerMap.get(key);
+
+    if (queue != null) {
+      StandardJavaFileManager fileManager = queue.poll();
+
+      if (fileManager != null)
+        return fileManager;
+    }
+
+    StandardJavaFileManager fileManager
+      = javac.getStandardFileManager(null, null, charset);
+
+    ArrayList<File> classPathList = new ArrayList<File>();
+    char sep = CauchoSystem.getPathSeparatorChar();
+
+    for (String name : classPath.split("[" + sep + "]")) {
+      if (! name.equals(""))
+        classPathList.add(new File(name));
+    }
+
+    fileManager.setLocation(StandardLocation.CLASS_PATH, classPathList);
+
+    return fileManager;
+  }
+
+  private static void freeFileManager(String key,
+                                      StandardJavaFileManager fileManager,
+                                      boolean isValid)
+  {
+    if (isValid) {
+      ConcurrentLinkedQueue<StandardJavaFileManager> queue
+        = _fileManagerMap.get(key);
+
+      if (queue == null) {
+        if (FILE_MANAGER_MAX <= _fileManagerMap.size()) {
+          closeFileManagers();
+        }
+
+        queue = new ConcurrentLinkedQueue<StandardJavaFileManager>();
+
+        ConcurrentLinkedQueue<StandardJavaFileManager> oldQueue
+          = _fileManagerMap.putIfAbsent(key, queue);
+
+        if (oldQueue != null)
+          queue = oldQueue;
+      }
+
+      queue.offer(fileManager);
+    }
+    else {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+  }
+
+  /**
+   * Closes the cached file managers, e.g. when the classpaths have
+   * changed after a redeploy.
+   */
+  private static void closeFileManagers()
+  {
+    for (String key : _fileManagerMap.keySet()) {
+      ConcurrentLinkedQueue<StandardJavaFileManager> queue
+        = _fileManagerMap.remove(key);
+
+      StandardJavaFileManager fileManager;
+
+      while (queue != null && (fileManager = queue.poll()) != null) {
+        try {
+          fileManager.close();
+        } catch (IOException e) {
+          log.log(Level.FINEST, e.toString(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * File manager keeping the compiled classes in memory.
+   */
+  static class MemoryFileManager
+    extends ForwardingJavaFileManager<JavaFileManager>
+  {
+    private final Map<String,ClassOutput> _classMap
+      = new ConcurrentHashMap<String,ClassOutput>();
+
+    MemoryFileManager(JavaFileManager fileManager)
+    {
+      super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location,
+                                               String className,
+                                               JavaFileObject.Kind kind,
+                                               FileObject sibling)
+      throws IOException
+    {
+      if (kind != JavaFileObject.Kind.CLASS)
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+
+      ClassOutput output = new ClassOutput(className);
+
+      _classMap.put(className, output);
+
+      return output;
+    }
+
+    /**
+     * Writes the compiled classes to the class directory.
+     */
+    void writeClasses(Path classDir)
+      throws IOException
+    {
+      for (ClassOutput output : _classMap.values()) {
+        String className = output.getClassName();
+
+        Path classPath = classDir.lookup(className.replace('.', '/')
+                                         + ".class");
+
+        classPath.getParent().mkdirs();
+
+        byte []bytes = output.toByteArray();
+
+        WriteStream os = classPath.openWrite();
+        try {
+          os.write(bytes, 0, bytes.length);
+        } finally {
+          os.close();
+        }
+      }
+    }
+
+    /**
+     * Closing the compile must not close the shared file manager.
+     */
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * A compiled class held in memory.
+   */
+  static class ClassOutput extends SimpleJavaFileObject {
+    private final String _className;
+    private final ByteArrayOutputStream _os = new ByteArrayOutputStream();
+
+    ClassOutput(String className)
+    {
+      super(URI.create("memory:///" + className.replace('.', '/')
+                       + Kind.CLASS.extension),
+            Kind.CLASS);
+
+      _className = className;
+    }
+
+    String getClassName()
+    {
+      return _className;
+    }
+
+    byte []toByteArray()
+    {
+      return _os.toByteArray();
+    }
+
+    @Override
+    public OutputStream openOutputStream()
+    {
+      _os.reset();
+
+      return _os;
+    }
+  }
+}
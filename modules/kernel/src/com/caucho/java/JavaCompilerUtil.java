@@ -665,26 +665,48 @@ public class JavaCompilerUtil {
     files = new String[uniqueFiles.size()];
     uniqueFiles.toArray(files);
 
-    synchronized (LOCK) {
-      for (int i = 0; i < files.length; i += batchCount) {
-        int len = files.length - i;
+    ArrayList<String[]> batchList = new ArrayList<String[]>();
+
+    for (int i = 0; i < files.length; i += batchCount) {
+      int len = files.length - i;
+
+      if (batchCount < len)
+        len = batchCount;
+
+      String []batchFiles = new String[len];
+
+      System.arraycopy(files, i, batchFiles, 0, len);
+
+      Arrays.sort(batchFiles);
 
-        if (batchCount < len)
-          len = batchCount;
+      batchList.add(batchFiles);
+    }
+
+    // the in-memory compiler is reentrant, so independent batches
+    // can compile in parallel
+    int parallel = 1;
+    if ("memory".equals(_compiler))
+      parallel = Math.max(1, Runtime.getRuntime().availableProcessors());
 
-        String []batchFiles = new String[len];
+    synchronized (LOCK) {
+      for (int i = 0; i < batchList.size(); i += parallel) {
+        int len = Math.min(parallel, batchList.size() - i);
 
-        System.arraycopy(files, i, batchFiles, 0, len);
+        AbstractJavaCompiler []compilers = new AbstractJavaCompiler[len];
 
-        Arrays.sort(batchFiles);
+        for (int j = 0; j < len; j++) {
+          compilers[j] = startCompile(batchList.get(i + j), null);
+        }
 
-        try {
-          compileInt(batchFiles, null);
-        } catch (IOException e) {
-          if (exn == null)
-            exn = e;
-          else
-            log.log(Level.WARNING, e.toString(), e);
+        for (int j = 0; j < len; j++) {
+          try {
+            completeCompile(compilers[j], batchList.get(i + j));
+          } catch (IOException e) {
+            if (exn == null)
+              exn = e;
+            else
+              log.log(Level.WARNING, e.toString(), e);
+          }
         }
       }
     }
@@ -695,6 +717,16 @@ public class JavaCompilerUtil {
 
   protected void compileInt(String []path, LineMap lineMap)
     throws IOException, JavaCompileException
+  {
+    AbstractJavaCompiler compiler = startCompile(path, lineMap);
+
+    completeCompile(compiler, path);
+  }
+
+  /**
+   * Starts the compiler thread for the files.
+   */
+  private AbstractJavaCompiler startCompile(String []path, LineMap lineMap)
   {
     AbstractJavaCompiler compiler;
 
@@ -707,6 +739,8 @@ public class JavaCompilerUtil {
       compiler = new InternalCompiler2(this);
     else if (_compiler.equals("tools"))
       compiler = new InternalCompilerTools(this);
+    else if (_compiler.equals("memory"))
+      compiler = new InternalCompilerMemory(this);
     else if (_compiler.equals("eclipse"))
       compiler = new EclipseCompiler(this);
     else if (_compiler.equals("groovyc"))
@@ -719,7 +753,16 @@ public class JavaCompilerUtil {
 
     // the compiler may not be well-behaved enough to use the ThreadPool
     ThreadPool.getCurrent().start(compiler, _startTimeout);
-    
+
+    return compiler;
+  }
+
+  /**
+   * Waits for the compiler to complete and merges the .smap files.
+   */
+  private void completeCompile(AbstractJavaCompiler compiler, String []path)
+    throws IOException, JavaCompileException
+  {
     compiler.waitForComplete(getMaxCompileTime());
 
     if (! compiler.isDone()) {
@@ -75,6 +75,7 @@ public class ClassEntry implements Dependency {
   private Path _sourcePath;
   private long _sourceLastModified;
   private long _sourceLength;
+  private Depend _sourceDepend;
 
   private ClassPackage _classPackage;
 
@@ -106,6 +107,7 @@ public class ClassEntry implements Dependency {
       
       _sourceLastModified = sourcePath.getLastModified();
       _sourceLength = sourcePath.getLength();
+      updateSourceDepend();
     }
 
     _codeSource = codeSource;
@@ -188,11 +190,21 @@ public class ClassEntry implements Dependency {
   public void setSourceLength(long length)
   {
     _sourceLength = length;
+    updateSourceDepend();
   }
   
   public void setSourceLastModified(long lastModified)
   {
     _sourceLastModified = lastModified;
+    updateSourceDepend();
+  }
+
+  private void updateSourceDepend()
+  {
+    if (_sourcePath != null) {
+      _sourceDepend = new Depend(_sourcePath,
+                                 _sourceLastModified, _sourceLength);
+    }
   }
   
   public ClassPackage getClassPackage()
@@ -219,7 +231,10 @@ public class ClassEntry implements Dependency {
     }
     else if (_sourcePath == null) {
       return false;
-    }  
+    }
+    else if (_sourceDepend != null && ! _sourceDepend.isModified()) {
+      return false;
+    }
     else if (_sourcePath.getLastModified() != _sourceLastModified) {
       if (log.isLoggable(Level.FINE))
         log.fine("source modified time: " + _sourcePath +
@@ -336,6 +351,7 @@ public class ClassEntry implements Dependency {
       if (_sourcePath != null) {
         _sourceLastModified = _sourcePath.getLastModified();
         _sourceLength = _sourcePath.getLength();
+        updateSourceDepend();
       }
 
       log.info("Reloading " + cl.getName());
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.loader;
+
+import com.caucho.vfs.FileWatchService;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Enables filesystem events for file dependency checks, replacing the
+ * per-interval stat of each file where the filesystem supports it.
+ *
+ * Like dependency-check-interval, the setting applies to the
+ * environment where it's configured and to its child environments,
+ * e.g. to every web-app when it is set for the whole server.
+ */
+public class DependencyWatch {
+  private boolean _isEnabled = true;
+
+  /**
+   * Sets the enable.
+   */
+  public void setValue(boolean isEnabled)
+  {
+    _isEnabled = isEnabled;
+  }
+
+  /**
+   * Initialize
+   */
+  @PostConstruct
+  public void init()
+  {
+    FileWatchService.setEnabled(_isEnabled);
+  }
+
+  public String toString()
+  {
+    return "DependencyWatch[" + _isEnabled + "]";
+  }
+}
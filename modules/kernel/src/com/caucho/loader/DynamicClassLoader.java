@@ -111,7 +111,17 @@ public class DynamicClassLoader extends java.net.URLClassLoader
   private Map<String,ClassEntry> _entryCache
     = new ConcurrentHashMap<String,ClassEntry>(8);
 
-  private TimedCache<String,URL> _resourceCache;
+  private volatile TimedCache<String,URL> _resourceCache;
+
+  private static final Loader []NULL_LOADER_ARRAY = new Loader[0];
+  private static final int PACKAGE_INDEX_MAX = 8192;
+
+  // package directory to the loaders which may contain it
+  private volatile ConcurrentHashMap<String,Loader[]> _packageLoaderMap
+    = new ConcurrentHashMap<String,Loader[]>();
+
+  // classes which none of the loaders contain
+  private volatile TimedCache<String,Boolean> _classMissCache;
   
   private boolean _isDisableURLs;
 
@@ -388,6 +398,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
         }
       }
     }
+
+    clearPackageIndex();
   }
 
   /**
@@ -400,6 +412,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
 
     _loaders.add(offset, loader);
 
+    clearPackageIndex();
+
     if (loader.getClassLoader() == null)
       loader.setLoader(this);
     else {
@@ -443,6 +457,77 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     return _loaders;
   }
 
+  /**
+   * Returns the loaders which may contain the path in order, skipping
+   * the indexed loaders which don't contain its package.
+   *
+   * @param pathName the resource path, e.g. "com/caucho/util/L10N.class"
+   */
+  private Loader []getPackageLoaders(String pathName)
+  {
+    ArrayList<Loader> loaders = _loaders;
+
+    if (loaders == null)
+      return NULL_LOADER_ARRAY;
+
+    int p = pathName.lastIndexOf('/');
+
+    String packagePath = p > 0 ? pathName.substring(0, p) : "";
+
+    ConcurrentHashMap<String,Loader[]> packageLoaderMap = _packageLoaderMap;
+
+    Loader []packageLoaders = packageLoaderMap.get(packagePath);
+
+    if (packageLoaders != null)
+      return packageLoaders;
+
+    ArrayList<Loader> packageLoaderList = new ArrayList<Loader>();
+    boolean isIndexed = false;
+
+    for (int i = 0; i < loaders.size(); i++) {
+      Loader loader = loaders.get(i);
+
+      if (! loader.isPackageIndexed())
+        packageLoaderList.add(loader);
+      else if (loader.containsPackage(packagePath)) {
+        packageLoaderList.add(loader);
+        isIndexed = true;
+      }
+    }
+
+    packageLoaders = new Loader[packageLoaderList.size()];
+    packageLoaderList.toArray(packageLoaders);
+
+    // misses for unknown packages aren't saved to keep the index bounded
+    if (isIndexed || packageLoaderMap.size() < PACKAGE_INDEX_MAX)
+      packageLoaderMap.put(packagePath, packageLoaders);
+
+    return packageLoaders;
+  }
+
+  /**
+   * Clears the package index when the loaders or their jars change.
+   */
+  void clearPackageIndex()
+  {
+    _packageLoaderMap = new ConcurrentHashMap<String,Loader[]>();
+    _classMissCache = null;
+    _resourceCache = null;
+  }
+
+  /**
+   * Returns true if a class missing from the loaders can be cached.
+   */
+  private static boolean isMissCacheable(Loader []loaders)
+  {
+    for (Loader loader : loaders) {
+      if (! loader.isMissCacheable())
+        return false;
+    }
+
+    return true;
+  }
+
   /**
    * Adds jars based on a manifest classpath.
    */
@@ -575,6 +660,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     }
 
     _pathLoader.put(className, path);
+
+    clearPackageIndex();
   }
 
   /**
@@ -1732,17 +1819,34 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     entry = _entryCache == null ? null : _entryCache.get(name);
 
     if (entry == null) {
-      int len = _loaders.size();
+      TimedCache<String,Boolean> classMissCache = _classMissCache;
 
-      for (int i = 0; i < len; i++) {
-        
-        Class<?> cl = _loaders.get(i).loadClass(name);
+      if (classMissCache != null && classMissCache.get(name) != null)
+        return null;
+
+      String pathName = name.replace('.', '/') + ".class";
+
+      Loader []loaders = getPackageLoaders(pathName);
+
+      for (int i = 0; i < loaders.length; i++) {
+        Class<?> cl = loaders[i].loadClass(name);
 
         if (cl != null)
           return cl;
       }
 
       entry = getClassEntry(name);
+
+      if (entry == null && isMissCacheable(loaders)) {
+        if (classMissCache == null) {
+          classMissCache
+            = new TimedCache<String,Boolean>(1024,
+                                             getDependencyCheckInterval());
+          _classMissCache = classMissCache;
+        }
+
+        classMissCache.put(name, Boolean.TRUE);
+      }
     }
 
     if (entry == null)
@@ -1785,9 +1889,9 @@ public class DynamicClassLoader extends java.net.URLClassLoader
   {
     String pathName = name.replace('.', '/') + ".class";
 
-    ArrayList<Loader> loaders = getLoaders();
-    for (int i = 0; i < loaders.size(); i++) {
-      Loader loader = loaders.get(i);
+    Loader []loaders = getPackageLoaders(pathName);
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
 
       ClassEntry entry = loader.getClassEntry(name, pathName);
 
@@ -1976,13 +2080,16 @@ public class DynamicClassLoader extends java.net.URLClassLoader
   @Override
   public URL getResource(String name)
   {
-    if (_resourceCache == null) {
+    TimedCache<String,URL> resourceCache = _resourceCache;
+
+    if (resourceCache == null) {
       long expireInterval = getDependencyCheckInterval();
 
-      _resourceCache = new TimedCache<String,URL>(256, expireInterval);
+      resourceCache = new TimedCache<String,URL>(256, expireInterval);
+      _resourceCache = resourceCache;
     }
 
-    URL url = _resourceCache.get(name);
+    URL url = resourceCache.get(name);
     
     if (url == NULL_URL)
       return null;
@@ -2022,15 +2129,15 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     if (url != null)
       return url;
 
-    ArrayList<Loader> loaders = getLoaders();
+    Loader []loaders = getPackageLoaders(name);
 
-    for (int i = 0; loaders != null && i < loaders.size(); i++) {
-      Loader loader = loaders.get(i);
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
 
       url = loader.getResource(name);
       
       if (url != null) {
-        _resourceCache.put(name, url);
+        resourceCache.put(name, url);
 
         return url;
       }
@@ -2043,7 +2150,7 @@ public class DynamicClassLoader extends java.net.URLClassLoader
         return url;
     }
 
-    _resourceCache.put(name, NULL_URL);
+    resourceCache.put(name, NULL_URL);
 
     return null;
   }
@@ -2061,6 +2168,14 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     return null;
   }
 
+  private void cacheResource(String name, URL url)
+  {
+    TimedCache<String,URL> resourceCache = _resourceCache;
+
+    if (resourceCache != null)
+      resourceCache.put(name, url);
+  }
+
   private URL getParentResource(String name)
   {
     ClassLoader parent = getParent();
@@ -2077,7 +2192,7 @@ public class DynamicClassLoader extends java.net.URLClassLoader
       }
 
       if (url != null) {
-        _resourceCache.put(name, url);
+        cacheResource(name, url);
 
         return url;
       }
@@ -2086,7 +2201,7 @@ public class DynamicClassLoader extends java.net.URLClassLoader
       url = getSystemResource(name);
 
       if (url != null) {
-        _resourceCache.put(name, url);
+        cacheResource(name, url);
 
         return url;
       }
@@ -2124,10 +2239,10 @@ public class DynamicClassLoader extends java.net.URLClassLoader
         return is;
     }
 
-    ArrayList<Loader> loaders = getLoaders();
+    Loader []loaders = getPackageLoaders(name);
 
-    for (int i = 0; loaders != null && i < loaders.size(); i++) {
-      Loader loader = loaders.get(i);
+    for (int i = 0; i < loaders.length; i++) {
+      Loader loader = loaders[i];
 
       try {
         is = loader.getResourceAsStream(name);
@@ -2486,6 +2601,8 @@ public class DynamicClassLoader extends java.net.URLClassLoader
     _loaders.addAll(source._loaders);
     _jarLoader = source._jarLoader;
 
+    clearPackageIndex();
+
     _dependencies = source._dependencies;
 
     _makeList = source._makeList;
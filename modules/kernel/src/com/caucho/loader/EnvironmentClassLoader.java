@@ -901,11 +901,17 @@ public class EnvironmentClassLoader extends DynamicClassLoader
 
         ScanManager scanManager = new ScanManager(_scanListeners);
 
+        URL []urls = new URL[rootListSize];
+        String []packageNames = new String[rootListSize];
+
         for (int i = 0; i < rootListSize; i++) {
           ScanRoot root = rootList.get(i);
 
-          scanManager.scan(this, root.getUrl(), root.getPackageName());
+          urls[i] = root.getUrl();
+          packageNames[i] = root.getPackageName();
         }
+
+        scanManager.scan(this, urls, packageNames);
       }
 
       // configureEnhancerEvent();
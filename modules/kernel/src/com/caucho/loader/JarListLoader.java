@@ -181,6 +181,39 @@ abstract public class JarListLoader extends Loader implements Dependency {
     if (_pathMap != null) {
       _pathMap.scan(jar, jarEntry);
     }
+
+    if (getClassLoader() != null)
+      getClassLoader().clearPackageIndex();
+  }
+
+  /**
+   * The jar map indexes the packages as the jars are opened.
+   */
+  @Override
+  protected boolean isPackageIndexed()
+  {
+    return _pathMap != null;
+  }
+
+  /**
+   * Returns true if one of the jars contains the package.
+   */
+  @Override
+  protected boolean containsPackage(String packagePath)
+  {
+    JarMap pathMap = _pathMap;
+
+    return pathMap == null || pathMap.containsPackage(packagePath);
+  }
+
+  /**
+   * Jar contents only change with a dependency change, which clears
+   * the cache.
+   */
+  @Override
+  protected boolean isMissCacheable()
+  {
+    return true;
   }
 
   /**
@@ -368,6 +401,9 @@ abstract public class JarListLoader extends Loader implements Dependency {
 
       if (_pathMap != null)
         _pathMap.clear();
+
+      if (getClassLoader() != null)
+        getClassLoader().clearPackageIndex();
     
       for (int i = 0; i < jars.size(); i++) {
         JarEntry jarEntry = jars.get(i);
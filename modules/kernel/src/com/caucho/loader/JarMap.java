@@ -30,8 +30,11 @@
 package com.caucho.loader;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,6 +60,11 @@ public class JarMap {
   private int _mask;
   private int _size;
 
+  // package directories of the entries, e.g. "com/caucho/util"
+  private final Set<String> _packageSet
+    = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+  private String _lastPackage = "";
+
   /**
    * Creates a new jar map
    */
@@ -101,6 +109,14 @@ public class JarMap {
     return null;
   }
 
+  /**
+   * Returns true if any jar contains an entry in the package directory.
+   */
+  public boolean containsPackage(String packagePath)
+  {
+    return _packageSet.contains(packagePath);
+  }
+
   public Iterator<String> keys()
   {
     return new JarKeyIterator();
@@ -195,6 +211,8 @@ public class JarMap {
       resize();
     }
 
+    addPackage(name, length);
+
     JarList key = new JarList();
 
     key.init(name, length);
@@ -222,10 +240,45 @@ public class JarMap {
     return key;
   }
 
+  /**
+   * Adds the entry's directory to the package set. Entries are grouped
+   * by directory in a jar, so the last package avoids most allocation.
+   */
+  private void addPackage(char []name, int length)
+  {
+    int p = length - 1;
+
+    for (; p >= 0 && name[p] != '/'; p--) {
+    }
+
+    if (p < 0)
+      p = 0;
+
+    String lastPackage = _lastPackage;
+
+    if (lastPackage.length() == p) {
+      int i = p - 1;
+
+      for (; i >= 0 && lastPackage.charAt(i) == name[i]; i--) {
+      }
+
+      if (i < 0 && _packageSet.contains(lastPackage))
+        return;
+    }
+
+    String packagePath = new String(name, 0, p);
+
+    _packageSet.add(packagePath);
+    _lastPackage = packagePath;
+  }
+
   public void clear()
   {
     _size = 0;
 
+    _packageSet.clear();
+    _lastPackage = "";
+
     for (int i = 0; i < _entries.length; i++) {
       _entries[i] = null;
     }
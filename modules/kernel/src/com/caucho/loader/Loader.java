@@ -109,6 +109,34 @@ abstract public class Loader {
       _loader.addLoader(this);
   }
 
+  /**
+   * Returns true if the loader knows all its packages, so the class
+   * loader can skip it for packages it doesn't contain.
+   */
+  protected boolean isPackageIndexed()
+  {
+    return false;
+  }
+
+  /**
+   * Returns true if the loader may contain the package.
+   *
+   * @param packagePath the package directory, e.g. "com/caucho/util"
+   */
+  protected boolean containsPackage(String packagePath)
+  {
+    return true;
+  }
+
+  /**
+   * Returns true if a failed lookup can be cached until the next
+   * dependency check, i.e. the loader doesn't generate classes on demand.
+   */
+  protected boolean isMissCacheable()
+  {
+    return false;
+  }
+
   /**
    * Loads the class directly, e.g. from OSGi
    */
@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.loader.enhancer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.caucho.bytecode.ByteCodeClassMatcher;
+import com.caucho.bytecode.ByteCodeClassScanner;
+import com.caucho.inject.Module;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.Crc64;
+import com.caucho.vfs.Jar;
+import com.caucho.vfs.JarPath;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Recorded scan events for every class in a jar.
+ *
+ * The index is built once by running the byte-code scanner over the jar
+ * and is saved in the work directory keyed by the jar's digest. On
+ * restart, an unchanged jar replays the saved events to the scan
+ * listeners instead of being opened and parsed again.
+ */
+@Module
+class ScanIndex {
+  private static final Logger log
+    = Logger.getLogger(ScanIndex.class.getName());
+
+  private static final int MAGIC = 0x5363616e; // "Scan"
+  private static final int VERSION = 1;
+
+  private final ArrayList<ClassEntry> _entries;
+
+  private ScanIndex(ArrayList<ClassEntry> entries)
+  {
+    _entries = entries;
+  }
+
+  /**
+   * Returns the saved index for the jar if it's current, or builds and
+   * saves a new one.
+   *
+   * @param jar the jar file
+   * @param packagePath the optional package prefix of scanned entries
+   * @param indexDir the directory for saved indexes, or null
+   */
+  static ScanIndex open(Path jar, String packagePath, Path indexDir)
+  {
+    long length = jar.getLength();
+    long digest = jar.getCrc64();
+
+    Path indexPath = null;
+
+    if (indexDir != null) {
+      long crc = Crc64.generate(jar.getFullPath());
+
+      if (packagePath != null)
+        crc = Crc64.generate(crc, packagePath);
+
+      indexPath = indexDir.lookup(jar.getTail() + "-"
+                                  + Long.toHexString(crc) + ".scan");
+
+      ScanIndex index = read(indexPath, length, digest);
+
+      if (index != null)
+        return index;
+    }
+
+    ScanIndex index = build(jar, packagePath);
+
+    if (index != null && indexPath != null)
+      index.write(indexPath, length, digest);
+
+    return index;
+  }
+
+  /**
+   * Scans the jar, recording the events for each class.
+   */
+  private static ScanIndex build(Path path, String packagePath)
+  {
+    Jar jar = JarPath.create(path).getJar();
+    ZipFile zipFile = null;
+
+    try {
+      zipFile = jar.getZipFile();
+
+      if (zipFile == null)
+        return null;
+
+      ArrayList<ClassEntry> entries = new ArrayList<ClassEntry>();
+
+      ByteCodeClassScanner scanner = new ByteCodeClassScanner();
+
+      Enumeration<? extends ZipEntry> e = zipFile.entries();
+
+      while (e.hasMoreElements()) {
+        ZipEntry entry = e.nextElement();
+
+        String entryName = entry.getName();
+        if (! entryName.endsWith(".class"))
+          continue;
+
+        if (packagePath != null && ! entryName.startsWith(packagePath)) {
+          continue;
+        }
+
+        if (entryName.indexOf("-info") > 0) {
+          continue;
+        }
+
+        ClassEntry classEntry = new ClassEntry();
+
+        ReadStream is = null;
+        try {
+          is = Vfs.openRead(zipFile.getInputStream(entry));
+          scanner.init(entryName, is, classEntry);
+
+          scanner.scan();
+        } catch (Exception e1) {
+          log.info(e1.toString());
+          log.log(Level.FINE, e1.toString(), e1);
+        } finally {
+          if (is != null) {
+            is.close();
+          }
+        }
+
+        entries.add(classEntry);
+      }
+
+      return new ScanIndex(entries);
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    } finally {
+      jar.closeZipFile(zipFile);
+    }
+  }
+
+  /**
+   * Replays the recorded events to the matcher.
+   *
+   * @return true if any class matched
+   */
+  boolean replay(ScanManager.ScanByteCodeMatcher matcher)
+  {
+    boolean isScanMatch = false;
+
+    for (ClassEntry entry : _entries) {
+      matcher.init();
+
+      try {
+        if (entry.replay(matcher))
+          isScanMatch = true;
+      } catch (Exception e) {
+        log.info(e.toString());
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+
+    return isScanMatch;
+  }
+
+  private static ScanIndex read(Path path, long length, long digest)
+  {
+    if (! path.canRead())
+      return null;
+
+    ReadStream is = null;
+
+    try {
+      is = path.openRead();
+
+      DataInputStream in = new DataInputStream(is);
+
+      if (in.readInt() != MAGIC
+          || in.readInt() != VERSION
+          || in.readLong() != length
+          || in.readLong() != digest) {
+        return null;
+      }
+
+      int size = in.readInt();
+
+      ArrayList<ClassEntry> entries = new ArrayList<ClassEntry>(size);
+
+      for (int i = 0; i < size; i++) {
+        entries.add(ClassEntry.read(in));
+      }
+
+      if (log.isLoggable(Level.FINER))
+        log.finer("scan index loaded from " + path);
+
+      return new ScanIndex(entries);
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    } finally {
+      if (is != null)
+        is.close();
+    }
+  }
+
+  private void write(Path path, long length, long digest)
+  {
+    Path tempPath = path.getParent().lookup(path.getTail() + ".tmp");
+
+    try {
+      path.getParent().mkdirs();
+
+      WriteStream os = tempPath.openWrite();
+
+      try {
+        DataOutputStream out = new DataOutputStream(os);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(length);
+        out.writeLong(digest);
+
+        out.writeInt(_entries.size());
+
+        for (ClassEntry entry : _entries) {
+          entry.write(out);
+        }
+
+        out.flush();
+      } finally {
+        os.close();
+      }
+
+      tempPath.renameTo(path);
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      try {
+        tempPath.remove();
+      } catch (IOException e1) {
+        log.log(Level.FINEST, e1.toString(), e1);
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _entries.size() + "]";
+  }
+
+  /**
+   * The recorded scan events for a single class, in scanner order.
+   */
+  static class ClassEntry implements ByteCodeClassMatcher {
+    private static final int SCAN_CLASS = 1;
+    private static final int SUPER_CLASS = 2;
+    private static final int INTERFACE = 3;
+    private static final int CLASS_ANNOTATION = 4;
+    private static final int POOL_STRING = 5;
+    private static final int FINISH = 6;
+
+    private String _className;
+    private int _modifiers;
+
+    private byte []_codes = new byte[8];
+    private char [][]_values = new char[8][];
+    private int _size;
+
+    private boolean _isFinished;
+
+    boolean replay(ByteCodeClassMatcher matcher)
+    {
+      if (_className != null && ! matcher.scanClass(_className, _modifiers))
+        return false;
+
+      byte []codes = _codes;
+      char [][]values = _values;
+
+      for (int i = 0; i < _size; i++) {
+        char []value = values[i];
+
+        switch (codes[i]) {
+        case SUPER_CLASS:
+          matcher.addSuperClass(value, 0, value.length);
+          break;
+
+        case INTERFACE:
+          matcher.addInterface(value, 0, value.length);
+          break;
+
+        case CLASS_ANNOTATION:
+          matcher.addClassAnnotation(value, 0, value.length);
+          break;
+
+        case POOL_STRING:
+          matcher.addPoolString(value, 0, value.length);
+          break;
+        }
+      }
+
+      if (_isFinished)
+        return matcher.finishScan();
+      else
+        return false;
+    }
+
+    @Override
+    public boolean scanClass(String className, int modifiers)
+    {
+      _className = className;
+      _modifiers = modifiers;
+
+      return true;
+    }
+
+    @Override
+    public boolean isAnnotationMatch(CharBuffer annotationClassName)
+    {
+      return false;
+    }
+
+    @Override
+    public void addSuperClass(char []buffer, int offset, int length)
+    {
+      add(SUPER_CLASS, buffer, offset, length);
+    }
+
+    @Override
+    public void addInterface(char []buffer, int offset, int length)
+    {
+      add(INTERFACE, buffer, offset, length);
+    }
+
+    @Override
+    public void addClassAnnotation(char []buffer, int offset, int length)
+    {
+      add(CLASS_ANNOTATION, buffer, offset, length);
+    }
+
+    @Override
+    public void addPoolString(char []buffer, int offset, int length)
+    {
+      add(POOL_STRING, buffer, offset, length);
+    }
+
+    @Override
+    public boolean finishScan()
+    {
+      _isFinished = true;
+
+      return false;
+    }
+
+    private void add(int code, char []buffer, int offset, int length)
+    {
+      char []value = new char[length];
+      System.arraycopy(buffer, offset, value, 0, length);
+
+      add(code, value);
+    }
+
+    private void add(int code, char []value)
+    {
+      if (_codes.length <= _size) {
+        byte []codes = new byte[2 * _codes.length];
+        System.arraycopy(_codes, 0, codes, 0, _size);
+        _codes = codes;
+
+        char [][]values = new char[codes.length][];
+        System.arraycopy(_values, 0, values, 0, _size);
+        _values = values;
+      }
+
+      _codes[_size] = (byte) code;
+      _values[_size] = value;
+      _size++;
+    }
+
+    void write(DataOutputStream out)
+      throws IOException
+    {
+      if (_className != null) {
+        out.writeByte(SCAN_CLASS);
+        out.writeUTF(_className);
+        out.writeInt(_modifiers);
+      }
+
+      for (int i = 0; i < _size; i++) {
+        out.writeByte(_codes[i]);
+        out.writeUTF(new String(_values[i]));
+      }
+
+      out.writeByte(_isFinished ? FINISH : 0);
+    }
+
+    static ClassEntry read(DataInputStream in)
+      throws IOException
+    {
+      ClassEntry entry = new ClassEntry();
+
+      while (true) {
+        int code = in.readByte();
+
+        switch (code) {
+        case 0:
+          return entry;
+
+        case FINISH:
+          entry._isFinished = true;
+          return entry;
+
+        case SCAN_CLASS:
+          entry._className = in.readUTF();
+          entry._modifiers = in.readInt();
+          break;
+
+        case SUPER_CLASS:
+        case INTERFACE:
+        case CLASS_ANNOTATION:
+        case POOL_STRING:
+          entry.add(code, in.readUTF().toCharArray());
+          break;
+
+        default:
+          throw new IOException("unknown scan index code " + code);
+        }
+      }
+    }
+  }
+}
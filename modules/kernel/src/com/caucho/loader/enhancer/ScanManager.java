@@ -33,7 +33,9 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -41,7 +43,9 @@ import java.util.zip.ZipFile;
 
 import com.caucho.bytecode.ByteCodeClassMatcher;
 import com.caucho.bytecode.ByteCodeClassScanner;
+import com.caucho.env.thread.ThreadPool;
 import com.caucho.inject.Module;
+import com.caucho.java.WorkDir;
 import com.caucho.loader.EnvironmentClassLoader;
 import com.caucho.util.CharBuffer;
 import com.caucho.vfs.Depend;
@@ -80,6 +84,51 @@ public class ScanManager {
   public void scan(EnvironmentClassLoader loader, 
                    Path root,
                    String packageRoot)
+  {
+    RootScan rootScan = createRootScan(loader, root, packageRoot);
+
+    if (rootScan != null) {
+      rootScan.scan();
+    }
+  }
+
+  /**
+   * Scans a list of roots. Jars are read and parsed in parallel, while
+   * the listeners are called in root order from the calling thread.
+   */
+  public void scan(EnvironmentClassLoader loader,
+                   URL []urls,
+                   String []packageRoots)
+  {
+    int size = urls.length;
+
+    RootScan []rootScans = new RootScan[size];
+
+    for (int i = 0; i < size; i++) {
+      // #3576
+      rootScans[i] = createRootScan(loader, Vfs.lookup(urls[i]),
+                                    packageRoots[i]);
+    }
+
+    int window = Math.max(1, Runtime.getRuntime().availableProcessors());
+    int scheduled = 0;
+
+    for (int i = 0; i < size; i++) {
+      for (; scheduled < size && scheduled <= i + window; scheduled++) {
+        if (rootScans[scheduled] != null) {
+          rootScans[scheduled].schedule();
+        }
+      }
+
+      if (rootScans[i] != null) {
+        rootScans[i].scan();
+      }
+    }
+  }
+
+  private RootScan createRootScan(EnvironmentClassLoader loader,
+                                  Path root,
+                                  String packageRoot)
   {
     if (root.getPath().endsWith(".jar") && ! (root instanceof JarPath)) {
       root = JarPath.create(root);
@@ -96,36 +145,32 @@ public class ScanManager {
     }
 
     if (! hasListener) {
-      return;
+      return null;
     }
 
-    ByteCodeClassScanner scanner = new ByteCodeClassScanner();
-
-    String packagePath = null;
-
-    if (packageRoot != null)
-      packagePath = packageRoot.replace('.', '/');
+    return new RootScan(loader, root, packageRoot, listeners);
+  }
 
-    if (root instanceof JarPath) {
-      JarPath jarRoot = (JarPath) root;
-      Path jar = jarRoot.getContainer();
-      
-      JarByteCodeMatcher matcher
-        = new JarByteCodeMatcher(loader, root, packageRoot, listeners);
+  /**
+   * Returns the directory for saved jar indexes.
+   */
+  private static Path getIndexDir(EnvironmentClassLoader loader)
+  {
+    try {
+      return WorkDir.getLocalWorkDir(loader).lookup("_scan");
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
 
-      scanForJarClasses(jar, packageRoot,
-                        scanner, matcher);
+      return null;
     }
-    else {
-      PathByteCodeMatcher matcher
-        = new PathByteCodeMatcher(loader, root, packageRoot, listeners);
-      
-      Path scanRoot = root;
-
-      if (packagePath != null)
-        scanRoot = scanRoot.lookup(packagePath);
+  }
 
-      scanForClasses(root, scanRoot, scanner, matcher);
+  private void scanForIndex(Path jar,
+                            ScanIndex index,
+                            JarByteCodeMatcher matcher)
+  {
+    if (! index.replay(matcher)) {
+      addNullScanPath(jar);
     }
   }
 
@@ -255,6 +300,112 @@ public class ScanManager {
     return depend != null && ! depend.isModified();
   }
 
+  /**
+   * A single root to be scanned. For jars, the index is prepared by
+   * a task which may run in parallel with the scans of earlier roots.
+   */
+  private class RootScan implements Callable<ScanIndex> {
+    private final EnvironmentClassLoader _loader;
+    private final Path _root;
+    private final String _packageRoot;
+    private final ScanListener []_listeners;
+
+    private final FutureTask<ScanIndex> _indexTask;
+
+    RootScan(EnvironmentClassLoader loader,
+             Path root,
+             String packageRoot,
+             ScanListener []listeners)
+    {
+      _loader = loader;
+      _root = root;
+      _packageRoot = packageRoot;
+      _listeners = listeners;
+
+      if (root instanceof JarPath
+          && ! isNullScanPath(((JarPath) root).getContainer())) {
+        _indexTask = new FutureTask<ScanIndex>(this);
+      }
+      else {
+        _indexTask = null;
+      }
+    }
+
+    /**
+     * Starts preparing the jar index in the thread pool.
+     */
+    void schedule()
+    {
+      if (_indexTask != null) {
+        ThreadPool.getCurrent().schedule(_indexTask);
+      }
+    }
+
+    @Override
+    public ScanIndex call()
+    {
+      Path jar = ((JarPath) _root).getContainer();
+
+      return ScanIndex.open(jar, _packageRoot, getIndexDir(_loader));
+    }
+
+    void scan()
+    {
+      ByteCodeClassScanner scanner = new ByteCodeClassScanner();
+
+      String packagePath = null;
+
+      if (_packageRoot != null)
+        packagePath = _packageRoot.replace('.', '/');
+
+      if (_root instanceof JarPath) {
+        JarPath jarRoot = (JarPath) _root;
+        Path jar = jarRoot.getContainer();
+
+        JarByteCodeMatcher matcher
+          = new JarByteCodeMatcher(_loader, _root, _packageRoot, _listeners);
+
+        ScanIndex index = getIndex();
+
+        if (index != null) {
+          scanForIndex(jar, index, matcher);
+        }
+        else {
+          scanForJarClasses(jar, _packageRoot, scanner, matcher);
+        }
+      }
+      else {
+        PathByteCodeMatcher matcher
+          = new PathByteCodeMatcher(_loader, _root, _packageRoot, _listeners);
+
+        Path scanRoot = _root;
+
+        if (packagePath != null)
+          scanRoot = scanRoot.lookup(packagePath);
+
+        scanForClasses(_root, scanRoot, scanner, matcher);
+      }
+    }
+
+    private ScanIndex getIndex()
+    {
+      if (_indexTask == null) {
+        return null;
+      }
+
+      // runs the task in this thread if the pool hasn't started it
+      _indexTask.run();
+
+      try {
+        return _indexTask.get();
+      } catch (Exception e) {
+        log.log(Level.FINE, e.toString(), e);
+
+        return null;
+      }
+    }
+  }
+
   static class JarByteCodeMatcher extends ScanByteCodeMatcher {
     JarByteCodeMatcher(EnvironmentClassLoader loader,
                        Path root,
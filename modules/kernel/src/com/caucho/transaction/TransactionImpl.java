@@ -857,7 +857,11 @@ public class TransactionImpl implements Transaction, AlarmListener {
         for (int i = _resourceCount - 1; i >= 0; i--) {
           XAResource resource = (XAResource) _resources[i];
 
-          if (i == 0 && (xaLog == null || !hasPrepare)) {
+          // with last-resource-commit, the first resource commits
+          // with one phase before the commit is logged
+          if (i == 0 && (xaLog == null
+                         || ! hasPrepare
+                         || _transactionManager.isLastResourceCommit())) {
             // server/1601
             _resourceStates[0] |= RES_COMMIT;
 
@@ -888,15 +892,26 @@ public class TransactionImpl implements Transaction, AlarmListener {
           }
         }
 
-        if (hasPrepare && xaLog != null) {
-          _xaLog = xaLog;
+        if (! hasPrepare)
+          xaLog = null;
+
+        if (xaLog != null && ! allowSinglePhase) {
+          try {
+            xaLog.writeTMCommit(_xid);
+          } catch (RuntimeException e) {
+            // without a durable commit, the prepared resources roll back
+            rollbackInt();
+            throw new RollbackExceptionWrapper(L.l("all commits rolled back"),
+                                               e);
+          }
 
-          xaLog.writeTMCommit(_xid);
+          _xaLog = xaLog;
+          xaLog = null;
         }
 
         _status = Status.STATUS_COMMITTING;
 
-        Exception exn = commitResources(allowSinglePhase);
+        Exception exn = commitResources(allowSinglePhase, xaLog);
 
         if (heuristicExn == null)
           heuristicExn = exn;
@@ -925,7 +940,13 @@ public class TransactionImpl implements Transaction, AlarmListener {
     }
   }
 
-  private Exception commitResources(boolean allowSinglePhase)
+  /**
+   * Commits the resources. For last-resource-commit, the xaLog is
+   * non-null and the commit is logged after the one-phase commit
+   * of the first resource succeeds.
+   */
+  private Exception commitResources(boolean allowSinglePhase,
+                                    AbstractXALogStream xaLog)
   {
     Exception heuristicExn = null;
 
@@ -947,6 +968,17 @@ public class TransactionImpl implements Transaction, AlarmListener {
       }
     }
 
+    if (xaLog != null && heuristicExn == null) {
+      try {
+        xaLog.writeTMCommit(_xid);
+
+        _xaLog = xaLog;
+      } catch (RuntimeException e) {
+        // the last resource has committed, so the others still commit
+        log.log(Level.WARNING, e.toString(), e);
+      }
+    }
+
     for (int i = 0; i < _resourceCount; i++) {
       XAResource resource = (XAResource) _resources[i];
 
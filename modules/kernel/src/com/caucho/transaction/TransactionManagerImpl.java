@@ -85,6 +85,7 @@ public class TransactionManagerImpl
   private AtomicLong _sequence = new AtomicLong(CurrentTime.getCurrentTime());
 
   private AbstractXALogManager _xaLogManager;
+  private boolean _isLastResourceCommit;
 
   private TransactionSynchronizationRegistry _syncRegistry
     = new TransactionSynchronizationRegistryImpl(this);
@@ -171,6 +172,23 @@ public class TransactionManagerImpl
     _xaLogManager = xaLogManager;
   }
 
+  /**
+   * Enables last-resource-commit. With an XA log, the first enlisted
+   * resource commits with one phase after the others prepare, and the
+   * commit is logged only if it succeeds. This saves one prepare, but
+   * a crash between the one-phase commit and the log leaves the other
+   * resources to be rolled back by recovery.
+   */
+  public void setLastResourceCommit(boolean isLastResourceCommit)
+  {
+    _isLastResourceCommit = isLastResourceCommit;
+  }
+
+  public boolean isLastResourceCommit()
+  {
+    return _isLastResourceCommit;
+  }
+
   /**
    * Returns the synchronization registry
    */
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.transaction.xalog;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.config.types.Period;
+import com.caucho.transaction.XidImpl;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+
+/**
+ * Journal-based XA log manager. On start, the journal is replayed to
+ * find the commits without a finish, which the transaction manager's
+ * recovery commits instead of rolling back.
+ */
+public class XALogManager extends AbstractXALogManager
+{
+  private static final L10N L = new L10N(XALogManager.class);
+  private static final Logger log
+    = Logger.getLogger(XALogManager.class.getName());
+
+  private Path _path;
+  private XALogStream _stream;
+
+  private long _segmentMax = 1024 * 1024L;
+  private long _pendingTimeout = 24 * 3600 * 1000L;
+
+  public XALogManager()
+  {
+  }
+
+  /**
+   * Sets the log path. The journal's two segments are path.0 and path.1.
+   */
+  @Override
+  public void setPath(Path path)
+    throws IOException
+  {
+    _path = path;
+  }
+
+  public Path getPath()
+  {
+    return _path;
+  }
+
+  /**
+   * Sets the segment size which triggers a switch to the other segment.
+   */
+  public void setSegmentSize(long size)
+  {
+    _segmentMax = size;
+  }
+
+  /**
+   * Sets how long a recovered commit is kept for resources which
+   * haven't recovered yet.
+   */
+  public void setRecoveryTimeout(Period period)
+  {
+    _pendingTimeout = period.getPeriod();
+  }
+
+  @Override
+  public void init()
+  {
+  }
+
+  /**
+   * Replays the journal and opens a new segment.
+   */
+  @Override
+  public void start()
+    throws IOException
+  {
+    if (_path == null)
+      throw new IllegalStateException(L.l("{0} requires a path", this));
+
+    XALogStream stream = new XALogStream(_path);
+    stream.setSegmentMax(_segmentMax);
+    stream.setPendingTimeout(_pendingTimeout);
+
+    stream.start();
+
+    _stream = stream;
+
+    if (log.isLoggable(Level.FINE))
+      log.fine(this + " started");
+  }
+
+  /**
+   * True if the xid is an already-committed xid
+   */
+  @Override
+  public boolean hasCommittedXid(XidImpl xid)
+  {
+    XALogStream stream = _stream;
+
+    return stream != null && stream.isPending(xid);
+  }
+
+  /**
+   * Returns the stream for a new transaction.
+   */
+  @Override
+  public AbstractXALogStream getStream()
+  {
+    return _stream;
+  }
+
+  /**
+   * Syncs the pending records.
+   */
+  @Override
+  public void flush()
+  {
+    XALogStream stream = _stream;
+
+    if (stream != null) {
+      try {
+        stream.flush();
+      } catch (IOException e) {
+        log.log(Level.WARNING, e.toString(), e);
+      }
+    }
+  }
+
+  /**
+   * Closes the log manager.
+   */
+  @Override
+  public void close()
+  {
+    XALogStream stream = _stream;
+    _stream = null;
+
+    if (stream != null)
+      stream.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _path + "]";
+  }
+}
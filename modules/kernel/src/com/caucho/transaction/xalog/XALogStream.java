@@ -0,0 +1,774 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.transaction.xalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.caucho.transaction.XidImpl;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+
+/**
+ * Journal for the transaction manager's commit decisions.
+ *
+ * The journal alternates between two segment files. Records are appended
+ * to the current segment. When it fills, the journal switches to the
+ * other segment, starting it with a checkpoint of the commits which
+ * haven't finished, so the old segment is no longer needed.
+ *
+ * Commit records are group committed: a thread writing a commit waits
+ * for an fsync covering its record, and one fsync covers every record
+ * appended while the previous fsync was running. Finish records aren't
+ * synced on their own, because a lost finish only means the recovery
+ * checks an already-completed xid.
+ *
+ * If a write fails, the batch's commits fail and the journal switches
+ * to a fresh segment, because replay stops at the torn record and would
+ * lose anything appended after it.
+ */
+public class XALogStream extends AbstractXALogStream {
+  private static final L10N L = new L10N(XALogStream.class);
+  private static final Logger log
+    = Logger.getLogger(XALogStream.class.getName());
+
+  private static final int MAGIC = 0x58414c31; // "XAL1"
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 16;
+
+  static final int OP_COMMIT = 'C';
+  static final int OP_FINISH = 'F';
+
+  // op, global length, commit time, ..., crc
+  private static final int RECORD_OVERHEAD = 1 + 1 + 8 + 4;
+
+  private final Path []_segmentPaths = new Path[2];
+
+  private long _segmentMax = 1024 * 1024L;
+  private long _pendingTimeout = 24 * 3600 * 1000L;
+
+  private final Object _lock = new Object();
+
+  // commits without a finish, with their commit time
+  private final LinkedHashMap<GlobalId,Long> _pendingMap
+    = new LinkedHashMap<GlobalId,Long>();
+
+  private byte []_buffer = new byte[4096];
+  private int _bufferLength;
+  private byte []_writeBuffer = new byte[4096];
+
+  // records appended and records written and synced
+  private long _appendSequence;
+  private long _syncSequence;
+  private boolean _isSyncing;
+
+  private int _segmentIndex;
+  private long _segmentSequence;
+  private long _segmentLength;
+  private long _checkpointLength;
+  private RandomAccessFile _file;
+  private FileChannel _channel;
+
+  private boolean _isClosed;
+
+  private final CRC32 _crc = new CRC32();
+
+  XALogStream(Path path)
+  {
+    Path parent = path.getParent();
+    String tail = path.getTail();
+
+    _segmentPaths[0] = parent.lookup(tail + ".0");
+    _segmentPaths[1] = parent.lookup(tail + ".1");
+  }
+
+  /**
+   * Sets the segment size which triggers a switch to the other segment.
+   */
+  void setSegmentMax(long segmentMax)
+  {
+    _segmentMax = segmentMax;
+  }
+
+  /**
+   * Sets the time a commit is kept without a finish before the
+   * checkpoint drops it.
+   */
+  void setPendingTimeout(long timeout)
+  {
+    _pendingTimeout = timeout;
+  }
+
+  /**
+   * Writes a commit entry to the log file, returning after it's synced.
+   */
+  @Override
+  public void writeTMCommit(XidImpl xid)
+  {
+    GlobalId id = new GlobalId(xid.getGlobalTransactionId());
+    long sequence;
+
+    synchronized (_lock) {
+      if (_isClosed)
+        throw new IllegalStateException(L.l("{0} is closed", this));
+
+      long now = CurrentTime.getCurrentTime();
+
+      _pendingMap.put(id, now);
+
+      appendRecord(OP_COMMIT, id, now);
+
+      sequence = ++_appendSequence;
+    }
+
+    try {
+      sync(sequence);
+    } catch (IOException e) {
+      // the checkpoint must not record a commit the caller rolls back
+      synchronized (_lock) {
+        _pendingMap.remove(id);
+      }
+
+      throw new IllegalStateException(L.l("{0} cannot write commit for {1}\n  {2}",
+                                          this, xid, e), e);
+    }
+
+    synchronized (_lock) {
+      // a failed write by another thread drops the batch's commits
+      if (! _pendingMap.containsKey(id))
+        throw new IllegalStateException(L.l("{0} cannot write commit for {1}",
+                                            this, xid));
+    }
+  }
+
+  /**
+   * Writes a finish entry to the log file. The entry is synced with the
+   * next commit or flush.
+   */
+  @Override
+  public void writeTMFinish(XidImpl xid)
+  {
+    synchronized (_lock) {
+      if (_isClosed)
+        return;
+
+      GlobalId id = new GlobalId(xid.getGlobalTransactionId());
+
+      if (_pendingMap.remove(id) == null)
+        return;
+
+      appendRecord(OP_FINISH, id, 0);
+
+      ++_appendSequence;
+    }
+  }
+
+  /**
+   * True if the xid has a commit without a finish.
+   */
+  boolean isPending(XidImpl xid)
+  {
+    synchronized (_lock) {
+      return _pendingMap.containsKey(new GlobalId(xid.getGlobalTransactionId()));
+    }
+  }
+
+  int getPendingCount()
+  {
+    synchronized (_lock) {
+      return _pendingMap.size();
+    }
+  }
+
+  /**
+   * Writes and syncs all appended records.
+   */
+  void flush()
+    throws IOException
+  {
+    long sequence;
+
+    synchronized (_lock) {
+      sequence = _appendSequence;
+    }
+
+    sync(sequence);
+  }
+
+  /**
+   * Waits until the records up to the sequence are synced. If no other
+   * thread is syncing, this thread writes every appended record.
+   */
+  private void sync(long sequence)
+    throws IOException
+  {
+    while (true) {
+      byte []buffer;
+      int length;
+      long targetSequence;
+
+      synchronized (_lock) {
+        while (_isSyncing && _syncSequence < sequence) {
+          try {
+            _lock.wait();
+          } catch (InterruptedException e) {
+            log.log(Level.FINEST, e.toString(), e);
+          }
+        }
+
+        if (sequence <= _syncSequence)
+          return;
+
+        if (_channel == null)
+          throw new IOException(L.l("{0} is not open", this));
+
+        _isSyncing = true;
+
+        buffer = _buffer;
+        length = _bufferLength;
+        targetSequence = _appendSequence;
+
+        _buffer = _writeBuffer;
+        _bufferLength = 0;
+        _writeBuffer = buffer;
+      }
+
+      IOException exn = null;
+
+      try {
+        writeFully(_channel, buffer, length);
+        _channel.force(false);
+
+        _segmentLength += length;
+
+        rotateIfFull();
+      } catch (IOException e) {
+        exn = e;
+
+        recoverWrite(buffer, length);
+      } finally {
+        synchronized (_lock) {
+          _isSyncing = false;
+
+          // a failed batch is also complete, since its commits were
+          // dropped by recoverWrite
+          _syncSequence = targetSequence;
+
+          _lock.notifyAll();
+        }
+      }
+
+      if (exn != null)
+        throw exn;
+    }
+  }
+
+  /**
+   * Drops the commits of a batch which failed to write and switches to
+   * a fresh segment, whose checkpoint replaces the torn records. If the
+   * switch fails, the journal is closed for writing.
+   */
+  private void recoverWrite(byte []buffer, int length)
+  {
+    synchronized (_lock) {
+      removeCommits(buffer, length);
+    }
+
+    RandomAccessFile oldFile = _file;
+
+    try {
+      rotate();
+    } catch (IOException e) {
+      log.log(Level.WARNING, L.l("{0} cannot start a new segment after a write failure\n  {1}",
+                                 this, e), e);
+
+      synchronized (_lock) {
+        _file = null;
+        _channel = null;
+      }
+
+      try {
+        oldFile.close();
+      } catch (IOException e1) {
+        log.log(Level.FINER, e1.toString(), e1);
+      }
+    }
+  }
+
+  /**
+   * Removes the buffer's commit records from the pending map, called
+   * with the lock held.
+   */
+  private void removeCommits(byte []buffer, int length)
+  {
+    int offset = 0;
+
+    while (offset + RECORD_OVERHEAD <= length) {
+      int op = buffer[offset] & 0xff;
+      int globalLength = buffer[offset + 1] & 0xff;
+
+      if (op == OP_COMMIT) {
+        byte []global = new byte[globalLength];
+        System.arraycopy(buffer, offset + 10, global, 0, globalLength);
+
+        _pendingMap.remove(new GlobalId(global));
+      }
+
+      offset += RECORD_OVERHEAD + globalLength;
+    }
+  }
+
+  /**
+   * Switches segments if the current one is full. The caller's records
+   * are already synced, so a failure only delays the switch.
+   */
+  private void rotateIfFull()
+  {
+    // the checkpoint doesn't count, so a large checkpoint doesn't
+    // force a switch on every write
+    if (_segmentLength - _checkpointLength < _segmentMax)
+      return;
+
+    try {
+      rotate();
+    } catch (IOException e) {
+      log.log(Level.WARNING, L.l("{0} cannot switch segments\n  {1}", this, e), e);
+    }
+  }
+
+  /**
+   * Appends a record to the buffer, called with the lock held.
+   */
+  private void appendRecord(int op, GlobalId id, long time)
+  {
+    byte []global = id.getBytes();
+
+    int length = RECORD_OVERHEAD + global.length;
+
+    if (_buffer.length < _bufferLength + length) {
+      _buffer = Arrays.copyOf(_buffer, 2 * (_bufferLength + length));
+    }
+
+    _bufferLength = writeRecord(_buffer, _bufferLength, op, global, time);
+  }
+
+  private int writeRecord(byte []buffer, int offset,
+                          int op, byte []global, long time)
+  {
+    int start = offset;
+
+    buffer[offset++] = (byte) op;
+    buffer[offset++] = (byte) global.length;
+
+    for (int i = 56; i >= 0; i -= 8) {
+      buffer[offset++] = (byte) (time >> i);
+    }
+
+    System.arraycopy(global, 0, buffer, offset, global.length);
+    offset += global.length;
+
+    _crc.reset();
+    _crc.update(buffer, start, offset - start);
+    int crc = (int) _crc.getValue();
+
+    buffer[offset++] = (byte) (crc >> 24);
+    buffer[offset++] = (byte) (crc >> 16);
+    buffer[offset++] = (byte) (crc >> 8);
+    buffer[offset++] = (byte) (crc);
+
+    return offset;
+  }
+
+  //
+  // segments and recovery
+  //
+
+  /**
+   * Replays both segments in order, then starts a new segment with a
+   * checkpoint of the commits without a finish.
+   */
+  void start()
+    throws IOException
+  {
+    long []sequences = new long[2];
+
+    for (int i = 0; i < 2; i++) {
+      sequences[i] = readSequence(_segmentPaths[i]);
+    }
+
+    int first = sequences[0] <= sequences[1] ? 0 : 1;
+    int second = 1 - first;
+
+    synchronized (_lock) {
+      if (sequences[first] >= 0)
+        replay(_segmentPaths[first]);
+
+      if (sequences[second] >= 0)
+        replay(_segmentPaths[second]);
+
+      if (_pendingMap.size() > 0) {
+        log.info(L.l("{0} recovered {1} committed transactions",
+                     this, _pendingMap.size()));
+      }
+    }
+
+    long sequence = Math.max(sequences[0], sequences[1]);
+
+    // the new segment replaces the older one
+    openSegment(first, Math.max(sequence, 0) + 1);
+  }
+
+  /**
+   * Switches to the other segment, called by the syncing thread.
+   */
+  private void rotate()
+    throws IOException
+  {
+    RandomAccessFile oldFile = _file;
+
+    openSegment(1 - _segmentIndex, _segmentSequence + 1);
+
+    try {
+      oldFile.close();
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  private void openSegment(int index, long sequence)
+    throws IOException
+  {
+    byte []checkpoint = createCheckpoint();
+
+    Path path = _segmentPaths[index];
+    path.getParent().mkdirs();
+
+    RandomAccessFile file = new RandomAccessFile(new File(path.getNativePath()),
+                                                 "rw");
+
+    try {
+      FileChannel channel = file.getChannel();
+
+      channel.truncate(0);
+
+      byte []header = new byte[HEADER_LENGTH];
+      writeInt(header, 0, MAGIC);
+      writeInt(header, 4, VERSION);
+      writeLong(header, 8, sequence);
+
+      channel.position(0);
+      writeFully(channel, header, header.length);
+      writeFully(channel, checkpoint, checkpoint.length);
+      channel.force(true);
+
+      _file = file;
+      _channel = channel;
+      _segmentIndex = index;
+      _segmentSequence = sequence;
+      _segmentLength = header.length + checkpoint.length;
+      _checkpointLength = header.length + checkpoint.length;
+    } catch (IOException e) {
+      file.close();
+
+      throw e;
+    }
+  }
+
+  /**
+   * Returns commit records for the pending commits, dropping commits
+   * older than the pending timeout.
+   */
+  private byte []createCheckpoint()
+  {
+    ArrayList<byte[]> records = new ArrayList<byte[]>();
+    int length = 0;
+
+    synchronized (_lock) {
+      long expireTime = CurrentTime.getCurrentTime() - _pendingTimeout;
+
+      Iterator<Map.Entry<GlobalId,Long>> iter
+        = _pendingMap.entrySet().iterator();
+
+      while (iter.hasNext()) {
+        Map.Entry<GlobalId,Long> entry = iter.next();
+
+        byte []global = entry.getKey().getBytes();
+        long time = entry.getValue();
+
+        if (time < expireTime) {
+          log.warning(L.l("{0} dropping commit for {1} without a finish since {2}",
+                          this, entry.getKey(), new java.util.Date(time)));
+          iter.remove();
+          continue;
+        }
+
+        byte []record = new byte[RECORD_OVERHEAD + global.length];
+        writeRecord(record, 0, OP_COMMIT, global, time);
+
+        records.add(record);
+        length += record.length;
+      }
+    }
+
+    byte []checkpoint = new byte[length];
+    int offset = 0;
+
+    for (byte []record : records) {
+      System.arraycopy(record, 0, checkpoint, offset, record.length);
+      offset += record.length;
+    }
+
+    return checkpoint;
+  }
+
+  /**
+   * Returns the segment's sequence, or -1 for a missing or invalid
+   * segment.
+   */
+  private long readSequence(Path path)
+  {
+    if (! path.canRead())
+      return -1;
+
+    byte []header = new byte[HEADER_LENGTH];
+
+    try {
+      ReadStream is = path.openRead();
+
+      try {
+        if (is.readAll(header, 0, header.length) != header.length)
+          return -1;
+      } finally {
+        is.close();
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+
+      return -1;
+    }
+
+    if (readInt(header, 0) != MAGIC) {
+      log.warning(L.l("{0} is not a valid transaction log segment", path));
+      return -1;
+    }
+
+    return readLong(header, 8);
+  }
+
+  /**
+   * Replays the segment's records into the pending map. The scan stops
+   * at the first incomplete or corrupted record, i.e. a write which
+   * wasn't synced.
+   */
+  private void replay(Path path)
+    throws IOException
+  {
+    long length = path.getLength();
+
+    byte []data = new byte[(int) length];
+
+    ReadStream is = path.openRead();
+
+    try {
+      length = is.readAll(data, 0, data.length);
+    } finally {
+      is.close();
+    }
+
+    int offset = HEADER_LENGTH;
+
+    while (offset + RECORD_OVERHEAD <= length) {
+      int op = data[offset] & 0xff;
+      int globalLength = data[offset + 1] & 0xff;
+
+      int recordLength = RECORD_OVERHEAD + globalLength;
+
+      if (length < offset + recordLength)
+        break;
+
+      int crcOffset = offset + recordLength - 4;
+
+      _crc.reset();
+      _crc.update(data, offset, crcOffset - offset);
+
+      if ((int) _crc.getValue() != readInt(data, crcOffset))
+        break;
+
+      long time = readLong(data, offset + 2);
+
+      byte []global = new byte[globalLength];
+      System.arraycopy(data, offset + 10, global, 0, globalLength);
+
+      GlobalId id = new GlobalId(global);
+
+      if (op == OP_COMMIT)
+        _pendingMap.put(id, time);
+      else if (op == OP_FINISH)
+        _pendingMap.remove(id);
+      else
+        break;
+
+      offset += recordLength;
+    }
+  }
+
+  /**
+   * Writes and syncs the pending records and closes the segment.
+   */
+  void close()
+  {
+    try {
+      flush();
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+
+    RandomAccessFile file;
+
+    synchronized (_lock) {
+      _isClosed = true;
+
+      file = _file;
+      _file = null;
+      _channel = null;
+    }
+
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, byte []buffer, int length)
+    throws IOException
+  {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+
+    while (byteBuffer.hasRemaining()) {
+      channel.write(byteBuffer);
+    }
+  }
+
+  private static void writeInt(byte []buffer, int offset, int value)
+  {
+    buffer[offset] = (byte) (value >> 24);
+    buffer[offset + 1] = (byte) (value >> 16);
+    buffer[offset + 2] = (byte) (value >> 8);
+    buffer[offset + 3] = (byte) (value);
+  }
+
+  private static void writeLong(byte []buffer, int offset, long value)
+  {
+    writeInt(buffer, offset, (int) (value >> 32));
+    writeInt(buffer, offset + 4, (int) value);
+  }
+
+  private static int readInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            + ((buffer[offset + 1] & 0xff) << 16)
+            + ((buffer[offset + 2] & 0xff) << 8)
+            + ((buffer[offset + 3] & 0xff)));
+  }
+
+  private static long readLong(byte []buffer, int offset)
+  {
+    return (((long) readInt(buffer, offset) << 32)
+            + (readInt(buffer, offset + 4) & 0xffffffffL));
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _segmentPaths[0] + "]";
+  }
+
+  /**
+   * Key for a transaction's global id.
+   */
+  static final class GlobalId {
+    private final byte []_bytes;
+    private final int _hash;
+
+    GlobalId(byte []bytes)
+    {
+      _bytes = bytes;
+      _hash = Arrays.hashCode(bytes);
+    }
+
+    byte []getBytes()
+    {
+      return _bytes;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (! (o instanceof GlobalId))
+        return false;
+
+      return Arrays.equals(_bytes, ((GlobalId) o)._bytes);
+    }
+
+    @Override
+    public String toString()
+    {
+      StringBuilder sb = new StringBuilder();
+
+      for (byte b : _bytes) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+        sb.append(Character.forDigit(b & 0xf, 16));
+      }
+
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.util;
+
+/**
+ * 128-bit MurmurHash3 (x64 variant), a fast non-cryptographic hash.
+ *
+ * The String method hashes the UTF-16LE encoding of the characters and
+ * the long method hashes the 8 little-endian bytes, so each matches the
+ * byte[] method on the equivalent bytes.
+ */
+public class Murmur3 {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  /**
+   * Hashes a byte range into result[0] and result[1].
+   */
+  public static void hash128(byte []data, int offset, int length,
+                             long seed, long []result)
+  {
+    long h1 = seed;
+    long h2 = seed;
+
+    int blocks = length >> 4;
+    int i = offset;
+
+    for (int block = 0; block < blocks; block++) {
+      long k1 = getLong(data, i);
+      long k2 = getLong(data, i + 8);
+      i += 16;
+
+      h1 ^= mixK1(k1);
+
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    long k1 = 0;
+    long k2 = 0;
+
+    int tail = length & 15;
+
+    for (int j = tail - 1; j >= 8; j--) {
+      k2 = (k2 << 8) | (data[i + j] & 0xffL);
+    }
+
+    for (int j = Math.min(tail, 8) - 1; j >= 0; j--) {
+      k1 = (k1 << 8) | (data[i + j] & 0xffL);
+    }
+
+    finish(h1, h2, k1, k2, length, result);
+  }
+
+  /**
+   * Hashes the UTF-16LE encoding of a string without copying it.
+   */
+  public static void hash128(String value, long seed, long []result)
+  {
+    long h1 = seed;
+    long h2 = seed;
+
+    int length = value.length();
+    int blocks = length >> 3;
+    int i = 0;
+
+    for (int block = 0; block < blocks; block++) {
+      long k1 = getChars(value, i);
+      long k2 = getChars(value, i + 4);
+      i += 8;
+
+      h1 ^= mixK1(k1);
+
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    long k1 = 0;
+    long k2 = 0;
+
+    int tail = length & 7;
+
+    for (int j = tail - 1; j >= 4; j--) {
+      k2 = (k2 << 16) | value.charAt(i + j);
+    }
+
+    for (int j = Math.min(tail, 4) - 1; j >= 0; j--) {
+      k1 = (k1 << 16) | value.charAt(i + j);
+    }
+
+    finish(h1, h2, k1, k2, 2 * length, result);
+  }
+
+  /**
+   * Hashes the 8 little-endian bytes of a long.
+   */
+  public static void hash128(long value, long seed, long []result)
+  {
+    finish(seed, seed, value, 0, 8, result);
+  }
+
+  private static void finish(long h1, long h2, long k1, long k2,
+                             int length, long []result)
+  {
+    h2 ^= mixK2(k2);
+    h1 ^= mixK1(k1);
+
+    h1 ^= length;
+    h2 ^= length;
+
+    h1 += h2;
+    h2 += h1;
+
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+
+    h1 += h2;
+    h2 += h1;
+
+    result[0] = h1;
+    result[1] = h2;
+  }
+
+  private static long mixK1(long k1)
+  {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+
+    return k1;
+  }
+
+  private static long mixK2(long k2)
+  {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+
+    return k2;
+  }
+
+  /**
+   * The 64-bit finalizer, also useful to spread a derived value.
+   */
+  public static long fmix64(long k)
+  {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+
+    return k;
+  }
+
+  private static long getLong(byte []data, int i)
+  {
+    return ((data[i] & 0xffL)
+            | ((data[i + 1] & 0xffL) << 8)
+            | ((data[i + 2] & 0xffL) << 16)
+            | ((data[i + 3] & 0xffL) << 24)
+            | ((data[i + 4] & 0xffL) << 32)
+            | ((data[i + 5] & 0xffL) << 40)
+            | ((data[i + 6] & 0xffL) << 48)
+            | ((data[i + 7] & 0xffL) << 56));
+  }
+
+  private static long getChars(String value, int i)
+  {
+    return (((long) value.charAt(i))
+            | ((long) value.charAt(i + 1) << 16)
+            | ((long) value.charAt(i + 2) << 32)
+            | ((long) value.charAt(i + 3) << 48));
+  }
+}
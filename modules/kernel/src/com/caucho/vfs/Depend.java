@@ -45,6 +45,10 @@ public class Depend implements PersistentDependency {
   private boolean _requireSource = true;
   private boolean _isDigestModified;
 
+  // event-based check, when the file watch service is enabled
+  private final FileWatchService.Watch _watch;
+  private volatile int _watchSequence = -1;
+
   /**
    * Create a new dependency with an already known modified time and length.
    *
@@ -55,6 +59,8 @@ public class Depend implements PersistentDependency {
     _source = source;
     _lastModified = lastModified;
     _length = length;
+
+    _watch = FileWatchService.watch(source);
   }
 
   /**
@@ -166,12 +172,26 @@ public class Depend implements PersistentDependency {
       return true;
     }
 
+    FileWatchService.Watch watch = _watch;
+    int watchSequence = -1;
+
+    if (watch != null) {
+      // no events since the last check, so skip the stat
+      watchSequence = watch.getSequence();
+
+      if (watchSequence >= 0 && watchSequence == _watchSequence)
+        return false;
+    }
+
     long sourceLastModified = _source.getLastModified();
     long sourceLength = _source.getLength();
 
     // if the source was deleted and we need the source
-    if (! _requireSource && sourceLastModified == 0)
+    if (! _requireSource && sourceLastModified == 0) {
+      _watchSequence = watchSequence;
+
       return false;
+    }
     // if the length changed
     else if (sourceLength != _length) {
       if (log().isLoggable(Level.FINE))
@@ -187,8 +207,11 @@ public class Depend implements PersistentDependency {
       
       return true;
     }
-    else
+    else {
+      _watchSequence = watchSequence;
+
       return false;
+    }
   }
 
   /**
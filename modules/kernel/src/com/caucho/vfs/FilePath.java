@@ -34,6 +34,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
 import java.nio.channels.FileChannel;
@@ -676,6 +677,35 @@ public class FilePath extends FilesystemPath {
   {
     return new FileChannelFactoryImpl();
   }
+
+  /**
+   * Sends the file with FileChannel.transferTo when the stream supports
+   * sendfile, which avoids copying the file through temp buffers.
+   */
+  @Override
+  public void sendfile(OutputStream os, long offset, long length)
+    throws IOException
+  {
+    if (! (os instanceof SendfileOutputStream)
+        || ! ((SendfileOutputStream) os).isSendfileEnabled()
+        || _isWindows && isAux()) {
+      super.sendfile(os, offset, length);
+      return;
+    }
+
+    FileInputStream is = new FileInputStream(getFile());
+
+    try {
+      FileChannel channel = is.getChannel();
+
+      if (length < 0)
+        length = channel.size() - offset;
+
+      ((SendfileOutputStream) os).writeTransfer(channel, offset, length);
+    } finally {
+      is.close();
+    }
+  }
   
   @Override
   public Path copy()
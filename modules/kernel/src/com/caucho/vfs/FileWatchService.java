@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.vfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.loader.EnvironmentLocal;
+
+/**
+ * Marks file dependencies as dirty from filesystem events, so a
+ * dependency check only needs to stat the files which have events.
+ *
+ * Only local files are watched. Jar entries, directories, symbolic
+ * links and filesystems where the JDK only has a polling watch service
+ * return a null watch, and their dependencies continue to poll.
+ */
+public final class FileWatchService implements Runnable {
+  private static final Logger log
+    = Logger.getLogger(FileWatchService.class.getName());
+
+  private static final boolean _isDefaultEnabled
+    = Boolean.getBoolean("caucho.dependency-watch");
+
+  // per environment, so a web-app's setting doesn't leak to its siblings
+  private static final EnvironmentLocal<Boolean> _isEnabledLocal
+    = new EnvironmentLocal<Boolean>("caucho.dependency-watch");
+
+  // false when the JDK only has a polling watch service
+  private static volatile boolean _isSupported = true;
+
+  private static FileWatchService _service;
+
+  private final ConcurrentHashMap<java.nio.file.Path,DirWatch> _dirMap
+    = new ConcurrentHashMap<java.nio.file.Path,DirWatch>();
+
+  private final WatchService _watchService;
+
+  private FileWatchService(WatchService watchService)
+  {
+    _watchService = watchService;
+  }
+
+  /**
+   * Enables event-based dependency checks for dependencies created
+   * afterwards in the current environment and its child environments.
+   */
+  public static void setEnabled(boolean isEnabled)
+  {
+    _isEnabledLocal.set(isEnabled);
+  }
+
+  /**
+   * Returns true if event-based dependency checks are enabled for the
+   * current environment.
+   */
+  public static boolean isEnabled()
+  {
+    if (! _isSupported)
+      return false;
+
+    Boolean isEnabled = _isEnabledLocal.get();
+
+    if (isEnabled != null)
+      return isEnabled;
+    else
+      return _isDefaultEnabled;
+  }
+
+  /**
+   * Returns the watch for a path, or null if the path must be polled.
+   */
+  public static Watch watch(Path path)
+  {
+    if (! isEnabled() || ! (path instanceof FilePath))
+      return null;
+
+    FileWatchService service = getService();
+
+    if (service == null)
+      return null;
+
+    return service.watchFile(((FilePath) path).getFile());
+  }
+
+  private static synchronized FileWatchService getService()
+  {
+    if (_service == null) {
+      WatchService watchService = null;
+
+      try {
+        watchService = FileSystems.getDefault().newWatchService();
+      } catch (Exception e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+
+      // a polling watch service is no better than the dependency check
+      if (watchService == null
+          || watchService.getClass().getName().endsWith("PollingWatchService")) {
+        log.fine("file watch is not supported; dependencies will poll");
+
+        _isSupported = false;
+
+        try {
+          if (watchService != null)
+            watchService.close();
+        } catch (IOException e) {
+          log.log(Level.FINEST, e.toString(), e);
+        }
+
+        return null;
+      }
+
+      FileWatchService service = new FileWatchService(watchService);
+
+      Thread thread = new Thread(service, "resin-file-watch");
+      thread.setDaemon(true);
+      thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
+      thread.start();
+
+      _service = service;
+    }
+
+    return _service;
+  }
+
+  private Watch watchFile(File file)
+  {
+    java.nio.file.Path filePath;
+
+    try {
+      filePath = file.getAbsoluteFile().toPath().normalize();
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return null;
+    }
+
+    java.nio.file.Path dirPath = filePath.getParent();
+    java.nio.file.Path name = filePath.getFileName();
+
+    if (dirPath == null || name == null) {
+      return null;
+    }
+
+    // directory times and link targets don't produce events in the parent
+    if (Files.isDirectory(filePath)
+        || Files.isSymbolicLink(filePath)) {
+      return null;
+    }
+
+    DirWatch dir = _dirMap.get(dirPath);
+
+    if (dir == null || ! dir.isValid()) {
+      dir = registerDir(dirPath);
+
+      if (dir == null)
+        return null;
+    }
+
+    return dir.getWatch(name.toString());
+  }
+
+  private synchronized DirWatch registerDir(java.nio.file.Path dirPath)
+  {
+    DirWatch dir = _dirMap.get(dirPath);
+
+    if (dir != null && dir.isValid())
+      return dir;
+
+    if (! Files.isDirectory(dirPath, LinkOption.NOFOLLOW_LINKS))
+      return null;
+
+    try {
+      WatchKey key = dirPath.register(_watchService,
+                                      StandardWatchEventKinds.ENTRY_CREATE,
+                                      StandardWatchEventKinds.ENTRY_DELETE,
+                                      StandardWatchEventKinds.ENTRY_MODIFY);
+
+      dir = new DirWatch(dirPath, key);
+
+      _dirMap.put(dirPath, dir);
+
+      return dir;
+    } catch (Exception e) {
+      // typically the OS watch limit, e.g. fs.inotify.max_user_watches
+      log.log(Level.FINER, dirPath + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Dispatches the filesystem events to the file watches.
+   */
+  @Override
+  public void run()
+  {
+    while (true) {
+      WatchKey key;
+
+      try {
+        key = _watchService.take();
+      } catch (InterruptedException e) {
+        continue;
+      } catch (ClosedWatchServiceException e) {
+        return;
+      }
+
+      DirWatch dir = _dirMap.get((java.nio.file.Path) key.watchable());
+
+      if (dir != null && dir.getKey() != key)
+        dir = null;
+
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          // lost events: every file needs a stat
+          for (DirWatch dirWatch : _dirMap.values()) {
+            dirWatch.modifyAll();
+          }
+        }
+        else if (dir != null) {
+          dir.modify(event.context().toString());
+        }
+      }
+
+      if (! key.reset() && dir != null) {
+        // the directory was removed; its files go back to polling
+        _dirMap.remove(dir.getPath(), dir);
+
+        dir.invalidate();
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[dirs=" + _dirMap.size() + "]";
+  }
+
+  /**
+   * Change state for a single file. A dependency saves the sequence after
+   * it has checked the file, and only needs to check it again when the
+   * sequence changes.
+   */
+  public static final class Watch {
+    private final String _name;
+
+    private volatile int _sequence;
+    private volatile boolean _isValid = true;
+
+    Watch(String name)
+    {
+      _name = name;
+    }
+
+    /**
+     * Returns the current sequence, or -1 if the watch is no longer
+     * valid and the file must be polled.
+     */
+    public int getSequence()
+    {
+      if (_isValid)
+        return _sequence & Integer.MAX_VALUE;
+      else
+        return -1;
+    }
+
+    void modify()
+    {
+      _sequence++;
+    }
+
+    void invalidate()
+    {
+      _isValid = false;
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _name + "," + _sequence + "]";
+    }
+  }
+
+  private static final class DirWatch {
+    private final java.nio.file.Path _path;
+    private final WatchKey _key;
+
+    private final ConcurrentHashMap<String,Watch> _fileMap
+      = new ConcurrentHashMap<String,Watch>();
+
+    private volatile boolean _isValid = true;
+
+    DirWatch(java.nio.file.Path path, WatchKey key)
+    {
+      _path = path;
+      _key = key;
+    }
+
+    java.nio.file.Path getPath()
+    {
+      return _path;
+    }
+
+    WatchKey getKey()
+    {
+      return _key;
+    }
+
+    boolean isValid()
+    {
+      return _isValid && _key.isValid();
+    }
+
+    Watch getWatch(String name)
+    {
+      Watch watch = _fileMap.get(name);
+
+      if (watch == null) {
+        watch = new Watch(name);
+
+        Watch oldWatch = _fileMap.putIfAbsent(name, watch);
+
+        if (oldWatch != null)
+          watch = oldWatch;
+      }
+
+      if (! _isValid) {
+        watch.invalidate();
+      }
+
+      return watch;
+    }
+
+    void modify(String name)
+    {
+      Watch watch = _fileMap.get(name);
+
+      if (watch != null)
+        watch.modify();
+    }
+
+    void modifyAll()
+    {
+      for (Watch watch : _fileMap.values()) {
+        watch.modify();
+      }
+    }
+
+    void invalidate()
+    {
+      _isValid = false;
+
+      for (Watch watch : _fileMap.values()) {
+        watch.invalidate();
+      }
+    }
+  }
+}
@@ -1424,7 +1424,10 @@ public abstract class Path implements Comparable<Path> {
   public void sendfile(OutputStream os, long offset, long length)
     throws IOException
   {
-    if (os instanceof OutputStreamWithBuffer) {
+    if (offset > 0 || length >= 0 && length != getLength()) {
+      writeToStream(os, offset, length);
+    }
+    else if (os instanceof OutputStreamWithBuffer) {
       writeToStream((OutputStreamWithBuffer) os);
     }
     else {
@@ -1432,6 +1435,39 @@ public abstract class Path implements Comparable<Path> {
     }
   }
 
+  /**
+   * Utility to write a range of this path to the destination stream.
+   *
+   * @param os destination stream.
+   * @param offset the starting offset in the file
+   * @param length the number of bytes to write (-1 for the rest of the file)
+   */
+  public void writeToStream(OutputStream os, long offset, long length)
+    throws IOException
+  {
+    ReadStream is = openRead();
+
+    try {
+      if (offset > 0)
+        is.skip(offset);
+
+      if (length < 0) {
+        is.writeToStream(os);
+        return;
+      }
+
+      while (length > 0) {
+        int sublen = (int) Math.min(length, Integer.MAX_VALUE);
+
+        is.writeToStream(os, sublen);
+
+        length -= sublen;
+      }
+    } finally {
+      is.close();
+    }
+  }
+
   /**
    * Returns the crc64 code.
    */
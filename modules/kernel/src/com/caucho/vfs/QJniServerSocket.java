@@ -37,7 +37,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +49,11 @@ import java.util.logging.Logger;
 public class QJniServerSocket {
   private static final L10N L = new L10N(QJniServerSocket.class);
   private static final Logger log = Logger.getLogger(QJniServerSocket.class.getName());
+
+  // opt-in, since the channel socket adaptor's timed reads differ
+  // from a plain socket's
+  private static final boolean _isSocketChannel
+    = Boolean.getBoolean("caucho.socket-channel");
   
   private QJniServerSocket()
   {
@@ -92,7 +99,7 @@ public class QJniServerSocket {
 
     for (int i = 0; i < 10; i++) {
       try {
-        ServerSocket ss = new ServerSocket(port, listenBacklog, host);
+        ServerSocket ss = openServerSocket(host, port, listenBacklog);
       
         return new QServerSocketWrapper(ss);
       } catch (BindException e) {
@@ -105,7 +112,7 @@ public class QJniServerSocket {
     }
     
     try {
-      ServerSocket ss = new ServerSocket(port, listenBacklog, host);
+      ServerSocket ss = openServerSocket(host, port, listenBacklog);
       
       return new QServerSocketWrapper(ss);
     } catch (BindException e) {
@@ -117,6 +124,33 @@ public class QJniServerSocket {
 
   }
 
+  /**
+   * Opens the pure-Java server socket. With -Dcaucho.socket-channel=true,
+   * the socket is created by a ServerSocketChannel so the accepted
+   * sockets have channels, which lets sendfile use FileChannel.transferTo
+   * without JNI.
+   */
+  private static ServerSocket openServerSocket(InetAddress host,
+                                               int port,
+                                               int listenBacklog)
+    throws IOException
+  {
+    if (! _isSocketChannel)
+      return new ServerSocket(port, listenBacklog, host);
+
+    ServerSocketChannel channel = ServerSocketChannel.open();
+
+    try {
+      channel.socket().bind(new InetSocketAddress(host, port), listenBacklog);
+    } catch (IOException e) {
+      channel.close();
+
+      throw e;
+    }
+
+    return channel.socket();
+  }
+
   /**
    * Creates the SSL ServerSocket.
    */
@@ -323,8 +323,15 @@ public class QSocketWrapper extends QSocket {
   public StreamImpl getStream()
     throws IOException
   {
-    if (_streamImpl == null)
+    if (_s != null && _s.getChannel() != null) {
+      // channel sockets can use FileChannel.transferTo for sendfile
+      if (! (_streamImpl instanceof SocketTransferStream))
+        _streamImpl = new SocketTransferStream();
+    }
+    else if (_streamImpl == null
+             || _streamImpl instanceof SocketTransferStream) {
       _streamImpl = new SocketStream();
+    }
 
     _streamImpl.init(_s);
 
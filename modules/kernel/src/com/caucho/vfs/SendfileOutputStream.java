@@ -30,6 +30,7 @@
 package com.caucho.vfs;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 /**
  * An OutputStream which supports sendfile and mmap.
@@ -52,4 +53,11 @@ public interface SendfileOutputStream {
   public void writeSendfile(byte []fileName, int nameLength,
                             long fileLength)
     throws IOException;
+
+  /**
+   * Writes a range of the file channel, using FileChannel.transferTo
+   * when the underlying stream is a socket channel.
+   */
+  public void writeTransfer(FileChannel channel, long offset, long length)
+    throws IOException;
 }
@@ -341,6 +341,11 @@ public class SocketStream extends StreamImpl {
     return _totalWriteBytes;
   }
 
+  protected void addTotalWriteBytes(long length)
+  {
+    _totalWriteBytes += length;
+  }
+
   /**
    * Closes the write half of the stream.
    */
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.vfs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+import com.caucho.inject.Module;
+
+/**
+ * Socket stream for a socket created by a SocketChannel, which can send
+ * files without native code using FileChannel.transferTo.
+ */
+@Module
+public class SocketTransferStream extends SocketStream {
+  // chunk transfers so a large file or range doesn't hold the socket
+  // in a single system call
+  private static final long TRANSFER_CHUNK = 1024 * 1024L;
+
+  private SocketChannel _channel;
+
+  public SocketTransferStream()
+  {
+  }
+
+  public SocketTransferStream(Socket s)
+  {
+    init(s);
+  }
+
+  /**
+   * Initialize the SocketTransferStream with a new Socket.
+   *
+   * @param s the new socket.
+   */
+  @Override
+  public void init(Socket s)
+  {
+    super.init(s);
+
+    _channel = s != null ? s.getChannel() : null;
+  }
+
+  /**
+   * Returns true when the socket's channel can be the target of a
+   * FileChannel.transferTo.
+   */
+  @Override
+  public boolean isSendfileEnabled()
+  {
+    SocketChannel channel = _channel;
+
+    return channel != null && channel.isBlocking();
+  }
+
+  /**
+   * Writes the file range with FileChannel.transferTo, which lets the
+   * kernel copy the file to the socket.
+   */
+  @Override
+  public void writeTransfer(FileChannel fileChannel, long offset, long length)
+    throws IOException
+  {
+    SocketChannel channel = _channel;
+
+    if (channel == null || ! channel.isBlocking()) {
+      super.writeTransfer(fileChannel, offset, length);
+      return;
+    }
+
+    // any bytes written through the socket's output stream go first
+    flush();
+
+    try {
+      while (length > 0) {
+        long sublen = Math.min(length, TRANSFER_CHUNK);
+
+        long result = fileChannel.transferTo(offset, sublen, channel);
+
+        if (result <= 0) {
+          if (fileChannel.size() <= offset)
+            throw new EOFException(this + ": unexpected end of file at "
+                                   + offset);
+
+          continue;
+        }
+
+        offset += result;
+        length -= result;
+
+        addTotalWriteBytes(result);
+      }
+    } catch (EOFException e) {
+      throw e;
+    } catch (IOException e) {
+      IOException exn = ClientDisconnectException.create(this + ":" + e, e);
+
+      try {
+        close();
+      } catch (IOException e1) {
+      }
+
+      throw exn;
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    _channel = null;
+
+    super.close();
+  }
+}
@@ -31,7 +31,10 @@ package com.caucho.vfs;
 
 import com.caucho.util.NullIterator;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
 /**
@@ -380,6 +383,42 @@ public class StreamImpl {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
+  /**
+   * Writes a range of a file channel. The default copies through a
+   * temp buffer. Streams backed by a socket channel override it to use
+   * FileChannel.transferTo.
+   */
+  public void writeTransfer(FileChannel channel, long offset, long length)
+    throws IOException
+  {
+    TempBuffer tempBuffer = TempBuffer.allocate();
+
+    try {
+      byte []buffer = tempBuffer.getBuffer();
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+      while (length > 0) {
+        byteBuffer.clear();
+
+        if (length < buffer.length)
+          byteBuffer.limit((int) length);
+
+        int sublen = channel.read(byteBuffer, offset);
+
+        if (sublen <= 0)
+          throw new EOFException(this + ": unexpected end of file at "
+                                 + offset);
+
+        write(buffer, 0, sublen, false);
+
+        offset += sublen;
+        length -= sublen;
+      }
+    } finally {
+      TempBuffer.free(tempBuffer);
+    }
+  }
+
   /**
    * Closes the write half of the stream.
    */
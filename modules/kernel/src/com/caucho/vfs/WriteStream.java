@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 import java.util.Locale;
 
@@ -1665,6 +1666,24 @@ public class WriteStream extends OutputStreamWithBuffer
     _position += fileLength;
   }
 
+  @Override
+  public void writeTransfer(FileChannel channel, long offset, long length)
+    throws IOException
+  {
+    if (_writeLength > 0) {
+      int writeLength = _writeLength;
+      _writeLength = 0;
+      _position += writeLength;
+
+      _source.write(_writeBuffer, 0, writeLength, false);
+    }
+
+    _source.writeTransfer(channel, offset, length);
+    _isFlushRequired = true;
+
+    _position += length;
+  }
+
   @Override
   public String toString()
   {
@@ -0,0 +1,645 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+package com.caucho.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.caucho.util.L10N;
+
+/**
+ * Document that is parsed from a StAX reader as it is traversed.
+ *
+ * A child is parsed only when a traversal asks for it, so a forward
+ * traversal only needs the part of the document it has reached. Small
+ * child elements (records) are parsed completely before they are
+ * returned. Elements larger than the record size stay open and are
+ * filled as their children are visited.
+ *
+ * In forward-only mode, children of an open element that the traversal
+ * has passed are released once the element's retained window is larger
+ * than the window size, which keeps memory bounded by the open elements
+ * and the current records. A second pass over released children throws
+ * a DOMException instead of returning a truncated list.
+ */
+public class QStreamDocument extends QDocument {
+  private static final long serialVersionUID = 1L;
+
+  private static final L10N L = new L10N(QStreamDocument.class);
+  private static final Logger log
+    = Logger.getLogger(QStreamDocument.class.getName());
+
+  // bytes or chars of prolog scanned for a DOCTYPE
+  private static final int PROLOG_MAX = 8 * 1024;
+
+  private XMLStreamReader _in;
+
+  // open nodes, the document itself at the bottom
+  private final ArrayList<QNode> _openStack = new ArrayList<QNode>();
+
+  private String _filename;
+
+  private long _eventCount;
+
+  private int _recordMax = 1024;
+  private int _windowMax = 8 * 1024;
+
+  private boolean _isOpen = true;
+  private boolean _isForwardOnly;
+  private boolean _isReleased;
+  private long _windowStart;
+
+  public QStreamDocument(XMLStreamReader in, String systemId)
+  {
+    if (in == null)
+      throw new NullPointerException();
+
+    _in = in;
+    _openStack.add(this);
+
+    if (systemId != null) {
+      setSystemId(systemId);
+
+      _filename = systemId;
+    }
+  }
+
+  /**
+   * Returns true if the document's prolog has no DOCTYPE, so the
+   * document can be streamed. A DOCTYPE's internal subset can define
+   * entities, which only the DOM parser resolves.
+   *
+   * @param is the document stream, which must support mark. The stream
+   * is reset before returning.
+   */
+  public static boolean isStreamableProlog(InputStream is)
+    throws IOException
+  {
+    byte []buffer = new byte[PROLOG_MAX];
+
+    is.mark(PROLOG_MAX);
+
+    int length = 0;
+
+    try {
+      int sublen;
+
+      while (length < PROLOG_MAX
+             && (sublen = is.read(buffer, length, PROLOG_MAX - length)) > 0) {
+        length += sublen;
+      }
+    } finally {
+      is.reset();
+    }
+
+    char []prolog = new char[length];
+
+    for (int i = 0; i < length; i++) {
+      // UTF-16 can't be scanned bytewise
+      if (buffer[i] == 0)
+        return false;
+
+      prolog[i] = (char) (buffer[i] & 0xff);
+    }
+
+    return isStreamableProlog(prolog, length);
+  }
+
+  /**
+   * Returns true if the document's prolog has no DOCTYPE.
+   *
+   * @param reader the document reader, which must support mark. The
+   * reader is reset before returning.
+   */
+  public static boolean isStreamableProlog(Reader reader)
+    throws IOException
+  {
+    char []prolog = new char[PROLOG_MAX];
+
+    reader.mark(PROLOG_MAX);
+
+    int length = 0;
+
+    try {
+      int sublen;
+
+      while (length < PROLOG_MAX
+             && (sublen = reader.read(prolog, length,
+                                      PROLOG_MAX - length)) > 0) {
+        length += sublen;
+      }
+    } finally {
+      reader.reset();
+    }
+
+    return isStreamableProlog(prolog, length);
+  }
+
+  /**
+   * Scans the prolog up to the top element. A DOCTYPE, or a prolog
+   * longer than the buffer, isn't streamable.
+   */
+  private static boolean isStreamableProlog(char []prolog, int length)
+  {
+    int i = 0;
+
+    while (i < length) {
+      if (prolog[i] != '<') {
+        i++;
+        continue;
+      }
+
+      if (length <= i + 1)
+        return false;
+
+      char ch = prolog[i + 1];
+
+      if (ch == '?') {
+        i = indexOf(prolog, length, "?>", i + 2);
+      }
+      else if (ch == '!') {
+        if (! startsWith(prolog, length, "<!--", i))
+          return false;
+
+        i = indexOf(prolog, length, "-->", i + 4);
+      }
+      else
+        return true;
+
+      if (i < 0)
+        return false;
+    }
+
+    return false;
+  }
+
+  private static int indexOf(char []buffer, int length,
+                             String match, int offset)
+  {
+    for (; offset < length; offset++) {
+      if (startsWith(buffer, length, match, offset))
+        return offset + match.length();
+    }
+
+    return -1;
+  }
+
+  private static boolean startsWith(char []buffer, int length,
+                                    String match, int offset)
+  {
+    if (length < offset + match.length())
+      return false;
+
+    for (int i = 0; i < match.length(); i++) {
+      if (buffer[offset + i] != match.charAt(i))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Sets the number of parse events after which an unfinished child
+   * element is returned before its end tag is parsed.
+   */
+  public void setRecordMax(int recordMax)
+  {
+    _recordMax = recordMax;
+  }
+
+  /**
+   * Sets the number of parse events retained for passed children of an
+   * open element in forward-only mode.
+   */
+  public void setWindowMax(int windowMax)
+  {
+    _windowMax = windowMax;
+  }
+
+  /**
+   * Enables forward-only mode, where passed children of open elements
+   * are released.
+   */
+  public void setForwardOnly(boolean isForwardOnly)
+  {
+    _isForwardOnly = isForwardOnly;
+  }
+
+  public boolean isForwardOnly()
+  {
+    return _isForwardOnly;
+  }
+
+  /**
+   * Returns true if the whole document has been parsed.
+   */
+  public boolean isComplete()
+  {
+    return ! _isOpen;
+  }
+
+  //
+  // DOM overrides
+  //
+
+  @Override
+  public Node getFirstChild()
+  {
+    checkRescan(this, _isReleased);
+    fillChild(this, null);
+
+    return _firstChild;
+  }
+
+  @Override
+  public Node getLastChild()
+  {
+    complete();
+
+    return _lastChild;
+  }
+
+  @Override
+  public boolean hasChildNodes()
+  {
+    if (_firstChild == null)
+      fillChild(this, null);
+
+    return _firstChild != null;
+  }
+
+  @Override
+  public NodeList getChildNodes()
+  {
+    checkRescan(this, _isReleased);
+    complete();
+
+    return super.getChildNodes();
+  }
+
+  @Override
+  public Element getDocumentElement()
+  {
+    while (_element == null && _isOpen && parseNext()) {
+    }
+
+    return _element;
+  }
+
+  @Override
+  public NodeList getElementsByTagName(String name)
+  {
+    complete();
+
+    return super.getElementsByTagName(name);
+  }
+
+  @Override
+  public NodeList getElementsByTagNameNS(String uri, String name)
+  {
+    complete();
+
+    return super.getElementsByTagNameNS(uri, name);
+  }
+
+  @Override
+  public Element getElementById(String name)
+  {
+    complete();
+
+    return super.getElementById(name);
+  }
+
+  //
+  // parsing
+  //
+
+  /**
+   * Parses the rest of the document.
+   */
+  public void complete()
+  {
+    while (_isOpen && parseNext()) {
+    }
+  }
+
+  /**
+   * Parses until the node's end tag.
+   */
+  void complete(QNode node)
+  {
+    while (isOpen(node) && parseNext()) {
+    }
+  }
+
+  /**
+   * Parses until the parent has a ready element child following
+   * <code>after</code>, or until the parent is complete. Text and other
+   * leaf children before that element are then final.
+   */
+  void fillChild(QNode parent, QAbstractNode after)
+  {
+    while (isOpen(parent)) {
+      QAbstractNode last = parent._lastChild;
+
+      if (last != after
+          && last instanceof QStreamElement
+          && isReady((QStreamElement) last)) {
+        return;
+      }
+
+      if (! parseNext())
+        return;
+    }
+  }
+
+  /**
+   * Fills the next sibling of a child element. In forward-only mode,
+   * the passed children are released when the window is full.
+   */
+  void fillNextSibling(QNode parent, QStreamElement elt)
+  {
+    if (! isOpen(parent))
+      return;
+
+    fillChild(parent, elt);
+
+    QAbstractNode next = elt._next;
+
+    if (_isForwardOnly
+        && next != null
+        && isOpen(parent)
+        && _windowMax <= _eventCount - getWindowStart(parent)) {
+      parent._firstChild = next;
+      next._previous = null;
+
+      setReleased(parent);
+    }
+  }
+
+  /**
+   * Throws if a traversal restarts on children that were released.
+   */
+  void checkRescan(QNode node, boolean isReleased)
+  {
+    if (isReleased) {
+      throw new QDOMException(DOMException.INVALID_STATE_ERR,
+                              L.l("<{0}> cannot be traversed twice because its passed children were released in forward-only streaming mode.",
+                                  node.getNodeName()));
+    }
+  }
+
+  /**
+   * Closes the underlying reader.
+   */
+  public void close()
+  {
+    XMLStreamReader in = _in;
+    _in = null;
+
+    _isOpen = false;
+    _openStack.clear();
+
+    try {
+      if (in != null)
+        in.close();
+    } catch (XMLStreamException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  private boolean isReady(QStreamElement elt)
+  {
+    return ! elt._isOpen || _recordMax <= _eventCount - elt._startIndex;
+  }
+
+  private boolean isOpen(QNode node)
+  {
+    if (node == this)
+      return _isOpen;
+    else if (node instanceof QStreamElement)
+      return ((QStreamElement) node)._isOpen;
+    else
+      return false;
+  }
+
+  private long getWindowStart(QNode node)
+  {
+    if (node == this)
+      return _windowStart;
+    else
+      return ((QStreamElement) node)._windowStart;
+  }
+
+  private void setReleased(QNode node)
+  {
+    if (node == this) {
+      _isReleased = true;
+      _windowStart = _eventCount;
+    }
+    else {
+      QStreamElement elt = (QStreamElement) node;
+
+      elt._isReleased = true;
+      elt._windowStart = _eventCount;
+    }
+  }
+
+  /**
+   * Parses the next event, appending it to the innermost open node.
+   *
+   * @return false if the document is complete
+   */
+  private boolean parseNext()
+  {
+    XMLStreamReader in = _in;
+
+    if (in == null || _openStack.size() == 0)
+      return false;
+
+    try {
+      int event = in.next();
+
+      _eventCount++;
+
+      QNode top = _openStack.get(_openStack.size() - 1);
+
+      switch (event) {
+      case XMLStreamConstants.START_ELEMENT:
+        startElement(in, top);
+        break;
+
+      case XMLStreamConstants.END_ELEMENT:
+        endElement();
+        break;
+
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.SPACE:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.ENTITY_REFERENCE:
+        text(top, in.getText());
+        break;
+
+      case XMLStreamConstants.COMMENT:
+        top.appendChild(createComment(in.getText()));
+        break;
+
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        top.appendChild(createProcessingInstruction(in.getPITarget(),
+                                                    in.getPIData()));
+        break;
+
+      case XMLStreamConstants.END_DOCUMENT:
+      case -1:
+        endDocument();
+        break;
+
+      default:
+        break;
+      }
+
+      return true;
+    } catch (XMLStreamException e) {
+      endDocument();
+
+      throw new QDOMException(DOMException.SYNTAX_ERR, e.toString());
+    }
+  }
+
+  private void startElement(XMLStreamReader in, QNode parent)
+  {
+    QStreamElement elt
+      = new QStreamElement(this, createName(in.getPrefix(),
+                                            in.getLocalName(),
+                                            in.getNamespaceURI()),
+                           _eventCount);
+
+    int nsCount = in.getNamespaceCount();
+    for (int i = 0; i < nsCount; i++) {
+      String prefix = in.getNamespacePrefix(i);
+      String xmlns;
+
+      if (prefix == null || prefix.equals(""))
+        xmlns = "xmlns";
+      else
+        xmlns = "xmlns:" + prefix;
+
+      elt.setAttribute(new QName(null, xmlns, null), in.getNamespaceURI(i));
+    }
+
+    int attrCount = in.getAttributeCount();
+    for (int i = 0; i < attrCount; i++) {
+      elt.setAttribute(createName(in.getAttributePrefix(i),
+                                  in.getAttributeLocalName(i),
+                                  in.getAttributeNamespace(i)),
+                       in.getAttributeValue(i));
+    }
+
+    Location location = in.getLocation();
+    if (location != null) {
+      elt.setLocation(getSystemId(), _filename,
+                      location.getLineNumber(),
+                      location.getColumnNumber());
+    }
+
+    parent.appendChild(elt);
+
+    _openStack.add(elt);
+  }
+
+  private QName createName(String prefix, String localName, String uri)
+  {
+    if ("".equals(prefix))
+      prefix = null;
+
+    if ("".equals(uri))
+      uri = null;
+
+    String qName;
+
+    if (prefix != null)
+      qName = prefix + ":" + localName;
+    else
+      qName = localName;
+
+    return new QName(qName, prefix, localName, uri);
+  }
+
+  private void endElement()
+  {
+    int size = _openStack.size();
+
+    if (size > 1) {
+      QStreamElement elt = (QStreamElement) _openStack.remove(size - 1);
+
+      elt._isOpen = false;
+    }
+  }
+
+  private void text(QNode parent, String text)
+  {
+    if (text == null || text.length() == 0)
+      return;
+
+    // whitespace around the document element is not part of the tree
+    if (parent == this)
+      return;
+
+    QAbstractNode last = parent._lastChild;
+
+    if (last instanceof QText)
+      ((QText) last).appendData(text);
+    else
+      parent.appendChild(createTextNode(text));
+  }
+
+  private void endDocument()
+  {
+    for (int i = _openStack.size() - 1; i > 0; i--) {
+      ((QStreamElement) _openStack.get(i))._isOpen = false;
+    }
+
+    _openStack.clear();
+
+    _isOpen = false;
+  }
+}
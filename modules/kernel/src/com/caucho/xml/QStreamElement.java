@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+package com.caucho.xml;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Element of a {@link QStreamDocument}. The children are parsed on
+ * demand as they are traversed.
+ */
+public class QStreamElement extends QElement {
+  private static final long serialVersionUID = 1L;
+
+  // true while the element's end tag has not been parsed
+  boolean _isOpen = true;
+  // true when passed children were released in forward-only mode
+  boolean _isReleased;
+
+  // parse event count at the element's start tag
+  long _startIndex;
+  // parse event count at the start of the retained child window
+  long _windowStart;
+
+  QStreamElement(QStreamDocument owner, QName name, long startIndex)
+  {
+    super(owner, name);
+
+    _startIndex = startIndex;
+    _windowStart = startIndex;
+  }
+
+  /**
+   * Returns true if the element's content is completely parsed.
+   */
+  public boolean isComplete()
+  {
+    return ! _isOpen;
+  }
+
+  private QStreamDocument getStreamDocument()
+  {
+    return (QStreamDocument) _owner;
+  }
+
+  @Override
+  public Node getFirstChild()
+  {
+    QStreamDocument doc = getStreamDocument();
+
+    doc.checkRescan(this, _isReleased);
+    doc.fillChild(this, null);
+
+    return _firstChild;
+  }
+
+  @Override
+  public Node getLastChild()
+  {
+    getStreamDocument().complete(this);
+
+    return _lastChild;
+  }
+
+  @Override
+  public Node getNextSibling()
+  {
+    if (_parent != null)
+      getStreamDocument().fillNextSibling(_parent, this);
+
+    return _next;
+  }
+
+  @Override
+  public boolean hasChildNodes()
+  {
+    if (_firstChild == null)
+      getStreamDocument().fillChild(this, null);
+
+    return _firstChild != null;
+  }
+
+  @Override
+  public NodeList getChildNodes()
+  {
+    QStreamDocument doc = getStreamDocument();
+
+    doc.checkRescan(this, _isReleased);
+    doc.complete(this);
+
+    return super.getChildNodes();
+  }
+
+  @Override
+  public NodeList getElementsByTagName(String tagName)
+  {
+    getStreamDocument().complete(this);
+
+    return super.getElementsByTagName(tagName);
+  }
+
+  @Override
+  public NodeList getElementsByTagNameNS(String uri, String name)
+  {
+    getStreamDocument().complete(this);
+
+    return super.getElementsByTagNameNS(uri, name);
+  }
+
+  @Override
+  public String getTextValue()
+  {
+    QStreamDocument doc = getStreamDocument();
+
+    doc.checkRescan(this, _isReleased);
+    doc.complete(this);
+
+    return super.getTextValue();
+  }
+
+  @Override
+  public void normalize()
+  {
+    getStreamDocument().complete(this);
+
+    super.normalize();
+  }
+
+  @Override
+  public QAbstractNode getNextPreorder()
+  {
+    getStreamDocument().complete();
+
+    return super.getNextPreorder();
+  }
+}
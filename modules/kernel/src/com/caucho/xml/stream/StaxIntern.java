@@ -36,14 +36,24 @@ import javax.xml.namespace.QName;
  */
 public class StaxIntern {
   private static final int SIZE = 203;
+  private static final int ENTRY_MAX = 4096;
   
   private final Entry []_entries = new Entry[SIZE];
+  private int _entryCount;
 
   private final NamespaceReaderContext _namespaceContext;
+  private final StaxNameCache _nameCache;
 
   StaxIntern(NamespaceReaderContext namespaceContext)
+  {
+    this(namespaceContext, null);
+  }
+
+  StaxIntern(NamespaceReaderContext namespaceContext,
+             StaxNameCache nameCache)
   {
     _namespaceContext = namespaceContext;
+    _nameCache = nameCache;
   }
 
   Entry add(char []buffer, int offset, int length, int colon, 
@@ -66,11 +76,17 @@ public class StaxIntern {
         return entry;
     }
 
+    // documents with unbounded vocabularies don't grow the table
+    if (ENTRY_MAX <= _entryCount) {
+      return new Entry(null, buffer, offset, length, colon, isAttribute);
+    }
+
     entry = new Entry(_entries[bucket],
                       buffer, offset, length,
                       colon,
                       isAttribute);
     _entries[bucket] = entry;
+    _entryCount++;
 
     return entry;
   }
@@ -101,12 +117,12 @@ public class StaxIntern {
       _isAttribute = isAttribute;
 
       if (colon > 0) {
-        _prefix = new String(buf, 0, colon);
-        _localName = new String(buf, colon + 1, length - colon - 1);
+        _prefix = createName(buf, offset, colon);
+        _localName = createName(buf, offset + colon + 1, length - colon - 1);
       }
       else {
         _prefix = XMLConstants.DEFAULT_NS_PREFIX;
-        _localName = new String(buf, 0, length);
+        _localName = createName(buf, offset, length);
       }
 
       if (_isAttribute)
@@ -160,7 +176,24 @@ public class StaxIntern {
       if (prefix == null)
         prefix = "";
 
-      _qName = new QName(_namespace.getUri(), _localName, prefix);
+      if (_nameCache != null) {
+        String uri = _namespace.getUri();
+
+        if (uri == null)
+          uri = XMLConstants.NULL_NS_URI;
+        
+        _qName = _nameCache.getQName(uri, _localName, prefix);
+      }
+      else
+        _qName = new QName(_namespace.getUri(), _localName, prefix);
     }
   }
+
+  private String createName(char []buf, int offset, int length)
+  {
+    if (_nameCache != null)
+      return _nameCache.getName(buf, offset, length);
+    else
+      return new String(buf, offset, length);
+  }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.xml.stream;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Bounded name table shared by the readers of a factory, so repeated
+ * documents with the same vocabulary reuse their name strings and QNames.
+ *
+ * The tables are direct-mapped: a colliding name replaces the previous
+ * entry, which keeps the size fixed without locking.  The cached values
+ * are immutable, so readers on other threads can share them safely.
+ */
+public class StaxNameCache {
+  private static final int DEFAULT_SIZE = 1024;
+
+  private final String []_names;
+  private final QName []_qNames;
+  private final int _mask;
+
+  public StaxNameCache()
+  {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * @param size the number of slots, rounded up to a power of two.
+   */
+  public StaxNameCache(int size)
+  {
+    int capacity = 16;
+
+    while (capacity < size)
+      capacity *= 2;
+
+    _names = new String[capacity];
+    _qNames = new QName[capacity];
+    _mask = capacity - 1;
+  }
+
+  /**
+   * Returns the interned string for the characters.
+   */
+  public String getName(char []buffer, int offset, int length)
+  {
+    int hash = 0;
+
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + buffer[offset + i];
+    }
+
+    int bucket = (hash ^ (hash >>> 16)) & _mask;
+
+    String name = _names[bucket];
+
+    if (name != null && name.length() == length) {
+      int i = length - 1;
+
+      for (; i >= 0 && name.charAt(i) == buffer[offset + i]; i--) {
+      }
+
+      if (i < 0)
+        return name;
+    }
+
+    name = new String(buffer, offset, length);
+    _names[bucket] = name;
+
+    return name;
+  }
+
+  /**
+   * Returns the interned QName.
+   */
+  public QName getQName(String uri, String localName, String prefix)
+  {
+    int hash = localName.hashCode() * 65521 + uri.hashCode();
+
+    int bucket = (hash ^ (hash >>> 16)) & _mask;
+
+    QName qName = _qNames[bucket];
+
+    if (qName != null
+        && localName.equals(qName.getLocalPart())
+        && uri.equals(qName.getNamespaceURI())
+        && prefix.equals(qName.getPrefix())) {
+      return qName;
+    }
+
+    qName = new QName(uri, localName, prefix);
+    _qNames[bucket] = qName;
+
+    return qName;
+  }
+}
@@ -28,6 +28,9 @@
 */
 
 package com.caucho.xml.stream;
+
+import com.caucho.vfs.Vfs;
+
 import javax.xml.stream.*;
 import javax.xml.stream.util.XMLEventAllocator;
 import javax.xml.transform.Source;
@@ -47,6 +50,9 @@ public class XMLInputFactoryImpl extends XMLInputFactory {
   private XMLReporter _reporter;
   private XMLResolver _resolver;
 
+  // name strings and QNames shared by this factory's readers
+  private final StaxNameCache _nameCache = new StaxNameCache();
+
   public XMLInputFactoryImpl()
   {
   }
@@ -138,7 +144,7 @@ public class XMLInputFactoryImpl extends XMLInputFactory {
   public XMLStreamReader createXMLStreamReader(InputStream stream)
     throws XMLStreamException
   {
-    return new XMLStreamReaderImpl(stream);
+    return new XMLStreamReaderImpl(Vfs.openRead(stream), null, _nameCache);
   }
 
   public XMLStreamReader 
@@ -150,7 +156,7 @@ public class XMLInputFactoryImpl extends XMLInputFactory {
     
     try {
       InputStreamReader isr = new InputStreamReader(stream, encoding);
-      return new XMLStreamReaderImpl(isr);
+      return new XMLStreamReaderImpl(isr, null, _nameCache);
     }
     catch (IOException e) {
       throw new XMLStreamException(e);
@@ -160,7 +166,7 @@ public class XMLInputFactoryImpl extends XMLInputFactory {
   public XMLStreamReader createXMLStreamReader(Reader reader)
     throws XMLStreamException
   {
-    return new XMLStreamReaderImpl(reader);
+    return new XMLStreamReaderImpl(reader, null, _nameCache);
   }
 
   /**
@@ -174,19 +180,23 @@ public class XMLInputFactoryImpl extends XMLInputFactory {
 
       InputStream is = streamSource.getInputStream();
 
+      String systemId = streamSource.getSystemId();
+
       if (is != null) 
-        return new XMLStreamReaderImpl(is);
+        return new XMLStreamReaderImpl(Vfs.openRead(is), systemId,
+                                       _nameCache);
 
       Reader r = streamSource.getReader();
 
       if (r != null)
-        return new XMLStreamReaderImpl(r);
+        return new XMLStreamReaderImpl(r, systemId, _nameCache);
 
       if (streamSource.getSystemId() != null) {
         try {
           URL url = new URL(streamSource.getSystemId());
 
-          return new XMLStreamReaderImpl(url.openStream());
+          return new XMLStreamReaderImpl(Vfs.openRead(url.openStream()),
+                                         systemId, _nameCache);
         }
         catch (MalformedURLException e) {
           throw new XMLStreamException(e);
@@ -210,13 +220,14 @@ public class XMLInputFactoryImpl extends XMLInputFactory {
     createXMLStreamReader(String systemId, InputStream stream)
     throws XMLStreamException
   {
-    return new XMLStreamReaderImpl(stream, systemId);
+    return new XMLStreamReaderImpl(Vfs.openRead(stream), systemId,
+                                   _nameCache);
   }
 
   public XMLStreamReader createXMLStreamReader(String systemId, Reader reader)
     throws XMLStreamException
   {
-    return new XMLStreamReaderImpl(reader, systemId);
+    return new XMLStreamReaderImpl(reader, systemId, _nameCache);
   }
 
   public XMLEventAllocator getEventAllocator()
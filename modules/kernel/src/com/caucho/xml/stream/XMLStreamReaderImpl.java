@@ -55,9 +55,12 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
   private static final boolean []IS_XML_NAME = new boolean[65536];
 
   private StaxIntern _intern;
+  private StaxNameCache _nameCache;
 
   private ReadStream _is;
   private Reader _reader;
+  // true when UTF-8 is decoded directly from the ReadStream's buffer
+  private boolean _isUtf8;
 
   private int _lastCol = 1;
   private int _col = 1;
@@ -78,6 +81,8 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
   private int _state;
   private boolean _isShortTag;
   private boolean _isWhitespace = false;
+  private boolean _isInCdata;
+  private int _cdataBrackets;
 
   private boolean _eofEncountered = false;
 
@@ -90,7 +95,11 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
   private StaxIntern.Entry []_attrRawNames = new StaxIntern.Entry[16];
   private QName []_attrNames = new QName[16];
   private String []_attrValues = new String[16];
+  private int []_attrOffsets = new int[16];
+  private int []_attrLengths = new int[16];
   private int _attrCount;
+  private char []_attrBuf = new char[256];
+  private int _attrBufLength;
   private final StringBuilder _sb = new StringBuilder();
   
   private TempCharBuffer _tempInputBuffer;
@@ -101,6 +110,7 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
   private TempCharBuffer _tempCharBuffer;
   private char []_cBuf;
   private int _cBufLength;
+  private String _text;
 
   public XMLStreamReaderImpl(InputStream is)
     throws XMLStreamException
@@ -139,11 +149,39 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     init();
   }
 
+  /**
+   * Creates a reader sharing the factory's name table.
+   */
+  XMLStreamReaderImpl(ReadStream is, String systemId,
+                      StaxNameCache nameCache)
+    throws XMLStreamException
+  {
+    _is = is;
+    _systemId = systemId;
+    _nameCache = nameCache;
+
+    init();
+  }
+
+  /**
+   * Creates a reader sharing the factory's name table.
+   */
+  XMLStreamReaderImpl(Reader reader, String systemId,
+                      StaxNameCache nameCache)
+    throws XMLStreamException
+  {
+    _reader = reader;
+    _systemId = systemId;
+    _nameCache = nameCache;
+
+    init();
+  }
+
   public void init()
     throws XMLStreamException
   {
     _namespaceTracker = new NamespaceReaderContext();
-    _intern = new StaxIntern(_namespaceTracker);
+    _intern = new StaxIntern(_namespaceTracker, _nameCache);
     
     _tempCharBuffer = TempCharBuffer.allocate();
     _cBuf = _tempCharBuffer.getBuffer();
@@ -222,7 +260,47 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
       throw new IllegalArgumentException(L.l("element only has {0} attributes, given index {1}",
                                              _attrCount, index));
 
-    return _attrValues[index];
+    String value = _attrValues[index];
+
+    if (value == null) {
+      value = new String(_attrBuf, _attrOffsets[index], _attrLengths[index]);
+      _attrValues[index] = value;
+    }
+
+    return value;
+  }
+
+  /**
+   * Returns the buffer holding the current element's attribute values.
+   * The buffer is only valid until the next event.
+   */
+  public char []getAttributeCharacters()
+  {
+    return _attrBuf;
+  }
+
+  /**
+   * Returns the offset of the attribute value in the attribute buffer.
+   */
+  public int getAttributeTextStart(int index)
+  {
+    if (_attrCount <= index)
+      throw new IllegalArgumentException(L.l("element only has {0} attributes, given index {1}",
+                                             _attrCount, index));
+
+    return _attrOffsets[index];
+  }
+
+  /**
+   * Returns the length of the attribute value in the attribute buffer.
+   */
+  public int getAttributeTextLength(int index)
+  {
+    if (_attrCount <= index)
+      throw new IllegalArgumentException(L.l("element only has {0} attributes, given index {1}",
+                                             _attrCount, index));
+
+    return _attrLengths[index];
   }
 
   public boolean isAttributeSpecified(int index)
@@ -238,11 +316,11 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
       // namespaceURI == null means ignore namespace
       if (namespaceURI == null) {
         if (name.getLocalPart().equals(localName)) 
-          return _attrValues[i];
+          return getAttributeValue(i);
       }
       else if (name.getLocalPart().equals(localName)
                && name.getNamespaceURI().equals(namespaceURI))
-        return _attrValues[i];
+        return getAttributeValue(i);
     }
 
     return null;
@@ -414,7 +492,10 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
    */
   public String getText()
   {
-    return new String(_cBuf, 0, _cBufLength);
+    if (_text == null)
+      _text = new String(_cBuf, 0, _cBufLength);
+
+    return _text;
   }
 
   /**
@@ -620,6 +701,7 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     throws IOException, XMLStreamException
   {
     _cBufLength = 0;
+    _text = null;
 
     // we pop the namespace context when the user is finished
     // working with the END_ELEMENT event
@@ -631,6 +713,9 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
       return END_ELEMENT;
     }
 
+    if (_isInCdata)
+      return readCdata();
+
     _name = null;
 
     int ch = read();
@@ -647,6 +732,25 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
         return END_ELEMENT;
 
       case '!':
+        ch = read();
+
+        if (ch == '[') {
+          expect("CDATA[");
+
+          _isInCdata = true;
+          _cdataBrackets = 0;
+
+          return readCdata();
+        }
+        else if (ch == 'D') {
+          expect("OCTYPE");
+
+          skipDoctype();
+
+          return DTD;
+        }
+
+        unread();
         expect('-');
         expect('-');
         return readComment();
@@ -717,6 +821,8 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     int ch;
     int attrCount = 0;
 
+    _attrBufLength = 0;
+
     while ((ch = skipWhitespace()) >= 0 && IS_XML_NAME[ch]) {
       unread();
 
@@ -734,15 +840,20 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
 
       if (ch == '\'' || ch == '"') {
         if ("xmlns".equals(rawName.getPrefix())) {
-          _namespaceTracker.declare(rawName.getLocalName(), readValue(ch));
+          _namespaceTracker.declare(rawName.getLocalName(),
+                                    readValueString(ch));
         }
         else if ("xmlns".equals(rawName.getLocalName())) {
           _namespaceTracker.declare(XMLConstants.DEFAULT_NS_PREFIX, 
-                                    readValue(ch));
+                                    readValueString(ch));
         }
         else {
+          int offset = readValue(ch);
+          
           _attrRawNames[attrCount] = rawName;
-          _attrValues[attrCount++] = readValue(ch);
+          _attrValues[attrCount] = null;
+          _attrOffsets[attrCount] = offset;
+          _attrLengths[attrCount++] = _attrBufLength - offset;
         }
       }
       else
@@ -754,35 +865,93 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     return ch;
   }
 
-  private String readValue(int end)
+  /**
+   * Reads an attribute value as a string, used for namespace declarations.
+   */
+  private String readValueString(int end)
     throws XMLStreamException
   {
-    char []valueBuffer = _cBuf;
-    int valueIndex = 0;
+    int offset = readValue(end);
+
+    String value = new String(_attrBuf, offset, _attrBufLength - offset);
+
+    _attrBufLength = offset;
+
+    return value;
+  }
+
+  /**
+   * Reads an attribute value into the attribute buffer, returning
+   * its offset.
+   */
+  private int readValue(int end)
+    throws XMLStreamException
+  {
+    int offset = _attrBufLength;
+    char []valueBuffer = _attrBuf;
+    int valueIndex = offset;
 
     while (true) {
       int ch = read();
 
-      switch (ch) {
-        case -1:
-          return new String(valueBuffer, 0, valueIndex);
+      if (ch < 0 || ch == end) {
+        _attrBufLength = valueIndex;
+        
+        return offset;
+      }
 
-        case '"': case '\'':
-          if (ch == end)
-            return new String(valueBuffer, 0, valueIndex);
-          else
-            valueBuffer[valueIndex++] = (char) ch;
-          break;
+      if (ch == '&') {
+        _attrBufLength = valueIndex;
+        
+        String value = resolveEntity(readEntityName());
 
-        case '&':
-          valueBuffer[valueIndex++] = (char) ch;
-          break;
+        if (valueBuffer.length <= valueIndex + value.length())
+          valueBuffer = extendAttrBuffer(valueIndex + value.length());
 
-        default:
-          valueBuffer[valueIndex++] = (char) ch;
-          break;
+        value.getChars(0, value.length(), valueBuffer, valueIndex);
+        valueIndex += value.length();
+        continue;
+      }
+
+      if (valueBuffer.length <= valueIndex) {
+        _attrBufLength = valueIndex;
+        valueBuffer = extendAttrBuffer(valueIndex + 1);
       }
+
+      valueBuffer[valueIndex++] = (char) ch;
+    }
+  }
+
+  private String readEntityName()
+    throws XMLStreamException
+  {
+    StringBuilder sb = _sb;
+    sb.setLength(0);
+
+    int ch;
+
+    while ((ch = read()) >= 0 && ch != ';') {
+      if (ch == '<' || ch == '"' || ch == '\'' || sb.length() > 32)
+        throw error(L.l("unclosed entity '&{0}'", sb));
+      
+      sb.append((char) ch);
     }
+
+    return sb.toString();
+  }
+
+  private char []extendAttrBuffer(int length)
+  {
+    int newLength = 2 * _attrBuf.length;
+
+    while (newLength < length)
+      newLength *= 2;
+
+    char []attrBuf = new char[newLength];
+    System.arraycopy(_attrBuf, 0, attrBuf, 0, _attrBufLength);
+    _attrBuf = attrBuf;
+
+    return attrBuf;
   }
 
   private void extendAttrs()
@@ -800,6 +969,14 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     String []attrValues = new String[length + 16];
     System.arraycopy(_attrValues, 0, attrValues, 0, length);
     _attrValues = attrValues;
+
+    int []attrOffsets = new int[length + 16];
+    System.arraycopy(_attrOffsets, 0, attrOffsets, 0, length);
+    _attrOffsets = attrOffsets;
+
+    int []attrLengths = new int[length + 16];
+    System.arraycopy(_attrLengths, 0, attrLengths, 0, length);
+    _attrLengths = attrLengths;
   }
 
   private int readData()
@@ -944,6 +1121,78 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     return COMMENT;
   }
 
+  /**
+   * Reads the text of a CDATA section. A section larger than the text
+   * buffer is returned as several CDATA events.
+   */
+  private int readCdata()
+    throws XMLStreamException
+  {
+    char []cBuf = _cBuf;
+    int length = cBuf.length - 3;
+    int index = 0;
+    int brackets = _cdataBrackets;
+    int ch;
+
+    while (index < length && (ch = read()) >= 0) {
+      if (ch == ']') {
+        if (brackets < 2)
+          brackets++;
+        else
+          cBuf[index++] = ']';
+      }
+      else if (ch == '>' && brackets == 2) {
+        brackets = 0;
+        _isInCdata = false;
+        break;
+      }
+      else {
+        for (; brackets > 0; brackets--)
+          cBuf[index++] = ']';
+
+        cBuf[index++] = (char) ch;
+      }
+    }
+
+    if (_isInCdata && index < length) {
+      // end of file inside the section
+      _isInCdata = false;
+
+      for (; brackets > 0; brackets--)
+        cBuf[index++] = ']';
+    }
+
+    _cdataBrackets = brackets;
+    _cBufLength = index;
+
+    return CDATA;
+  }
+
+  /**
+   * Skips a DOCTYPE declaration with an external id. An internal subset
+   * can declare entities and default attributes, which this reader
+   * doesn't process, so it is an error instead of being skipped.
+   */
+  private void skipDoctype()
+    throws XMLStreamException
+  {
+    int quote = 0;
+    int ch;
+
+    while ((ch = read()) >= 0) {
+      if (quote != 0) {
+        if (ch == quote)
+          quote = 0;
+      }
+      else if (ch == '"' || ch == '\'')
+        quote = ch;
+      else if (ch == '[')
+        throw error(L.l("DOCTYPE internal subsets are not supported"));
+      else if (ch == '>')
+        return;
+    }
+  }
+
   private void readRawName(RawName name)
     throws IOException, XMLStreamException
   {
@@ -1113,7 +1362,11 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
         data = data.substring(data.indexOf(quot, 1)+1).trim();
 
         try {
-          if (_is != null)
+          if (_is == null) {
+          }
+          else if (isUtf8(_encoding))
+            _isUtf8 = true;
+          else
             _is.setEncoding(_encoding);
         }
         catch (java.io.UnsupportedEncodingException e) {
@@ -1144,6 +1397,14 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
       throw error(L.l("expected {0} at {1}", charName(expect), charName(ch)));
   }
 
+  private void expect(String expect)
+    throws XMLStreamException
+  {
+    for (int i = 0; i < expect.length(); i++) {
+      expect(expect.charAt(i));
+    }
+  }
+
   /**
    * Reads a character.
    */
@@ -1248,7 +1509,10 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     throws XMLStreamException
   {
     try {
-      if (_is != null) {
+      if (_is != null && _isUtf8) {
+        return fillUtf8Buffer();
+      }
+      else if (_is != null) {
         _inputOffset = 0;
 
         _inputLength = _is.read(_inputBuf, 0, _inputBuf.length);
@@ -1272,6 +1536,126 @@ public class XMLStreamReaderImpl implements XMLStreamReader {
     }
   }
 
+  /**
+   * Decodes UTF-8 directly from the read stream's byte buffer, with
+   * a fast path for ASCII.
+   */
+  private boolean fillUtf8Buffer()
+    throws IOException
+  {
+    ReadStream is = _is;
+    char []inputBuf = _inputBuf;
+    // leave room for a surrogate pair
+    int inputEnd = inputBuf.length - 1;
+    int length = 0;
+
+    _inputOffset = 0;
+    _inputLength = 0;
+
+    if (is.getLength() <= is.getOffset() && is.fillBuffer() < 0)
+      return false;
+
+    byte []buffer = is.getBuffer();
+    int offset = is.getOffset();
+    int end = is.getLength();
+
+    while (length < inputEnd) {
+      if (end <= offset) {
+        // return what's decoded instead of blocking for more
+        if (length > 0 || is.fillBuffer() < 0)
+          break;
+
+        buffer = is.getBuffer();
+        offset = is.getOffset();
+        end = is.getLength();
+      }
+
+      int ch = buffer[offset];
+
+      if (ch >= 0) {
+        offset++;
+        inputBuf[length++] = (char) ch;
+        continue;
+      }
+
+      is.setOffset(offset + 1);
+
+      length = readUtf8(is, ch & 0xff, inputBuf, length);
+
+      buffer = is.getBuffer();
+      offset = is.getOffset();
+      end = is.getLength();
+    }
+
+    is.setOffset(offset);
+
+    _inputLength = length;
+
+    return length > 0;
+  }
+
+  /**
+   * Decodes a multibyte UTF-8 character.
+   */
+  private static int readUtf8(ReadStream is, int ch,
+                              char []buf, int length)
+    throws IOException
+  {
+    int count;
+    int value;
+
+    if ((ch & 0xe0) == 0xc0) {
+      count = 1;
+      value = ch & 0x1f;
+    }
+    else if ((ch & 0xf0) == 0xe0) {
+      count = 2;
+      value = ch & 0x0f;
+    }
+    else if ((ch & 0xf8) == 0xf0) {
+      count = 3;
+      value = ch & 0x07;
+    }
+    else {
+      buf[length++] = 0xfffd;
+      return length;
+    }
+
+    for (; count > 0; count--) {
+      int next = is.read();
+
+      if (next < 0) {
+        buf[length++] = 0xfffd;
+        return length;
+      }
+      else if ((next & 0xc0) != 0x80) {
+        is.unread();
+        buf[length++] = 0xfffd;
+        return length;
+      }
+
+      value = (value << 6) + (next & 0x3f);
+    }
+
+    if (value < 0x10000) {
+      buf[length++] = (char) value;
+    }
+    else {
+      value -= 0x10000;
+
+      buf[length++] = (char) (0xd800 + (value >> 10));
+      buf[length++] = (char) (0xdc00 + (value & 0x3ff));
+    }
+
+    return length;
+  }
+
+  private static boolean isUtf8(String encoding)
+  {
+    return ("utf-8".equalsIgnoreCase(encoding)
+            || "utf8".equalsIgnoreCase(encoding));
+  }
+
   private String charName(int ch)
   {
     if (ch < 0)
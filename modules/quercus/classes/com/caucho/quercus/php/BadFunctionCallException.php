@@ -0,0 +1,7 @@
+<?php
+
+class BadFunctionCallException extends LogicException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class BadMethodCallException extends BadFunctionCallException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class DomainException extends LogicException
+{
+}
+
+?>
\ No newline at end of file
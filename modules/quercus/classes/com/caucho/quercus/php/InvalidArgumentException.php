@@ -0,0 +1,7 @@
+<?php
+
+class InvalidArgumentException extends LogicException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class LengthException extends LogicException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class LogicException extends Exception
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class OutOfBoundsException extends RuntimeException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class OutOfRangeException extends LogicException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class OverflowException extends RuntimeException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class RangeException extends RuntimeException
+{
+}
+
+?>
\ No newline at end of file
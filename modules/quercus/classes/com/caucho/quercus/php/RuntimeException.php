@@ -0,0 +1,7 @@
+<?php
+
+class RuntimeException extends Exception
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class UnderflowException extends RuntimeException
+{
+}
+
+?>
\ No newline at end of file
@@ -0,0 +1,7 @@
+<?php
+
+class UnexpectedValueException extends RuntimeException
+{
+}
+
+?>
\ No newline at end of file
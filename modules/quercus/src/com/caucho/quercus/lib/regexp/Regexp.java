@@ -68,6 +68,9 @@ public class Regexp {
   boolean []_firstSet;
   boolean _isAnchorBegin;
 
+  RegexpLiteral _literalPrefix; // case-sensitive literal starting each match
+  RegexpLiteral _requiredLiteral; // case-sensitive literal in each match
+
   StringValue []_groupNames;
 
   boolean _isUnicode;
@@ -247,6 +250,14 @@ public class Regexp {
     _firstSet = prog.firstSet(new boolean[256]);
     _prefix = new CharBuffer(prog.prefix());
 
+    String literalPrefix = prog.literalPrefix();
+    String requiredLiteral = prog.requiredLiteral();
+
+    _literalPrefix = RegexpLiteral.create(literalPrefix);
+
+    if (! requiredLiteral.equals(literalPrefix))
+      _requiredLiteral = RegexpLiteral.create(requiredLiteral);
+
     //this._prog = RegOptim.linkLoops(prog);
 
     _nGroup = comp._maxGroup;
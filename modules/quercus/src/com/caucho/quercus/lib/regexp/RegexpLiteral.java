@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.lib.regexp;
+
+import com.caucho.quercus.env.StringValue;
+
+/**
+ * Case-sensitive literal extracted from a compiled regexp, used to skip
+ * or reject candidate subjects before running the node interpreter.
+ *
+ * Uses a Boyer-Moore-Horspool scan over the subject.
+ */
+final class RegexpLiteral {
+  private static final int TABLE_SIZE = 256;
+  private static final int TABLE_MASK = TABLE_SIZE - 1;
+
+  private final char []_literal;
+  private final int []_skip;
+
+  RegexpLiteral(String literal)
+  {
+    _literal = literal.toCharArray();
+
+    int len = _literal.length;
+
+    _skip = new int[TABLE_SIZE];
+
+    for (int i = 0; i < TABLE_SIZE; i++) {
+      _skip[i] = len;
+    }
+
+    for (int i = 0; i < len - 1; i++) {
+      _skip[_literal[i] & TABLE_MASK] = len - 1 - i;
+    }
+  }
+
+  /**
+   * Returns the literal for the string, or null for an empty string.
+   */
+  static RegexpLiteral create(String literal)
+  {
+    if (literal == null || literal.length() == 0)
+      return null;
+    else
+      return new RegexpLiteral(literal);
+  }
+
+  int length()
+  {
+    return _literal.length;
+  }
+
+  /**
+   * Returns the first offset of the literal in the subject at or after
+   * start, or -1 if the literal does not occur before end.
+   */
+  int indexOf(StringValue subject, int start, int end)
+  {
+    char []literal = _literal;
+    int []skip = _skip;
+    int last = literal.length - 1;
+
+    if (start < 0)
+      start = 0;
+
+    for (int i = start + last; i < end; ) {
+      char ch = subject.charAt(i);
+
+      if (ch == literal[last]) {
+        int j = last - 1;
+        int k = i - 1;
+
+        for (; j >= 0 && subject.charAt(k) == literal[j]; j--, k--) {
+        }
+
+        if (j < 0)
+          return i - last;
+      }
+
+      i += skip[ch & TABLE_MASK];
+    }
+
+    return -1;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + new String(_literal) + "]";
+  }
+}
@@ -39,6 +39,8 @@ import com.caucho.quercus.annotation.UsesSymbolTable;
 import com.caucho.quercus.env.*;
 import com.caucho.quercus.lib.i18n.MbstringModule;
 import com.caucho.quercus.module.AbstractQuercusModule;
+import com.caucho.quercus.module.IniDefinition;
+import com.caucho.quercus.module.IniDefinitions;
 import com.caucho.util.L10N;
 import com.caucho.util.LruCache;
 
@@ -82,6 +84,12 @@ public class RegexpModule
 
   public static final boolean [] PREG_QUOTE = new boolean[256];
 
+  private static final String LAST_ERROR = "caucho.preg_last_error";
+
+  private static final long DEFAULT_BACKTRACK_LIMIT = 1000000L;
+
+  private static final IniDefinitions _iniDefinitions = new IniDefinitions();
+
   private static LruCache<StringValue, RegexpCacheItem> _regexpCache
     = new LruCache<StringValue, RegexpCacheItem>(1024);
 
@@ -106,6 +114,42 @@ public class RegexpModule
     return new String[] { "ereg", "pcre" };
   }
 
+  /**
+   * Returns the default php.ini values.
+   */
+  @Override
+  public IniDefinitions getIniDefinitions()
+  {
+    return _iniDefinitions;
+  }
+
+  /**
+   * Returns the maximum number of backtracking steps for a single match.
+   */
+  @Hide
+  public static long getBacktrackLimit(Env env)
+  {
+    if (env == null)
+      return DEFAULT_BACKTRACK_LIMIT;
+
+    long limit = INI_PCRE_BACKTRACK_LIMIT.getAsLong(env);
+
+    return limit > 0 ? limit : Long.MAX_VALUE;
+  }
+
+  @Hide
+  public static void setLastError(Env env, int code)
+  {
+    env.setSpecialValue(LAST_ERROR, Integer.valueOf(code));
+  }
+
+  @Hide
+  public static void clearLastError(Env env)
+  {
+    if (env != null)
+      env.removeSpecialValue(LAST_ERROR);
+  }
+
   @Hide
   public static int getRegexpCacheSize()
   {
@@ -479,7 +523,12 @@ public class RegexpModule
    */
   public static Value preg_last_error(Env env)
   {
-    return LongValue.ZERO;
+    Object code = env.getSpecialValue(LAST_ERROR);
+
+    if (code == null)
+      return LongValue.create(PREG_NO_ERROR);
+    else
+      return LongValue.create(((Integer) code).intValue());
   }
 
   public static Value preg_match(Env env,
@@ -513,9 +562,13 @@ public class RegexpModule
         matchRef.set(regs);
       }
 
+      // an error, not a non-match, so preg_last_error is meaningful
+      boolean isError = (regexpState != null
+                         && regexpState.isBacktrackLimit());
+
       env.freeRegexpState(regexpState);
 
-      return LongValue.ZERO;
+      return isError ? BooleanValue.FALSE : LongValue.ZERO;
     }
 
     boolean isOffsetCapture = (flags & PREG_OFFSET_CAPTURE) != 0;
@@ -658,6 +711,10 @@ public class RegexpModule
     else
       throw new UnsupportedOperationException();
 
+    // an aborted match is an error, not the end of the matches
+    if (regexpState != null && regexpState.isBacktrackLimit())
+      result = BooleanValue.FALSE;
+
     env.freeRegexpState(regexpState);
 
     return result;
@@ -910,12 +967,15 @@ public class RegexpModule
         Value key = entry.getKey();
         Value value = entry.getValue();
 
-        result.put(key, pregReplace(env,
-                                    regexpList,
-                                    replacement,
-                                    value.toStringValue(),
-                                    limit,
-                                    count));
+        Value replaced = pregReplace(env,
+                                     regexpList,
+                                     replacement,
+                                     value.toStringValue(),
+                                     limit,
+                                     count);
+
+        if (! replaced.isNull())
+          result.put(key, replaced);
       }
 
       return result;
@@ -1016,12 +1076,15 @@ public class RegexpModule
       ArrayValue result = new ArrayValueImpl();
 
       for (Value value : ((ArrayValue) subject).values()) {
-        result.put(pregReplace(env,
-                               regexpList,
-                               replacement,
-                               value.toStringValue(),
-                               limit,
-                               count));
+        Value replaced = pregReplace(env,
+                                     regexpList,
+                                     replacement,
+                                     value.toStringValue(),
+                                     limit,
+                                     count);
+
+        if (! replaced.isNull())
+          result.put(replaced);
       }
 
       return result;
@@ -1073,6 +1136,9 @@ public class RegexpModule
                                    string,
                                    limit,
                                    countV);
+
+        if (string == null)
+          break;
       }
     }
     else {
@@ -1083,6 +1149,9 @@ public class RegexpModule
                                    string,
                                    limit,
                                    countV);
+
+        if (string == null)
+          break;
       }
     }
 
@@ -1167,6 +1236,10 @@ public class RegexpModule
     if (tail < regexpState.getSubjectLength())
       result = result.append(regexpState.substring(env, tail));
 
+    // like preg_replace, an aborted match returns NULL, not a partial string
+    if (regexpState.isBacktrackLimit())
+      result = null;
+
     env.freeRegexpState(regexpState);
 
     return result;
@@ -1207,6 +1280,10 @@ public class RegexpModule
                                                countV,
                                                isEval);
 
+    // a half-replaced string is an error, not a result
+    if (regexpState.isBacktrackLimit())
+      result = null;
+
     env.freeRegexpState(regexpState);
 
     return result;
@@ -1437,12 +1514,15 @@ public class RegexpModule
         ArrayValue result = new ArrayValueImpl();
 
         for (Value value : ((ArrayValue) subject).values()) {
-          result.put(pregReplaceCallback(env,
-                                         regexp,
-                                         fun,
-                                         value.toStringValue(),
-                                         limit,
-                                         count));
+          Value replaced = pregReplaceCallback(env,
+                                               regexp,
+                                               fun,
+                                               value.toStringValue(),
+                                               limit,
+                                               count);
+
+          if (! replaced.isNull())
+            result.put(replaced);
         }
 
         return result;
@@ -1502,12 +1582,15 @@ public class RegexpModule
       ArrayValue result = new ArrayValueImpl();
 
       for (Value value : ((ArrayValue) subject).values()) {
-        result.put(pregReplaceCallback(env,
-                                       regexpList,
-                                       fun,
-                                       value.toStringValue(),
-                                       limit,
-                                       count));
+        Value replaced = pregReplaceCallback(env,
+                                             regexpList,
+                                             fun,
+                                             value.toStringValue(),
+                                             limit,
+                                             count);
+
+        if (! replaced.isNull())
+          result.put(replaced);
       }
 
       return result;
@@ -1543,12 +1626,17 @@ public class RegexpModule
       return env.getEmptyString();
     }
     else {
-      return pregReplaceCallbackImpl(env,
-                                     regexp,
-                                     fun,
-                                     subject,
-                                     limit,
-                                     countV);
+      StringValue result = pregReplaceCallbackImpl(env,
+                                                   regexp,
+                                                   fun,
+                                                   subject,
+                                                   limit,
+                                                   countV);
+
+      if (result != null)
+        return result;
+      else
+        return NullValue.NULL;
     }
   }
 
@@ -1577,6 +1665,9 @@ public class RegexpModule
                                           subject,
                                           limit,
                                           countV);
+
+        if (subject == null)
+          return NullValue.NULL;
       }
 
       return subject;
@@ -1728,8 +1819,14 @@ public class RegexpModule
       }
     }
 
+    // an aborted match is an error, not the end of the subject
+    boolean isError = regexpState.isBacktrackLimit();
+
     env.freeRegexpState(regexpState);
 
+    if (isError)
+      return BooleanValue.FALSE;
+
     return result;
   }
 
@@ -2475,6 +2572,10 @@ public class RegexpModule
     }
   }
 
+  static final IniDefinition INI_PCRE_BACKTRACK_LIMIT
+    = _iniDefinitions.add("pcre.backtrack_limit",
+                          DEFAULT_BACKTRACK_LIMIT, PHP_INI_ALL);
+
   static {
     PREG_QUOTE['\\'] = true;
     PREG_QUOTE['+'] = true;
@@ -249,6 +249,27 @@ class RegexpNode {
     return "";
   }
 
+  /**
+   * Returns a case-sensitive literal every match must start with.
+   */
+  String literalPrefix()
+  {
+    return "";
+  }
+
+  /**
+   * Returns a case-sensitive literal every match must contain.
+   */
+  String requiredLiteral()
+  {
+    return "";
+  }
+
+  static String longest(String a, String b)
+  {
+    return a.length() < b.length() ? b : a;
+  }
+
   int firstChar()
   {
     return -1;
@@ -617,6 +638,12 @@ class RegexpNode {
       return copy;
     }
 
+    @Override
+    String requiredLiteral()
+    {
+      return _next.requiredLiteral();
+    }
+
     @Override
     RegexpNode concat(RegexpNode next)
     {
@@ -691,6 +718,8 @@ class RegexpNode {
       }
 
       for (; min <= i; i--) {
+        state.step();
+
         tail = next.match(string, length, offset + i, state);
 
         if (tail >= 0)
@@ -813,6 +842,8 @@ class RegexpNode {
       }
 
       for (; i <= max; i++) {
+        state.step();
+
         tail = next.match(string, length, offset + i, state);
 
         if (tail >= 0)
@@ -897,6 +928,18 @@ class RegexpNode {
       return _head.prefix();
     }
 
+    @Override
+    String literalPrefix()
+    {
+      return _head.literalPrefix();
+    }
+
+    @Override
+    String requiredLiteral()
+    {
+      return longest(_head.requiredLiteral(), _next.requiredLiteral());
+    }
+
     @Override
     boolean isAnchorBegin()
     {
@@ -1330,6 +1373,18 @@ class RegexpNode {
       return _node.prefix();
     }
 
+    @Override
+    String literalPrefix()
+    {
+      return _node != null ? _node.literalPrefix() : "";
+    }
+
+    @Override
+    String requiredLiteral()
+    {
+      return _node != null ? _node.requiredLiteral() : "";
+    }
+
     @Override
     boolean isAnchorBegin()
     {
@@ -1458,6 +1513,12 @@ class RegexpNode {
       return _next.minLength();
     }
 
+    @Override
+    String requiredLiteral()
+    {
+      return _next.requiredLiteral();
+    }
+
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
     {
@@ -1691,6 +1752,15 @@ class RegexpNode {
       return _min * _node.minLength() + _tail.minLength();
     }
 
+    @Override
+    String requiredLiteral()
+    {
+      if (_min > 0)
+        return _node.requiredLiteral();
+      else
+        return _tail.requiredLiteral();
+    }
+
     @Override
     boolean []firstSet(boolean []firstSet)
     {
@@ -1804,9 +1874,17 @@ class RegexpNode {
     // match functions
     //
 
+    @Override
+    String requiredLiteral()
+    {
+      return _next.requiredLiteral();
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
+      state.step();
+
       int oldCount = state._loopCount[_index];
 
       if (oldCount + 1 < _head._min) {
@@ -1916,6 +1994,15 @@ class RegexpNode {
       return _min * _node.minLength() + _tail.minLength();
     }
 
+    @Override
+    String requiredLiteral()
+    {
+      if (_min > 0)
+        return _node.requiredLiteral();
+      else
+        return _tail.requiredLiteral();
+    }
+
     //
     // match functions
     //
@@ -2016,9 +2103,17 @@ class RegexpNode {
     // match functions
     //
 
+    @Override
+    String requiredLiteral()
+    {
+      return _next.requiredLiteral();
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
+      state.step();
+
       int i = state._loopCount[_index];
       int oldOffset = state._loopOffset[_index];
 
@@ -2172,6 +2267,8 @@ class RegexpNode {
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
       for (Or ptr = this; ptr != null; ptr = ptr._right) {
+        state.step();
+
         int value = ptr._left.match(string, strlen, offset, state);
 
         if (value >= 0)
@@ -3062,6 +3159,18 @@ class RegexpNode {
       return new String(_buffer, 0, _length);
     }
 
+    @Override
+    String literalPrefix()
+    {
+      return new String(_buffer, 0, _length);
+    }
+
+    @Override
+    String requiredLiteral()
+    {
+      return new String(_buffer, 0, _length);
+    }
+
     //
     // match function
     //
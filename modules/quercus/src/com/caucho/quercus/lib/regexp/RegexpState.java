@@ -48,6 +48,8 @@ public class RegexpState {
 
   public Regexp _regexp;
 
+  private Env _env;
+
   private StringValue _subject;
   private int _subjectLength;
 
@@ -74,6 +76,14 @@ public class RegexpState {
   int []_loopCount;
   int []_loopOffset;
 
+  // backtracking budget for a single match, pcre.backtrack_limit
+  private long _stepLimit;
+  private long _stepCount;
+  private boolean _isBacktrackLimit;
+
+  // offset of the regexp's required literal, or -1 if not yet scanned
+  private int _requiredOffset;
+
   private RegexpState()
   {
     int size = 32;
@@ -121,6 +131,7 @@ public class RegexpState {
 
     _subject = null;
     _subjectLength = 0;
+    _requiredOffset = -1;
     _isGlobal = false;
 
     _first = 0;
@@ -145,6 +156,13 @@ public class RegexpState {
 
     state.init(regexp);
 
+    state._env = env;
+    state._stepLimit = RegexpModule.getBacktrackLimit(env);
+    state._stepCount = 0;
+    state._isBacktrackLimit = false;
+
+    RegexpModule.clearLastError(env);
+
     return state;
   }
 
@@ -159,6 +177,8 @@ public class RegexpState {
 
   public static void free(Env env, RegexpState state)
   {
+    state._env = null;
+
     env.freeRegexpState(state);
   }
 
@@ -171,6 +191,7 @@ public class RegexpState {
   {
     _subject = _regexp.convertSubject(env, subject);
     _subjectLength = _subject != null ? _subject.length() : 0;
+    _requiredOffset = -1;
 
     return _subject != null;
   }
@@ -189,6 +210,8 @@ public class RegexpState {
 
       int minLength = _regexp._minLength;
       boolean []firstSet = _regexp._firstSet;
+      RegexpLiteral prefix = _regexp._literalPrefix;
+      RegexpLiteral required = _regexp._requiredLiteral;
 
       if (_subject == null)
         return false;
@@ -196,6 +219,18 @@ public class RegexpState {
       StringValue subject = _subject;
       int length = _subjectLength;
 
+      if (required != null && _requiredOffset < _first) {
+        _requiredOffset = required.indexOf(subject, _first, length);
+
+        if (_requiredOffset < 0) {
+          _first = length + 1;
+
+          return false;
+        }
+      }
+
+      _isBacktrackLimit = false;
+
       /* php/4e85 XXX: optim doesn't work for greedy loops
       if (_regexp._isAnchorBegin) {
         if (_first + minLength <= length)
@@ -204,6 +239,15 @@ public class RegexpState {
       */
 
       for (; _first + minLength <= length; _first++) {
+        if (prefix != null) {
+          int next = prefix.indexOf(subject, _first, length);
+
+          if (next < 0)
+            break;
+
+          _first = next;
+        }
+
         if (firstSet != null && _first < length) {
           char firstChar = subject.charAt(_first);
 
@@ -212,6 +256,9 @@ public class RegexpState {
         }
 
         clearGroup();
+
+        // like PCRE, each start position gets its own backtrack budget
+        _stepCount = 0;
         int offset = _regexp._prog.match(subject, length, _first, this);
 
         if (offset >= 0) {
@@ -231,6 +278,13 @@ public class RegexpState {
 
       return false;
     }
+    catch (BacktrackLimitException e) {
+      setBacktrackLimitError();
+
+      _first = _subjectLength + 1;
+
+      return false;
+    }
     catch (StackOverflowError e) {
       log.warning(L.l("regexp '{0}' produces a StackOverflowError for\n{1}",
                       _regexp, _subject));
@@ -250,6 +304,7 @@ public class RegexpState {
 
       _subject = subject;
       _subjectLength = subject != null ? subject.length() : 0;
+      _requiredOffset = -1;
       _first = 0;
 
       return find();
@@ -277,9 +332,16 @@ public class RegexpState {
       _subjectLength = subject != null ? subject.length() : 0;
 
       _first = first;
+      _requiredOffset = -1;
+      _stepCount = 0;
+      _isBacktrackLimit = false;
       clearGroup();
 
       return _regexp._prog.match(_subject, _subjectLength, first, this);
+    } catch (BacktrackLimitException e) {
+      setBacktrackLimitError();
+
+      return -1;
     } catch (StackOverflowError e) {
       log.warning(L.l("regexp '{0}' produces a StackOverflowError for\n{1}",
                       _regexp, subject));
@@ -315,16 +377,35 @@ public class RegexpState {
       _subject = subject;
       int subjectLength = subject != null ? subject.length() : 0;
       _subjectLength = subjectLength;
+      _requiredOffset = -1;
 
       int minLength = _regexp._minLength;
       boolean []firstSet = _regexp._firstSet;
+      RegexpLiteral prefix = _regexp._literalPrefix;
+      RegexpLiteral required = _regexp._requiredLiteral;
       int end = subjectLength - minLength;
       RegexpNode prog = _regexp._prog;
 
       if (_regexp._isAnchorBegin)
         end = start;
 
+      if (required != null
+          && required.indexOf(subject, start, subjectLength) < 0) {
+        return -1;
+      }
+
+      _isBacktrackLimit = false;
+
       for (; start <= end; start++) {
+        if (prefix != null) {
+          int next = prefix.indexOf(subject, start, subjectLength);
+
+          if (next < 0 || end < next)
+            return -1;
+
+          start = next;
+        }
+
         if (firstSet != null && (start < end || minLength > 0)) {
           char firstChar = subject.charAt(start);
 
@@ -332,6 +413,7 @@ public class RegexpState {
             continue;
         }
 
+        _stepCount = 0;
         int value = prog.match(subject, subjectLength, start, this);
 
         if (value >= 0) {
@@ -342,6 +424,10 @@ public class RegexpState {
         }
       }
 
+      return -1;
+    } catch (BacktrackLimitException e) {
+      setBacktrackLimitError();
+
       return -1;
     } catch (StackOverflowError e) {
       log.warning(L.l("regexp '{0}' produces a StackOverflowError for\n{1}",
@@ -352,6 +438,35 @@ public class RegexpState {
     }
   }
 
+  /**
+   * Counts a backtracking step, abandoning the match when the
+   * pcre.backtrack_limit budget is exhausted.
+   */
+  final void step()
+  {
+    if (_stepLimit < ++_stepCount)
+      throw new BacktrackLimitException();
+  }
+
+  /**
+   * True if the last match was abandoned at pcre.backtrack_limit.
+   */
+  public boolean isBacktrackLimit()
+  {
+    return _isBacktrackLimit;
+  }
+
+  private void setBacktrackLimitError()
+  {
+    _isBacktrackLimit = true;
+
+    log.fine(L.l("regexp '{0}' exceeded pcre.backtrack_limit of {1} steps",
+                 _regexp, _stepLimit));
+
+    if (_env != null)
+      RegexpModule.setLastError(_env, RegexpModule.PREG_BACKTRACK_LIMIT_ERROR);
+  }
+
   private void clearGroup()
   {
     _groupLength = 0;
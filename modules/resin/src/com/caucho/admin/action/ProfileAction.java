@@ -78,6 +78,19 @@ public class ProfileAction implements AdminAction
   
   public String execute(long activeTime, long samplingRate, int depth)
     throws ConfigException
+  {
+    return execute(activeTime, samplingRate, depth, null);
+  }
+
+  /**
+   * Profiles the server for the active time.
+   *
+   * @param format the result format: "text" (default), "json" or
+   *   "collapsed" for flame graph tools.
+   */
+  public String execute(long activeTime, long samplingRate, int depth,
+                        String format)
+    throws ConfigException
   {
     if (activeTime <= 0) {
       throw new IllegalArgumentException(L.l("Profile activeTime '{0}': must be > 0.",
@@ -118,6 +131,11 @@ public class ProfileAction implements AdminAction
 
     profile.stop();
 
+    if ("json".equals(format))
+      return jsonProfile();
+    else if ("collapsed".equals(format))
+      return profile.getCollapsedStacks();
+
     StringWriter buffer = new StringWriter();
     PrintWriter out = new PrintWriter(buffer);
 
@@ -255,6 +273,12 @@ public class ProfileAction implements AdminAction
     
     sb.append(",\n  \"ticks\" : " + entry.getCount());
     sb.append(",\n  \"state\" : \"" + entry.getState() + "\"");
+
+    if (entry.getUrl() != null) {
+      sb.append(",\n  \"url\" : \"");
+      escapeString(sb, entry.getUrl());
+      sb.append("\"");
+    }
     
     if (entry.getStackTrace() != null && entry.getStackTrace().size() > 0) {
       jsonStackTrace(sb, entry.getStackTrace());
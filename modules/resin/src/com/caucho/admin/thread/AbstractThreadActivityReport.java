@@ -87,7 +87,10 @@ public abstract class AbstractThreadActivityReport
     return threads;
   }
   
-  private Map<Long, TcpConnectionInfo> getConnectionsById()
+  /**
+   * Returns the active tcp connections, keyed by their thread id.
+   */
+  public static Map<Long, TcpConnectionInfo> getConnectionsById()
   {
     Map<Long, TcpConnectionInfo> connectionInfoMap = 
       new HashMap<Long, TcpConnectionInfo>();
@@ -64,16 +64,30 @@ public class ResinThreadActivityReport extends AbstractThreadActivityReport
   }
   
   protected boolean assignActivityCode(ThreadSnapshot threadSnapshot)
+  {
+    ThreadActivityCode code = getActivityCode(threadSnapshot);
+
+    if (code != null) {
+      threadSnapshot.setCode(code.getChar());
+      return true;
+    }
+    
+    return false;
+  }
+
+  /**
+   * Returns the activity code of the first matching filter, or null.
+   */
+  public ThreadActivityCode getActivityCode(ThreadSnapshot threadSnapshot)
   {
     for (Map.Entry<ThreadSnapshotFilter, ThreadActivityCode> entry 
       : _filters.entrySet()) {
       if (entry.getKey().isMatch(threadSnapshot)) {
-        threadSnapshot.setCode(entry.getValue().getChar());
-        return true;
+        return entry.getValue();
       }
     }
     
-    return false;
+    return null;
   }
   
   protected ThreadActivityGroup[] createGroups()
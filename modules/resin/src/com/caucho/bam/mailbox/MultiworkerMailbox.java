@@ -30,6 +30,7 @@
 package com.caucho.bam.mailbox;
 
 import java.io.Closeable;
+import java.io.Flushable;
 import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -69,6 +70,8 @@ public class MultiworkerMailbox implements Mailbox, Closeable
   private final MessageStream _actorStream;
   
   private final int _queueSize = 16 * 1024;
+  
+  private long _queueFullTimeout = 60 * 1000L;
 
   private final MailboxQueue2 []_queues;
   
@@ -130,6 +133,20 @@ public class MultiworkerMailbox implements Mailbox, Closeable
     return new PacketProcessor();
   }
   
+  /**
+   * Sets the maximum time a sender waits for queue space before the
+   * queue-full handler is called.
+   */
+  public void setQueueFullTimeout(long timeout)
+  {
+    _queueFullTimeout = timeout;
+  }
+  
+  public long getQueueFullTimeout()
+  {
+    return _queueFullTimeout;
+  }
+  
   public int getThreadMax()
   {
     return _queues.length;
@@ -319,19 +336,62 @@ public class MultiworkerMailbox implements Mailbox, Closeable
     
     if (! workerQueue.offer(packet, false)) {
       workerQueue.wake();
-
-      if (! workerQueue.offer(packet, true)) {
-        workerQueue.wake();
+      
+      workerQueue = offerBackpressure(workerQueue, packet);
+    }
+    
+    workerQueue.wake();
+  }
+  
+  /**
+   * Waits for queue space when the selected worker is full. The sender
+   * is slowed with increasing waits, and other workers are retried
+   * between waits in case one of them drained first. The queue-full
+   * handler is only called when the queue-full timeout expires.
+   */
+  private MailboxQueue2 offerBackpressure(MailboxQueue2 workerQueue,
+                                          Packet packet)
+  {
+    long timeout = _queueFullTimeout;
+    long waitMax = 100;
+    long wait = 1;
+    long totalWait = 0;
+    
+    while (true) {
+      if (workerQueue.offer(packet, wait, TimeUnit.MILLISECONDS)) {
+        return workerQueue;
+      }
+      
+      totalWait += wait;
+      
+      if (timeout <= totalWait || ! _lifecycle.isActive()) {
+        break;
+      }
+      
+      workerQueue.wake();
+      
+      MailboxQueue2 nextQueue = findWorker();
+      
+      if (nextQueue != workerQueue) {
+        workerQueue = nextQueue;
         
-        BamQueueFullHandler handler = _broker.getQueueFullHandler();
-
-        handler.onQueueFull(this, workerQueue.getSize(), 
-                            100, TimeUnit.MILLISECONDS, 
-                            packet);
+        if (workerQueue.offer(packet, false)) {
+          return workerQueue;
+        }
+        
+        workerQueue.wake();
       }
+      
+      wait = Math.min(Math.min(2 * wait, waitMax), timeout - totalWait);
     }
+
+    BamQueueFullHandler handler = _broker.getQueueFullHandler();
+
+    handler.onQueueFull(this, workerQueue.getSize(), 
+                        totalWait, TimeUnit.MILLISECONDS, 
+                        packet);
     
-    workerQueue.wake();
+    return workerQueue;
   }
   
 
@@ -424,9 +484,18 @@ public class MultiworkerMailbox implements Mailbox, Closeable
       packet.dispatch(getActorStream(), _broker);
     }
 
+    /**
+     * The queue is drained, so a coalescing stream like a link writer
+     * can send its pending packets.
+     */
     @Override
     public void onProcessComplete() throws Exception
     {
+      MessageStream actorStream = getActorStream();
+      
+      if (actorStream instanceof Flushable) {
+        ((Flushable) actorStream).flush();
+      }
     }
     
     @Override
@@ -43,6 +43,7 @@ public class ProfileCommand extends AbstractManagementCommand
     addValueOption("active-time", "time", "profiling time span, defualts to 5 sec");
     addValueOption("sampling-rate", "ms", "the sample rate defaults to 10ms");
     addValueOption("depth", "count", "the stack trace depth (default 16)");
+    addValueOption("format", "format", "the output format: text, json or collapsed (default text)");
     
     super.initBootOptions();
   }
@@ -74,9 +75,12 @@ public class ProfileCommand extends AbstractManagementCommand
     if (depthArg != null)
       depth = Integer.parseInt(depthArg);
 
+    String format = args.getArg("-format");
+
     StringQueryReply result = managerClient.profile(activeTime,
                                                      period,
-                                                     depth);
+                                                     depth,
+                                                     format);
 
     System.out.println(result.getValue());
 
@@ -165,6 +165,8 @@ public class HmtpRequest extends AbstractProtocolConnection
     _hmtpWriter = new HmtpWebSocketWriter(_rawWrite);
     // _hmtpWriter.setId(getRequestId());
     // _hmtpWriter.setAutoFlush(true);
+    // the link mailbox flushes when its queue drains
+    _hmtpWriter.setCoalesce(true);
 
     ManagedBroker broker = _bamService.getBroker();
 
@@ -217,6 +217,57 @@ public class AbstractCache
     _config.setValueSerializer(serializer);
   }
   
+  /**
+   * Hashes keys with a 128-bit MurmurHash3 instead of SHA-256.
+   * String, byte[] and Long keys are hashed directly without
+   * serialization. Only use it when the keys are trusted.
+   *
+   * @Note: This setting should not be changed after
+   * a cache is created, and must match on all servers.
+   */
+  @Configurable
+  public void setFastKeyHash(boolean isFastKeyHash)
+  {
+    _config.setFastKeyHash(isFastKeyHash);
+  }
+  
+  /**
+   * Compresses values larger than the compression threshold:
+   * "none", "lzf" for the fast in-tree codec, or "deflate" for a
+   * better ratio.
+   */
+  @Configurable
+  public void setCompression(String compression)
+  {
+    if (compression == null || "none".equals(compression))
+      _config.setCompressionCodec(null);
+    else if ("lzf".equals(compression))
+      _config.setCompressionCodec(new LzfCodec());
+    else if ("deflate".equals(compression))
+      _config.setCompressionCodec(new DeflateCodec());
+    else {
+      throw new ConfigException(L.l("'{0}' is an unknown compression. Valid values are 'none', 'lzf' and 'deflate'.",
+                                    compression));
+    }
+  }
+
+  /**
+   * Sets a custom compression codec.
+   */
+  public void setCompressionCodec(CacheCodec codec)
+  {
+    _config.setCompressionCodec(codec);
+  }
+
+  /**
+   * Values smaller than the threshold are saved uncompressed.
+   */
+  @Configurable
+  public void setCompressionThreshold(Bytes threshold)
+  {
+    _config.setCompressionThreshold((int) threshold.getBytes());
+  }
+  
   public void setEngine(CacheEngine engine)
   {
     _config.setEngine(engine);
@@ -708,6 +759,30 @@ public class AbstractCache
                          userFlags);
   }
 
+  /**
+   * Puts a new item in the cache if the current value hash matches
+   * the test hash.
+   *
+   * @param key           the key of the item to put
+   * @param testValueHash the hash of the current value
+   * @param is            the value of the item to put
+   * @param flags         the flags value (for memcache)
+   */
+  @Override
+  public boolean compareAndPut(Object key,
+                               long testValueHash,
+                               InputStream is,
+                               long accessedExpireTimeout,
+                               long modifiedExpireTimeout,
+                               int userFlags)
+    throws IOException
+  {
+    return _delegate.compareAndPut(key, testValueHash, is, 
+                                   accessedExpireTimeout, 
+                                   modifiedExpireTimeout,
+                                   userFlags);
+  }
+
   /**
    * Puts a new item in the cache with a custom idle
    * timeout (used for sessions).
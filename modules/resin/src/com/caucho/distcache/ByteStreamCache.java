@@ -96,6 +96,24 @@ public interface ByteStreamCache
                                 int flags)
     throws IOException;
   
+  /**
+   * Puts a new item in the cache if the current value hash matches
+   * the test hash. A zero test hash only adds the entry if it's new.
+   *
+   * @param key the key of the item to put
+   * @param testValueHash the hash of the current value
+   * @param is stream to contain the value
+   *
+   * @return true if the update succeeds, false if it fails
+   */
+  public boolean compareAndPut(Object key,
+                               long testValueHash,
+                               InputStream is,
+                               long accessedExpireTimeout,
+                               long modifiedExpireTimeout,
+                               int flags)
+    throws IOException;
+  
   /**
    * Updates the cache if the old value hash matches the current value.
    * A null value for the old value hash only adds the entry if it's new
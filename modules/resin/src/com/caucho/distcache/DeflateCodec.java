@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.distcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate compression for cache values, trading speed for ratio.
+ */
+public class DeflateCodec implements CacheCodec
+{
+  public static final int CODEC_ID = 1;
+
+  private final int _level;
+
+  public DeflateCodec()
+  {
+    this(Deflater.BEST_SPEED);
+  }
+
+  public DeflateCodec(int level)
+  {
+    _level = level;
+  }
+
+  @Override
+  public int getCodecId()
+  {
+    return CODEC_ID;
+  }
+
+  @Override
+  public OutputStream openCompress(OutputStream os)
+  {
+    final Deflater deflater = new Deflater(_level);
+
+    return new DeflaterOutputStream(os, deflater, 1024) {
+      @Override
+      public void close()
+        throws IOException
+      {
+        try {
+          super.close();
+        } finally {
+          deflater.end();
+        }
+      }
+    };
+  }
+
+  @Override
+  public InputStream openDecompress(InputStream is)
+  {
+    final Inflater inflater = new Inflater();
+
+    return new InflaterInputStream(is, inflater, 1024) {
+      @Override
+      public void close()
+        throws IOException
+      {
+        try {
+          super.close();
+        } finally {
+          inflater.end();
+        }
+      }
+    };
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _level + "]";
+  }
+}
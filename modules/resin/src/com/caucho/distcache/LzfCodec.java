@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.distcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Fast LZF-style compression for cache values.
+ *
+ * The data is split into blocks of up to 64k. Each block starts with a
+ * type byte and the 16-bit raw length. Compressed blocks follow with
+ * the 16-bit compressed length. Blocks which don't compress are saved
+ * raw.
+ *
+ * Within a compressed block, a control byte below 32 starts a literal
+ * run of (ctrl + 1) bytes. Otherwise the top 3 bits are the match
+ * length - 2 (7 means an extra length byte follows) and the low 5 bits
+ * with the next byte are the back-reference offset - 1.
+ */
+public class LzfCodec implements CacheCodec
+{
+  public static final int CODEC_ID = 2;
+
+  private static final int BLOCK_SIZE = 0xffff;
+
+  private static final int BLOCK_RAW = 0;
+  private static final int BLOCK_LZF = 1;
+
+  private static final int HASH_BITS = 14;
+  private static final int HASH_SIZE = 1 << HASH_BITS;
+
+  private static final int MAX_LITERAL = 32;
+  private static final int MAX_OFFSET = 1 << 13;
+  private static final int MAX_MATCH = (1 << 8) + 8;
+
+  @Override
+  public int getCodecId()
+  {
+    return CODEC_ID;
+  }
+
+  @Override
+  public OutputStream openCompress(OutputStream os)
+  {
+    return new LzfOutputStream(os);
+  }
+
+  @Override
+  public InputStream openDecompress(InputStream is)
+  {
+    return new LzfInputStream(is);
+  }
+
+  /**
+   * Compresses the buffer, returning the compressed length. The output
+   * buffer must have room for length + length / 32 + 1 bytes.
+   */
+  static int compress(byte []in, int length, byte []out, int []table)
+  {
+    for (int i = 0; i < HASH_SIZE; i++) {
+      table[i] = 0;
+    }
+
+    int ip = 0;
+    int op = 0;
+    int literalStart = 0;
+
+    while (ip < length - 2) {
+      int hash = hash(in, ip);
+
+      // positions are saved + 1, so 0 is empty
+      int ref = table[hash] - 1;
+      table[hash] = ip + 1;
+
+      int offset = ip - ref - 1;
+
+      if (ref >= 0
+          && offset < MAX_OFFSET
+          && in[ref] == in[ip]
+          && in[ref + 1] == in[ip + 1]
+          && in[ref + 2] == in[ip + 2]) {
+        int maxLen = Math.min(MAX_MATCH, length - ip);
+        int len = 3;
+
+        while (len < maxLen && in[ref + len] == in[ip + len]) {
+          len++;
+        }
+
+        op = writeLiterals(in, literalStart, ip, out, op);
+
+        int code = len - 2;
+
+        if (code < 7) {
+          out[op++] = (byte) ((code << 5) + (offset >> 8));
+        }
+        else {
+          out[op++] = (byte) ((7 << 5) + (offset >> 8));
+          out[op++] = (byte) (code - 7);
+        }
+
+        out[op++] = (byte) offset;
+
+        ip += len;
+        literalStart = ip;
+      }
+      else {
+        ip++;
+      }
+    }
+
+    return writeLiterals(in, literalStart, length, out, op);
+  }
+
+  private static int hash(byte []in, int ip)
+  {
+    int v = (((in[ip] & 0xff) << 16)
+             | ((in[ip + 1] & 0xff) << 8)
+             | (in[ip + 2] & 0xff));
+
+    return (v * 0x9e3779b1) >>> (32 - HASH_BITS);
+  }
+
+  private static int writeLiterals(byte []in, int start, int end,
+                                   byte []out, int op)
+  {
+    while (start < end) {
+      int len = Math.min(MAX_LITERAL, end - start);
+
+      out[op++] = (byte) (len - 1);
+      System.arraycopy(in, start, out, op, len);
+
+      op += len;
+      start += len;
+    }
+
+    return op;
+  }
+
+  /**
+   * Decompresses the buffer, returning the decompressed length.
+   */
+  static int decompress(byte []in, int length, byte []out, int outLength)
+    throws IOException
+  {
+    int ip = 0;
+    int op = 0;
+
+    while (ip < length) {
+      int ctrl = in[ip++] & 0xff;
+
+      if (ctrl < MAX_LITERAL) {
+        int len = ctrl + 1;
+
+        if (length < ip + len || outLength < op + len) {
+          throw new IOException("corrupted lzf data");
+        }
+
+        System.arraycopy(in, ip, out, op, len);
+
+        ip += len;
+        op += len;
+      }
+      else {
+        int len = ctrl >> 5;
+
+        if (len == 7 && ip < length) {
+          len += in[ip++] & 0xff;
+        }
+
+        if (length <= ip) {
+          throw new IOException("corrupted lzf data");
+        }
+
+        int ref = op - ((ctrl & 0x1f) << 8) - (in[ip++] & 0xff) - 1;
+
+        len += 2;
+
+        if (ref < 0 || outLength < op + len) {
+          throw new IOException("corrupted lzf data");
+        }
+
+        // the match may overlap its own output
+        for (int i = 0; i < len; i++) {
+          out[op++] = out[ref++];
+        }
+      }
+    }
+
+    return op;
+  }
+
+  static class LzfOutputStream extends OutputStream {
+    private final OutputStream _os;
+
+    private final byte []_buffer = new byte[BLOCK_SIZE];
+    private final byte []_compressBuffer
+      = new byte[BLOCK_SIZE + BLOCK_SIZE / 32 + 16];
+    private final int []_table = new int[HASH_SIZE];
+
+    private int _length;
+    private boolean _isClosed;
+
+    LzfOutputStream(OutputStream os)
+    {
+      _os = os;
+    }
+
+    @Override
+    public void write(int ch)
+      throws IOException
+    {
+      if (_length == BLOCK_SIZE) {
+        writeBlock();
+      }
+
+      _buffer[_length++] = (byte) ch;
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      while (length > 0) {
+        if (_length == BLOCK_SIZE) {
+          writeBlock();
+        }
+
+        int sublen = Math.min(length, BLOCK_SIZE - _length);
+
+        System.arraycopy(buffer, offset, _buffer, _length, sublen);
+
+        _length += sublen;
+        offset += sublen;
+        length -= sublen;
+      }
+    }
+
+    private void writeBlock()
+      throws IOException
+    {
+      int length = _length;
+      _length = 0;
+
+      if (length == 0) {
+        return;
+      }
+
+      int compressLength = compress(_buffer, length, _compressBuffer, _table);
+
+      if (compressLength < length) {
+        _os.write(BLOCK_LZF);
+        writeShort(length);
+        writeShort(compressLength);
+        _os.write(_compressBuffer, 0, compressLength);
+      }
+      else {
+        _os.write(BLOCK_RAW);
+        writeShort(length);
+        _os.write(_buffer, 0, length);
+      }
+    }
+
+    private void writeShort(int value)
+      throws IOException
+    {
+      _os.write(value >> 8);
+      _os.write(value);
+    }
+
+    @Override
+    public void flush()
+      throws IOException
+    {
+      writeBlock();
+
+      _os.flush();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      if (_isClosed) {
+        return;
+      }
+
+      _isClosed = true;
+
+      writeBlock();
+
+      _os.close();
+    }
+  }
+
+  static class LzfInputStream extends InputStream {
+    private final InputStream _is;
+
+    private final byte []_buffer = new byte[BLOCK_SIZE];
+    private final byte []_compressBuffer = new byte[BLOCK_SIZE];
+
+    private int _offset;
+    private int _length;
+
+    LzfInputStream(InputStream is)
+    {
+      _is = is;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      if (_length <= _offset && ! readBlock()) {
+        return -1;
+      }
+
+      return _buffer[_offset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (_length <= _offset && ! readBlock()) {
+        return -1;
+      }
+
+      int sublen = Math.min(length, _length - _offset);
+
+      System.arraycopy(_buffer, _offset, buffer, offset, sublen);
+
+      _offset += sublen;
+
+      return sublen;
+    }
+
+    @Override
+    public int available()
+    {
+      return _length - _offset;
+    }
+
+    private boolean readBlock()
+      throws IOException
+    {
+      int type = _is.read();
+
+      if (type < 0) {
+        return false;
+      }
+
+      int length = readShort();
+
+      if (type == BLOCK_RAW) {
+        readAll(_buffer, length);
+      }
+      else if (type == BLOCK_LZF) {
+        int compressLength = readShort();
+
+        readAll(_compressBuffer, compressLength);
+
+        if (decompress(_compressBuffer, compressLength,
+                       _buffer, length) != length) {
+          throw new IOException("corrupted lzf block");
+        }
+      }
+      else {
+        throw new IOException("unknown lzf block type " + type);
+      }
+
+      _offset = 0;
+      _length = length;
+
+      return true;
+    }
+
+    private int readShort()
+      throws IOException
+    {
+      int d1 = _is.read();
+      int d2 = _is.read();
+
+      if (d2 < 0) {
+        throw new IOException("unexpected end of lzf data");
+      }
+
+      return (d1 << 8) + d2;
+    }
+
+    private void readAll(byte []buffer, int length)
+      throws IOException
+    {
+      int offset = 0;
+
+      while (offset < length) {
+        int sublen = _is.read(buffer, offset, length - offset);
+
+        if (sublen < 0) {
+          throw new IOException("unexpected end of lzf data");
+        }
+
+        offset += sublen;
+      }
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      _is.close();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[]";
+  }
+}
@@ -49,6 +49,7 @@ import com.caucho.config.ConfigException;
 import com.caucho.config.types.Period;
 import com.caucho.env.health.*;
 import com.caucho.env.meter.ActiveTimeMeter;
+import com.caucho.env.meter.HistogramMeter;
 import com.caucho.env.meter.MeterService;
 import com.caucho.inject.Module;
 import com.caucho.lifecycle.Lifecycle;
@@ -157,6 +158,7 @@ public class ConnectionPool extends AbstractManagedObject
   private ActiveTimeMeter _connectionTime;
   private ActiveTimeMeter _idleTime;
   private ActiveTimeMeter _queryTime;
+  private HistogramMeter _waitTime;
 
   private final AtomicLong _connectionCountTotal = new AtomicLong();
   private final AtomicLong _connectionCreateCountTotal = new AtomicLong();
@@ -636,6 +638,7 @@ public class ConnectionPool extends AbstractManagedObject
     _connectionTime = MeterService.createActiveTimeMeter("Resin|Database|Connection");
     _idleTime = MeterService.createActiveTimeMeter("Resin|Database|Idle");
     _queryTime = MeterService.createActiveTimeMeter("Resin|Database|Query");
+    _waitTime = MeterService.createHistogramMeter("Resin|Database|Connection Wait Time");
 
     registerSelf();
 
@@ -832,7 +835,8 @@ public class ConnectionPool extends AbstractManagedObject
                                       UserPoolItem oldPoolItem)
     throws ResourceException
   {
-    long expireTime = CurrentTime.getCurrentTimeActual() + _connectionWaitTimeout;
+    long startTime = CurrentTime.getCurrentTimeActual();
+    long expireTime = startTime + _connectionWaitTimeout;
 
     if (! _lifecycle.isActive()) {
       throw new IllegalStateException(L.l("{0}: Can't allocate connection because the connection pool is closed.",
@@ -843,11 +847,16 @@ public class ConnectionPool extends AbstractManagedObject
       UserPoolItem userPoolItem
         = allocateIdleConnection(mcf, subject, info, oldPoolItem);
 
-      if (userPoolItem != null)
+      if (userPoolItem != null) {
+        addWaitTime(startTime);
+        
         return userPoolItem;
+      }
 
       // if no item in pool, try to create one
       if (startCreateConnection()) {
+        addWaitTime(startTime);
+        
         try {
           return createConnection(mcf, subject, info, oldPoolItem);
         } finally {
@@ -1115,6 +1124,14 @@ public class ConnectionPool extends AbstractManagedObject
     throw new ResourceException(message);
  }
   
+  private void addWaitTime(long startTime)
+  {
+    HistogramMeter waitTime = _waitTime;
+
+    if (waitTime != null)
+      waitTime.add(CurrentTime.getCurrentTimeActual() - startTime);
+  }
+  
   private boolean waitForAvailableConnection(long expireTime)
   {
     _availableWaitCount.incrementAndGet();
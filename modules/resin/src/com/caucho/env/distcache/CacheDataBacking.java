@@ -32,6 +32,8 @@ package com.caucho.env.distcache;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 
 import com.caucho.server.distcache.CacheData;
 import com.caucho.server.distcache.DataStore;
@@ -57,6 +59,11 @@ public interface CacheDataBacking {
   public void start();
   
   public MnodeEntry loadLocalEntryValue(HashKey key);
+
+  /**
+   * Loads a batch of entries, returning the entries found.
+   */
+  public Map<HashKey,MnodeEntry> loadLocalEntryValues(Collection<HashKey> keys);
   
   public MnodeEntry insertLocalValue(HashKey key,
                                      HashKey cacheKey,
@@ -39,8 +39,10 @@ import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.TempStream;
 import com.caucho.vfs.Vfs;
 import com.caucho.vfs.WriteStream;
+import com.caucho.xml.QStreamDocument;
 import com.caucho.xml.Xml;
 import com.caucho.xml.XmlUtil;
+import com.caucho.xml.stream.XMLStreamReaderImpl;
 import com.caucho.xpath.XPath;
 import com.caucho.xpath.XPathException;
 import com.caucho.xsl.AbstractStylesheetFactory;
@@ -49,6 +51,7 @@ import com.caucho.xsl.StyleScript;
 import com.caucho.xsl.TransformerImpl;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.w3c.dom.ProcessingInstruction;
 
 import javax.servlet.*;
@@ -63,7 +66,9 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
@@ -83,6 +88,7 @@ public class XsltFilter implements Filter {
   private MergePath _stylePath;
   private ServletContext _application;
   private boolean _isConditional = true;
+  private boolean _isStreaming;
 
   public void setMimeType(String mimeType)
   {
@@ -92,6 +98,16 @@ public class XsltFilter implements Filter {
   {
     _isConditional = ! isUnconditional;
   }
+
+  /**
+   * If true, the generated XML is parsed lazily as the stylesheet
+   * traverses it. The raw output is still buffered, so streaming only
+   * bounds the size of the parsed document. Defaults to false.
+   */
+  public void setStreaming(boolean isStreaming)
+  {
+    _isStreaming = isStreaming;
+  }
   
   public void init(FilterConfig config)
     throws ServletException
@@ -107,6 +123,9 @@ public class XsltFilter implements Filter {
 
     if ("true".equals(config.getInitParameter("unconditional")))
       _isConditional = false;
+
+    if ("true".equals(config.getInitParameter("streaming")))
+      _isStreaming = true;
   }
   
   /**
@@ -220,6 +239,10 @@ public class XsltFilter implements Filter {
         TempStream ts = _xsltStream.getTempStream();
 
         Document doc = null;
+        QStreamDocument streamDoc = null;
+
+        // a DOCTYPE needs the DOM parser for its DTD
+        boolean isStreaming = _isStreaming && isStreamableProlog(ts);
         
         ReadStream is = ts.openRead();
         Path userPath = Vfs.lookup();
@@ -229,135 +252,165 @@ public class XsltFilter implements Filter {
           userPath.setUserPath(req.getRequestURI());
         is.setPath(userPath);
 
-        try {
-          doc = new Xml().parseDocument(is);
-        } finally {
-          is.close();
+        if (isStreaming) {
+          streamDoc = new QStreamDocument(new XMLStreamReaderImpl(is),
+                                          userPath.getUserPath());
+          doc = streamDoc;
+        }
+        else {
+          try {
+            doc = new Xml().parseDocument(is);
+          } finally {
+            is.close();
+          }
         }
-      
-        String href = (String) req.getAttribute("caucho.xsl.stylesheet");
-
-        if (href == null)
-          href = getStylesheetHref(doc);
-
-        if (href == null)
-          href = "default.xsl";
 
-        Templates stylesheet = null;
-        
-        //Path path = Vfs.lookup(href);
         try {
-          //ReadStream sis = path.openReadAndSaveBuffer();
-
-          TransformerFactory factory;
-          
-          if (_chainingType.equals("x-application/stylescript"))
-            factory = new StyleScript();
-          else {
-            factory = TransformerFactory.newInstance();
+          transform(req, res, doc, streamDoc, userPath);
+        } finally {
+          if (streamDoc != null) {
+            streamDoc.close();
+            is.close();
           }
+        }
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        if (e instanceof CompileException)
+          throw new ServletException(e.getMessage(), e);
+        else
+          throw new ServletException(e.toString(), e);
+      }
+    }
 
-          if (factory instanceof AbstractStylesheetFactory)
-            ((AbstractStylesheetFactory) factory).setStylePath(_stylePath);
-
-          Path path = null;
+    private void transform(HttpServletRequest req,
+                           HttpServletResponse res,
+                           Document doc,
+                           QStreamDocument streamDoc,
+                           Path userPath)
+      throws Exception
+    {
+      String href = (String) req.getAttribute("caucho.xsl.stylesheet");
 
-          if (href.startsWith("/"))
-            path = Vfs.getPwd().lookup(_application.getRealPath(href));
-          else {
-            String servletPath = RequestAdapter.getPageServletPath(req);
+      if (href == null && streamDoc != null)
+        href = getPrologStylesheetHref(doc);
+      else if (href == null)
+        href = getStylesheetHref(doc);
 
-            Path pwd = Vfs.getPwd();
-            pwd = pwd.lookup(_application.getRealPath(servletPath));
-            path = pwd.getParent().lookup(href);
-          }
+      if (href == null)
+        href = "default.xsl";
 
-          if (! path.canRead()) {
-            Thread thread = Thread.currentThread();
-            ClassLoader loader = thread.getContextClassLoader();
+      Templates stylesheet = null;
+      
+      //Path path = Vfs.lookup(href);
+      try {
+        //ReadStream sis = path.openReadAndSaveBuffer();
 
-            URL url = loader.getResource(href);
+        TransformerFactory factory;
+        
+        if (_chainingType.equals("x-application/stylescript"))
+          factory = new StyleScript();
+        else {
+          factory = TransformerFactory.newInstance();
+        }
 
-            if (url != null) {
-              Path newPath = Vfs.getPwd().lookup(url.toString());
-              if (newPath.canRead())
-                path = newPath;
-            }
-          }
+        if (factory instanceof AbstractStylesheetFactory)
+          ((AbstractStylesheetFactory) factory).setStylePath(_stylePath);
 
-          Source source;
-          if (path.canRead())
-            source = new StreamSource(path.getURL());
-          else
-            source = new StreamSource(href);
+        Path path = null;
 
-          if (log.isLoggable(Level.FINE))
-            log.fine(L.l("'{0}' XSLT filter using stylesheet {1}",
-                         req.getRequestURI(), source.getSystemId()));
+        if (href.startsWith("/"))
+          path = Vfs.getPwd().lookup(_application.getRealPath(href));
+        else {
+          String servletPath = RequestAdapter.getPageServletPath(req);
 
-          stylesheet = factory.newTemplates(source);
-        } finally {
-          // is.close();
+          Path pwd = Vfs.getPwd();
+          pwd = pwd.lookup(_application.getRealPath(servletPath));
+          path = pwd.getParent().lookup(href);
         }
-        
-        Transformer transformer = null;
-
-        transformer = (Transformer) stylesheet.newTransformer();
 
-        TransformerImpl cauchoTransformer = null;
-        if (transformer instanceof TransformerImpl)
-          cauchoTransformer = (TransformerImpl) transformer;
+        if (! path.canRead()) {
+          Thread thread = Thread.currentThread();
+          ClassLoader loader = thread.getContextClassLoader();
 
-        String mediaType = (String) transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
-        String encoding = (String) transformer.getOutputProperty(OutputKeys.ENCODING);
-        String method = (String) transformer.getOutputProperty(OutputKeys.METHOD);
+          URL url = loader.getResource(href);
 
-        if (encoding != null) {
-        }
-        else if (method == null) {
+          if (url != null) {
+            Path newPath = Vfs.getPwd().lookup(url.toString());
+            if (newPath.canRead())
+              path = newPath;
+          }
         }
-        else if (method.equals("xml"))
-          encoding = "UTF-8";
 
-        if (encoding != null) {
-          if (mediaType == null)
-            mediaType = "text/html";
-          res.setContentType(mediaType + "; charset=" + encoding);
-        }
-        else if (mediaType != null)
-          res.setContentType(mediaType);
+        Source source;
+        if (path.canRead())
+          source = new StreamSource(path.getURL());
         else
-          res.setContentType("text/html");
+          source = new StreamSource(href);
 
-        if (encoding == null)
-          encoding = "ISO-8859-1";
-        transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+        if (log.isLoggable(Level.FINE))
+          log.fine(L.l("'{0}' XSLT filter using stylesheet {1}",
+                       req.getRequestURI(), source.getSystemId()));
 
-        ArrayList<?> params = null;;
-        if (cauchoTransformer != null) {
-          params = (ArrayList<?>) cauchoTransformer.getProperty(CauchoStylesheet.GLOBAL_PARAM);
-        }
+        stylesheet = factory.newTemplates(source);
+      } finally {
+        // is.close();
+      }
+      
+      Transformer transformer = null;
 
-        for (int i = 0; params != null && i < params.size(); i++) {
-          String param = (String) params.get(i);
-        
-          transformer.setParameter(param, req.getParameter(param));
-        }
+      transformer = (Transformer) stylesheet.newTransformer();
 
-        DOMSource domSource = new DOMSource(doc);
-        domSource.setSystemId(userPath.getUserPath());
+      TransformerImpl cauchoTransformer = null;
+      if (transformer instanceof TransformerImpl)
+        cauchoTransformer = (TransformerImpl) transformer;
 
-        Result result = getResult(res.getOutputStream());
+      String mediaType = (String) transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+      String encoding = (String) transformer.getOutputProperty(OutputKeys.ENCODING);
+      String method = (String) transformer.getOutputProperty(OutputKeys.METHOD);
 
-        transformer.transform(domSource, result);
-      } catch (IOException e) {
-        throw e;
-      } catch (Exception e) {
-        if (e instanceof CompileException)
-          throw new ServletException(e.getMessage(), e);
-        else
-          throw new ServletException(e.toString(), e);
+      if (encoding != null) {
+      }
+      else if (method == null) {
+      }
+      else if (method.equals("xml"))
+        encoding = "UTF-8";
+
+      if (encoding != null) {
+        if (mediaType == null)
+          mediaType = "text/html";
+        res.setContentType(mediaType + "; charset=" + encoding);
+      }
+      else if (mediaType != null)
+        res.setContentType(mediaType);
+      else
+        res.setContentType("text/html");
+
+      if (encoding == null)
+        encoding = "ISO-8859-1";
+      transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+
+      ArrayList<?> params = null;;
+      if (cauchoTransformer != null) {
+        params = (ArrayList<?>) cauchoTransformer.getProperty(CauchoStylesheet.GLOBAL_PARAM);
+      }
+      else if (streamDoc != null) {
+        // a foreign transformer may traverse the DOM in any order
+        streamDoc.complete();
+      }
+
+      for (int i = 0; params != null && i < params.size(); i++) {
+        String param = (String) params.get(i);
+      
+        transformer.setParameter(param, req.getParameter(param));
       }
+
+      DOMSource domSource = new DOMSource(doc);
+      domSource.setSystemId(userPath.getUserPath());
+
+      Result result = getResult(res.getOutputStream());
+
+      transformer.transform(domSource, result);
     }
 
     /**
@@ -393,6 +446,41 @@ public class XsltFilter implements Filter {
     
       return XmlUtil.getPIAttribute(value, "href");
     }
+
+    /**
+     * Returns true if the buffered output's prolog has no DOCTYPE.
+     */
+    private boolean isStreamableProlog(TempStream ts)
+      throws IOException
+    {
+      InputStream is = new BufferedInputStream(ts.openReadAndSaveBuffer());
+
+      try {
+        return QStreamDocument.isStreamableProlog(is);
+      } finally {
+        is.close();
+      }
+    }
+
+    /**
+     * Returns the stylesheet from the document's prolog, so a streamed
+     * document is only parsed up to its top element.
+     */
+    private String getPrologStylesheetHref(Document doc)
+    {
+      for (Node node = doc.getFirstChild();
+           node != null;
+           node = node.getNextSibling()) {
+        if (node.getNodeType() == Node.ELEMENT_NODE)
+          return null;
+        else if (node.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE
+                 && "xml-stylesheet".equals(node.getNodeName())) {
+          return XmlUtil.getPIAttribute(node.getNodeValue(), "href");
+        }
+      }
+
+      return null;
+    }
   }
   
   static class XsltTempStream extends OutputStream {
@@ -29,6 +29,7 @@
 
 package com.caucho.hmtp;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
@@ -39,25 +40,43 @@ import java.util.logging.Logger;
 import com.caucho.bam.BamError;
 import com.caucho.bam.ProtocolException;
 import com.caucho.bam.broker.AbstractBroker;
+import com.caucho.env.meter.AverageMeter;
+import com.caucho.env.meter.MeterService;
 import com.caucho.remote.websocket.WebSocketOutputStream;
+import com.caucho.util.CurrentTime;
 
 /**
  * HmtpWriteStream writes HMTP packets to an OutputStream.
  */
 public class HmtpWebSocketWriter extends AbstractBroker
+  implements Flushable
 {
   private static final Logger log
     = Logger.getLogger(HmtpWebSocketWriter.class.getName());
+  
+  private static final AverageMeter _packetsPerFlushMeter
+    = MeterService.createAverageMeter("Resin|Hmtp|Packets Per Flush", "");
+  private static final AverageMeter _bytesPerFlushMeter
+    = MeterService.createAverageMeter("Resin|Hmtp|Bytes Per Flush", "");
     
   private String _address;
   
+  private CountOutputStream _countOut;
   private WebSocketOutputStream _wsOut;
   private HmtpWriter _hOut;
+  
+  private boolean _isCoalesce;
+  private long _flushBytesMax = 16 * 1024;
+  private long _flushTimeMax = 5;
+  
+  private int _pendingPackets;
+  private long _pendingStartTime;
 
   public HmtpWebSocketWriter(OutputStream os)
     throws IOException
   {
-    _wsOut = new WebSocketOutputStream(os, new byte[1024]);
+    _countOut = new CountOutputStream(os);
+    _wsOut = new WebSocketOutputStream(_countOut, new byte[1024]);
     _hOut = new HmtpWriter();
   }
   
@@ -82,6 +101,34 @@ public class HmtpWebSocketWriter extends AbstractBroker
   {
     _wsOut.setAutoFlush(isFlush);
   }
+  
+  /**
+   * Coalesces packets into a single socket write. The owner must call
+   * flush() when its queue drains; the writer also flushes itself
+   * when the pending bytes or the age of the oldest pending packet
+   * pass their limits.
+   */
+  public void setCoalesce(boolean isCoalesce)
+  {
+    _isCoalesce = isCoalesce;
+    
+    _wsOut.setAutoFlush(! isCoalesce);
+  }
+  
+  public boolean isCoalesce()
+  {
+    return _isCoalesce;
+  }
+  
+  public void setFlushBytesMax(long bytes)
+  {
+    _flushBytesMax = bytes;
+  }
+  
+  public void setFlushTimeMax(long timeMillis)
+  {
+    _flushTimeMax = timeMillis;
+  }
 
   //
   // message
@@ -107,6 +154,8 @@ public class HmtpWebSocketWriter extends AbstractBroker
       _hOut.message(_wsOut, to, from, payload);
       
       _wsOut.close();
+      
+      afterWrite();
     } catch (IOException e) {
       throw new ProtocolException(e);
     } finally {
@@ -136,6 +185,8 @@ public class HmtpWebSocketWriter extends AbstractBroker
       _hOut.messageError(_wsOut, to, from, payload, error);
       
       _wsOut.close();
+      
+      afterWrite();
     } catch (IOException e) {
       throw new ProtocolException(e);
     } finally {
@@ -165,6 +216,8 @@ public class HmtpWebSocketWriter extends AbstractBroker
       _hOut.query(_wsOut, id, to, from, payload);
       
       _wsOut.close();
+      
+      afterWrite();
     } catch (IOException e) {
       throw new ProtocolException(e);
     } finally {
@@ -194,6 +247,8 @@ public class HmtpWebSocketWriter extends AbstractBroker
       _hOut.queryResult(_wsOut, id, to, from, payload);
       
       _wsOut.close();
+      
+      afterWrite();
     } catch (IOException e) {
       throw new ProtocolException(e);
     } finally {
@@ -223,6 +278,8 @@ public class HmtpWebSocketWriter extends AbstractBroker
       _hOut.queryError(_wsOut, id, to, from, payload, error);
       
       _wsOut.close();
+      
+      afterWrite();
     } catch (IOException e) {
       throw new ProtocolException(e);
     }
@@ -238,18 +295,54 @@ public class HmtpWebSocketWriter extends AbstractBroker
     return false;
   }
 
+  private void afterWrite()
+    throws IOException
+  {
+    if (! _isCoalesce) {
+      return;
+    }
+    
+    long now = CurrentTime.getCurrentTimeActual();
+    
+    if (_pendingPackets++ == 0) {
+      _pendingStartTime = now;
+    }
+    
+    if (_flushBytesMax <= _countOut.getCount()
+        || _flushTimeMax <= now - _pendingStartTime) {
+      flushImpl();
+    }
+  }
+
   /**
-   * 
+   * Flushes the pending packets to the socket.
    */
+  @Override
   public void flush()
   {
     try {
-      _wsOut.flush();
+      flushImpl();
     } catch (IOException e) {
       log.log(Level.FINER, e.toString(), e);
     }
   }
   
+  private void flushImpl()
+    throws IOException
+  {
+    int packets = _pendingPackets;
+    _pendingPackets = 0;
+    
+    if (packets > 0) {
+      _packetsPerFlushMeter.add(packets);
+      _bytesPerFlushMeter.add(_countOut.getCount());
+    }
+    
+    _countOut.clearCount();
+    
+    _wsOut.flush();
+  }
+  
   public void close()
   {
     
@@ -268,5 +361,58 @@ public class HmtpWebSocketWriter extends AbstractBroker
   {
     _useCount.decrementAndGet();
   }
+  
+  /**
+   * Counts the bytes written since the last flush.
+   */
+  private static class CountOutputStream extends OutputStream {
+    private final OutputStream _os;
+    private long _count;
+    
+    CountOutputStream(OutputStream os)
+    {
+      _os = os;
+    }
+    
+    long getCount()
+    {
+      return _count;
+    }
+    
+    void clearCount()
+    {
+      _count = 0;
+    }
+    
+    @Override
+    public void write(int ch)
+      throws IOException
+    {
+      _os.write(ch);
+      _count++;
+    }
+    
+    @Override
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      _os.write(buffer, offset, length);
+      _count += length;
+    }
+    
+    @Override
+    public void flush()
+      throws IOException
+    {
+      _os.flush();
+    }
+    
+    @Override
+    public void close()
+      throws IOException
+    {
+      _os.close();
+    }
+  }
 
 }
@@ -105,6 +105,25 @@ public class JspWriterAdapter extends AbstractBodyContent {
 
     _out.print(buf, offset, length);
   }
+
+  /**
+   * Writes static template text, using its pre-encoded bytes when the
+   * response encoding matches.
+   *
+   * @param text the static text
+   */
+  final public void write(StaticText text)
+    throws IOException
+  {
+    char []buf = text.getChars();
+
+    if (_isClosed) {
+      write(buf, 0, buf.length);
+      return;
+    }
+
+    _out.printStatic(buf, text.getUtf8(), text.getLatin1());
+  }
   
   /**
    * Writes a character to the output.
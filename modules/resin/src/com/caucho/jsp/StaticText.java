@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.jsp;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Static template text of a compiled JSP, with the bytes for the common
+ * response encodings computed once when the page class is loaded.
+ */
+public final class StaticText {
+  private final char []_chars;
+  private final byte []_utf8;
+  private final byte []_latin1;
+
+  public StaticText(char []chars)
+  {
+    _chars = chars;
+    _latin1 = encodeLatin1(chars);
+
+    if (isAscii(chars))
+      _utf8 = _latin1;
+    else
+      _utf8 = encodeUtf8(chars);
+  }
+
+  /**
+   * Returns the text.
+   */
+  public char []getChars()
+  {
+    return _chars;
+  }
+
+  /**
+   * Returns the text encoded as UTF-8, or null if the text can't be
+   * encoded on its own, e.g. a split surrogate pair.
+   */
+  public byte []getUtf8()
+  {
+    return _utf8;
+  }
+
+  /**
+   * Returns the text encoded as ISO-8859-1.
+   */
+  public byte []getLatin1()
+  {
+    return _latin1;
+  }
+
+  /**
+   * Writes the text to the JSP writer.
+   */
+  public void write(Writer out)
+    throws IOException
+  {
+    if (out instanceof JspWriterAdapter)
+      ((JspWriterAdapter) out).write(this);
+    else
+      out.write(_chars, 0, _chars.length);
+  }
+
+  private static boolean isAscii(char []chars)
+  {
+    for (char ch : chars) {
+      if (ch >= 0x80)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Encodes as ISO-8859-1, matching ISO8859_1Writer, which writes '?'
+   * for characters outside Latin-1.
+   */
+  private static byte []encodeLatin1(char []chars)
+  {
+    byte []bytes = new byte[chars.length];
+
+    for (int i = 0; i < chars.length; i++) {
+      char ch = chars[i];
+
+      if (ch < 0x100)
+        bytes[i] = (byte) ch;
+      else
+        bytes[i] = 0x3f;
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encodes as UTF-8, matching UTF8Writer.
+   */
+  private static byte []encodeUtf8(char []chars)
+  {
+    byte []bytes = new byte[4 * chars.length];
+    int length = 0;
+    int len = chars.length;
+
+    for (int i = 0; i < len; i++) {
+      char ch = chars[i];
+
+      if (ch < 0x80) {
+        bytes[length++] = (byte) ch;
+      }
+      else if (ch < 0x800) {
+        bytes[length++] = (byte) (0xc0 + (ch >> 6));
+        bytes[length++] = (byte) (0x80 + (ch & 0x3f));
+      }
+      else if (ch < 0xd800 || 0xdfff < ch) {
+        bytes[length++] = (byte) (0xe0 + (ch >> 12));
+        bytes[length++] = (byte) (0x80 + ((ch >> 6) & 0x3f));
+        bytes[length++] = (byte) (0x80 + (ch & 0x3f));
+      }
+      else if (i + 1 == len || 0xdbff < ch
+               || chars[i + 1] < 0xdc00 || 0xdfff < chars[i + 1]) {
+        // a surrogate pair split across chunks is left to the encoder
+        return null;
+      }
+      else {
+        char ch2 = chars[++i];
+
+        int v = 0x10000 + (ch & 0x3ff) * 0x400 + (ch2 & 0x3ff);
+
+        bytes[length++] = (byte) (0xf0 + (v >> 18));
+        bytes[length++] = (byte) (0x80 + ((v >> 12) & 0x3f));
+        bytes[length++] = (byte) (0x80 + ((v >> 6) & 0x3f));
+        bytes[length++] = (byte) (0x80 + (v & 0x3f));
+      }
+    }
+
+    byte []result = new byte[length];
+    System.arraycopy(bytes, 0, result, 0, length);
+
+    return result;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _chars.length + "]";
+  }
+}
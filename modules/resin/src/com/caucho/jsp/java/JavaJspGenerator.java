@@ -2305,10 +2305,16 @@ public class JavaJspGenerator extends JspGenerator {
       Object key = iter.next();
       int j = _strings.get(key);
 
-      if (_ideHack)
+      if (_ideHack) {
         out.println("private final char []_jsp_string" + j + ";");
-      else
+        out.println("private final com.caucho.jsp.StaticText _jsp_text"
+                    + j + ";");
+      }
+      else {
         out.println("private final static char []_jsp_string" + j + ";");
+        out.println("private final static com.caucho.jsp.StaticText _jsp_text"
+                    + j + ";");
+      }
     }
 
     if (_ideHack) {
@@ -2357,6 +2363,9 @@ public class JavaJspGenerator extends JspGenerator {
       }
 
       out.println("\".toCharArray();");
+
+      out.println("_jsp_text" + j + " = new com.caucho.jsp.StaticText("
+                  + "_jsp_string" + j + ");");
     }
     if (_config.isStaticEncoding() && enc != null) {
       out.popDepth();
@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.caucho.distcache.ClusterCache;
+import com.caucho.distcache.ExtCacheEntry;
+import com.caucho.memcached.MemcachedConnection.SetInputStream;
+import com.caucho.server.distcache.MnodeEntry;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * The memcached binary protocol. The quiet commands only reply on
+ * failure, so a client can pipeline a batch of them and end with a
+ * noop or a non-quiet get.
+ */
+final class MemcachedBinary
+{
+  static final int MAGIC_REQUEST = 0x80;
+  private static final int MAGIC_RESPONSE = 0x81;
+  
+  private static final int HEADER_LENGTH = 24;
+  
+  private static final int OP_GET = 0x00;
+  private static final int OP_SET = 0x01;
+  private static final int OP_ADD = 0x02;
+  private static final int OP_REPLACE = 0x03;
+  private static final int OP_DELETE = 0x04;
+  private static final int OP_QUIT = 0x07;
+  private static final int OP_GETQ = 0x09;
+  private static final int OP_NOOP = 0x0a;
+  private static final int OP_VERSION = 0x0b;
+  private static final int OP_GETK = 0x0c;
+  private static final int OP_GETKQ = 0x0d;
+  private static final int OP_SETQ = 0x11;
+  private static final int OP_ADDQ = 0x12;
+  private static final int OP_REPLACEQ = 0x13;
+  private static final int OP_DELETEQ = 0x14;
+  private static final int OP_QUITQ = 0x17;
+  
+  private static final int STATUS_OK = 0x00;
+  private static final int STATUS_KEY_NOT_FOUND = 0x01;
+  private static final int STATUS_KEY_EXISTS = 0x02;
+  private static final int STATUS_INVALID_ARGUMENTS = 0x04;
+  private static final int STATUS_NOT_STORED = 0x05;
+  private static final int STATUS_UNKNOWN_COMMAND = 0x81;
+  
+  // keys are latin-1 like the text protocol's keys
+  private static final Charset KEY_CHARSET = Charset.forName("ISO-8859-1");
+  
+  private static final String VERSION = "1.4.0";
+
+  private final MemcachedConnection _conn;
+  
+  private final byte []_header = new byte[HEADER_LENGTH];
+  private final byte []_extras = new byte[256];
+  private byte []_keyBuffer = new byte[256];
+  
+  MemcachedBinary(MemcachedConnection conn)
+  {
+    _conn = conn;
+  }
+  
+  /**
+   * Handles a binary request after its magic byte.
+   *
+   * @return false if the connection should close
+   */
+  boolean handleRequest(ReadStream is)
+    throws IOException
+  {
+    byte []header = _header;
+    
+    if (is.readAll(header, 1, HEADER_LENGTH - 1) != HEADER_LENGTH - 1) {
+      return false;
+    }
+    
+    int opcode = header[1] & 0xff;
+    int keyLength = getShort(header, 2);
+    int extLength = header[4] & 0xff;
+    long bodyLength = getInt(header, 8) & 0xffffffffL;
+    int opaque = getInt(header, 12);
+    long cas = getLong(header, 16);
+    
+    long valueLength = bodyLength - extLength - keyLength;
+    
+    if (valueLength < 0) {
+      throw new IOException("PROTOCOL: invalid binary body length " + bodyLength);
+    }
+    
+    if (is.readAll(_extras, 0, extLength) != extLength) {
+      return false;
+    }
+    
+    if (_keyBuffer.length < keyLength) {
+      _keyBuffer = new byte[keyLength];
+    }
+    
+    if (is.readAll(_keyBuffer, 0, keyLength) != keyLength) {
+      return false;
+    }
+    
+    String key = new String(_keyBuffer, 0, keyLength, KEY_CHARSET);
+    
+    switch (opcode) {
+    case OP_GET:
+    case OP_GETQ:
+    case OP_GETK:
+    case OP_GETKQ:
+      is.skip(valueLength);
+      
+      return doGet(opcode, key, keyLength, opaque);
+      
+    case OP_SET:
+    case OP_SETQ:
+    case OP_ADD:
+    case OP_ADDQ:
+    case OP_REPLACE:
+    case OP_REPLACEQ:
+      if (extLength < 8) {
+        is.skip(valueLength);
+        writeStatus(opcode, opaque, STATUS_INVALID_ARGUMENTS, "Invalid arguments");
+        return true;
+      }
+      
+      doStore(is, opcode, key, valueLength, cas, opaque);
+      return true;
+      
+    case OP_DELETE:
+    case OP_DELETEQ:
+      is.skip(valueLength);
+      
+      doDelete(opcode, key, cas, opaque);
+      return true;
+      
+    case OP_NOOP:
+      is.skip(valueLength);
+      
+      writeHeader(opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+      return true;
+      
+    case OP_VERSION:
+      is.skip(valueLength);
+      
+      writeStatus(opcode, opaque, STATUS_OK, VERSION);
+      return true;
+      
+    case OP_QUIT:
+      writeHeader(opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+      return false;
+      
+    case OP_QUITQ:
+      return false;
+      
+    default:
+      is.skip(valueLength);
+      
+      writeStatus(opcode, opaque, STATUS_UNKNOWN_COMMAND, "Unknown command");
+      return true;
+    }
+  }
+  
+  private boolean doGet(int opcode, String key, int keyLength, int opaque)
+    throws IOException
+  {
+    ClusterCache cache = _conn.getCache();
+    
+    ExtCacheEntry<?,?> entry = cache.getLiveCacheEntry(key);
+    
+    if (entry == null
+        || entry.getValueHash() == 0
+        || entry.isExpired(CurrentTime.getCurrentTime())) {
+      if (opcode == OP_GET || opcode == OP_GETK) {
+        writeStatus(opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+      }
+      
+      return true;
+    }
+    
+    boolean isKey = (opcode == OP_GETK || opcode == OP_GETKQ);
+    
+    if (! isKey) {
+      keyLength = 0;
+    }
+    
+    long length = entry.getValueLength();
+    long cas = MemcachedConnection.getCasUnique(entry.getValueHash());
+    
+    writeHeader(opcode, keyLength, 4, STATUS_OK,
+                4 + keyLength + length, opaque, cas);
+    
+    WriteStream out = _conn.getWriteStream();
+    
+    writeInt(out, entry.getUserFlags());
+    
+    if (isKey) {
+      out.write(_keyBuffer, 0, keyLength);
+    }
+    
+    out.setDisableClose(true);
+
+    // the header has been sent, so a failed read must close the connection
+    return entry.readData(out, cache.getConfig());
+  }
+  
+  private void doStore(ReadStream is,
+                       int opcode,
+                       String key,
+                       long valueLength,
+                       long cas,
+                       int opaque)
+    throws IOException
+  {
+    ClusterCache cache = _conn.getCache();
+    
+    int flags = getInt(_extras, 0);
+    long expTime = getInt(_extras, 4) & 0xffffffffL;
+    
+    boolean isAdd = (opcode == OP_ADD || opcode == OP_ADDQ);
+    boolean isReplace = (opcode == OP_REPLACE || opcode == OP_REPLACEQ);
+    
+    boolean isCompare = isAdd || isReplace || cas != 0;
+    long testValueHash = 0;
+    
+    int status = STATUS_OK;
+    
+    if (isCompare) {
+      ExtCacheEntry<?,?> entry = cache.getExtCacheEntry(key);
+      
+      boolean isValue = entry != null && ! entry.isValueNull();
+      
+      if (isAdd) {
+        testValueHash = MnodeEntry.NULL_KEY;
+        
+        if (isValue)
+          status = STATUS_KEY_EXISTS;
+      }
+      else if (cas == 0) {
+        testValueHash = MnodeEntry.ANY_KEY;
+        
+        if (! isValue)
+          status = STATUS_KEY_NOT_FOUND;
+      }
+      else if (! isValue) {
+        status = STATUS_KEY_NOT_FOUND;
+      }
+      else if (MemcachedConnection.getCasUnique(entry.getValueHash()) != cas) {
+        status = STATUS_KEY_EXISTS;
+      }
+      else {
+        testValueHash = entry.getValueHash();
+      }
+    }
+    
+    if (status != STATUS_OK) {
+      is.skip(valueLength);
+      
+      writeStoreStatus(opcode, opaque, status);
+      
+      return;
+    }
+    
+    long timeout = MemcachedConnection.getExpireTimeout(expTime);
+    
+    SetInputStream setIs = _conn.getSetInputStream();
+    setIs.init(is, valueLength);
+    
+    ExtCacheEntry<?,?> entry;
+    
+    if (isCompare) {
+      // the checks above are only a fast path, the compare is atomic
+      if (cache.compareAndPut(key, testValueHash, setIs,
+                              timeout, timeout, flags)) {
+        entry = cache.getExtCacheEntry(key);
+      }
+      else {
+        entry = null;
+        
+        if (isAdd)
+          status = STATUS_KEY_EXISTS;
+        else if (isReplace && cas == 0)
+          status = STATUS_KEY_NOT_FOUND;
+        else if (isValueNull(cache.getExtCacheEntry(key)))
+          status = STATUS_KEY_NOT_FOUND;
+        else
+          status = STATUS_KEY_EXISTS;
+      }
+    }
+    else {
+      entry = cache.put(key, setIs, timeout, timeout, flags);
+    }
+    
+    setIs.skipToEnd();
+    
+    if (status != STATUS_OK) {
+      writeStoreStatus(opcode, opaque, status);
+    }
+    else if (entry == null) {
+      writeStatus(opcode, opaque, STATUS_NOT_STORED, "Not stored.");
+    }
+    else if (! isQuiet(opcode)) {
+      long newCas = MemcachedConnection.getCasUnique(entry.getValueHash());
+      
+      writeHeader(opcode, 0, 0, STATUS_OK, 0, opaque, newCas);
+    }
+  }
+  
+  private static boolean isValueNull(ExtCacheEntry<?,?> entry)
+  {
+    return entry == null || entry.isValueNull();
+  }
+  
+  private void writeStoreStatus(int opcode, int opaque, int status)
+    throws IOException
+  {
+    if (status == STATUS_KEY_EXISTS)
+      writeStatus(opcode, opaque, status, "Data exists for key.");
+    else
+      writeStatus(opcode, opaque, status, "Not found");
+  }
+  
+  private void doDelete(int opcode, String key, long cas, int opaque)
+    throws IOException
+  {
+    ClusterCache cache = _conn.getCache();
+    
+    ExtCacheEntry<?,?> entry = cache.getExtCacheEntry(key);
+    
+    if (entry == null || entry.isValueNull()) {
+      writeStatus(opcode, opaque, STATUS_KEY_NOT_FOUND, "Not found");
+      return;
+    }
+    
+    if (cas != 0
+        && MemcachedConnection.getCasUnique(entry.getValueHash()) != cas) {
+      writeStatus(opcode, opaque, STATUS_KEY_EXISTS, "Data exists for key.");
+      return;
+    }
+    
+    cache.remove(key);
+    
+    if (opcode != OP_DELETEQ) {
+      writeHeader(opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+    }
+  }
+  
+  private static boolean isQuiet(int opcode)
+  {
+    switch (opcode) {
+    case OP_GETQ:
+    case OP_GETKQ:
+    case OP_SETQ:
+    case OP_ADDQ:
+    case OP_REPLACEQ:
+    case OP_DELETEQ:
+    case OP_QUITQ:
+      return true;
+      
+    default:
+      return false;
+    }
+  }
+  
+  /**
+   * Writes a response whose value is a message, like an error.
+   */
+  private void writeStatus(int opcode, int opaque, int status, String msg)
+    throws IOException
+  {
+    int length = msg.length();
+    
+    writeHeader(opcode, 0, 0, status, length, opaque, 0);
+    
+    WriteStream out = _conn.getWriteStream();
+    
+    for (int i = 0; i < length; i++) {
+      out.write(msg.charAt(i));
+    }
+  }
+  
+  private void writeHeader(int opcode,
+                           int keyLength,
+                           int extLength,
+                           int status,
+                           long bodyLength,
+                           int opaque,
+                           long cas)
+    throws IOException
+  {
+    byte []header = _header;
+    
+    header[0] = (byte) MAGIC_RESPONSE;
+    header[1] = (byte) opcode;
+    header[2] = (byte) (keyLength >> 8);
+    header[3] = (byte) keyLength;
+    header[4] = (byte) extLength;
+    header[5] = 0;
+    header[6] = (byte) (status >> 8);
+    header[7] = (byte) status;
+    
+    putInt(header, 8, (int) bodyLength);
+    putInt(header, 12, opaque);
+    putInt(header, 16, (int) (cas >> 32));
+    putInt(header, 20, (int) cas);
+    
+    _conn.getWriteStream().write(header, 0, HEADER_LENGTH);
+  }
+  
+  private static void writeInt(WriteStream out, int value)
+    throws IOException
+  {
+    out.write(value >> 24);
+    out.write(value >> 16);
+    out.write(value >> 8);
+    out.write(value);
+  }
+  
+  private static int getShort(byte []buffer, int offset)
+  {
+    return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+  }
+  
+  private static int getInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            | ((buffer[offset + 1] & 0xff) << 16)
+            | ((buffer[offset + 2] & 0xff) << 8)
+            | (buffer[offset + 3] & 0xff));
+  }
+  
+  private static long getLong(byte []buffer, int offset)
+  {
+    return (((long) getInt(buffer, offset) << 32)
+            | (getInt(buffer, offset + 4) & 0xffffffffL));
+  }
+  
+  private static void putInt(byte []buffer, int offset, int value)
+  {
+    buffer[offset] = (byte) (value >> 24);
+    buffer[offset + 1] = (byte) (value >> 16);
+    buffer[offset + 2] = (byte) (value >> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _conn + "]";
+  }
+}
@@ -97,7 +97,7 @@ public class MemcachedCacheEngine extends AbstractCacheEngine
     
     String key = cb.toString();
     
-    _client.putResin(key, mnodeUpdate, valueDataId);
+    _client.putResin(key, mnodeUpdate, valueDataId, valueDataTime);
   }
   
   @Override
@@ -31,7 +31,11 @@ package com.caucho.memcached;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -60,6 +64,7 @@ import com.caucho.distcache.LocalCache;
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.network.balance.ClientSocket;
+import com.caucho.network.balance.ClientSocketFactory;
 import com.caucho.server.distcache.CacheConfig;
 import com.caucho.server.distcache.CacheImpl;
 import com.caucho.server.distcache.DistCacheEntry;
@@ -82,6 +87,9 @@ public class MemcachedClient implements Cache
   private static final Logger log
     = Logger.getLogger(MemcachedClient.class.getName());
   
+  // memcached reads longer expire times as an absolute unix time
+  private static final long MAX_RELATIVE_EXPIRE = 60 * 60 * 24 * 30;
+  
   private LoadBalanceBuilder _loadBalanceBuilder;
   private LoadBalanceManager _loadBalancer;
   
@@ -94,8 +102,8 @@ public class MemcachedClient implements Cache
   
   private long _modifiedExpireTimeout = 3600 * 1000L;
   
-  private AtomicReference<CacheImpl> _localCache
-    = new AtomicReference<CacheImpl>();
+  private AtomicReference<CacheImpl<Object,Object>> _localCache
+    = new AtomicReference<CacheImpl<Object,Object>>();
   
   private MemcachedCacheEngine _cacheEngine;
   
@@ -175,7 +183,7 @@ public class MemcachedClient implements Cache
     if (! isResin)
       return getImpl(String.valueOf(key));
     
-    CacheImpl cache = getLocalCache();
+    CacheImpl<Object,Object> cache = getLocalCache();
     
     Object value = cache.get(key);
     
@@ -301,7 +309,7 @@ public class MemcachedClient implements Cache
                                              DistCacheEntry entry)
     throws IOException
   {
-    CacheImpl cache = getLocalCache();
+    CacheImpl<Object,Object> cache = getLocalCache();
   
     long version = entry.getMnodeEntry().getVersion();
   
@@ -426,7 +434,7 @@ public class MemcachedClient implements Cache
     boolean isResin = _isResin != null && _isResin;
     
     if (isResin) {
-      CacheImpl cache = getLocalCache();
+      CacheImpl<Object,Object> cache = getLocalCache();
       
       cache.put(key, value);
     }
@@ -461,8 +469,7 @@ public class MemcachedClient implements Cache
       out.print(" ");
       out.print(flags);
       out.print(" ");
-      long expTime = _modifiedExpireTimeout;
-      out.print(expTime);
+      out.print(getExpireSeconds());
       out.print(" ");
       // out.print(ts.getLength());
       out.print(length);
@@ -498,14 +505,13 @@ public class MemcachedClient implements Cache
   
   void putResin(String key,
                 MnodeUpdate update,
-                long valueDataId) throws CacheException
+                long valueDataId,
+                long valueDataTime) throws CacheException
   {
     ClientSocket client = null;
     long idleStartTime = CurrentTime.getCurrentTime();
     
-    long valueDataTime = 0;
-    
-    CacheImpl cache = getLocalCache();
+    CacheImpl<Object,Object> cache = getLocalCache();
     
     boolean isValid = false;
     
@@ -537,7 +543,8 @@ public class MemcachedClient implements Cache
       out.setDisableClose(true);
       
       //out.print(value);
-      boolean v = cache.loadData(valueDataId, valueDataTime, out);
+      // the length is the uncompressed length, so write uncompressed data
+      boolean v = cache.loadValue(update, valueDataId, valueDataTime, out);
       
       out.setDisableClose(false);
       
@@ -582,7 +589,7 @@ public class MemcachedClient implements Cache
     boolean isResin = _isResin != null && _isResin;
     
     if (isResin) {
-      CacheImpl cache = getLocalCache();
+      CacheImpl<Object,Object> cache = getLocalCache();
       
       cache.remove(key);
     }
@@ -665,9 +672,11 @@ public class MemcachedClient implements Cache
         | ((valueHash[7] & 0xffL)));
   }
   
-  private CacheImpl getLocalCache()
+  @SuppressWarnings("unchecked")
+  private CacheImpl<Object,Object> getLocalCache()
   {
-    CacheImpl cache = _localCache.get();
+    // createIfAbsent returns the raw cache
+    CacheImpl<Object,Object> cache = _localCache.get();
     
     if (cache == null) {
       LocalCache localCache = new LocalCache();
@@ -779,7 +788,7 @@ public class MemcachedClient implements Cache
   private boolean readString(ReadStream is, CharBuffer cb)
     throws IOException
   {
-    _cb.clear();
+    cb.clear();
     
     int ch = is.read();
   
@@ -914,24 +923,57 @@ public class MemcachedClient implements Cache
     return ts;
   }
 
-  /* (non-Javadoc)
-   * @see javax.cache.Cache#putAll(java.util.Map)
+  /**
+   * Puts the values with pipelined noreply sets, one round trip
+   * for each server.
    */
   @Override
   public void putAll(Map map) throws CacheException
   {
-    // TODO Auto-generated method stub
+    if (_isResin == null)
+      initResin();
+    
+    boolean isResin = _isResin != null && _isResin;
+    
+    if (isResin) {
+      CacheImpl<Object,Object> cache = getLocalCache();
+      Map<?,?> entries = map;
+      
+      cache.putAll(entries);
+    }
+    
+    putAllImpl(map);
+  }
+  
+  private void putAllImpl(Map<?,?> map) throws CacheException
+  {
+    if (map.size() == 0)
+      return;
+    
+    Collection<ServerBatch> batches = openBatches(map.keySet());
     
+    try {
+      long expireSeconds = getExpireSeconds();
+      
+      for (ServerBatch batch : batches) {
+        batch.writeSets(map, expireSeconds);
+      }
+      
+      for (ServerBatch batch : batches) {
+        batch.readSync();
+      }
+    } finally {
+      closeBatches(batches);
+    }
   }
 
-  /* (non-Javadoc)
-   * @see javax.cache.Cache#putIfAbsent(java.lang.Object, java.lang.Object)
+  /**
+   * Stores the value only if the key has no value, using memcached's add.
    */
   @Override
   public boolean putIfAbsent(Object key, Object value) throws CacheException
   {
-    // TODO Auto-generated method stub
-    return false;
+    return storeConditional("add", key, value, 0);
   }
 
   /* (non-Javadoc)
@@ -954,25 +996,141 @@ public class MemcachedClient implements Cache
     
   }
 
-  /* (non-Javadoc)
-   * @see javax.cache.Cache#replace(java.lang.Object, java.lang.Object, java.lang.Object)
+  /**
+   * Replaces the value if it equals the old value, using gets and cas so
+   * a concurrent update between the two is detected.
    */
   @Override
   public boolean replace(Object key, Object oldValue, Object newValue)
       throws CacheException
   {
-    // TODO Auto-generated method stub
-    return false;
+    if (_isResin == null)
+      initResin();
+    
+    ArrayList<Object> keys = new ArrayList<Object>();
+    keys.add(key);
+    
+    HashMap<Object,Object> valueMap = new HashMap<Object,Object>();
+    HashMap<Object,Long> casMap = new HashMap<Object,Long>();
+    
+    getAllImpl(keys, valueMap, casMap);
+    
+    Object value = valueMap.get(key);
+    Long casUnique = casMap.get(key);
+    
+    if (value == null || casUnique == null || ! value.equals(oldValue)) {
+      return false;
+    }
+    
+    return storeConditional("cas", key, newValue, casUnique);
   }
 
-  /* (non-Javadoc)
-   * @see javax.cache.Cache#replace(java.lang.Object, java.lang.Object)
+  /**
+   * Stores the value only if the key already has a value.
    */
   @Override
   public boolean replace(Object key, Object value) throws CacheException
   {
-    // TODO Auto-generated method stub
-    return false;
+    return storeConditional("replace", key, value, 0);
+  }
+  
+  private boolean storeConditional(String cmd,
+                                   Object key,
+                                   Object value,
+                                   long casUnique)
+    throws CacheException
+  {
+    if (_isResin == null)
+      initResin();
+    
+    boolean isStored = storeImpl(cmd, String.valueOf(key), value, casUnique);
+    
+    if (isStored && _isResin != null && _isResin) {
+      CacheImpl<Object,Object> cache = getLocalCache();
+      
+      cache.put(key, value);
+    }
+    
+    return isStored;
+  }
+  
+  private boolean storeImpl(String cmd,
+                            String key,
+                            Object value,
+                            long casUnique)
+    throws CacheException
+  {
+    ClientSocket client = null;
+    long idleStartTime = CurrentTime.getCurrentTime();
+    
+    boolean isValid = false;
+    
+    try {
+      client = _loadBalancer.openSticky(null, key, null);
+      
+      if (client == null)
+        throw new CacheException("Cannot " + cmd + " memcache");
+      
+      WriteStream out = client.getOutputStream();
+      ReadStream is = client.getInputStream();
+      
+      TempStream ts = serialize(value);
+      long length = ts.getLength();
+      
+      out.print(cmd);
+      out.print(" ");
+      out.print(key);
+      out.print(" 0 ");
+      out.print(getExpireSeconds());
+      out.print(" ");
+      out.print(length);
+      
+      if ("cas".equals(cmd)) {
+        out.print(" ");
+        out.print(casUnique);
+      }
+      
+      out.print("\r\n");
+      
+      ts.writeToStream(out);
+      
+      out.print("\r\n");
+      out.flush();
+      
+      String line = is.readLine();
+
+      if (log.isLoggable(Level.FINER)) {
+        log.finer(this + " " + cmd + " " + key
+                  + "\n  " + client
+                  + "\n  " + line);
+      }
+      
+      if ("STORED".equals(line)) {
+        isValid = true;
+        
+        return true;
+      }
+      else if ("NOT_STORED".equals(line)
+               || "EXISTS".equals(line)
+               || "NOT_FOUND".equals(line)) {
+        isValid = true;
+        
+        return false;
+      }
+      else {
+        throw new CacheException(L.l("'{0}' is an unexpected response to memcached {1}",
+                                     line, cmd));
+      }
+    } catch (IOException e) {
+      throw new CacheException(L.l("Cannot {0} memcache: {1}", cmd, e), e);
+    } finally {
+      if (client == null) {
+      }
+      else if (isValid)
+        client.free(idleStartTime);
+      else
+        client.close();
+    }
   }
 
   /* (non-Javadoc)
@@ -1079,6 +1237,229 @@ public class MemcachedClient implements Cache
       
       return sublen;
     }
+    
+    void skipToEnd()
+      throws IOException
+    {
+      if (_length > 0) {
+        _is.skip(_length);
+        _length = 0;
+      }
+    }
+  }
+
+  /**
+   * The keys for a single server in a multi-key request.
+   */
+  class ServerBatch {
+    private final ClientSocket _client;
+    private final long _idleStartTime;
+    
+    private final ArrayList<String> _names = new ArrayList<String>();
+    private final HashMap<String,Object> _keyMap
+      = new HashMap<String,Object>();
+    
+    private final CharBuffer _cb = new CharBuffer();
+    
+    private boolean _isValid = true;
+    
+    ServerBatch(ClientSocket client, long idleStartTime)
+    {
+      _client = client;
+      _idleStartTime = idleStartTime;
+    }
+    
+    void add(String name, Object key)
+    {
+      if (_keyMap.put(name, key) == null) {
+        _names.add(name);
+      }
+    }
+    
+    void writeGet(String cmd)
+    {
+      try {
+        WriteStream out = _client.getOutputStream();
+        
+        out.print(cmd);
+        
+        for (String name : _names) {
+          out.print(" ");
+          out.print(name);
+        }
+        
+        out.print("\r\n");
+        out.flush();
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    
+    void readValues(Map<Object,Object> result, Map<Object,Long> casMap)
+    {
+      if (! _isValid)
+        return;
+      
+      try {
+        ReadStream is = _client.getInputStream();
+        CharBuffer cb = _cb;
+        Hessian2Input hIn = new Hessian2Input();
+        
+        while (true) {
+          if (! readString(is, cb))
+            throw new IOException(L.l("unexpected end of file"));
+          
+          if (cb.matches("END")) {
+            if (! skipToEndOfLine(is))
+              throw new IOException(L.l("unexpected end of file"));
+            
+            return;
+          }
+          
+          if (! cb.matches("VALUE")) {
+            throw new IOException(L.l("'{0}' is an unexpected memcached response",
+                                      cb));
+          }
+          
+          readString(is, cb);
+          
+          Object key = _keyMap.get(cb.toString());
+          
+          long flags = readInt(is);
+          long length = readInt(is);
+          long casUnique = readInt(is);
+          
+          if (! skipToEndOfLine(is))
+            throw new IOException(L.l("unexpected end of file"));
+          
+          GetInputStream gis = new GetInputStream(is, length);
+          
+          hIn.init(gis);
+          
+          Object value = hIn.readObject();
+          
+          gis.skipToEnd();
+          
+          if (! skipToEndOfLine(is))
+            throw new IOException(L.l("unexpected end of file"));
+          
+          if (key != null) {
+            result.put(key, value);
+            
+            if (casMap != null)
+              casMap.put(key, casUnique);
+          }
+        }
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    
+    void writeSets(Map<?,?> map, long expireSeconds)
+    {
+      if (! _isValid)
+        return;
+      
+      try {
+        WriteStream out = _client.getOutputStream();
+        
+        for (String name : _names) {
+          TempStream ts = serialize(map.get(_keyMap.get(name)));
+          
+          out.print("set ");
+          out.print(name);
+          out.print(" 0 ");
+          out.print(expireSeconds);
+          out.print(" ");
+          out.print(ts.getLength());
+          out.print(" noreply\r\n");
+          
+          ts.writeToStream(out);
+          
+          out.print("\r\n");
+        }
+        
+        writeSync(out);
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    
+    void writeDeletes()
+    {
+      if (! _isValid)
+        return;
+      
+      try {
+        WriteStream out = _client.getOutputStream();
+        
+        for (String name : _names) {
+          out.print("delete ");
+          out.print(name);
+          out.print(" noreply\r\n");
+        }
+        
+        writeSync(out);
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    
+    /**
+     * noreply commands are followed by a version request, so the
+     * connection is known to be clean when its reply arrives.
+     */
+    private void writeSync(WriteStream out)
+      throws IOException
+    {
+      out.print("version\r\n");
+      out.flush();
+    }
+    
+    void readSync()
+    {
+      if (! _isValid)
+        return;
+      
+      try {
+        ReadStream is = _client.getInputStream();
+        
+        String line;
+        
+        while ((line = is.readLine()) != null) {
+          if (line.startsWith("VERSION")) {
+            return;
+          }
+          
+          log.warning(this + " unexpected memcached response '" + line + "'");
+        }
+        
+        throw new IOException(L.l("unexpected end of file"));
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    
+    private void fail(IOException e)
+    {
+      log.log(Level.FINER, e.toString(), e);
+      
+      _isValid = false;
+    }
+    
+    void close()
+    {
+      if (_isValid)
+        _client.free(_idleStartTime);
+      else
+        _client.close();
+    }
+    
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _client + "]";
+    }
   }
 
   /* (non-Javadoc)
@@ -1100,14 +1481,80 @@ public class MemcachedClient implements Cache
     
   }
 
-  /* (non-Javadoc)
-   * @see javax.cache.Cache#getAll(java.util.Set)
+  /**
+   * Returns the values for the keys with one multi-key get for each
+   * server instead of a round trip for each key.
    */
   @Override
   public Map getAll(Set keys)
   {
-    // TODO Auto-generated method stub
-    return null;
+    if (_isResin == null)
+      initResin();
+    
+    boolean isResin = _isResin != null && _isResin;
+    
+    HashMap<Object,Object> result = new HashMap<Object,Object>();
+    ArrayList<Object> missKeys = new ArrayList<Object>();
+    
+    if (isResin) {
+      CacheImpl<Object,Object> cache = getLocalCache();
+      
+      for (Object key : keys) {
+        Object value = cache.get(key);
+        
+        if (value != null)
+          result.put(key, value);
+        else
+          missKeys.add(key);
+      }
+    }
+    else {
+      for (Object key : keys) {
+        missKeys.add(key);
+      }
+    }
+    
+    if (missKeys.size() == 0)
+      return result;
+    
+    HashMap<Object,Object> loadMap = new HashMap<Object,Object>();
+    
+    getAllImpl(missKeys, loadMap, null);
+    
+    if (isResin && loadMap.size() > 0) {
+      CacheImpl<Object,Object> cache = getLocalCache();
+      
+      cache.putAll(loadMap);
+    }
+    
+    result.putAll(loadMap);
+    
+    return result;
+  }
+  
+  /**
+   * Sends the get for every server before reading any reply, so the
+   * servers work in parallel.
+   *
+   * @param casMap if not null, uses gets and returns the cas uniques
+   */
+  private void getAllImpl(ArrayList<Object> keys,
+                          Map<Object,Object> result,
+                          Map<Object,Long> casMap)
+  {
+    Collection<ServerBatch> batches = openBatches(keys);
+    
+    try {
+      for (ServerBatch batch : batches) {
+        batch.writeGet(casMap != null ? "gets" : "get");
+      }
+      
+      for (ServerBatch batch : batches) {
+        batch.readValues(result, casMap);
+      }
+    } finally {
+      closeBatches(batches);
+    }
   }
 
   /* (non-Javadoc)
@@ -1120,14 +1567,114 @@ public class MemcachedClient implements Cache
     return null;
   }
 
-  /* (non-Javadoc)
-   * @see javax.cache.Cache#removeAll(java.util.Set)
+  /**
+   * Removes the keys with pipelined noreply deletes.
    */
   @Override
   public void removeAll(Set keys)
   {
-    // TODO Auto-generated method stub
+    if (_isResin == null)
+      initResin();
+    
+    boolean isResin = _isResin != null && _isResin;
+    
+    if (isResin) {
+      CacheImpl<Object,Object> cache = getLocalCache();
+      Set<?> keySet = keys;
+      
+      cache.removeAll(keySet);
+    }
+    
+    // the local cache only removes the hashed keys, so the plain
+    // keys written by putAll are removed here, matching putAll
+    removeAllImpl(keys);
+  }
+  
+  private void removeAllImpl(Set<?> keys)
+  {
+    if (keys.size() == 0)
+      return;
+    
+    Collection<ServerBatch> batches = openBatches(keys);
+    
+    try {
+      for (ServerBatch batch : batches) {
+        batch.writeDeletes();
+      }
+      
+      for (ServerBatch batch : batches) {
+        batch.readSync();
+      }
+    } finally {
+      closeBatches(batches);
+    }
+  }
+  
+  /**
+   * Groups the keys by their sticky server, keeping one connection
+   * for each server.
+   */
+  private Collection<ServerBatch> openBatches(Collection<?> keys)
+  {
+    LinkedHashMap<ClientSocketFactory,ServerBatch> batchMap
+      = new LinkedHashMap<ClientSocketFactory,ServerBatch>();
+    
+    boolean isValid = false;
+    
+    try {
+      for (Object key : keys) {
+        String name = String.valueOf(key);
+        
+        long idleStartTime = CurrentTime.getCurrentTime();
+        
+        ClientSocket client = _loadBalancer.openSticky(null, name, null);
+        
+        if (client == null)
+          throw new CacheException("Cannot open client");
+        
+        ServerBatch batch = batchMap.get(client.getPool());
+        
+        if (batch == null) {
+          batch = new ServerBatch(client, idleStartTime);
+          batchMap.put(client.getPool(), batch);
+        }
+        else {
+          client.free(idleStartTime);
+        }
+        
+        batch.add(name, key);
+      }
+      
+      isValid = true;
+      
+      return batchMap.values();
+    } finally {
+      if (! isValid) {
+        closeBatches(batchMap.values());
+      }
+    }
+  }
+  
+  private void closeBatches(Collection<ServerBatch> batches)
+  {
+    for (ServerBatch batch : batches) {
+      batch.close();
+    }
+  }
+  
+  private long getExpireSeconds()
+  {
+    long timeout = _modifiedExpireTimeout;
+    
+    if (timeout <= 0 || Integer.MAX_VALUE * 1000L <= timeout)
+      return 0;
+    
+    long expireSeconds = (timeout + 999) / 1000;
+    
+    if (MAX_RELATIVE_EXPIRE < expireSeconds)
+      expireSeconds += CurrentTime.getCurrentTime() / 1000;
     
+    return expireSeconds;
   }
 
   /* (non-Javadoc)
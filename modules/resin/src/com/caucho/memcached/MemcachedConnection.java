@@ -63,6 +63,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
   private SetInputStream _setInputStream = new SetInputStream();
   private GetOutputStream _getOutputStream = new GetOutputStream();
   private StringBuilder _sb = new StringBuilder();
+  private MemcachedBinary _binary;
   
   MemcachedConnection(MemcachedProtocol memcache, SocketLink link)
   {
@@ -113,6 +114,10 @@ public class MemcachedConnection extends AbstractProtocolConnection
     return _cache;
   }
 
+  /**
+   * Handles the pipelined requests in the read buffer. The responses
+   * are flushed together when the buffer is drained.
+   */
   @Override
   public boolean handleRequest() throws IOException
   {
@@ -140,6 +145,13 @@ public class MemcachedConnection extends AbstractProtocolConnection
     if (ch < 0)
       return false;
     
+    if (ch == MemcachedBinary.MAGIC_REQUEST) {
+      if (_binary == null)
+        _binary = new MemcachedBinary(this);
+      
+      return _binary.handleRequest(is);
+    }
+    
     do {
       _method.append((char) ch);
       if (_method.length() > METHOD_MAX) {
@@ -285,6 +297,17 @@ public class MemcachedConnection extends AbstractProtocolConnection
       for (; ch >= 0 && ch == ' '; ch = rs.read()) {
       }
       
+      long casUnique = 0;
+      
+      if (isCas()) {
+        for (; '0' <= ch && ch <= '9'; ch = rs.read()) {
+          casUnique = 10 * casUnique + ch - '0';
+        }
+      
+        for (; ch >= 0 && ch == ' '; ch = rs.read()) {
+        }
+      }
+      
       sb.setLength(0);
       
       for (; ch >= 0 && ch != '\r'; ch = rs.read()) {
@@ -298,19 +321,10 @@ public class MemcachedConnection extends AbstractProtocolConnection
         throw new IOException("PROTOCOL: " + ch);
       }
       
-      long timeout = 60 * 1000;
-      
-      if (expTime <= 0) {
-        timeout = 365 * 24 * 60 * 60 * 1000L;
-      }
-      else if (expTime <= 60 * 60 * 24 * 30) {
-        timeout = 1000L * expTime;
-      }
-      else {
-        timeout = expTime * 1000L - CurrentTime.getCurrentTime();
-      }
+      long timeout = getExpireTimeout(expTime);
 
-      boolean isStored = doCommand(conn, key, bytes, timeout, flags);
+      boolean isStored = doCommand(conn, key, bytes, timeout, flags,
+                                   casUnique);
       
       ch = rs.read();
       if (ch != '\r') {
@@ -331,18 +345,32 @@ public class MemcachedConnection extends AbstractProtocolConnection
         out.print("STORED\r\n");
       }
       else {
-        out.print("NOT_STORED\r\n");
+        out.print(getNotStoredReply(conn, key));
       }
       
       return true;
     }
     
+    protected boolean isCas()
+    {
+      return false;
+    }
+    
+    /**
+     * Stores the value. casUnique is only set for the cas command.
+     */
     abstract protected boolean doCommand(MemcachedConnection conn,
                                          String key,
                                          long bytes,
                                          long timeout,
-                                         int flags)
+                                         int flags,
+                                         long casUnique)
       throws IOException;
+    
+    protected String getNotStoredReply(MemcachedConnection conn, String key)
+    {
+      return "NOT_STORED\r\n";
+    }
   }
   
   static class SetCommand extends StoreCommand {
@@ -351,7 +379,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
                              String key,
                              long bytes,
                              long expireTimeout,
-                             int flags)
+                             int flags,
+                             long casUnique)
       throws IOException
     {
       ReadStream rs = conn.getReadStream();
@@ -376,7 +405,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
                              String key,
                              long bytes,
                              long timeout,
-                             int flags)
+                             int flags,
+                             long casUnique)
       throws IOException
     {
       ClusterCache cache = conn.getCache();
@@ -397,7 +427,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
       setIs.init(rs, bytes);
       
       
-      cache.put(key, setIs, timeout, flags);
+      cache.put(key, setIs, timeout, timeout, flags);
       
       WriteStream out = conn.getWriteStream();
       out.setDisableClose(true);
@@ -412,7 +442,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
                              String key,
                              long bytes,
                              long timeout,
-                             int flags)
+                             int flags,
+                             long casUnique)
       throws IOException
     {
       ClusterCache cache = conn.getCache();
@@ -433,7 +464,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
       setIs.init(rs, bytes);
       
       
-      cache.put(key, setIs, timeout, flags);
+      cache.put(key, setIs, timeout, timeout, flags);
       
       WriteStream out = conn.getWriteStream();
       out.setDisableClose(true);
@@ -442,13 +473,73 @@ public class MemcachedConnection extends AbstractProtocolConnection
     }
   }
   
+  /**
+   * cas: stores only if the value is unchanged since the client's gets.
+   */
+  static class CasCommand extends StoreCommand {
+    @Override
+    protected boolean isCas()
+    {
+      return true;
+    }
+    
+    @Override
+    public boolean doCommand(MemcachedConnection conn,
+                             String key,
+                             long bytes,
+                             long timeout,
+                             int flags,
+                             long casUnique)
+      throws IOException
+    {
+      ClusterCache cache = conn.getCache();
+      
+      ExtCacheEntry<?,?> entry = cache.getExtCacheEntry(key);
+      
+      ReadStream rs = conn.getReadStream();
+      
+      if (entry == null
+          || entry.isValueNull()
+          || getCasUnique(entry.getValueHash()) != casUnique) {
+        rs.skip(bytes);
+        
+        return false;
+      }
+      
+      SetInputStream setIs = conn.getSetInputStream();
+
+      setIs.init(rs, bytes);
+      
+      // the put fails if the value changed since the check above
+      boolean isStored = cache.compareAndPut(key, entry.getValueHash(),
+                                             setIs, timeout, timeout, flags);
+      
+      WriteStream out = conn.getWriteStream();
+      out.setDisableClose(true);
+
+      return isStored;
+    }
+    
+    @Override
+    protected String getNotStoredReply(MemcachedConnection conn, String key)
+    {
+      ExtCacheEntry<?,?> entry = conn.getCache().getExtCacheEntry(key);
+      
+      if (entry == null || entry.isValueNull())
+        return "NOT_FOUND\r\n";
+      else
+        return "EXISTS\r\n";
+    }
+  }
+  
   static class AppendCommand extends StoreCommand {
     @Override
     public boolean doCommand(MemcachedConnection conn,
                              String key,
                              long bytes,
                              long timeout,
-                             int flags)
+                             int flags,
+                             long casUnique)
       throws IOException
     {
       ClusterCache cache = conn.getCache();
@@ -493,7 +584,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
                              String key,
                              long bytes,
                              long timeout,
-                             int flags)
+                             int flags,
+                             long casUnique)
       throws IOException
     {
       ClusterCache cache = conn.getCache();
@@ -534,6 +626,21 @@ public class MemcachedConnection extends AbstractProtocolConnection
   }
   
   static class GetCommand extends Command {
+    private final boolean _isCas;
+    
+    GetCommand()
+    {
+      this(false);
+    }
+    
+    /**
+     * @param isCas true for gets, which returns the cas unique
+     */
+    GetCommand(boolean isCas)
+    {
+      _isCas = isCas;
+    }
+    
     @Override
     public boolean execute(MemcachedConnection conn)
       throws IOException
@@ -636,10 +743,12 @@ public class MemcachedConnection extends AbstractProtocolConnection
       long bytes = entry.getValueLength();
       out.print(" ");
       out.print(bytes);
-      /*
-      out.print(" ");
-      out.print(unique);
-      */
+      
+      if (_isCas) {
+        out.print(" ");
+        out.print(getCasUnique(unique));
+      }
+      
       out.print("\r\n");
 
       // cache.loadData(valueKey, out);
@@ -694,7 +803,6 @@ public class MemcachedConnection extends AbstractProtocolConnection
       }
 
       out.print("END\r\n");
-      out.flush();
       
       return true;
     }
@@ -763,8 +871,6 @@ public class MemcachedConnection extends AbstractProtocolConnection
         if (! isNoReply)
           out.print("NOT_FOUND\r\n");
       }
-
-      out.flush();
       
       return true;
     }
@@ -997,6 +1103,31 @@ public class MemcachedConnection extends AbstractProtocolConnection
     }
   }
 
+  /**
+   * Converts a memcached exptime in seconds, or an absolute unix time
+   * past 30 days, to a timeout.
+   */
+  static long getExpireTimeout(long expTime)
+  {
+    if (expTime <= 0) {
+      return 365 * 24 * 60 * 60 * 1000L;
+    }
+    else if (expTime <= 60 * 60 * 24 * 30) {
+      return 1000L * expTime;
+    }
+    else {
+      return expTime * 1000L - CurrentTime.getCurrentTime();
+    }
+  }
+  
+  /**
+   * The cas unique is the value hash, kept positive for the text protocol.
+   */
+  static long getCasUnique(long valueHash)
+  {
+    return valueHash & Long.MAX_VALUE;
+  }
+  
   static class SetInputStream extends InputStream {
     private ReadStream _is;
     private long _length;
@@ -1007,6 +1138,18 @@ public class MemcachedConnection extends AbstractProtocolConnection
       _length = length;
     }
     
+    /**
+     * Skips any value bytes the cache didn't read.
+     */
+    void skipToEnd()
+      throws IOException
+    {
+      if (_length > 0) {
+        _is.skip(_length);
+        _length = 0;
+      }
+    }
+    
     @Override
     public int read()
       throws IOException
@@ -1091,7 +1234,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
     addCommand("add", new AddCommand());
     addCommand("append", new AppendCommand());
     addCommand("get", new GetCommand());
-    addCommand("gets", new GetCommand());
+    addCommand("gets", new GetCommand(true));
+    addCommand("cas", new CasCommand());
     addCommand("get_if_modified", new GetIfModifiedCommand());
     addCommand("decr", new DecrementCommand());
     addCommand("delete", new DeleteCommand());
@@ -58,7 +58,7 @@ public class Profile
     } catch (ClassNotFoundException e) {
       log.log(Level.FINEST, e.toString(), e);
 
-      throw new ConfigException(L.l("Profile requires Resin Professional"));
+      return SamplingProfile.getProfile();
     } catch (Throwable e) {
       throw ConfigException.create(e);
     }
@@ -123,4 +123,12 @@ public class Profile
   {
     throw new AbstractMethodError();
   }
+
+  /**
+   * Returns the results in the collapsed-stack (flame graph) format.
+   */
+  public String getCollapsedStacks()
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
 }
@@ -48,6 +48,14 @@ public class ProfileEntry
     throw new UnsupportedOperationException(getClass().getSimpleName());
   }
 
+  /**
+   * Returns the request url of the sampled thread, if known.
+   */
+  public String getUrl()
+  {
+    return null;
+  }
+
   public ArrayList<? extends StackEntry> getStackTrace()
   {
     throw new AbstractMethodError();
@@ -0,0 +1,781 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * as published by the Free Software Foundation.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.profile;
+
+import java.lang.Thread.State;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.admin.thread.AbstractThreadActivityReport;
+import com.caucho.admin.thread.ResinThreadActivityReport;
+import com.caucho.admin.thread.ThreadActivityCode;
+import com.caucho.admin.thread.ThreadSnapshot;
+import com.caucho.management.server.TcpConnectionInfo;
+import com.caucho.util.CurrentTime;
+
+/**
+ * Sampling profiler using ThreadMXBean stack traces.
+ *
+ * Each tick samples the busy threads, i.e. running, blocked or in native
+ * code, and adds their stacks to a call tree. Frames are interned, so
+ * the tree only stores one node per distinct call path. Each tree is
+ * keyed by the thread's activity code and its current request url.
+ */
+public class SamplingProfile extends Profile
+{
+  private static final Logger log
+    = Logger.getLogger(SamplingProfile.class.getName());
+
+  private static final SamplingProfile _profile = new SamplingProfile();
+
+  // how often the request urls are refreshed
+  private static final long URL_REFRESH_TIME = 1000L;
+
+  private final ThreadMXBean _threadBean
+    = ManagementFactory.getThreadMXBean();
+
+  private final ResinThreadActivityReport _activityReport
+    = new ResinThreadActivityReport();
+
+  private long _period = 10;
+  private int _depth = 16;
+
+  private Sampler _sampler;
+
+  private final HashMap<StackTraceElement,Frame> _elementMap
+    = new HashMap<StackTraceElement,Frame>();
+  private final HashMap<String,Frame> _frameMap
+    = new HashMap<String,Frame>();
+
+  private final HashMap<String,Node> _rootMap
+    = new HashMap<String,Node>();
+
+  private long _ticks;
+  private long _startTime;
+  private long _endTime;
+  private long _gcStartTime;
+  private long _gcTime;
+
+  private Map<Long,TcpConnectionInfo> _connectionMap
+    = Collections.emptyMap();
+  private long _connectionMapTime;
+
+  protected SamplingProfile()
+  {
+  }
+
+  /**
+   * Returns the server's profiler.
+   */
+  public static SamplingProfile getProfile()
+  {
+    return _profile;
+  }
+
+  @Override
+  public synchronized boolean isActive()
+  {
+    return _sampler != null;
+  }
+
+  @Override
+  public int getDepth()
+  {
+    return _depth;
+  }
+
+  @Override
+  public void setDepth(int depth)
+  {
+    _depth = Math.max(1, depth);
+  }
+
+  @Override
+  public long getPeriod()
+  {
+    return _period;
+  }
+
+  @Override
+  public void setPeriod(long period)
+  {
+    _period = Math.max(1, period);
+  }
+
+  @Override
+  public synchronized long getTicks()
+  {
+    return _ticks;
+  }
+
+  @Override
+  public synchronized long getRunTime()
+  {
+    if (_sampler != null)
+      return CurrentTime.getCurrentTime() - _startTime;
+    else
+      return _endTime - _startTime;
+  }
+
+  @Override
+  public synchronized long getEndTime()
+  {
+    return _endTime;
+  }
+
+  @Override
+  public synchronized long getGcTime()
+  {
+    if (_sampler != null)
+      return getGcCollectionTime() - _gcStartTime;
+    else
+      return _gcTime;
+  }
+
+  /**
+   * Clears the previous results and starts sampling.
+   */
+  @Override
+  public void start()
+  {
+    Sampler sampler;
+
+    synchronized (this) {
+      if (_sampler != null)
+        return;
+
+      _elementMap.clear();
+      _frameMap.clear();
+      _rootMap.clear();
+      _ticks = 0;
+
+      _startTime = CurrentTime.getCurrentTime();
+      _endTime = 0;
+      _gcStartTime = getGcCollectionTime();
+      _gcTime = 0;
+
+      _connectionMap = Collections.emptyMap();
+      _connectionMapTime = 0;
+
+      sampler = new Sampler();
+      _sampler = sampler;
+    }
+
+    Thread thread = new Thread(sampler, "resin-profile");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MAX_PRIORITY);
+
+    sampler.setThread(thread);
+
+    thread.start();
+  }
+
+  /**
+   * Stops sampling. The results remain available until the next start.
+   */
+  @Override
+  public void stop()
+  {
+    Sampler sampler;
+
+    synchronized (this) {
+      sampler = _sampler;
+
+      if (sampler == null)
+        return;
+
+      _sampler = null;
+
+      _endTime = CurrentTime.getCurrentTime();
+      _gcTime = getGcCollectionTime() - _gcStartTime;
+    }
+
+    sampler.close();
+  }
+
+  /**
+   * Returns the sampled call paths, most frequent first.
+   */
+  @Override
+  public synchronized ProfileEntry []getResults()
+  {
+    ArrayList<SampleEntry> entries = new ArrayList<SampleEntry>();
+    ArrayList<Frame> path = new ArrayList<Frame>();
+
+    for (Map.Entry<String,Node> entry : _rootMap.entrySet()) {
+      Node root = entry.getValue();
+
+      fillResults(entries, root.getCode(), root.getUrl(), root, path);
+    }
+
+    Collections.sort(entries, new Comparator<SampleEntry>() {
+      @Override
+      public int compare(SampleEntry a, SampleEntry b)
+      {
+        return Long.signum(b.getCount() - a.getCount());
+      }
+    });
+
+    ProfileEntry []results = new ProfileEntry[entries.size()];
+    entries.toArray(results);
+
+    return results;
+  }
+
+  /**
+   * Returns the samples in the collapsed-stack format used by flame
+   * graph tools: one line per call path, root first, followed by the
+   * sample count. The activity code and url are the first frames.
+   */
+  @Override
+  public synchronized String getCollapsedStacks()
+  {
+    StringBuilder sb = new StringBuilder();
+    StringBuilder prefix = new StringBuilder();
+
+    for (Node root : _rootMap.values()) {
+      prefix.setLength(0);
+      prefix.append(root.getCode().name());
+
+      if (root.getUrl() != null) {
+        prefix.append(';');
+        appendCollapsedName(prefix, root.getUrl());
+      }
+
+      fillCollapsed(sb, prefix, root);
+    }
+
+    return sb.toString();
+  }
+
+  private void fillResults(ArrayList<SampleEntry> entries,
+                           ThreadActivityCode code,
+                           String url,
+                           Node node,
+                           ArrayList<Frame> path)
+  {
+    if (node.getFrame() != null)
+      path.add(node.getFrame());
+
+    if (node.getCount() > 0 && path.size() > 0) {
+      ArrayList<SampleStackEntry> stack = new ArrayList<SampleStackEntry>();
+
+      for (int i = path.size() - 1; i >= 0; i--)
+        stack.add(new SampleStackEntry(path.get(i)));
+
+      entries.add(new SampleEntry(path.get(path.size() - 1).getName(),
+                                  node.getCount(), code, url, stack));
+    }
+
+    for (int i = 0; i < node.getChildCount(); i++)
+      fillResults(entries, code, url, node.getChild(i), path);
+
+    if (node.getFrame() != null)
+      path.remove(path.size() - 1);
+  }
+
+  private void fillCollapsed(StringBuilder sb,
+                             StringBuilder prefix,
+                             Node node)
+  {
+    int length = prefix.length();
+
+    if (node.getFrame() != null) {
+      prefix.append(';');
+      appendCollapsedName(prefix, node.getFrame().getName());
+    }
+
+    if (node.getCount() > 0 && node.getFrame() != null) {
+      sb.append(prefix);
+      sb.append(' ');
+      sb.append(node.getCount());
+      sb.append('\n');
+    }
+
+    for (int i = 0; i < node.getChildCount(); i++)
+      fillCollapsed(sb, prefix, node.getChild(i));
+
+    prefix.setLength(length);
+  }
+
+  private static void appendCollapsedName(StringBuilder sb, String name)
+  {
+    for (int i = 0; i < name.length(); i++) {
+      char ch = name.charAt(i);
+
+      if (ch == ';' || ch == ' ' || ch == '\n' || ch == '\r')
+        sb.append('_');
+      else
+        sb.append(ch);
+    }
+  }
+
+  /**
+   * Samples the threads once.
+   */
+  private void sample(Sampler sampler)
+  {
+    long []ids = _threadBean.getAllThreadIds();
+    ThreadInfo []infos = _threadBean.getThreadInfo(ids, _depth);
+
+    Map<Long,TcpConnectionInfo> connectionMap = getConnectionMap();
+
+    long selfId = Thread.currentThread().getId();
+
+    synchronized (this) {
+      if (_sampler != sampler)
+        return;
+
+      _ticks++;
+
+      for (ThreadInfo info : infos) {
+        if (info == null || info.getThreadId() == selfId)
+          continue;
+
+        StackTraceElement []stack = info.getStackTrace();
+
+        if (stack == null || stack.length == 0)
+          continue;
+
+        ThreadActivityCode code = getActivityCode(info);
+
+        if (code == null)
+          continue;
+
+        String url = null;
+        TcpConnectionInfo connInfo = connectionMap.get(info.getThreadId());
+
+        if (connInfo != null && connInfo.hasRequest())
+          url = connInfo.getUrl();
+
+        addSample(code, url, stack);
+      }
+    }
+  }
+
+  /**
+   * Returns the code for a busy thread, or null for an idle one.
+   */
+  private ThreadActivityCode getActivityCode(ThreadInfo info)
+  {
+    State state = info.getThreadState();
+
+    if (state != State.RUNNABLE && state != State.BLOCKED)
+      return null;
+
+    ThreadActivityCode code
+      = _activityReport.getActivityCode(new ThreadSnapshot(info));
+
+    if (code == null)
+      return null;
+
+    switch (code) {
+    case RUNNING:
+    case BLOCKED:
+    case NATIVE:
+      return code;
+
+    default:
+      return null;
+    }
+  }
+
+  private void addSample(ThreadActivityCode code,
+                         String url,
+                         StackTraceElement []stack)
+  {
+    String key = url != null ? code.name() + " " + url : code.name();
+
+    Node node = _rootMap.get(key);
+
+    if (node == null) {
+      node = new Node(null, code, url);
+      _rootMap.put(key, node);
+    }
+
+    node.addTotal();
+
+    for (int i = stack.length - 1; i >= 0; i--) {
+      node = node.createChild(getFrame(stack[i]));
+      node.addTotal();
+    }
+
+    node.addCount();
+  }
+
+  private Frame getFrame(StackTraceElement element)
+  {
+    Frame frame = _elementMap.get(element);
+
+    if (frame != null)
+      return frame;
+
+    String name = element.getClassName() + "." + element.getMethodName();
+
+    frame = _frameMap.get(name);
+
+    if (frame == null) {
+      frame = new Frame(_frameMap.size(),
+                        element.getClassName(), element.getMethodName());
+      _frameMap.put(name, frame);
+    }
+
+    _elementMap.put(element, frame);
+
+    return frame;
+  }
+
+  private Map<Long,TcpConnectionInfo> getConnectionMap()
+  {
+    long now = CurrentTime.getCurrentTime();
+
+    if (now < _connectionMapTime + URL_REFRESH_TIME)
+      return _connectionMap;
+
+    try {
+      _connectionMap = AbstractThreadActivityReport.getConnectionsById();
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      _connectionMap = Collections.emptyMap();
+    }
+
+    _connectionMapTime = now;
+
+    return _connectionMap;
+  }
+
+  private static long getGcCollectionTime()
+  {
+    long time = 0;
+
+    for (GarbageCollectorMXBean gc
+           : ManagementFactory.getGarbageCollectorMXBeans()) {
+      long gcTime = gc.getCollectionTime();
+
+      if (gcTime > 0)
+        time += gcTime;
+    }
+
+    return time;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[period=" + _period + ",depth=" + _depth + "]");
+  }
+
+  /**
+   * An interned method frame.
+   */
+  static final class Frame {
+    private final int _id;
+    private final String _className;
+    private final String _methodName;
+
+    Frame(int id, String className, String methodName)
+    {
+      _id = id;
+      _className = className;
+      _methodName = methodName;
+    }
+
+    int getId()
+    {
+      return _id;
+    }
+
+    String getClassName()
+    {
+      return _className;
+    }
+
+    String getMethodName()
+    {
+      return _methodName;
+    }
+
+    String getName()
+    {
+      return _className + "." + _methodName;
+    }
+  }
+
+  /**
+   * A call tree node. The children are sorted by frame id.
+   */
+  static final class Node {
+    private static final Node []NULL_CHILDREN = new Node[0];
+
+    private final Frame _frame;
+    private final ThreadActivityCode _code;
+    private final String _url;
+
+    private Node []_children = NULL_CHILDREN;
+    private int _childCount;
+
+    private long _count;
+    private long _total;
+
+    Node(Frame frame, ThreadActivityCode code, String url)
+    {
+      _frame = frame;
+      _code = code;
+      _url = url;
+    }
+
+    Frame getFrame()
+    {
+      return _frame;
+    }
+
+    ThreadActivityCode getCode()
+    {
+      return _code;
+    }
+
+    String getUrl()
+    {
+      return _url;
+    }
+
+    /**
+     * Samples which ended at this node.
+     */
+    long getCount()
+    {
+      return _count;
+    }
+
+    /**
+     * Samples which passed through this node.
+     */
+    long getTotal()
+    {
+      return _total;
+    }
+
+    void addCount()
+    {
+      _count++;
+    }
+
+    void addTotal()
+    {
+      _total++;
+    }
+
+    int getChildCount()
+    {
+      return _childCount;
+    }
+
+    Node getChild(int i)
+    {
+      return _children[i];
+    }
+
+    Node createChild(Frame frame)
+    {
+      int id = frame.getId();
+
+      int min = 0;
+      int max = _childCount - 1;
+
+      while (min <= max) {
+        int mid = (min + max) >>> 1;
+        int midId = _children[mid].getFrame().getId();
+
+        if (midId < id)
+          min = mid + 1;
+        else if (id < midId)
+          max = mid - 1;
+        else
+          return _children[mid];
+      }
+
+      if (_children.length <= _childCount)
+        _children = Arrays.copyOf(_children, Math.max(4, 2 * _childCount));
+
+      System.arraycopy(_children, min, _children, min + 1, _childCount - min);
+
+      Node child = new Node(frame, _code, _url);
+      _children[min] = child;
+      _childCount++;
+
+      return child;
+    }
+  }
+
+  static final class SampleEntry extends ProfileEntry {
+    private final String _description;
+    private final long _count;
+    private final ThreadActivityCode _code;
+    private final String _url;
+    private final ArrayList<SampleStackEntry> _stack;
+
+    SampleEntry(String description,
+                long count,
+                ThreadActivityCode code,
+                String url,
+                ArrayList<SampleStackEntry> stack)
+    {
+      _description = description;
+      _count = count;
+      _code = code;
+      _url = url;
+      _stack = stack;
+    }
+
+    @Override
+    public String getDescription()
+    {
+      return _description;
+    }
+
+    @Override
+    public long getCount()
+    {
+      return _count;
+    }
+
+    @Override
+    public String getState()
+    {
+      return _code.name();
+    }
+
+    @Override
+    public String getUrl()
+    {
+      return _url;
+    }
+
+    @Override
+    public ArrayList<SampleStackEntry> getStackTrace()
+    {
+      return _stack;
+    }
+  }
+
+  static final class SampleStackEntry extends StackEntry {
+    private final Frame _frame;
+
+    SampleStackEntry(Frame frame)
+    {
+      _frame = frame;
+    }
+
+    @Override
+    public String getClassName()
+    {
+      return _frame.getClassName();
+    }
+
+    @Override
+    public String getMethodName()
+    {
+      return _frame.getMethodName();
+    }
+
+    @Override
+    public String getArg()
+    {
+      return null;
+    }
+
+    @Override
+    public String getDescription()
+    {
+      return _frame.getName();
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _frame.getName() + "]";
+    }
+  }
+
+  /**
+   * The sampling thread's task.
+   */
+  final class Sampler implements Runnable {
+    private volatile boolean _isClosed;
+    private Thread _thread;
+
+    void setThread(Thread thread)
+    {
+      _thread = thread;
+    }
+
+    void close()
+    {
+      _isClosed = true;
+
+      Thread thread = _thread;
+
+      if (thread != null)
+        thread.interrupt();
+    }
+
+    @Override
+    public void run()
+    {
+      try {
+        while (! _isClosed) {
+          Thread.sleep(_period);
+
+          if (! _isClosed)
+            sample(this);
+        }
+      } catch (InterruptedException e) {
+      } catch (Throwable e) {
+        log.log(Level.WARNING, e.toString(), e);
+
+        synchronized (SamplingProfile.this) {
+          if (_sampler == this)
+            _sampler = null;
+        }
+      }
+    }
+  }
+}
@@ -88,6 +88,11 @@ abstract public class AbstractRewriteFilter implements RewriteFilter
     _regexp = regexp;
   }
 
+  public Pattern getRegexp()
+  {
+    return _regexp;
+  }
+
   @Override
   public boolean isRequest()
   {
@@ -39,6 +39,7 @@ import javax.annotation.PostConstruct;
 import javax.servlet.ServletException;
 
 import com.caucho.config.inject.HandleAware;
+import com.caucho.config.types.Period;
 import com.caucho.server.security.PasswordDigest;
 import com.caucho.util.Base64;
 
@@ -66,6 +67,14 @@ public class AbstractAuthenticator
 
   private boolean _logoutOnTimeout = true;
 
+  protected int _credentialCacheSize = 1024;
+  protected long _credentialCacheTimeout;
+  protected long _credentialCacheFailureTimeout;
+  private boolean _isCredentialCacheCluster;
+  private String _credentialCacheName;
+
+  private transient CredentialCache _credentialCache;
+
   private Object _serializationHandle;
 
   private SingleSignon _singleSignon;
@@ -136,6 +145,70 @@ public class AbstractAuthenticator
     _logoutOnTimeout = logout;
   }
 
+  /**
+   * Sets the maximum number of users in the credential cache.
+   */
+  public void setCredentialCacheSize(int size)
+  {
+    _credentialCacheSize = size;
+  }
+
+  /**
+   * Sets the time a verified password is cached. A zero timeout
+   * disables the credential cache.
+   */
+  public void setCredentialCacheTimeout(Period timeout)
+  {
+    _credentialCacheTimeout = timeout.getPeriod();
+  }
+
+  /**
+   * Sets the time a failed password is cached.
+   */
+  public void setCredentialCacheFailureTimeout(Period timeout)
+  {
+    _credentialCacheFailureTimeout = timeout.getPeriod();
+  }
+
+  /**
+   * If true, invalidateCredentials applies to the whole cluster.
+   */
+  public void setCredentialCacheCluster(boolean isCluster)
+  {
+    _isCredentialCacheCluster = isCluster;
+  }
+
+  /**
+   * Sets the name of the cluster invalidation cache, needed when an
+   * environment has several authenticators of the same class.
+   */
+  public void setCredentialCacheName(String name)
+  {
+    _credentialCacheName = name;
+  }
+
+  /**
+   * Removes a user's cached credentials, e.g. after a password change.
+   */
+  public void invalidateCredentials(String userName)
+  {
+    CredentialCache cache = _credentialCache;
+
+    if (cache != null)
+      cache.invalidate(userName);
+  }
+
+  /**
+   * Removes all cached credentials.
+   */
+  public void clearCredentialCache()
+  {
+    CredentialCache cache = _credentialCache;
+
+    if (cache != null)
+      cache.clear();
+  }
+
   /**
    * Adds a role mapping.
    */
@@ -176,6 +249,26 @@ public class AbstractAuthenticator
       }
     }
 
+    if (_credentialCacheSize > 0
+        && (_credentialCacheTimeout > 0
+            || _credentialCacheFailureTimeout > 0)) {
+      CredentialCache cache
+        = new CredentialCache(_credentialCacheSize,
+                              _credentialCacheTimeout,
+                              _credentialCacheFailureTimeout);
+
+      if (_isCredentialCacheCluster) {
+        String name = _credentialCacheName;
+
+        if (name == null)
+          name = getClass().getName();
+
+        cache.initCluster(name);
+      }
+
+      _credentialCache = cache;
+    }
+
     /*
     if (Server.getCurrent() != null) {
       _singleSignon = _localSingleSignon.get();
@@ -232,7 +325,19 @@ public class AbstractAuthenticator
                                 Object details)
   {
     if (credentials instanceof PasswordCredentials) {
-      return authenticate(user, (PasswordCredentials) credentials, details);
+      PasswordCredentials cred = (PasswordCredentials) credentials;
+      CredentialCache cache = _credentialCache;
+      Principal principal;
+
+      if (cache != null)
+        principal = cache.authenticate(this, user, cred, details);
+      else
+        principal = authenticate(user, cred, details);
+
+      if (principal != null)
+        onPasswordLogin(principal, details);
+
+      return principal;
     }
     else if (credentials instanceof HttpDigestCredentials) {
       return authenticate(user, (HttpDigestCredentials) credentials, details);
@@ -286,6 +391,18 @@ public class AbstractAuthenticator
   {
     return authenticate(principal, cred.getPassword());
   }
+
+  /**
+   * Called after each successful password login, including logins
+   * answered by the credential cache. Per-request work like setting
+   * a cookie belongs here instead of in authenticate.
+   *
+   * @param user the authenticated user
+   * @param details extra information, e.g. HttpServletRequest
+   */
+  protected void onPasswordLogin(Principal user, Object details)
+  {
+  }
   
   /**
    * Password-based authenticator.
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.security;
+
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.cache.Cache;
+import com.caucho.distcache.AbstractCache;
+import com.caucho.distcache.ClusterCache;
+import com.caucho.util.Base64;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.LruCache;
+
+/**
+ * Cache of verified password credentials for an authenticator.
+ *
+ * Only a salted SHA-256 digest of the user and password is stored. Both
+ * successful and failed logins are cached, each with its own timeout.
+ * Concurrent logins with the same credentials share a single lookup.
+ * Only the credential check is cached; the authenticator's per-request
+ * work runs in onPasswordLogin for every login.
+ *
+ * When cluster invalidation is enabled, invalidateCredentials records
+ * the invalidation time in a cluster cache named for the authenticator,
+ * and cached entries older than that time are discarded on every server.
+ */
+class CredentialCache {
+  private static final Logger log
+    = Logger.getLogger(CredentialCache.class.getName());
+
+  private static final String CLUSTER_CACHE_PREFIX
+    = "resin:credential-cache-invalidate:";
+
+  private final LruCache<String,CredentialEntry> _cache;
+
+  private final ConcurrentHashMap<String,CredentialLoad> _loadMap
+    = new ConcurrentHashMap<String,CredentialLoad>();
+
+  private final byte []_salt = new byte[16];
+
+  private final long _timeout;
+  private final long _failureTimeout;
+
+  // incremented on each invalidation, so a lookup started before it
+  // doesn't install its result
+  private final AtomicLong _generation = new AtomicLong();
+
+  private Cache<String,Long> _clusterCache;
+
+  CredentialCache(int size, long timeout, long failureTimeout)
+  {
+    _cache = new LruCache<String,CredentialEntry>(size);
+
+    _timeout = timeout;
+    _failureTimeout = failureTimeout;
+
+    new SecureRandom().nextBytes(_salt);
+  }
+
+  /**
+   * Enables cluster-wide invalidation.
+   *
+   * @param name identifies the authenticator within its environment
+   */
+  @SuppressWarnings("unchecked")
+  void initCluster(String name)
+  {
+    AbstractCache cacheConfig = new ClusterCache();
+
+    cacheConfig.setName(CLUSTER_CACHE_PREFIX + name);
+    cacheConfig.setModifiedExpireTimeoutMillis(Math.max(_timeout,
+                                                        _failureTimeout));
+
+    _clusterCache = cacheConfig.createIfAbsent();
+  }
+
+  /**
+   * Authenticates the password credentials, using the cached result
+   * when available.
+   */
+  Principal authenticate(AbstractAuthenticator authenticator,
+                         Principal user,
+                         PasswordCredentials cred,
+                         Object details)
+  {
+    String name = user.getName();
+    char []password = cred.getPassword();
+
+    if (name == null || password == null)
+      return authenticator.authenticate(user, cred, details);
+
+    byte []digest = digest(name, password);
+    long now = CurrentTime.getCurrentTime();
+    long generation = _generation.get();
+
+    CredentialEntry entry = getEntry(name);
+
+    if (entry != null) {
+      if (entry.isSuccess(digest, now))
+        return entry.getPrincipal();
+      else if (entry.isFailure(digest, now))
+        return null;
+    }
+
+    String key = name + ":" + Base64.encode(digest);
+
+    CredentialLoad load = new CredentialLoad();
+    CredentialLoad oldLoad = _loadMap.putIfAbsent(key, load);
+
+    if (oldLoad != null)
+      return oldLoad.waitForResult();
+
+    try {
+      Principal principal = authenticator.authenticate(user, cred, details);
+
+      load.setResult(principal);
+
+      update(name, digest, principal, now, generation);
+
+      return principal;
+    } catch (RuntimeException e) {
+      load.setException(e);
+
+      throw e;
+    } finally {
+      _loadMap.remove(key, load);
+
+      load.abort();
+    }
+  }
+
+  /**
+   * Removes the user's cached credentials.
+   */
+  void invalidate(String name)
+  {
+    _generation.incrementAndGet();
+
+    _cache.remove(name);
+
+    String prefix = name + ":";
+
+    for (String key : _loadMap.keySet()) {
+      if (key.startsWith(prefix))
+        _loadMap.remove(key);
+    }
+
+    Cache<String,Long> clusterCache = _clusterCache;
+
+    if (clusterCache != null)
+      clusterCache.put(name, CurrentTime.getCurrentTime());
+  }
+
+  /**
+   * Removes all cached credentials on the local server.
+   */
+  void clear()
+  {
+    _generation.incrementAndGet();
+
+    _cache.clear();
+    _loadMap.clear();
+  }
+
+  private CredentialEntry getEntry(String name)
+  {
+    CredentialEntry entry = _cache.get(name);
+
+    if (entry == null || _clusterCache == null)
+      return entry;
+
+    try {
+      Long invalidateTime = _clusterCache.get(name);
+
+      if (invalidateTime != null
+          && entry.getCreateTime() <= invalidateTime) {
+        _cache.remove(name);
+
+        return null;
+      }
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+
+    return entry;
+  }
+
+  private void update(String name, byte []digest,
+                      Principal principal, long now, long generation)
+  {
+    if (_generation.get() != generation)
+      return;
+
+    CredentialEntry oldEntry = _cache.get(name);
+    CredentialEntry entry;
+
+    if (principal != null) {
+      if (_timeout <= 0)
+        return;
+
+      entry = new CredentialEntry(now, digest, principal, now + _timeout,
+                                  null, 0);
+    }
+    else {
+      if (_failureTimeout <= 0)
+        return;
+
+      byte []successDigest = null;
+      Principal successPrincipal = null;
+      long successExpireTime = 0;
+
+      if (oldEntry != null && now < oldEntry.getExpireTime()) {
+        successDigest = oldEntry.getDigest();
+        successPrincipal = oldEntry.getPrincipal();
+        successExpireTime = oldEntry.getExpireTime();
+      }
+
+      entry = new CredentialEntry(now, successDigest, successPrincipal,
+                                  successExpireTime,
+                                  digest, now + _failureTimeout);
+    }
+
+    _cache.put(name, entry);
+
+    // an invalidation during the put may have missed the new entry
+    if (_generation.get() != generation)
+      _cache.remove(name);
+  }
+
+  private byte []digest(String name, char []password)
+  {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+      md.update(_salt);
+      md.update(name.getBytes("UTF-8"));
+      md.update((byte) 0);
+
+      for (int i = 0; i < password.length; i++) {
+        char ch = password[i];
+
+        md.update((byte) (ch >> 8));
+        md.update((byte) ch);
+      }
+
+      return md.digest();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[size=" + _cache.size()
+            + ",timeout=" + _timeout + "]");
+  }
+
+  static final class CredentialEntry {
+    private final long _createTime;
+
+    private final byte []_digest;
+    private final Principal _principal;
+    private final long _expireTime;
+
+    private final byte []_failureDigest;
+    private final long _failureExpireTime;
+
+    CredentialEntry(long createTime,
+                    byte []digest,
+                    Principal principal,
+                    long expireTime,
+                    byte []failureDigest,
+                    long failureExpireTime)
+    {
+      _createTime = createTime;
+
+      _digest = digest;
+      _principal = principal;
+      _expireTime = expireTime;
+
+      _failureDigest = failureDigest;
+      _failureExpireTime = failureExpireTime;
+    }
+
+    long getCreateTime()
+    {
+      return _createTime;
+    }
+
+    byte []getDigest()
+    {
+      return _digest;
+    }
+
+    Principal getPrincipal()
+    {
+      return _principal;
+    }
+
+    long getExpireTime()
+    {
+      return _expireTime;
+    }
+
+    boolean isSuccess(byte []digest, long now)
+    {
+      return (_digest != null
+              && now < _expireTime
+              && MessageDigest.isEqual(_digest, digest));
+    }
+
+    boolean isFailure(byte []digest, long now)
+    {
+      return (_failureDigest != null
+              && now < _failureExpireTime
+              && MessageDigest.isEqual(_failureDigest, digest));
+    }
+  }
+
+  /**
+   * An in-progress lookup, shared by concurrent logins.
+   */
+  static final class CredentialLoad {
+    private boolean _isDone;
+    private Principal _result;
+    private RuntimeException _exception;
+
+    synchronized void setResult(Principal result)
+    {
+      _result = result;
+      _isDone = true;
+
+      notifyAll();
+    }
+
+    synchronized void setException(RuntimeException exn)
+    {
+      _exception = exn;
+      _isDone = true;
+
+      notifyAll();
+    }
+
+    /**
+     * Wakes any waiters if the lookup failed with an Error.
+     */
+    synchronized void abort()
+    {
+      if (! _isDone)
+        setException(new IllegalStateException("credential lookup failed"));
+    }
+
+    synchronized Principal waitForResult()
+    {
+      boolean isInterrupted = false;
+
+      while (! _isDone) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          isInterrupted = true;
+        }
+      }
+
+      if (isInterrupted)
+        Thread.currentThread().interrupt();
+
+      if (_exception != null)
+        throw _exception;
+
+      return _result;
+    }
+  }
+}
@@ -303,9 +303,19 @@ public class DatabaseAuthenticator extends AbstractCookieAuthenticator {
     char []password = cred.getPassword();
     char []digest = getPasswordDigest(principal.getName(), password);
 
-    return authenticate(principal.getName(),
-                        new String(digest),
-                        (HttpServletRequest) details);
+    // the auth cookie is added in onPasswordLogin, since this result
+    // may be cached
+    return loginImpl(principal.getName(), new String(digest));
+  }
+
+  /**
+   * Adds the auth cookie for each login, including cached logins.
+   */
+  @Override
+  protected void onPasswordLogin(Principal user, Object details)
+  {
+    if (_cookieQuery != null)
+      addLoginCookie(user, (HttpServletRequest) details);
   }
 
   /**
@@ -325,6 +335,13 @@ public class DatabaseAuthenticator extends AbstractCookieAuthenticator {
     if (_cookieQuery == null || user == null)
       return user;
 
+    addLoginCookie(user, request);
+
+    return user;
+  }
+
+  private void addLoginCookie(Principal user, HttpServletRequest request)
+  {
     String cookieAuth = (String) request.getAttribute("j_use_cookie_auth");
     if (cookieAuth == null)
       cookieAuth = (String) request.getParameter("j_use_cookie_auth");
@@ -333,8 +350,6 @@ public class DatabaseAuthenticator extends AbstractCookieAuthenticator {
         || _useCookie && cookieAuth == null) {
       addAuthCookie(user, request);
     }
-
-    return user;
   }
 
   /**
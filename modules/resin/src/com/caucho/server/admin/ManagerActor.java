@@ -443,7 +443,8 @@ public class ManagerActor extends SimpleActor
   {
     String profile = new ProfileAction().execute(query.getActiveTime(),
                                                  query.getPeriod(),
-                                                 query.getDepth());
+                                                 query.getDepth(),
+                                                 query.getFormat());
 
     StringQueryReply result = new StringQueryReply(profile);
 
@@ -339,7 +339,13 @@ public class ManagerClient
 
   public StringQueryReply profile(long activeTime, long period, int depth)
   {
-    ProfileQuery query = new ProfileQuery(activeTime, period, depth);
+    return profile(activeTime, period, depth, null);
+  }
+
+  public StringQueryReply profile(long activeTime, long period, int depth,
+                                  String format)
+  {
+    ProfileQuery query = new ProfileQuery(activeTime, period, depth, format);
 
     return (StringQueryReply) query(query);
   }
@@ -35,12 +35,19 @@ public class ProfileQuery implements java.io.Serializable
   private long _activeTime; // active time in milliseconds
   private long _period; //sampling period
   private int _depth;
+  private String _format;
 
   public ProfileQuery(long activeTime, long period, int depth)
+  {
+    this(activeTime, period, depth, null);
+  }
+
+  public ProfileQuery(long activeTime, long period, int depth, String format)
   {
     _activeTime = activeTime;
     _period = period;
     _depth = depth;
+    _format = format;
   }
 
   public long getActiveTime()
@@ -58,6 +65,14 @@ public class ProfileQuery implements java.io.Serializable
     return _depth;
   }
 
+  /**
+   * The result format: text, json or collapsed.
+   */
+  public String getFormat()
+  {
+    return _format;
+  }
+
   @Override
   public String toString()
   {
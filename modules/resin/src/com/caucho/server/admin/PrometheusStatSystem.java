@@ -32,6 +32,7 @@ import com.caucho.config.types.Period;
 import com.caucho.env.meter.AbstractMeter;
 import com.caucho.env.meter.CountMeter;
 import com.caucho.env.meter.MeterService;
+import com.caucho.env.meter.QuantileMeter;
 import com.caucho.env.meter.TotalMeter;
 import com.caucho.env.service.AbstractResinSubSystem;
 import com.caucho.env.service.ResinSystem;
@@ -39,6 +40,7 @@ import com.caucho.lifecycle.Lifecycle;
 import com.caucho.server.cluster.ServletService;
 import com.caucho.util.Alarm;
 import com.caucho.util.AlarmListener;
+import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
 
 import javax.annotation.PostConstruct;
@@ -166,6 +168,15 @@ public class PrometheusStatSystem extends AbstractResinSubSystem implements Alar
                     _sampleData.put(samples[i], values[i]);
                 }
             }
+
+            StatSystem statSystem = StatSystem.getCurrent();
+            if (statSystem instanceof TimeSeriesStatSystem) {
+                TimeSeriesStatSystem timeSeries = (TimeSeriesStatSystem) statSystem;
+                long now = CurrentTime.getCurrentTime();
+                for (int i = 0; i < samples.length; i++) {
+                    timeSeries.addSample(now, samples[i].getName(), values[i]);
+                }
+            }
         }
     }
 
@@ -184,6 +195,14 @@ public class PrometheusStatSystem extends AbstractResinSubSystem implements Alar
 
         Sample(String name, AbstractMeter probe) {
             super(name, probe);
+            if (probe instanceof QuantileMeter) {
+                // histogram quantiles export as a summary
+                QuantileMeter quantileMeter = (QuantileMeter) probe;
+                _exportName = safeMetricName(quantileMeter.getHistogramName())
+                    + "{quantile=\"" + quantileMeter.getQuantile() + "\"}";
+                return;
+            }
+
             String metricSuffix;
             if (probe instanceof CountMeter || probe instanceof TotalMeter) {
                 metricSuffix = "_total";
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.admin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.caucho.management.server.StatServiceValue;
+
+/**
+ * Fixed-memory time series for a single statistic.
+ *
+ * Each tier is a ring buffer of time slots. A value is added to the
+ * current slot of every tier, so the coarser tiers hold the count, sum,
+ * min and max of their interval, i.e. they're downsampled as the data
+ * arrives.
+ */
+final class TimeSeries {
+  // slot numbers are relative to 2010-01-01 to fit in an int
+  static final long EPOCH = 1262304000000L;
+
+  static final long []TIER_STEPS
+    = new long[] { 1000L, 60 * 1000L, 3600 * 1000L };
+
+  // 10 minutes of seconds, a day of minutes, 30 days of hours
+  static final int []TIER_CAPACITIES = new int[] { 600, 1440, 720 };
+
+  private final String _name;
+
+  private final Tier []_tiers;
+
+  private long _lastTime;
+  private double _lastValue;
+
+  TimeSeries(String name)
+  {
+    _name = name;
+
+    _tiers = new Tier[TIER_STEPS.length];
+
+    for (int i = 0; i < _tiers.length; i++) {
+      _tiers[i] = new Tier(TIER_STEPS[i], TIER_CAPACITIES[i]);
+    }
+  }
+
+  String getName()
+  {
+    return _name;
+  }
+
+  synchronized void add(long time, double value)
+  {
+    if (Double.isNaN(value))
+      return;
+
+    for (Tier tier : _tiers) {
+      tier.add(time, value);
+    }
+
+    if (_lastTime <= time) {
+      _lastTime = time;
+      _lastValue = value;
+    }
+  }
+
+  synchronized double getLastValue()
+  {
+    return _lastValue;
+  }
+
+  /**
+   * Returns the values between the begin and end times, using the
+   * finest tier which covers the begin time and the requested step.
+   */
+  synchronized StatServiceValue []getData(long now,
+                                          long beginTime,
+                                          long endTime,
+                                          long step)
+  {
+    Tier tier = _tiers[_tiers.length - 1];
+
+    for (Tier testTier : _tiers) {
+      if (step <= testTier.getStep()
+          && now - testTier.getDuration() <= beginTime) {
+        tier = testTier;
+        break;
+      }
+    }
+
+    ArrayList<StatServiceValue> values = new ArrayList<StatServiceValue>();
+
+    tier.fillData(values, beginTime, endTime);
+
+    StatServiceValue []result = new StatServiceValue[values.size()];
+    values.toArray(result);
+
+    return result;
+  }
+
+  synchronized void write(DataOutputStream os)
+    throws IOException
+  {
+    os.writeUTF(_name);
+    os.writeLong(_lastTime);
+    os.writeDouble(_lastValue);
+    os.writeInt(_tiers.length);
+
+    for (Tier tier : _tiers) {
+      tier.write(os);
+    }
+  }
+
+  synchronized void read(DataInputStream is)
+    throws IOException
+  {
+    _lastTime = is.readLong();
+    _lastValue = is.readDouble();
+
+    int tierCount = is.readInt();
+
+    for (int i = 0; i < tierCount; i++) {
+      long step = is.readLong();
+
+      Tier tier = null;
+
+      for (Tier testTier : _tiers) {
+        if (testTier.getStep() == step)
+          tier = testTier;
+      }
+
+      if (tier != null)
+        tier.read(is);
+      else
+        Tier.skip(is);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _name + "]";
+  }
+
+  static final class Tier {
+    private final long _step;
+    private final int _capacity;
+
+    private final int []_slots;
+    private final int []_counts;
+    private final float []_sums;
+    private final float []_mins;
+    private final float []_maxs;
+
+    Tier(long step, int capacity)
+    {
+      _step = step;
+      _capacity = capacity;
+
+      _slots = new int[capacity];
+      _counts = new int[capacity];
+      _sums = new float[capacity];
+      _mins = new float[capacity];
+      _maxs = new float[capacity];
+    }
+
+    long getStep()
+    {
+      return _step;
+    }
+
+    long getDuration()
+    {
+      return _step * _capacity;
+    }
+
+    void add(long time, double value)
+    {
+      int slot = getSlot(time);
+      int i = slot % _capacity;
+
+      if (_slots[i] != slot || _counts[i] == 0) {
+        _slots[i] = slot;
+        _counts[i] = 1;
+        _sums[i] = (float) value;
+        _mins[i] = (float) value;
+        _maxs[i] = (float) value;
+      }
+      else {
+        _counts[i]++;
+        _sums[i] += value;
+        _mins[i] = (float) Math.min(_mins[i], value);
+        _maxs[i] = (float) Math.max(_maxs[i], value);
+      }
+    }
+
+    void fillData(ArrayList<StatServiceValue> values,
+                  long beginTime,
+                  long endTime)
+    {
+      int beginSlot = getSlot(Math.max(beginTime, EPOCH));
+      int endSlot = getSlot(Math.max(endTime, EPOCH));
+
+      beginSlot = Math.max(beginSlot, endSlot - _capacity + 1);
+
+      for (int slot = beginSlot; slot <= endSlot; slot++) {
+        int i = slot % _capacity;
+
+        if (_slots[i] == slot && _counts[i] > 0) {
+          values.add(new StatServiceValue(EPOCH + slot * _step,
+                                          _counts[i],
+                                          _sums[i],
+                                          _mins[i],
+                                          _maxs[i]));
+        }
+      }
+    }
+
+    private int getSlot(long time)
+    {
+      return (int) ((time - EPOCH) / _step);
+    }
+
+    void write(DataOutputStream os)
+      throws IOException
+    {
+      os.writeLong(_step);
+
+      int count = 0;
+      for (int i = 0; i < _capacity; i++) {
+        if (_counts[i] > 0)
+          count++;
+      }
+
+      os.writeInt(count);
+
+      for (int i = 0; i < _capacity; i++) {
+        if (_counts[i] > 0) {
+          os.writeInt(_slots[i]);
+          os.writeInt(_counts[i]);
+          os.writeFloat(_sums[i]);
+          os.writeFloat(_mins[i]);
+          os.writeFloat(_maxs[i]);
+        }
+      }
+    }
+
+    void read(DataInputStream is)
+      throws IOException
+    {
+      int count = is.readInt();
+
+      for (int j = 0; j < count; j++) {
+        int slot = is.readInt();
+        int i = slot % _capacity;
+
+        _slots[i] = slot;
+        _counts[i] = is.readInt();
+        _sums[i] = is.readFloat();
+        _mins[i] = is.readFloat();
+        _maxs[i] = is.readFloat();
+      }
+    }
+
+    static void skip(DataInputStream is)
+      throws IOException
+    {
+      int count = is.readInt();
+
+      is.skipBytes(count * 20);
+    }
+  }
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.admin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.config.types.Period;
+import com.caucho.env.meter.AbstractMeter;
+import com.caucho.env.meter.JmxAttributeMeter;
+import com.caucho.env.meter.JmxDeltaMeter;
+import com.caucho.env.service.ResinSystem;
+import com.caucho.env.service.RootDirectorySystem;
+import com.caucho.lifecycle.Lifecycle;
+import com.caucho.management.server.StatServiceValue;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.util.Alarm;
+import com.caucho.util.AlarmListener;
+import com.caucho.util.Crc64;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Embedded time-series store for the statistics.
+ *
+ * Each statistic is kept in a {@link TimeSeries}, downsampled to second,
+ * minute and hour tiers, and the store is saved in the data directory so
+ * the history survives a restart.
+ */
+public class TimeSeriesStatSystem extends StatSystem
+  implements AlarmListener
+{
+  private static final L10N L = new L10N(TimeSeriesStatSystem.class);
+  private static final Logger log
+    = Logger.getLogger(TimeSeriesStatSystem.class.getName());
+
+  private static final int MAGIC = 0x52545331; // "RTS1"
+
+  private static final long SAVE_PERIOD = 60 * 1000L;
+  private static final long START_TIME_LIMIT = 30 * 24 * 3600 * 1000L;
+
+  private final Lifecycle _lifecycle = new Lifecycle(log);
+
+  private final ConcurrentHashMap<String,TimeSeries> _seriesMap
+    = new ConcurrentHashMap<String,TimeSeries>();
+
+  // this server's series by Sample id, i.e. the Crc64 of the unprefixed name
+  private final ConcurrentHashMap<Long,TimeSeries> _seriesIdMap
+    = new ConcurrentHashMap<Long,TimeSeries>();
+
+  private final ArrayList<Sample> _samples = new ArrayList<Sample>();
+  private Sample []_sampleArray = new Sample[0];
+
+  private final ArrayList<Long> _startTimes = new ArrayList<Long>();
+
+  private final Alarm _alarm = new Alarm(this);
+
+  private long _samplePeriod = 1000L;
+  private long _lastSaveTime;
+
+  private String _serverPrefix = "00|";
+  private int _serverIndex;
+
+  private Path _path;
+
+  protected TimeSeriesStatSystem()
+  {
+  }
+
+  public static TimeSeriesStatSystem createAndAddService()
+  {
+    ResinSystem system = preCreate(StatSystem.class);
+
+    TimeSeriesStatSystem service = new TimeSeriesStatSystem();
+
+    system.addService(StatSystem.class, service);
+
+    return service;
+  }
+
+  @Override
+  public void setSamplePeriod(Period period)
+  {
+    _samplePeriod = Math.max(period.getPeriod(), 1000L);
+  }
+
+  @Override
+  public long getSamplePeriod()
+  {
+    return _samplePeriod;
+  }
+
+  /**
+   * Sets the file where the statistics are saved, defaulting to
+   * stats/stats.ts in the data directory.
+   */
+  public void setPath(Path path)
+  {
+    _path = path;
+  }
+
+  //
+  // meters
+  //
+
+  @Override
+  public void addJmx(JmxItem item)
+  {
+    addJmxMeter(item.getName(), item.getObjectName(), item.getAttribute());
+  }
+
+  @Override
+  public void addJmxMeter(String name, String objectName, String attribute)
+  {
+    addMeter(new JmxAttributeMeter(name, objectName, attribute, true));
+  }
+
+  @Override
+  public void addJmxDelta(JmxItem item)
+  {
+    addJmxDeltaMeter(item.getName(), item.getObjectName(), item.getAttribute());
+  }
+
+  @Override
+  public void addJmxDeltaMeter(String name, String objectName, String attribute)
+  {
+    addMeter(new JmxDeltaMeter(name, objectName, attribute, true));
+  }
+
+  /**
+   * Adds a meter sampled by this system. Meters from the MeterService
+   * are already sampled by the PrometheusStatSystem, which forwards
+   * its values with {@link #addSample(long,String,double)}.
+   */
+  @Override
+  public void addMeter(AbstractMeter probe)
+  {
+    addSample(new Sample(probe.getName(), probe));
+  }
+
+  @Override
+  public void addSample(Sample sample)
+  {
+    synchronized (_samples) {
+      for (Sample oldSample : _samples) {
+        if (oldSample.getId() == sample.getId())
+          return;
+      }
+
+      _samples.add(sample);
+
+      _sampleArray = new Sample[_samples.size()];
+      _samples.toArray(_sampleArray);
+    }
+  }
+
+  //
+  // data
+  //
+
+  /**
+   * Adds a value for a named statistic, e.g. "Resin|Http|Request Time".
+   */
+  public void addSample(long now, String name, double data)
+  {
+    getSeries(_serverPrefix + name).add(now, data);
+  }
+
+  @Override
+  public void addSample(long now, long id, double data)
+  {
+    TimeSeries series = _seriesIdMap.get(id);
+
+    if (series != null)
+      series.add(now, data);
+  }
+
+  @Override
+  public void addSample(long now, long []sampleIds, double []sampleData)
+  {
+    for (int i = 0; i < sampleIds.length; i++) {
+      addSample(now, sampleIds[i], sampleData[i]);
+    }
+  }
+
+  @Override
+  public StatServiceValue []getStatisticsData(String name,
+                                              long beginTime,
+                                              long endTime,
+                                              long step)
+  {
+    TimeSeries series = _seriesMap.get(name);
+
+    if (series == null)
+      return new StatServiceValue[0];
+
+    return series.getData(CurrentTime.getCurrentTime(),
+                          beginTime, endTime, step);
+  }
+
+  @Override
+  public StatServiceValue []getStatisticsData(long id,
+                                              long beginTime,
+                                              long endTime,
+                                              long step)
+  {
+    TimeSeries series = _seriesIdMap.get(id);
+
+    if (series == null)
+      return new StatServiceValue[0];
+
+    return series.getData(CurrentTime.getCurrentTime(),
+                          beginTime, endTime, step);
+  }
+
+  @Override
+  public double getLastValue(String name)
+  {
+    TimeSeries series = _seriesMap.get(name);
+
+    if (series != null)
+      return series.getLastValue();
+    else
+      return Double.NaN;
+  }
+
+  @Override
+  public double getLastValue(long id)
+  {
+    TimeSeries series = _seriesIdMap.get(id);
+
+    if (series != null)
+      return series.getLastValue();
+    else
+      return Double.NaN;
+  }
+
+  /**
+   * Returns the statistic names, prefixed by the two-digit server index,
+   * e.g. "00|Resin|Http|Request Time".
+   */
+  @Override
+  public String []getStatisticsNames()
+  {
+    ArrayList<String> names = new ArrayList<String>(_seriesMap.keySet());
+
+    Collections.sort(names);
+
+    String []nameArray = new String[names.size()];
+    names.toArray(nameArray);
+
+    return nameArray;
+  }
+
+  @Override
+  public long []getStartTimes(int index, long beginTime, long endTime)
+  {
+    ArrayList<Long> times = new ArrayList<Long>();
+
+    if (index == _serverIndex) {
+      synchronized (_startTimes) {
+        for (long time : _startTimes) {
+          if (beginTime <= time && time <= endTime)
+            times.add(time);
+        }
+      }
+    }
+
+    long []timeArray = new long[times.size()];
+
+    for (int i = 0; i < timeArray.length; i++) {
+      timeArray[i] = times.get(i);
+    }
+
+    return timeArray;
+  }
+
+  private TimeSeries getSeries(String name)
+  {
+    TimeSeries series = _seriesMap.get(name);
+
+    if (series == null) {
+      series = new TimeSeries(name);
+
+      TimeSeries oldSeries = _seriesMap.putIfAbsent(name, series);
+
+      if (oldSeries != null)
+        return oldSeries;
+
+      String prefix = _serverPrefix;
+
+      if (name.startsWith(prefix)) {
+        String sampleName = name.substring(prefix.length());
+
+        _seriesIdMap.put(Crc64.generate(sampleName), series);
+      }
+    }
+
+    return series;
+  }
+
+  //
+  // lifecycle
+  //
+
+  @Override
+  public void start()
+    throws Exception
+  {
+    super.start();
+
+    ServletService servletService = ServletService.getCurrent();
+
+    // only a Resin server records statistics, not the watchdog or a client
+    if (servletService == null || ! servletService.isResinServer())
+      return;
+
+    if (! _lifecycle.toActive())
+      return;
+
+    _serverIndex = servletService.getServerIndex();
+
+    if (_serverIndex <= 9)
+      _serverPrefix = "0" + _serverIndex + "|";
+    else
+      _serverPrefix = _serverIndex + "|";
+
+    if (_path == null) {
+      Path dataDirectory = RootDirectorySystem.getCurrentDataDirectory();
+
+      _path = dataDirectory.lookup("stats/stats.ts");
+    }
+
+    load();
+
+    long now = CurrentTime.getCurrentTime();
+
+    synchronized (_startTimes) {
+      _startTimes.add(now);
+    }
+
+    _lastSaveTime = now;
+
+    _alarm.queue(_samplePeriod);
+  }
+
+  @Override
+  public void handleAlarm(Alarm alarm)
+  {
+    if (! _lifecycle.isActive())
+      return;
+
+    try {
+      long now = CurrentTime.getCurrentTime();
+
+      sample(now);
+
+      if (_lastSaveTime + SAVE_PERIOD <= now) {
+        _lastSaveTime = now;
+
+        save();
+      }
+    } finally {
+      if (_lifecycle.isActive())
+        alarm.queue(_samplePeriod);
+    }
+  }
+
+  private void sample(long now)
+  {
+    Sample []samples = _sampleArray;
+
+    for (Sample sample : samples) {
+      try {
+        sample.sample();
+
+        addSample(now, sample.getName(), sample.calculate());
+      } catch (Exception e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+  }
+
+  @Override
+  public void stop()
+    throws Exception
+  {
+    if (! _lifecycle.toStop())
+      return;
+
+    _alarm.dequeue();
+
+    save();
+
+    super.stop();
+  }
+
+  //
+  // persistence
+  //
+
+  private void load()
+  {
+    Path path = _path;
+
+    if (path == null || ! path.canRead())
+      return;
+
+    try {
+      ReadStream rs = path.openRead();
+
+      try {
+        DataInputStream is = new DataInputStream(rs);
+
+        if (is.readInt() != MAGIC) {
+          log.warning(L.l("{0} is not a valid statistics file", path));
+          return;
+        }
+
+        long now = CurrentTime.getCurrentTime();
+
+        int startCount = is.readInt();
+
+        synchronized (_startTimes) {
+          for (int i = 0; i < startCount; i++) {
+            long time = is.readLong();
+
+            if (now - START_TIME_LIMIT <= time)
+              _startTimes.add(time);
+          }
+        }
+
+        int seriesCount = is.readInt();
+
+        for (int i = 0; i < seriesCount; i++) {
+          String name = is.readUTF();
+
+          getSeries(name).read(is);
+        }
+      } finally {
+        rs.close();
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, L.l("{0} cannot be loaded\n  {1}", path, e), e);
+    }
+  }
+
+  /**
+   * Saves the statistics to a temp file and renames it, so a crash
+   * while saving leaves the previous copy.
+   */
+  private void save()
+  {
+    Path path = _path;
+
+    if (path == null)
+      return;
+
+    Path tempPath = path.getParent().lookup(path.getTail() + ".tmp");
+
+    try {
+      path.getParent().mkdirs();
+
+      WriteStream out = tempPath.openWrite();
+
+      try {
+        DataOutputStream os = new DataOutputStream(out);
+
+        os.writeInt(MAGIC);
+
+        synchronized (_startTimes) {
+          os.writeInt(_startTimes.size());
+
+          for (long time : _startTimes) {
+            os.writeLong(time);
+          }
+        }
+
+        ArrayList<TimeSeries> seriesList
+          = new ArrayList<TimeSeries>(_seriesMap.values());
+
+        os.writeInt(seriesList.size());
+
+        for (TimeSeries series : seriesList) {
+          series.write(os);
+        }
+
+        os.flush();
+      } finally {
+        out.close();
+      }
+
+      path.remove();
+
+      if (! tempPath.renameTo(path))
+        log.warning(L.l("{0} cannot be renamed to {1}", tempPath, path));
+    } catch (IOException e) {
+      log.log(Level.WARNING, L.l("{0} cannot be saved\n  {1}", path, e), e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _path + "]";
+  }
+}
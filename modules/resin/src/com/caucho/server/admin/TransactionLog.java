@@ -29,10 +29,12 @@
 package com.caucho.server.admin;
 
 import com.caucho.config.ConfigException;
+import com.caucho.config.types.Period;
 import com.caucho.server.cluster.Cluster;
 import com.caucho.server.cluster.ServletService;
 import com.caucho.transaction.TransactionManagerImpl;
 import com.caucho.transaction.xalog.AbstractXALogManager;
+import com.caucho.transaction.xalog.XALogManager;
 import com.caucho.util.L10N;
 import com.caucho.vfs.Vfs;
 
@@ -48,6 +50,8 @@ public class TransactionLog
   private final TransactionManager _manager;
 
   private boolean _isEnable = true;
+  private boolean _isLastResourceCommit;
+  private Period _recoveryTimeout;
   private String _path;
   private AbstractXALogManager _xaLog;
 
@@ -72,6 +76,23 @@ public class TransactionLog
     _isEnable = enable;
   }
 
+  /**
+   * Commits the first resource with one phase, saving its prepare.
+   */
+  public void setLastResourceCommit(boolean isLastResourceCommit)
+  {
+    _isLastResourceCommit = isLastResourceCommit;
+  }
+
+  /**
+   * Sets how long recovered commits are kept for resources which
+   * haven't recovered yet.
+   */
+  public void setRecoveryTimeout(Period period)
+  {
+    _recoveryTimeout = period;
+  }
+
   public void start()
   {
     if (_path == null) {
@@ -91,16 +112,12 @@ public class TransactionLog
     if (!_isEnable)
       return;
 
-    try {
-      Class cl = Class.forName("com.caucho.transaction.xalog.XALogManager");
+    XALogManager xaLog = new XALogManager();
 
-      _xaLog = (AbstractXALogManager) cl.newInstance();
-    } catch (Throwable e) {
-      log.log(Level.FINER, e.toString(), e);
-    }
+    if (_recoveryTimeout != null)
+      xaLog.setRecoveryTimeout(_recoveryTimeout);
 
-    if (_xaLog == null)
-      throw new ConfigException(L.l("<transaction-log> requires Resin Professional.  See http://www.caucho.com for information and licensing."));
+    _xaLog = xaLog;
 
     try {
       if (_manager.getPath() != null)
@@ -110,6 +127,7 @@ public class TransactionLog
 
       TransactionManagerImpl tm = TransactionManagerImpl.getLocal();
 
+      tm.setLastResourceCommit(_isLastResourceCommit);
       tm.setXALogManager(_xaLog);
 
       _xaLog.start();
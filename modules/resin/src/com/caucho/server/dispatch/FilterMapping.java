@@ -317,6 +317,17 @@ public class FilterMapping extends FilterConfigImpl {
     }
   }
 
+  /**
+   * Returns the non-regexp matcher for simple url-patterns.
+   */
+  private UrlPatternMatch createUrlMatch(String pattern)
+  {
+    if (CauchoSystem.isCaseInsensitive())
+      return null;
+    else
+      return UrlPatternMatch.create(pattern);
+  }
+
   /**
    * Returns a printable representation of the filter config object.
    */
@@ -348,7 +359,7 @@ public class FilterMapping extends FilterConfigImpl {
 
       _hasInclude = true;
       
-      _matchList.add(Match.createInclude(regexp));
+      _matchList.add(Match.createInclude(regexp, createUrlMatch(pattern)));
 
       return this;
     }
@@ -370,7 +381,7 @@ public class FilterMapping extends FilterConfigImpl {
 
       _hasInclude = true;
       
-      _matchList.add(Match.createInclude(regexp));
+      _matchList.add(Match.createInclude(regexp, createUrlMatch(pattern)));
     }
 
     /**
@@ -388,7 +399,7 @@ public class FilterMapping extends FilterConfigImpl {
       else
         regexp = urlPatternToRegexp(pattern, 0);
 
-      _matchList.add(Match.createExclude(regexp));
+      _matchList.add(Match.createExclude(regexp, createUrlMatch(pattern)));
     }
 
     /**
@@ -447,11 +458,13 @@ public class FilterMapping extends FilterConfigImpl {
     static final int NO_MATCH = 0;
     
     private final Pattern _regexp;
+    private final UrlPatternMatch _urlMatch;
     private final int _value;
 
-    private Match(Pattern regexp, int value)
+    private Match(Pattern regexp, UrlPatternMatch urlMatch, int value)
     {
       _regexp = regexp;
+      _urlMatch = urlMatch;
       _value = value;
     }
 
@@ -460,7 +473,16 @@ public class FilterMapping extends FilterConfigImpl {
      */
     static Match createInclude(Pattern regexp)
     {
-      return new Match(regexp, INCLUDE);
+      return new Match(regexp, null, INCLUDE);
+    }
+
+    /**
+     * Creates an include url-pattern, matched without the regexp
+     * when it's simple.
+     */
+    static Match createInclude(Pattern regexp, UrlPatternMatch urlMatch)
+    {
+      return new Match(regexp, urlMatch, INCLUDE);
     }
 
     /**
@@ -468,7 +490,16 @@ public class FilterMapping extends FilterConfigImpl {
      */
     static Match createExclude(Pattern regexp)
     {
-      return new Match(regexp, EXCLUDE);
+      return new Match(regexp, null, EXCLUDE);
+    }
+
+    /**
+     * Creates an exclude url-pattern, matched without the regexp
+     * when it's simple.
+     */
+    static Match createExclude(Pattern regexp, UrlPatternMatch urlMatch)
+    {
+      return new Match(regexp, urlMatch, EXCLUDE);
     }
 
     /**
@@ -476,7 +507,14 @@ public class FilterMapping extends FilterConfigImpl {
      */
     int match(String uri)
     {
-      if (_regexp.matcher(uri).find())
+      boolean isMatch;
+
+      if (_urlMatch != null && ! UrlPatternMatch.hasLineTerminator(uri))
+        isMatch = _urlMatch.isMatch(uri);
+      else
+        isMatch = _regexp.matcher(uri).find();
+      
+      if (isMatch)
         return _value;
       else
         return NO_MATCH;
@@ -51,6 +51,9 @@ public class UrlMap<E> {
 
   // List of matching regular expressions
   private ArrayList<RegexpEntry<E>> _regexps;
+
+  // compiled lookup, rebuilt after the entries change
+  private volatile UrlMapIndex<E> _index;
   
   /**
    * Create a new map
@@ -217,8 +220,14 @@ public class UrlMap<E> {
     if (cb.length() > 0 && cb.charAt(0) == '/')
       cb.insert(0, '^');
 
-    addRegexp(prefixLength, pattern, cb.close(), flags, value,
-              isShort, isIgnore, ifAbsent, ! hasWildcard);
+    RegexpEntry<E> entry
+      = new RegexpEntry<E>(prefixLength, pattern, cb.close(), flags, value,
+                           isIgnore, ! hasWildcard);
+
+    if (entry._flags == 0)
+      entry.setMatch(UrlPatternMatch.create(pattern));
+
+    addEntry(entry, isShort, ifAbsent);
   }
 
   public static String urlPatternToRegexpPattern(String pattern)
@@ -410,6 +419,7 @@ public class UrlMap<E> {
       entry.setIgnore(true);
 
     _regexps.add(entry);
+    _index = null;
   }
 
   /**
@@ -434,6 +444,13 @@ public class UrlMap<E> {
       = new RegexpEntry<E>(prefixLength, pattern, regexp, flags, value,
                            isIgnore, isSimple);
 
+    addEntry(entry, isShort, ifAbsent);
+  }
+
+  private synchronized void addEntry(RegexpEntry<E> entry,
+                                     boolean isShort,
+                                     boolean ifAbsent)
+  {
     for (int i = _regexps.size() - 1; i >= 0; i--) {
       RegexpEntry<E> re = _regexps.get(i);
 
@@ -451,6 +468,28 @@ public class UrlMap<E> {
       entry.setShortMatch();
 
     _regexps.add(entry);
+    _index = null;
+  }
+
+  /**
+   * Returns the compiled lookup, building it after a change.
+   */
+  private UrlMapIndex<E> getIndex()
+  {
+    UrlMapIndex<E> index = _index;
+
+    if (index == null) {
+      synchronized (this) {
+        index = _index;
+
+        if (index == null) {
+          index = new UrlMapIndex<E>(_regexps);
+          _index = index;
+        }
+      }
+    }
+
+    return index;
   }
 
   /**
@@ -488,9 +527,13 @@ public class UrlMap<E> {
 
     int bestPrefixLength = -2;
     int bestMinLength = -2;
+
+    UrlMapIndex<E> index = getIndex();
+    RegexpEntry<E> []entries = index.getEntries();
+    int []candidates = index.findCandidates(uri);
     
-    for (int i = 0; i < _regexps.size(); i++) {
-      RegexpEntry<E> entry = _regexps.get(i);
+    for (int i = 0; i < candidates.length; i++) {
+      RegexpEntry<E> entry = entries[candidates[i]];
 
       if (entry == null) {
         continue;
@@ -574,6 +617,7 @@ public class UrlMap<E> {
     boolean _shortMatch;
     boolean _isIgnore; // plugin_match or plugin-ignore
     boolean _isSimple; //simple when does not start with a / and contains no *
+    UrlPatternMatch _match; // non-regexp form of a url-pattern
 
     RegexpEntry(int prefixLength, String pattern, String flags, E value)
       throws PatternSyntaxException
@@ -641,6 +685,16 @@ public class UrlMap<E> {
       return _isSimple;
     }
 
+    void setMatch(UrlPatternMatch match)
+    {
+      _match = match;
+    }
+
+    UrlPatternMatch getMatch()
+    {
+      return _match;
+    }
+
     public int hashCode()
     {
       if (_urlPattern != null)
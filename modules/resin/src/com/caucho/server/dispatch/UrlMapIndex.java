@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compiled lookup for a UrlMap, selecting the entries which can match
+ * a uri without running every regexp.
+ *
+ * Exact and prefix url-patterns are stored in a trie of path segments,
+ * extension patterns in a table keyed by extension. The remaining
+ * entries, like true regexps and case-insensitive patterns, are always
+ * candidates. The UrlMap still matches the candidates with their
+ * regexps in the original order, so the result is unchanged.
+ */
+final class UrlMapIndex<E> {
+  private final UrlMap.RegexpEntry<E> []_entries;
+
+  private final Segment _root = new Segment();
+  private final RegionMap<int[]> _extensions = new RegionMap<int[]>();
+  private final int []_generic;
+  private final int []_all;
+  private final boolean _hasIndexed;
+
+  UrlMapIndex(ArrayList<UrlMap.RegexpEntry<E>> entryList)
+  {
+    _entries = toEntryArray(entryList);
+
+    int []generic = new int[_entries.length];
+    int genericLength = 0;
+    boolean hasIndexed = false;
+
+    for (int i = 0; i < _entries.length; i++) {
+      UrlMap.RegexpEntry<E> entry = _entries[i];
+
+      UrlPatternMatch match = entry != null ? entry.getMatch() : null;
+
+      if (match == null) {
+        generic[genericLength++] = i;
+        continue;
+      }
+
+      hasIndexed = true;
+
+      String key = match.getKey();
+
+      switch (match.getType()) {
+      case UrlPatternMatch.EXACT:
+        {
+          Segment segment = _root.create(key);
+          segment._exact = append(segment._exact, i);
+          break;
+        }
+
+      case UrlPatternMatch.PREFIX:
+        {
+          Segment segment = _root.create(key);
+          segment._prefix = append(segment._prefix, i);
+          break;
+        }
+
+      case UrlPatternMatch.EXTENSION:
+        {
+          int []values = _extensions.get(key, 0, key.length());
+          _extensions.put(key, append(values, i));
+          break;
+        }
+      }
+    }
+
+    _generic = Arrays.copyOf(generic, genericLength);
+    _hasIndexed = hasIndexed;
+
+    _all = new int[_entries.length];
+
+    for (int i = 0; i < _all.length; i++) {
+      _all[i] = i;
+    }
+  }
+
+  /**
+   * Copies the entries to an array. Java can't create a generic array,
+   * so the raw array is cast; every element comes from the typed list.
+   */
+  @SuppressWarnings("unchecked")
+  private static <E> UrlMap.RegexpEntry<E> []
+    toEntryArray(ArrayList<UrlMap.RegexpEntry<E>> entryList)
+  {
+    UrlMap.RegexpEntry<E> []entries
+      = (UrlMap.RegexpEntry<E> []) new UrlMap.RegexpEntry<?>[entryList.size()];
+
+    return entryList.toArray(entries);
+  }
+
+  UrlMap.RegexpEntry<E> []getEntries()
+  {
+    return _entries;
+  }
+
+  /**
+   * Returns the indexes of the entries which might match the uri,
+   * in ascending order.
+   */
+  int []findCandidates(String uri)
+  {
+    if (! _hasIndexed)
+      return _generic;
+
+    // the regexps' '$' and '.' handle line terminators, so let them decide
+    if (UrlPatternMatch.hasLineTerminator(uri))
+      return _all;
+
+    Candidates candidates = new Candidates(_generic);
+
+    findPathCandidates(uri, candidates);
+
+    findExtensionCandidates(uri, candidates);
+
+    return candidates.toArray();
+  }
+
+  /**
+   * Walks the segment trie, collecting the prefixes at every '/' boundary
+   * and the exact match at the end of the uri.
+   */
+  private void findPathCandidates(String uri, Candidates candidates)
+  {
+    int length = uri.length();
+
+    if (length == 0 || uri.charAt(0) != '/')
+      return;
+
+    Segment segment = _root;
+    int offset = 1;
+
+    while (true) {
+      int end = uri.indexOf('/', offset);
+
+      if (end < 0)
+        end = length;
+
+      segment = segment.get(uri, offset, end);
+
+      if (segment == null)
+        return;
+
+      candidates.add(segment._prefix);
+
+      if (end == length) {
+        candidates.add(segment._exact);
+        return;
+      }
+
+      offset = end + 1;
+    }
+  }
+
+  /**
+   * An extension matches when it follows a '.' and ends at a '/' or
+   * the end of the uri.
+   */
+  private void findExtensionCandidates(String uri, Candidates candidates)
+  {
+    if (_extensions.isEmpty())
+      return;
+
+    int length = uri.length();
+
+    for (int i = uri.indexOf('.'); i >= 0; i = uri.indexOf('.', i + 1)) {
+      int end = uri.indexOf('/', i);
+
+      if (end < 0)
+        end = length;
+
+      candidates.add(_extensions.get(uri, i + 1, end));
+    }
+  }
+
+  private static int []append(int []values, int value)
+  {
+    if (values == null)
+      return new int[] { value };
+
+    int []newValues = Arrays.copyOf(values, values.length + 1);
+    newValues[values.length] = value;
+
+    return newValues;
+  }
+
+  /**
+   * A node in the trie of path segments.
+   */
+  static final class Segment {
+    private RegionMap<Segment> _children;
+
+    int []_exact;
+    int []_prefix;
+
+    Segment get(String uri, int offset, int end)
+    {
+      RegionMap<Segment> children = _children;
+
+      if (children == null)
+        return null;
+      else
+        return children.get(uri, offset, end);
+    }
+
+    /**
+     * Creates the path of segments for a key starting with '/'.
+     */
+    Segment create(String key)
+    {
+      Segment segment = this;
+      int offset = 1;
+      int length = key.length();
+
+      while (true) {
+        int end = key.indexOf('/', offset);
+
+        if (end < 0)
+          end = length;
+
+        if (segment._children == null)
+          segment._children = new RegionMap<Segment>();
+
+        Segment child = segment._children.get(key, offset, end);
+
+        if (child == null) {
+          child = new Segment();
+          segment._children.put(key.substring(offset, end), child);
+        }
+
+        segment = child;
+
+        if (end == length)
+          return segment;
+
+        offset = end + 1;
+      }
+    }
+  }
+
+  /**
+   * Hash table looked up by a region of a string, so matching
+   * doesn't allocate substrings.
+   */
+  static final class RegionMap<V> {
+    private String []_keys = new String[8];
+    private Object []_values = new Object[8];
+    private int _size;
+
+    boolean isEmpty()
+    {
+      return _size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(String s, int offset, int end)
+    {
+      String []keys = _keys;
+      int mask = keys.length - 1;
+      int length = end - offset;
+
+      for (int i = hash(s, offset, end) & mask; ; i = (i + 1) & mask) {
+        String key = keys[i];
+
+        if (key == null)
+          return null;
+        else if (key.length() == length
+                 && s.regionMatches(offset, key, 0, length))
+          return (V) _values[i];
+      }
+    }
+
+    void put(String key, V value)
+    {
+      if (_keys.length <= 2 * (_size + 1))
+        resize();
+
+      String []keys = _keys;
+      int mask = keys.length - 1;
+
+      int i = hash(key, 0, key.length()) & mask;
+
+      for (; keys[i] != null; i = (i + 1) & mask) {
+        if (keys[i].equals(key)) {
+          _values[i] = value;
+          return;
+        }
+      }
+
+      keys[i] = key;
+      _values[i] = value;
+      _size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize()
+    {
+      String []oldKeys = _keys;
+      Object []oldValues = _values;
+
+      _keys = new String[2 * oldKeys.length];
+      _values = new Object[2 * oldKeys.length];
+      _size = 0;
+
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null)
+          put(oldKeys[i], (V) oldValues[i]);
+      }
+    }
+
+    private static int hash(String s, int offset, int end)
+    {
+      int hash = 0;
+
+      for (; offset < end; offset++) {
+        hash = 31 * hash + s.charAt(offset);
+      }
+
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  /**
+   * Merged, sorted list of candidate entry indexes.
+   */
+  static final class Candidates {
+    private int []_values;
+    private int _length;
+    private boolean _isCopy;
+
+    Candidates(int []generic)
+    {
+      _values = generic;
+      _length = generic.length;
+    }
+
+    void add(int []values)
+    {
+      if (values == null)
+        return;
+
+      if (! _isCopy || _values.length < _length + values.length) {
+        int []newValues = new int[Math.max(_length + values.length,
+                                           _length + 8)];
+        System.arraycopy(_values, 0, newValues, 0, _length);
+        _values = newValues;
+        _isCopy = true;
+      }
+
+      System.arraycopy(values, 0, _values, _length, values.length);
+      _length += values.length;
+    }
+
+    int []toArray()
+    {
+      if (! _isCopy)
+        return _values;
+
+      int []values = _values;
+      
+      Arrays.sort(values, 0, _length);
+
+      // an extension can appear in several segments of the uri
+      int length = 0;
+
+      for (int i = 0; i < _length; i++) {
+        if (length == 0 || values[length - 1] != values[i])
+          values[length++] = values[i];
+      }
+
+      return Arrays.copyOf(values, length);
+    }
+  }
+}
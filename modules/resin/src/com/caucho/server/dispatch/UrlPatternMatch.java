@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.dispatch;
+
+/**
+ * A servlet url-pattern which can be matched without a regexp:
+ *
+ * /foo/bar   -- exact match
+ * /foo/bar/* -- matches anything with the /foo/bar prefix
+ * *.jsp      -- matches anything with the .jsp suffix
+ *
+ * Patterns using other wildcards or regexp characters return null
+ * from create() and stay regexps.
+ */
+final class UrlPatternMatch {
+  static final int EXACT = 1;
+  static final int PREFIX = 2;
+  static final int EXTENSION = 3;
+
+  private final int _type;
+  // the exact path, the prefix without "/*", or the extension without "*."
+  private final String _key;
+
+  private UrlPatternMatch(int type, String key)
+  {
+    _type = type;
+    _key = key;
+  }
+
+  /**
+   * Classifies a url-pattern, returning null if it needs a regexp.
+   * The pattern is normalized with a leading '/', as the url-pattern
+   * regexp conversion does.
+   */
+  static UrlPatternMatch create(String pattern)
+  {
+    int length = pattern.length();
+
+    if (length == 0)
+      return null;
+
+    for (int i = 0; i < length; i++) {
+      char ch = pattern.charAt(i);
+
+      // regexp syntax the url-pattern conversion doesn't escape
+      if (ch == '+' || ch == '\\')
+        return null;
+    }
+
+    int star = pattern.indexOf('*');
+
+    if (star != pattern.lastIndexOf('*'))
+      return null;
+    else if (star < 0) {
+      if (pattern.charAt(0) != '/')
+        pattern = "/" + pattern;
+
+      return new UrlPatternMatch(EXACT, pattern);
+    }
+    else if (star == 0) {
+      if (length > 1 && pattern.charAt(1) == '.'
+          && pattern.indexOf('/') < 0) {
+        return new UrlPatternMatch(EXTENSION, pattern.substring(2));
+      }
+      else
+        return null;
+    }
+    else if (star == length - 1 && pattern.charAt(star - 1) == '/') {
+      if (pattern.charAt(0) != '/')
+        pattern = "/" + pattern;
+
+      return new UrlPatternMatch(PREFIX,
+                                 pattern.substring(0, pattern.length() - 2));
+    }
+    else
+      return null;
+  }
+
+  int getType()
+  {
+    return _type;
+  }
+
+  String getKey()
+  {
+    return _key;
+  }
+
+  /**
+   * True if the uri contains a regexp line terminator. The url-pattern
+   * regexp's '$' and '.' treat those specially, so callers must use the
+   * regexp instead of isMatch for such uris, e.g. a decoded %0a or %0d.
+   */
+  static boolean hasLineTerminator(String uri)
+  {
+    for (int i = uri.length() - 1; i >= 0; i--) {
+      switch (uri.charAt(i)) {
+      case '\n': case '\r': case '\u0085': case '\u2028': case '\u2029':
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns true if the uri matches. The result is only the regexp's
+   * result for uris without a line terminator.
+   *
+   * @see #hasLineTerminator
+   */
+  boolean isMatch(String uri)
+  {
+    String key = _key;
+    int keyLength = key.length();
+    int length = uri.length();
+
+    switch (_type) {
+    case EXACT:
+      return uri.equals(key);
+
+    case PREFIX:
+      return (uri.startsWith(key)
+              && (length == keyLength || uri.charAt(keyLength) == '/'));
+
+    case EXTENSION:
+      return isExtensionMatch(uri, length);
+
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * The extension matches when a '.' + extension is followed by a '/'
+   * or the end of the uri.
+   */
+  private boolean isExtensionMatch(String uri, int length)
+  {
+    String key = _key;
+    int keyLength = key.length();
+
+    for (int i = uri.indexOf('.');
+         0 <= i && i + keyLength < length;
+         i = uri.indexOf('.', i + 1)) {
+      int end = i + 1 + keyLength;
+
+      if ((end == length || uri.charAt(end) == '/')
+          && uri.startsWith(key, i + 1)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _type + "," + _key + "]";
+  }
+}
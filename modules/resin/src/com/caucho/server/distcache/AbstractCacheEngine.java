@@ -30,6 +30,7 @@
 package com.caucho.server.distcache;
 
 import java.io.InputStream;
+import java.util.List;
 
 import com.caucho.util.HashKey;
 
@@ -79,6 +80,14 @@ public class AbstractCacheEngine implements CacheEngine
     return null;
   }
 
+  @Override
+  public void getAll(List<DistCacheEntry> entries)
+  {
+    for (DistCacheEntry entry : entries) {
+      get(entry);
+    }
+  }
+
   @Override
   public void put(HashKey key, 
                   HashKey cacheKey,
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.distcache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compression ratio and time for a cache's values.
+ */
+public final class CacheCompressionMeter
+{
+  private final AtomicLong _compressCount = new AtomicLong();
+  private final AtomicLong _compressSkipCount = new AtomicLong();
+  private final AtomicLong _rawBytes = new AtomicLong();
+  private final AtomicLong _compressedBytes = new AtomicLong();
+  private final AtomicLong _compressNanos = new AtomicLong();
+
+  private final AtomicLong _decompressCount = new AtomicLong();
+  private final AtomicLong _decompressNanos = new AtomicLong();
+
+  /**
+   * Records a compressed value.
+   */
+  void addCompress(long rawLength, long compressedLength, long nanos)
+  {
+    _compressCount.incrementAndGet();
+    _rawBytes.addAndGet(rawLength);
+    _compressedBytes.addAndGet(compressedLength);
+    _compressNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Records a value saved raw because compression didn't pay.
+   */
+  void addCompressSkip(long nanos)
+  {
+    _compressSkipCount.incrementAndGet();
+    _compressNanos.addAndGet(nanos);
+  }
+
+  void addDecompress(long nanos)
+  {
+    _decompressCount.incrementAndGet();
+    _decompressNanos.addAndGet(nanos);
+  }
+
+  public long getCompressCount()
+  {
+    return _compressCount.get();
+  }
+
+  public long getCompressSkipCount()
+  {
+    return _compressSkipCount.get();
+  }
+
+  public long getRawBytes()
+  {
+    return _rawBytes.get();
+  }
+
+  public long getCompressedBytes()
+  {
+    return _compressedBytes.get();
+  }
+
+  /**
+   * Returns the compressed size as a fraction of the raw size.
+   */
+  public float getCompressionRatio()
+  {
+    long rawBytes = _rawBytes.get();
+
+    if (rawBytes <= 0) {
+      return 1;
+    }
+
+    return (float) _compressedBytes.get() / rawBytes;
+  }
+
+  public float getAverageCompressMillis()
+  {
+    long count = _compressCount.get() + _compressSkipCount.get();
+
+    if (count <= 0) {
+      return 0;
+    }
+
+    return _compressNanos.get() * 1e-6f / count;
+  }
+
+  public long getDecompressCount()
+  {
+    return _decompressCount.get();
+  }
+
+  public float getAverageDecompressMillis()
+  {
+    long count = _decompressCount.get();
+
+    if (count <= 0) {
+      return 0;
+    }
+
+    return _decompressNanos.get() * 1e-6f / count;
+  }
+
+  public void clear()
+  {
+    _compressCount.set(0);
+    _compressSkipCount.set(0);
+    _rawBytes.set(0);
+    _compressedBytes.set(0);
+    _compressNanos.set(0);
+    _decompressCount.set(0);
+    _decompressNanos.set(0);
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[count=" + getCompressCount()
+            + ",ratio=" + getCompressionRatio() + "]");
+  }
+}
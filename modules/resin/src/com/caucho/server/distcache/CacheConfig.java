@@ -40,10 +40,12 @@ import com.caucho.cache.transaction.IsolationLevel;
 import com.caucho.cache.transaction.Mode;
 import com.caucho.config.Configurable;
 import com.caucho.distcache.AbstractCache;
+import com.caucho.distcache.CacheCodec;
 import com.caucho.distcache.CacheSerializer;
 import com.caucho.distcache.HessianSerializer;
 import com.caucho.distcache.ResinCacheBuilder.Scope;
 import com.caucho.util.Alarm;
+import com.caucho.util.Crc64;
 import com.caucho.util.CurrentTime;
 import com.caucho.util.HashKey;
 
@@ -61,8 +63,12 @@ public class CacheConfig implements Configuration
   public static final int FLAG_CLUSTER = 0x08;
   public static final int FLAG_GLOBAL = 0x10;
 
+  // per-value flag: the stored data is a codec id and compressed stream
+  public static final int FLAG_COMPRESSED = 0x20;
+
   private String _guid;
   private int _guidHash;
+  private long _guidSeed;
   
   private CacheHandle _cache;
 
@@ -95,6 +101,13 @@ public class CacheConfig implements Configuration
   private CacheSerializer _keySerializer;
   private CacheSerializer _valueSerializer;
 
+  private boolean _isFastKeyHash;
+
+  private CacheCodec _compressionCodec;
+  private int _compressionThreshold = 1024;
+  private final CacheCompressionMeter _compressionMeter
+    = new CacheCompressionMeter();
+
   private CacheEngine _engine = new AbstractCacheEngine();
   private ExpiryPolicy _expiryPolicy;
   
@@ -225,6 +238,7 @@ public class CacheConfig implements Configuration
   {
     _guid = guid;
     _guidHash = guid.hashCode();
+    _guidSeed = Crc64.generate(guid);
   }
   
   public int getGuidHash()
@@ -232,6 +246,14 @@ public class CacheConfig implements Configuration
     return _guidHash;
   }
 
+  /**
+   * Returns the 64-bit hash of the guid, used to seed the fast key hash.
+   */
+  public long getGuidSeed()
+  {
+    return _guidSeed;
+  }
+
   /**
    * Returns the globally-unique id for the cache.
    */
@@ -427,6 +449,52 @@ public class CacheConfig implements Configuration
     return _keySerializer;
   }
 
+  /**
+   * Selects the fast, non-cryptographic key hash. It is only safe
+   * when the keys are trusted, because the keys could be chosen to
+   * collide.
+   */
+  public void setFastKeyHash(boolean isFastKeyHash)
+  {
+    _isFastKeyHash = isFastKeyHash;
+  }
+
+  public boolean isFastKeyHash()
+  {
+    return _isFastKeyHash;
+  }
+
+  /**
+   * Sets the codec used to compress large values.
+   */
+  public void setCompressionCodec(CacheCodec codec)
+  {
+    _compressionCodec = codec;
+  }
+
+  public CacheCodec getCompressionCodec()
+  {
+    return _compressionCodec;
+  }
+
+  /**
+   * Values smaller than the threshold are stored uncompressed.
+   */
+  public void setCompressionThreshold(int threshold)
+  {
+    _compressionThreshold = threshold;
+  }
+
+  public int getCompressionThreshold()
+  {
+    return _compressionThreshold;
+  }
+
+  public CacheCompressionMeter getCompressionMeter()
+  {
+    return _compressionMeter;
+  }
+
   /**
    * Returns the value serializer
    */
@@ -32,7 +32,10 @@ package com.caucho.server.distcache;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -166,6 +169,22 @@ public class CacheDataBackingImpl implements CacheDataBacking {
     }
   }
 
+  /**
+   * Returns the local values from the database
+   */
+  @Override
+  public Map<HashKey,MnodeEntry> loadLocalEntryValues(Collection<HashKey> keys)
+  {
+    MnodeStore mnodeStore = _mnodeStore;
+    
+    if (mnodeStore != null) {
+      return mnodeStore.load(keys);
+    }
+    else {
+      return new HashMap<HashKey,MnodeEntry>();
+    }
+  }
+
   /**
    * Sets a cache entry
    */
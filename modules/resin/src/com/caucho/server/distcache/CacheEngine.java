@@ -30,6 +30,7 @@
 package com.caucho.server.distcache;
 
 import java.io.InputStream;
+import java.util.List;
 
 import com.caucho.server.distcache.LocalDataManager.DataItemLocal;
 import com.caucho.util.HashKey;
@@ -54,6 +55,12 @@ public interface CacheEngine
                                 long now);
   
   public MnodeValue get(DistCacheEntry entry);
+
+  /**
+   * Loads a batch of entries, letting the engine send one request
+   * per owner instead of one per key.
+   */
+  public void getAll(List<DistCacheEntry> entries);
   
   /*
   public boolean loadData(HashKey key, 
@@ -38,11 +38,12 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,6 +69,9 @@ import com.caucho.distcache.ExtCacheEntry;
 import com.caucho.distcache.ObjectCache;
 import com.caucho.env.actor.AbstractWorkerQueue;
 import com.caucho.env.distcache.CacheDataBacking;
+import com.caucho.env.meter.HistogramMeter;
+import com.caucho.env.meter.MeterService;
+import com.caucho.env.meter.StripedCounter;
 import com.caucho.env.thread.ThreadPool;
 import com.caucho.loader.Environment;
 import com.caucho.management.server.AbstractManagedObject;
@@ -89,6 +93,14 @@ public class CacheImpl<K,V>
   private static final L10N L = new L10N(CacheImpl.class);
   private static final Logger log = Logger.getLogger(CacheImpl.class.getName());
 
+  // operation times in microseconds
+  private static final HistogramMeter _getTime
+    = MeterService.createHistogramMeter("Resin|Cache|Get Microseconds");
+  private static final HistogramMeter _putTime
+    = MeterService.createHistogramMeter("Resin|Cache|Put Microseconds");
+  private static final HistogramMeter _removeTime
+    = MeterService.createHistogramMeter("Resin|Cache|Remove Microseconds");
+
   private CacheManagerImpl _localManager;
   private final CacheStoreManager _manager;
 
@@ -111,11 +123,11 @@ public class CacheImpl<K,V>
 
   // private LruCache<Object,DistCacheEntry> _entryCache;
   
-  private final AtomicLong _getCount = new AtomicLong();
-  private final AtomicLong _hitCount = new AtomicLong();
-  private final AtomicLong _missCount = new AtomicLong();
-  private final AtomicLong _putCount = new AtomicLong();
-  private final AtomicLong _removeCount = new AtomicLong();
+  private final StripedCounter _getCount = new StripedCounter();
+  private final StripedCounter _hitCount = new StripedCounter();
+  private final StripedCounter _missCount = new StripedCounter();
+  private final StripedCounter _putCount = new StripedCounter();
+  private final StripedCounter _removeCount = new StripedCounter();
   
   private CacheAdmin _admin = new CacheAdmin();
 
@@ -304,17 +316,21 @@ public class CacheImpl<K,V>
   @Override
   public V get(Object key)
   {
+    long startNanos = System.nanoTime();
+    
     DistCacheEntry entry = getDistCacheEntry(key);
 
-    _getCount.incrementAndGet();
+    _getCount.increment();
     if (! entry.getMnodeEntry().isValueNull()) {
-      _hitCount.incrementAndGet();
+      _hitCount.increment();
     }
     else {
-      _missCount.incrementAndGet();
+      _missCount.increment();
     }
 
     V value = (V) entry.get();
+
+    _getTime.add((System.nanoTime() - startNanos) / 1000);
     
     if (_readListeners != null) {
       entryRead(key, value);
@@ -408,9 +424,13 @@ public class CacheImpl<K,V>
   @Override
   public void put(K key, V value)
   {
+    long startNanos = System.nanoTime();
+    
     getDistCacheEntry(key).put(value);
 
-    _putCount.incrementAndGet();
+    _putTime.add((System.nanoTime() - startNanos) / 1000);
+
+    _putCount.increment();
     entryUpdate(key, value);
   }
 
@@ -441,6 +461,33 @@ public class CacheImpl<K,V>
     return getExtCacheEntry(entry);
   }
 
+  /**
+   * Puts a new item in the cache if the current value hash matches
+   * the test hash.
+   *
+   * @param key           the key of the item to put
+   * @param testValueHash the hash of the current value
+   * @param is            the value of the item to put
+   * @param flags         the flags value (for memcache)
+   */
+  @Override
+  public boolean compareAndPut(Object key,
+                               long testValueHash,
+                               InputStream is,
+                               long accessedExpireTimeout,
+                               long modifiedExpireTimeout,
+                               int flags)
+    throws IOException
+  {
+    DistCacheEntry entry = getDistCacheEntry(key);
+    
+    return entry.compareAndPut(testValueHash,
+                               is,
+                               accessedExpireTimeout,
+                               modifiedExpireTimeout,
+                               flags);
+  }
+
   /**
    * Puts a new item in the cache with a custom idle
    * timeout (used for sessions).
@@ -610,11 +657,15 @@ public class CacheImpl<K,V>
   @Override
   public boolean remove(Object key)
   {
+    long startNanos = System.nanoTime();
+    
     boolean isRemoved = getDistCacheEntry(key).remove();
+
+    _removeTime.add((System.nanoTime() - startNanos) / 1000);
     
     if (isRemoved) {
       entryRemoved(key);
-      _removeCount.incrementAndGet();
+      _removeCount.increment();
     }
     
     return isRemoved;
@@ -712,14 +763,90 @@ public class CacheImpl<K,V>
   {
     Map<K,V> result = new TreeMap<K,V>();
 
-    for (K key : keys) {
-      V value = get(key);
+    if (keys.size() == 0) {
+      return result;
+    }
+
+    long startNanos = System.nanoTime();
+
+    ArrayList<K> keyList = new ArrayList<K>(keys);
+    ArrayList<DistCacheEntry> entryList = new ArrayList<DistCacheEntry>();
+
+    for (K key : keyList) {
+      DistCacheEntry entry = getDistCacheEntry(key);
+
+      // counted before the backing read, matching get()
+      _getCount.increment();
+      if (! entry.getMnodeEntry().isValueNull()) {
+        _hitCount.increment();
+      }
+      else {
+        _missCount.increment();
+      }
+
+      entryList.add(entry);
+    }
+
+    // one backing read for the entries not yet in memory
+    _manager.loadLocalEntries(entryList);
+
+    long now = CurrentTime.getCurrentTime();
+
+    int size = entryList.size();
+    boolean []isLoad = new boolean[size];
+    ArrayList<DistCacheEntry> loadList = new ArrayList<DistCacheEntry>();
+
+    for (int i = 0; i < size; i++) {
+      DistCacheEntry entry = entryList.get(i);
+
+      if (entry.isLoadRequired(now)) {
+        isLoad[i] = true;
+        loadList.add(entry);
+      }
+    }
+
+    // one engine request for the missing and expired entries
+    if (loadList.size() > 0) {
+      _config.getEngine().getAll(loadList);
+    }
+
+    BatchGetTask []tasks = new BatchGetTask[size];
+
+    // cache loader calls for the misses complete in parallel
+    boolean isParallel = (loadList.size() > 1
+                          && _config.getCacheLoaderExt() != null
+                          && _config.isReadThrough());
+
+    for (int i = 0; i < size; i++) {
+      tasks[i] = new BatchGetTask(entryList.get(i), now, isLoad[i]);
+
+      if (isParallel && isLoad[i]) {
+        ThreadPool.getCurrent().schedule(tasks[i].getFuture());
+      }
+    }
+
+    for (int i = 0; i < size; i++) {
+      K key = keyList.get(i);
+
+      // the entry holds the value stored by put(K,V)
+      @SuppressWarnings("unchecked")
+      V value = (V) tasks[i].get();
+
+      if (_readListeners != null) {
+        entryRead(key, value);
+      }
 
       if (value != null) {
         result.put(key, value);
       }
     }
 
+    addTime(_getTime, startNanos, size);
+
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest(this + " getAll " + keys + " -> " + result);
+    }
+
     return result;
   }
 
@@ -823,8 +950,46 @@ public class CacheImpl<K,V>
       return;
     }
     
+    long startNanos = System.nanoTime();
+    
+    ArrayList<K> keyList = new ArrayList<K>();
+    ArrayList<V> valueList = new ArrayList<V>();
+    ArrayList<DistCacheEntry> entryList = new ArrayList<DistCacheEntry>();
+
     for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
-      put(entry.getKey(), entry.getValue());
+      keyList.add(entry.getKey());
+      valueList.add(entry.getValue());
+      entryList.add(getDistCacheEntry(entry.getKey()));
+    }
+
+    // one backing read for the current versions of the entries
+    _manager.loadLocalEntries(entryList);
+
+    for (int i = 0; i < entryList.size(); i++) {
+      K key = keyList.get(i);
+      V value = valueList.get(i);
+
+      entryList.get(i).put(value);
+
+      _putCount.increment();
+      entryUpdate(key, value);
+    }
+    
+    addTime(_putTime, startNanos, entryList.size());
+  }
+  
+  /**
+   * Records a batch call's time as one sample per entry, so the
+   * histograms stay comparable with the single-entry calls.
+   */
+  private static void addTime(HistogramMeter meter,
+                              long startNanos,
+                              int count)
+  {
+    long micros = (System.nanoTime() - startNanos) / 1000 / count;
+    
+    for (int i = 0; i < count; i++) {
+      meter.add(micros);
     }
   }
 
@@ -905,6 +1070,21 @@ public class CacheImpl<K,V>
     return getDataBacking().loadData(valueDataId, valueDataTime, os);
   }
 
+  /**
+   * Writes the value's uncompressed data.
+   */
+  public boolean loadValue(MnodeValue mnodeValue,
+                           long valueDataId,
+                           long valueDataTime,
+                           WriteStream os)
+    throws IOException
+  {
+    LocalDataManager dataManager = _manager.getLocalDataManager();
+    
+    return dataManager.loadValue(mnodeValue, valueDataId, valueDataTime,
+                                 os, getConfig());
+  }
+
   public DataItem saveData(StreamSource source, int length)
     throws IOException
   {
@@ -1462,6 +1642,70 @@ public class CacheImpl<K,V>
     }
   }
   
+  /**
+   * Completes one entry of a getAll, either inline or from the
+   * thread pool.
+   */
+  static class BatchGetTask implements Callable<Object> {
+    private final DistCacheEntry _entry;
+    private final long _now;
+    private final boolean _isLoaded;
+
+    private final FutureTask<Object> _future;
+
+    BatchGetTask(DistCacheEntry entry, long now, boolean isLoaded)
+    {
+      _entry = entry;
+      _now = now;
+      _isLoaded = isLoaded;
+
+      _future = new FutureTask<Object>(this);
+    }
+
+    FutureTask<Object> getFuture()
+    {
+      return _future;
+    }
+
+    @Override
+    public Object call()
+    {
+      if (_isLoaded) {
+        return _entry.getBatchLoaded(_now);
+      }
+      else {
+        return _entry.get();
+      }
+    }
+
+    /**
+     * Returns the value, running the task in the caller's thread if
+     * the pool hasn't started it.
+     */
+    Object get()
+    {
+      _future.run();
+
+      try {
+        return _future.get();
+      } catch (InterruptedException e) {
+        throw new CacheException(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        else {
+          throw new CacheException(cause);
+        }
+      }
+    }
+  }
+
   static class LoadFuture<K,V> implements Future<V> {
     private CacheImpl<K,V> _cache;
     
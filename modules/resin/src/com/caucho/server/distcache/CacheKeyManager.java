@@ -29,6 +29,7 @@
 
 package com.caucho.server.distcache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 
@@ -37,6 +38,7 @@ import com.caucho.inject.Module;
 import com.caucho.util.FreeList;
 import com.caucho.util.HashKey;
 import com.caucho.util.LruCache;
+import com.caucho.util.Murmur3;
 
 /**
  * Manages the distributed cache
@@ -45,6 +47,12 @@ import com.caucho.util.LruCache;
 public final class CacheKeyManager
 {
   private static final Object NULL_OBJECT = new Object();
+
+  // seed tags keeping the fast hashes of different key types distinct
+  private static final long FAST_STRING = 0x5354524900000000L;
+  private static final long FAST_BYTES = 0x4259544500000000L;
+  private static final long FAST_LONG = 0x4c4f4e4700000000L;
+  private static final long FAST_OBJECT = 0x4f424a4500000000L;
   
   private final CacheEntryManager _cacheEntryManager;
   
@@ -106,6 +114,11 @@ public final class CacheKeyManager
 
   protected HashKey createHashKey(Object key, CacheConfig config)
   {
+    // direct hashing is cheaper than the key cache lookup
+    if (config.isFastKeyHash() && isFastDirectKey(key)) {
+      return createFastHashKey(key, config);
+    }
+
     CacheKey cacheKey = new CacheKey(config.getGuid(),
                                      config.getGuidHash(), 
                                      key);
@@ -126,6 +139,10 @@ public final class CacheKeyManager
    */
   protected HashKey createHashKeyImpl(Object key, CacheConfig config)
   {
+    if (config.isFastKeyHash()) {
+      return createFastHashKey(key, config);
+    }
+
     try {
       KeyHashStream dOut = _keyStreamFreeList.allocate();
       
@@ -153,6 +170,67 @@ public final class CacheKeyManager
     }
   }
 
+  private static boolean isFastDirectKey(Object key)
+  {
+    return (key instanceof String
+            || key instanceof byte[]
+            || key instanceof Long);
+  }
+
+  /**
+   * Returns the 128-bit MurmurHash3 of the key, seeded by the cache's
+   * guid. String, byte[] and Long keys are hashed directly; other keys
+   * are hashed from their serialized form.
+   */
+  private HashKey createFastHashKey(Object key, CacheConfig config)
+  {
+    long seed = config.getGuidSeed();
+    long []hash = new long[2];
+
+    if (key instanceof String) {
+      Murmur3.hash128((String) key, seed ^ FAST_STRING, hash);
+    }
+    else if (key instanceof byte[]) {
+      byte []bytes = (byte []) key;
+
+      Murmur3.hash128(bytes, 0, bytes.length, seed ^ FAST_BYTES, hash);
+    }
+    else if (key instanceof Long) {
+      Murmur3.hash128((Long) key, seed ^ FAST_LONG, hash);
+    }
+    else {
+      try {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        config.getKeySerializer().serialize(key, bos);
+
+        byte []bytes = bos.toByteArray();
+
+        Murmur3.hash128(bytes, 0, bytes.length, seed ^ FAST_OBJECT, hash);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    // the key width is fixed, so the upper half is derived from the hash
+    byte []keyHash = new byte[HashManager.SIZE];
+
+    writeLong(keyHash, 0, hash[0]);
+    writeLong(keyHash, 8, hash[1]);
+    writeLong(keyHash, 16, Murmur3.fmix64(hash[0] ^ FAST_STRING));
+    writeLong(keyHash, 24, Murmur3.fmix64(hash[1] ^ FAST_BYTES));
+
+    return new HashKey(keyHash);
+  }
+
+  private static void writeLong(byte []buffer, int offset, long value)
+  {
+    for (int i = 7; i >= 0; i--) {
+      buffer[offset + i] = (byte) value;
+      value >>= 8;
+    }
+  }
+
   /**
    * Returns the key hash
    */
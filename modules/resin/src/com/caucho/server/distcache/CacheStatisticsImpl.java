@@ -126,6 +126,43 @@ public class CacheStatisticsImpl implements CacheStatistics
     return 0;
   }
   
+  /**
+   * Returns the compressed size as a fraction of the raw size for
+   * the compressed values.
+   */
+  public float getCompressionRatio()
+  {
+    return getCompressionMeter().getCompressionRatio();
+  }
+
+  public long getCompressedCount()
+  {
+    return getCompressionMeter().getCompressCount();
+  }
+
+  /**
+   * Returns the number of values where compression didn't shrink the data.
+   */
+  public long getCompressSkipCount()
+  {
+    return getCompressionMeter().getCompressSkipCount();
+  }
+
+  public float getAverageCompressMillis()
+  {
+    return getCompressionMeter().getAverageCompressMillis();
+  }
+
+  public float getAverageDecompressMillis()
+  {
+    return getCompressionMeter().getAverageDecompressMillis();
+  }
+
+  private CacheCompressionMeter getCompressionMeter()
+  {
+    return _cache.getConfig().getCompressionMeter();
+  }
+  
   @Override
   public String toString()
   {
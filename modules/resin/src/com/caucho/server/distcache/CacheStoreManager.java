@@ -30,7 +30,10 @@
 package com.caucho.server.distcache;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.caucho.cloud.topology.TriadOwner;
@@ -247,6 +250,34 @@ public final class CacheStoreManager implements CacheEntryFactory
     return _regionManager.createCache(cacheHash, getDefaultCacheConfig());
   }
 
+  /**
+   * Reads the local mnodes for a batch of entries with a single
+   * backing load.
+   */
+  public final void loadLocalEntries(List<DistCacheEntry> entries)
+  {
+    ArrayList<HashKey> keys = new ArrayList<HashKey>();
+
+    for (DistCacheEntry entry : entries) {
+      if (entry.isLocalLoadRequired()) {
+        keys.add(entry.getKeyHash());
+      }
+    }
+
+    if (keys.size() == 0) {
+      return;
+    }
+
+    Map<HashKey,MnodeEntry> mnodeMap
+      = getDataBacking().loadLocalEntryValues(keys);
+
+    for (DistCacheEntry entry : entries) {
+      if (entry.isLocalLoadRequired()) {
+        entry.setLocalMnodeValue(mnodeMap.get(entry.getKeyHash()));
+      }
+    }
+  }
+
   public final DistCacheEntry loadLocalEntry(HashKey key, CacheConfig config)
   {
     if (key == null)
@@ -191,7 +191,7 @@ public class DistCacheEntry {
   }
 
   /**
-   * Gets a cache entry as a stream
+   * Gets a cache entry as a stream of the uncompressed value
    */
   final public StreamSource getValueStream()
   {
@@ -200,8 +200,9 @@ public class DistCacheEntry {
     // server/01o9
     // updateAccessTime();
 
-    return getLocalDataManager().createDataSource(mnodeValue.getValueDataId(),
-                                                  mnodeValue.getValueDataTime());
+    return getLocalDataManager().createValueSource(getKeyHash(),
+                                                   mnodeValue,
+                                                   getConfig());
   }
 
   public long getValueHash(Object value, CacheConfig config)
@@ -227,22 +228,35 @@ public class DistCacheEntry {
     }
 
     StreamSource source = null;
+    MnodeValue update = mnodeEntry;
       
     if (isValueStream) {
-      long valueDataId = mnodeEntry.getValueDataId();
-      long valueDataTime = mnodeEntry.getValueDataTime();
-      
-      DataStreamSource dataSource
-          = getLocalDataManager().createDataSource(valueDataId, valueDataTime);
+      StreamSource dataSource
+        = getLocalDataManager().createValueSource(getKeyHash(),
+                                                  mnodeEntry,
+                                                  getConfig());
 
       if (dataSource != null) {
         source = new StreamSource(dataSource);
       }
+      
+      // the source is decompressed, so the update isn't compressed
+      long flags = mnodeEntry.getFlags();
+      
+      if ((flags & CacheConfig.FLAG_COMPRESSED) != 0) {
+        update = new MnodeValue(mnodeEntry.getValueHash(),
+                                mnodeEntry.getValueLength(),
+                                mnodeEntry.getVersion(),
+                                flags & ~CacheConfig.FLAG_COMPRESSED,
+                                mnodeEntry.getAccessedExpireTimeout(),
+                                mnodeEntry.getModifiedExpireTimeout(),
+                                mnodeEntry.getLeaseExpireTimeout());
+      }
 
       // XXX: updateLease(entryKey, mnodeEntry, leaseOwner);
     }
 
-    return new CacheUpdateWithSource(mnodeEntry, source, mnodeEntry.getLeaseOwner());
+    return new CacheUpdateWithSource(update, source, mnodeEntry.getLeaseOwner());
   }
 
   /**
@@ -406,6 +420,36 @@ public class DistCacheEntry {
               false);
   }
 
+  /**
+   * Sets the value by an input stream if the current value hash matches
+   * the test hash. A zero test hash only adds the entry if it's new,
+   * and ANY_KEY only replaces an existing entry.
+   *
+   * The stream is always consumed.
+   *
+   * @return true if the update succeeds, false if it fails
+   */
+  public boolean compareAndPut(long testValueHash,
+                               InputStream is,
+                               long accessedExpireTimeout,
+                               long modifiedExpireTimeout,
+                               int flags)
+    throws IOException
+  {
+    long now = CurrentTime.getCurrentTime();
+    
+    return putStream(is,
+                     accessedExpireTimeout,
+                     modifiedExpireTimeout,
+                     flags,
+                     now,
+                     now,
+                     0,
+                     false,
+                     true,
+                     testValueHash);
+  }
+
   private final void putStream(InputStream is,
                                long accessedExpireTime,
                                long modifiedExpireTime,
@@ -415,10 +459,36 @@ public class DistCacheEntry {
                                long newVersion,
                                boolean isLocal)
     throws IOException
+  {
+    putStream(is,
+              accessedExpireTime,
+              modifiedExpireTime,
+              userFlags,
+              lastAccessTime,
+              lastModifiedTime,
+              newVersion,
+              isLocal,
+              false,
+              0);
+  }
+
+  private final boolean putStream(InputStream is,
+                                  long accessedExpireTime,
+                                  long modifiedExpireTime,
+                                  int userFlags,
+                                  long lastAccessTime,
+                                  long lastModifiedTime,
+                                  long newVersion,
+                                  boolean isLocal,
+                                  boolean isCompare,
+                                  long testValueHash)
+    throws IOException
   {
     loadLocalMnodeValue();
 
-    DataItemLocal valueItem = getLocalDataManager().writeData(is);
+    CacheConfig config = getConfig();
+    
+    DataItemLocal valueItem = getLocalDataManager().writeData(is, config);
     
     long valueHash = valueItem.getValueHash();
     long valueDataId = valueItem.getValueDataId();
@@ -428,6 +498,13 @@ public class DistCacheEntry {
     
     MnodeEntry mnodeEntry = getMnodeEntry();
     
+    if (isCompare
+        && ! isValueHashMatch(testValueHash, mnodeEntry.getValueHash())) {
+      getLocalDataManager().removeData(valueDataId, valueDataTime);
+      
+      return false;
+    }
+    
     if (newVersion <= 0) {
       newVersion = getNewVersion(getMnodeEntry());
     }
@@ -437,9 +514,9 @@ public class DistCacheEntry {
           + " new=0x" + Long.toHexString(newVersion));
     }
     
-    CacheConfig config = getConfig();
-    
-    long flags = config.getFlags() | ((long) userFlags) << 32;
+    long flags = (config.getFlags()
+                  | valueItem.getFlags()
+                  | ((long) userFlags) << 32);
     
     if (accessedExpireTime < 0)
       accessedExpireTime = config.getAccessedExpireTimeout();
@@ -456,7 +533,7 @@ public class DistCacheEntry {
         && delta < accessedExpireTime) {
       // server/01nx
       
-      return;
+      return true;
     }
     
     int leaseOwner = getMnodeEntry().getLeaseOwner();
@@ -476,7 +553,16 @@ public class DistCacheEntry {
     // add 25% window for update efficiency
     // idleTimeout = idleTimeout * 5L / 4;
     
-    putLocalValue(mnodeUpdate, valueDataId, valueDataTime, null);
+    MnodeEntry newEntry = putLocalValue(mnodeUpdate,
+                                        valueDataId, valueDataTime, null,
+                                        isCompare, testValueHash);
+    
+    if (newEntry == null) {
+      getLocalDataManager().removeData(valueDataId, valueDataTime);
+      
+      return false;
+    }
+    
     config.getEngine().put(getKeyHash(), getCacheKey(), 
                            mnodeUpdate, 
                            valueDataId, valueDataTime);
@@ -488,6 +574,8 @@ public class DistCacheEntry {
       
       writer.write(this);
     }
+    
+    return true;
   }
 
   /**
@@ -593,6 +681,7 @@ public class DistCacheEntry {
       MnodeUpdate update = new MnodeUpdate(dataItem.getValueHash(),
                                            dataItem.getLength(),
                                            newVersion,
+                                           dataItem.getFlags(),
                                            config);
 //                                           oldMnodeEntry);
       
@@ -639,24 +728,29 @@ public class DistCacheEntry {
                                     long valueDataTime,
                                     Object value)
   {
-    MnodeEntry mnodeValue = loadLocalMnodeValue();
-
-    long oldValueHash = mnodeValue.getValueHash();
+    // add 25% window for update efficiency
+    // idleTimeout = idleTimeout * 5L / 4;
 
+    MnodeEntry mnodeValue = putLocalValueImpl(update,
+                                              valueDataId, valueDataTime,
+                                              value,
+                                              true, testValueHash);
+    
+    return (mnodeValue != null);
+  }
+  
+  private static boolean isValueHashMatch(long testValueHash,
+                                          long oldValueHash)
+  {
     if (testValueHash == oldValueHash) {
+      return true;
     }
     else if (testValueHash == MnodeEntry.ANY_KEY && oldValueHash != 0) {
+      return true;
     }
     else {
       return false;
     }
-    
-    // add 25% window for update efficiency
-    // idleTimeout = idleTimeout * 5L / 4;
-
-    mnodeValue = putLocalValueImpl(update, valueDataId, valueDataTime, value);
-    
-    return (mnodeValue != null);
   }
 
   protected boolean compareAndPut(DistCacheEntry entry,
@@ -689,6 +783,7 @@ public class DistCacheEntry {
   {
     long prevDataId = getMnodeEntry().getValueDataId();
     long prevDataTime = getMnodeEntry().getValueDataTime();
+    long prevFlags = getMnodeEntry().getFlags();
     
     if (compareAndPut(testValue, value)) {
       long result = -1;
@@ -699,6 +794,7 @@ public class DistCacheEntry {
                                             result,
                                             prevDataId,
                                             prevDataTime,
+                                            prevFlags,
                                             config.getValueSerializer(),
                                             config);
     }
@@ -737,6 +833,7 @@ public class DistCacheEntry {
     MnodeUpdate update = new MnodeUpdate(dataItem.getValueHash(),
                                          dataItem.getLength(),
                                          version,
+                                         dataItem.getFlags(),
                                          config);
     // int leaseOwner = mnodeValue.getLeaseOwner();
 
@@ -907,7 +1004,21 @@ public class DistCacheEntry {
 
   private Object get(long now)
   {
-    MnodeEntry mnodeEntry = loadMnodeValue(now, true);
+    return get(now, false);
+  }
+
+  /**
+   * Returns the object after a batch load. The engine has already
+   * refreshed the entry, so only the cache loader is checked for a miss.
+   */
+  final Object getBatchLoaded(long now)
+  {
+    return get(now, true);
+  }
+
+  private Object get(long now, boolean isEngineLoaded)
+  {
+    MnodeEntry mnodeEntry = loadMnodeValue(now, true, isEngineLoaded);
 
     if (mnodeEntry == null) {
       return null;
@@ -934,6 +1045,7 @@ public class DistCacheEntry {
                                                          valueHash,
                                                          mnodeEntry.getValueDataId(),
                                                          mnodeEntry.getValueDataTime(),
+                                                         mnodeEntry.getFlags(),
                                                          config.getValueSerializer(),
                                                          config);
     
@@ -1006,6 +1118,7 @@ public class DistCacheEntry {
                                                          valueHash,
                                                          mnodeEntry.getValueDataId(),
                                                          mnodeEntry.getValueDataTime(),
+                                                         mnodeEntry.getFlags(),
                                                          config.getValueSerializer(),
                                                          config);
     
@@ -1023,16 +1136,18 @@ public class DistCacheEntry {
 
   final private MnodeEntry loadMnodeValue(long now,
                                           boolean isUpdateAccessTime)
+  {
+    return loadMnodeValue(now, isUpdateAccessTime, false);
+  }
+
+  final private MnodeEntry loadMnodeValue(long now,
+                                          boolean isUpdateAccessTime,
+                                          boolean isEngineLoaded)
   {
     MnodeEntry mnodeEntry = loadLocalMnodeValue();
-    
-    CacheConfig config = getConfig();
-    int server = config.getServerIndex();
 
-    if (mnodeEntry == null 
-        || mnodeEntry.isLocalExpired(server, now, config)
-        || ! isReadThroughLocalValid(now)) {
-      reloadValue(now, isUpdateAccessTime);
+    if (isLoadRequired(mnodeEntry, now)) {
+      reloadValue(now, isUpdateAccessTime, isEngineLoaded);
     }
     
     // server/016q
@@ -1068,13 +1183,39 @@ public class DistCacheEntry {
     }
   }
 
+  /**
+   * Returns true if the local entry is missing or expired and needs
+   * a load from the engine or cache loader.
+   */
+  final boolean isLoadRequired(long now)
+  {
+    return isLoadRequired(loadLocalMnodeValue(), now);
+  }
+
+  private boolean isLoadRequired(MnodeEntry mnodeEntry, long now)
+  {
+    CacheConfig config = getConfig();
+    int server = config.getServerIndex();
+
+    return (mnodeEntry == null
+            || mnodeEntry.isLocalExpired(server, now, config)
+            || ! isReadThroughLocalValid(now));
+  }
+
   void reloadValue(long now,
                    boolean isUpdateAccessTime)
+  {
+    reloadValue(now, isUpdateAccessTime, false);
+  }
+
+  private void reloadValue(long now,
+                           boolean isUpdateAccessTime,
+                           boolean isEngineLoaded)
   {
     // only one thread may update the expired data
     if (startReadUpdate()) {
       try {
-        loadExpiredValue(now, isUpdateAccessTime);
+        loadExpiredValue(now, isUpdateAccessTime, isEngineLoaded);
       } finally {
         finishReadUpdate();
       }
@@ -1082,7 +1223,8 @@ public class DistCacheEntry {
   }
   
   private void loadExpiredValue(long now,
-                                boolean isUpdateAccessTime)
+                                boolean isUpdateAccessTime,
+                                boolean isEngineLoaded)
   {
     MnodeEntry mnodeEntry = getMnodeEntry();
     
@@ -1090,9 +1232,11 @@ public class DistCacheEntry {
     
     CacheConfig config = getConfig();
 
-    CacheEngine engine = config.getEngine();
+    if (! isEngineLoaded) {
+      CacheEngine engine = config.getEngine();
     
-    engine.get(this);
+      engine.get(this);
+    }
     
     mnodeEntry = getMnodeEntry();
 
@@ -1306,6 +1450,20 @@ public class DistCacheEntry {
                                         long valueDataId,
                                         long valueDataTime,
                                         Object value)
+  {
+    return putLocalValue(mnodeUpdate, valueDataId, valueDataTime, value,
+                         false, 0);
+  }
+
+  /**
+   * Sets a cache entry, returning null if the compare fails.
+   */
+  private MnodeEntry putLocalValue(MnodeUpdate mnodeUpdate,
+                                   long valueDataId,
+                                   long valueDataTime,
+                                   Object value,
+                                   boolean isCompare,
+                                   long testValueHash)
   {
     // long valueHash = mnodeUpdate.getValueHash();
     // long version = mnodeUpdate.getVersion();
@@ -1315,7 +1473,13 @@ public class DistCacheEntry {
     MnodeEntry mnodeValue = putLocalValueImpl(mnodeUpdate, 
                                               valueDataId,
                                               valueDataTime,
-                                              value);
+                                              value,
+                                              isCompare,
+                                              testValueHash);
+    if (mnodeValue == null) {
+      return null;
+    }
+    
     if (mnodeValue.getValueHash() != prevMnodeValue.getValueHash()) {
       _cacheService.notifyPutListeners(getKeyHash(), getCacheKey(),
                                        mnodeUpdate, mnodeValue);
@@ -1331,6 +1495,22 @@ public class DistCacheEntry {
                                              long valueDataId,
                                              long valueDataTime,
                                              Object value)
+  {
+    return putLocalValueImpl(mnodeUpdate, valueDataId, valueDataTime, value,
+                             false, 0);
+  }
+
+  /**
+   * Sets a cache entry. When isCompare is set, the test hash is checked
+   * against the current entry inside the compare-and-set loop, and
+   * null is returned if it doesn't match.
+   */
+  private final MnodeEntry putLocalValueImpl(MnodeUpdate mnodeUpdate,
+                                             long valueDataId,
+                                             long valueDataTime,
+                                             Object value,
+                                             boolean isCompare,
+                                             long testValueHash)
   {
     HashKey key = getKeyHash();
     
@@ -1350,6 +1530,10 @@ public class DistCacheEntry {
 
       long oldVersion = oldEntryValue != null ? oldEntryValue.getVersion() : 0;
       
+      if (isCompare && ! isValueHashMatch(testValueHash, oldValueHash)) {
+        return null;
+      }
+      
       if (version < oldVersion
           || (version == oldVersion
               && valueHash != 0
@@ -1437,6 +1621,7 @@ public class DistCacheEntry {
     MnodeUpdate update = new MnodeUpdate(dataItem.getValueHash(),
                                          dataItem.getLength(),
                                          version,
+                                         dataItem.getFlags(),
                                          config);
     
     mnodeEntry = putLocalValueImpl(update,
@@ -1498,6 +1683,30 @@ public class DistCacheEntry {
     return getMnodeEntry();
   }
 
+  /**
+   * Returns true if the local mnode hasn't been read from the backing.
+   */
+  final boolean isLocalLoadRequired()
+  {
+    return getMnodeEntry().isImplicitNull();
+  }
+
+  /**
+   * Sets the local mnode from a batch read of the backing.
+   */
+  final void setLocalMnodeValue(MnodeEntry newMnodeValue)
+  {
+    MnodeEntry mnodeValue = getMnodeEntry();
+
+    if (mnodeValue.isImplicitNull()) {
+      if (newMnodeValue == null) {
+        newMnodeValue = MnodeEntry.NULL;
+      }
+
+      compareAndSetEntry(mnodeValue, newMnodeValue);
+    }
+  }
+
   /**
    * Loads the value from the local store.
    */
@@ -38,7 +38,10 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.caucho.db.blob.BlobInputStream;
+import com.caucho.distcache.CacheCodec;
 import com.caucho.distcache.CacheSerializer;
+import com.caucho.distcache.DeflateCodec;
+import com.caucho.distcache.LzfCodec;
 import com.caucho.env.distcache.CacheDataBacking;
 import com.caucho.env.service.ResinSystem;
 import com.caucho.server.distcache.DataStore.DataItem;
@@ -49,6 +52,7 @@ import com.caucho.util.NullOutputStream;
 import com.caucho.vfs.Crc64InputStream;
 import com.caucho.vfs.Crc64OutputStream;
 import com.caucho.vfs.StreamSource;
+import com.caucho.vfs.TempBuffer;
 import com.caucho.vfs.TempOutputStream;
 import com.caucho.vfs.Vfs;
 import com.caucho.vfs.WriteStream;
@@ -62,6 +66,9 @@ public final class LocalDataManager
   private static final Logger log
     = Logger.getLogger(LocalDataManager.class.getName());
   
+  private static final CacheCodec LZF_CODEC = new LzfCodec();
+  private static final CacheCodec DEFLATE_CODEC = new DeflateCodec();
+  
   private final String _serverId;
   private final CacheStoreManager _storeManager;
   
@@ -97,7 +104,7 @@ public final class LocalDataManager
     DataItem valueData = null;
 
     if (source != null)
-      valueData = getDataBacking().saveData(source, (int) valueLength);
+      valueData = getDataBacking().saveData(source, getDataLength(update));
     else
       throw new IllegalStateException(L.l("writeData called without a stream or saved value {0}",
                                           update));
@@ -106,6 +113,20 @@ public final class LocalDataManager
                         valueData,
                         valueLength);
   }
+  
+  /**
+   * The value length is the uncompressed length, so compressed data
+   * is saved with an unknown length.
+   */
+  private static int getDataLength(MnodeValue update)
+  {
+    if ((update.getFlags() & CacheConfig.FLAG_COMPRESSED) != 0) {
+      return -1;
+    }
+    else {
+      return (int) update.getValueLength();
+    }
+  }
 
   DataItemLocal writeData(MnodeValue update, 
                      long version,
@@ -114,7 +135,7 @@ public final class LocalDataManager
     try {
       long valueHash = update.getValueHash();
       long valueLength = update.getValueLength();
-      DataItem valueData = getDataBacking().saveData(is, (int) valueLength);
+      DataItem valueData = getDataBacking().saveData(is, getDataLength(update));
     
       return new DataItemLocal(valueHash, valueData, valueLength);
     } catch (IOException e) {
@@ -127,6 +148,7 @@ public final class LocalDataManager
                                    CacheConfig config)
   {
     TempOutputStream os = null;
+    TempOutputStream zOs = null;
     CacheSerializer serializer = config.getValueSerializer();
     
     try {
@@ -135,9 +157,15 @@ public final class LocalDataManager
       long valueHash = writeDataStream(os, value, serializer);
 
       int length = os.getLength();
+      
+      zOs = compress(os, length, config);
+      
+      TempOutputStream dataOs = zOs != null ? zOs : os;
+      long flags = zOs != null ? CacheConfig.FLAG_COMPRESSED : 0;
 
-      StreamSource source = new StreamSource(os);
-      DataItem valueData = getDataBacking().saveData(source, length);
+      StreamSource source = new StreamSource(dataOs);
+      DataItem valueData = getDataBacking().saveData(source,
+                                                     dataOs.getLength());
       
       if (valueData == null) {
         throw new IllegalStateException(L.l("Can't save the data '{0}'",
@@ -146,13 +174,16 @@ public final class LocalDataManager
       
       // XXX: request owner?
 
-      return new DataItemLocal(valueHash, valueData, length);
+      return new DataItemLocal(valueHash, valueData, length, flags);
 
     } catch (Exception e) {
       throw new RuntimeException(e);
     } finally {
       if (os != null)
         os.destroy();
+      
+      if (zOs != null)
+        zOs.destroy();
     }
   }
 
@@ -160,6 +191,7 @@ public final class LocalDataManager
                                   long valueHash,
                                   long valueDataId,
                                   long valueDataTime,
+                                  long flags,
                                   CacheSerializer serializer,
                                   CacheConfig config)
   {
@@ -204,6 +236,20 @@ public final class LocalDataManager
       InputStream is = os.openInputStream();
 
       try {
+        if ((flags & CacheConfig.FLAG_COMPRESSED) != 0) {
+          long startNanos = System.nanoTime();
+          
+          is = openDecompress(is, config);
+          
+          Object value = serializer.deserialize(is);
+          
+          // the time includes the deserialization reading the stream
+          config.getCompressionMeter().addDecompress(System.nanoTime()
+                                                     - startNanos);
+          
+          return value;
+        }
+        
         // InflaterInputStream gzIn = new InflaterInputStream(is);
 
         // Object value = serializer.deserialize(gzIn);
@@ -274,7 +320,12 @@ public final class LocalDataManager
       }
 
       if (blob != null) {
-        loadData(blob, out);
+        if ((mnodeValue.getFlags() & CacheConfig.FLAG_COMPRESSED) != 0) {
+          loadCompressedData(blob, out, config);
+        }
+        else {
+          loadData(blob, out);
+        }
 
         return true;
       }
@@ -303,6 +354,69 @@ public final class LocalDataManager
       return null;
   }
 
+  /**
+   * Returns a source for the value's uncompressed bytes. A compressed
+   * value is decompressed into a temp stream.
+   */
+  public StreamSource createValueSource(HashKey key,
+                                        MnodeEntry mnodeValue,
+                                        CacheConfig config)
+  {
+    long valueDataId = mnodeValue.getValueDataId();
+    long valueDataTime = mnodeValue.getValueDataTime();
+    
+    if ((mnodeValue.getFlags() & CacheConfig.FLAG_COMPRESSED) == 0) {
+      return createDataSource(valueDataId, valueDataTime);
+    }
+    else if (valueDataId <= 0) {
+      return null;
+    }
+    
+    TempOutputStream os = new TempOutputStream();
+    boolean isValid = false;
+    
+    try {
+      if (! readData(key, mnodeValue, os, config)) {
+        return null;
+      }
+      
+      isValid = true;
+      
+      return new StreamSource(os);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (! isValid) {
+        os.destroy();
+      }
+    }
+  }
+  
+  /**
+   * Writes the value's uncompressed bytes.
+   */
+  public boolean loadValue(MnodeValue mnodeValue,
+                           long valueDataId,
+                           long valueDataTime,
+                           WriteStream out,
+                           CacheConfig config)
+    throws IOException
+  {
+    if ((mnodeValue.getFlags() & CacheConfig.FLAG_COMPRESSED) == 0) {
+      return getDataBacking().loadData(valueDataId, valueDataTime, out);
+    }
+    
+    Blob blob = getDataBacking().loadBlob(valueDataId, valueDataTime);
+    
+    if (blob == null) {
+      return false;
+    }
+    
+    loadCompressedData(blob, out, config);
+    
+    return true;
+  }
+
   private void loadData(Blob blob, WriteStream out)
     throws IOException
   {
@@ -322,6 +436,117 @@ public final class LocalDataManager
     }
   }
   
+  private void loadCompressedData(Blob blob,
+                                  WriteStream out,
+                                  CacheConfig config)
+    throws IOException
+  {
+    long startNanos = System.nanoTime();
+    
+    InputStream is = null;
+    
+    try {
+      is = openDecompress(blob.getBinaryStream(), config);
+      
+      out.writeStream(is);
+    } catch (SQLException e) {
+      throw new IOException(e);
+    } finally {
+      IoUtil.close(is);
+    }
+    
+    config.getCompressionMeter().addDecompress(System.nanoTime() - startNanos);
+  }
+  
+  /**
+   * Compresses the serialized value when it's large enough and the
+   * codec actually shrinks it.
+   *
+   * @return the codec id and compressed data, or null for the raw value
+   */
+  private TempOutputStream compress(TempOutputStream os,
+                                    int length,
+                                    CacheConfig config)
+    throws IOException
+  {
+    CacheCodec codec = config.getCompressionCodec();
+    
+    if (codec == null || length < config.getCompressionThreshold()) {
+      return null;
+    }
+    
+    CacheCompressionMeter meter = config.getCompressionMeter();
+    long startNanos = System.nanoTime();
+    
+    TempOutputStream zOs = new TempOutputStream();
+    boolean isValid = false;
+    
+    try {
+      zOs.write(codec.getCodecId());
+      
+      OutputStream out = codec.openCompress(zOs);
+      
+      for (TempBuffer ptr = os.getHead(); ptr != null; ptr = ptr.getNext()) {
+        out.write(ptr.getBuffer(), 0, ptr.getLength());
+      }
+      
+      out.close();
+      
+      int zLength = zOs.getLength();
+      long nanos = System.nanoTime() - startNanos;
+      
+      if (zLength < length) {
+        meter.addCompress(length, zLength, nanos);
+        
+        isValid = true;
+        
+        return zOs;
+      }
+      else {
+        meter.addCompressSkip(nanos);
+        
+        return null;
+      }
+    } finally {
+      if (! isValid) {
+        zOs.destroy();
+      }
+    }
+  }
+  
+  private InputStream openDecompress(InputStream is, CacheConfig config)
+    throws IOException
+  {
+    int codecId = is.read();
+    
+    CacheCodec codec = config.getCompressionCodec();
+    
+    if (codec == null || codec.getCodecId() != codecId) {
+      codec = getBuiltinCodec(codecId);
+    }
+    
+    if (codec == null) {
+      throw new IOException(L.l("'{0}' is an unknown cache compression codec",
+                                codecId));
+    }
+    
+    return codec.openDecompress(is);
+  }
+  
+  private static CacheCodec getBuiltinCodec(int codecId)
+  {
+    switch (codecId) {
+    case LzfCodec.CODEC_ID:
+      return LZF_CODEC;
+      
+    case DeflateCodec.CODEC_ID:
+      return DEFLATE_CODEC;
+      
+    default:
+      return null;
+    }
+  }
+  
   void removeData(long valueHash, long valueDataTime)
   {
     getDataBacking().removeData(valueHash, valueDataTime);
@@ -418,6 +643,58 @@ public final class LocalDataManager
     }
   }
   
+  /**
+   * Writes a stream value, compressing it when the cache has a codec.
+   */
+  final public DataItemLocal writeData(InputStream is, CacheConfig config)
+    throws IOException
+  {
+    if (config.getCompressionCodec() == null) {
+      return writeData(is);
+    }
+    
+    TempOutputStream os = null;
+    TempOutputStream zOs = null;
+
+    try {
+      os = new TempOutputStream();
+      
+      Crc64InputStream mIn = new Crc64InputStream(is);
+      
+      int sublen;
+      byte []buffer = new byte[TempBuffer.SIZE];
+      
+      while ((sublen = mIn.read(buffer, 0, buffer.length)) > 0) {
+        os.write(buffer, 0, sublen);
+      }
+
+      long valueHash = mIn.getDigest();
+      
+      if (valueHash == 0 || valueHash == MnodeEntry.ANY_KEY) {
+        valueHash = 1;
+      }
+
+      int length = os.getLength();
+      
+      zOs = compress(os, length, config);
+      
+      TempOutputStream dataOs = zOs != null ? zOs : os;
+      long flags = zOs != null ? CacheConfig.FLAG_COMPRESSED : 0;
+      
+      DataItem valueData
+        = getDataBacking().saveData(new StreamSource(dataOs),
+                                    dataOs.getLength());
+      
+      return new DataItemLocal(valueHash, valueData, length, flags);
+    } finally {
+      if (os != null)
+        os.destroy();
+      
+      if (zOs != null)
+        zOs.destroy();
+    }
+  }
+  
   @Override
   public String toString()
   {
@@ -429,6 +706,7 @@ public final class LocalDataManager
     private long _dataId;
     private long _dataTime;
     private long _length;
+    private long _flags;
     
     private DataItemLocal(long valueHash, 
                      long dataId,
@@ -455,6 +733,16 @@ public final class LocalDataManager
       _length = length;
     }
     
+    private DataItemLocal(long valueHash, 
+                          DataItem data,
+                          long length,
+                          long flags)
+    {
+      this(valueHash, data, length);
+      
+      _flags = flags;
+    }
+    
     public long getValueDataId()
     {
       return _dataId;
@@ -475,6 +763,14 @@ public final class LocalDataManager
       return _length;
     }
     
+    /**
+     * Returns the per-value data flags, like FLAG_COMPRESSED.
+     */
+    public long getFlags()
+    {
+      return _flags;
+    }
+    
     @Override
     public String toString()
     {
@@ -35,7 +35,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,6 +63,9 @@ public class MnodeStore {
   private static final Logger log
     = Logger.getLogger(MnodeStore.class.getName());
 
+  // ids for each IN query of a batch load
+  private static final int LOAD_BATCH_SIZE = 64;
+
   private FreeList<CacheMapConnection> _freeConn
     = new FreeList<CacheMapConnection>(32);
 
@@ -71,6 +77,7 @@ public class MnodeStore {
   private boolean _isLocalDataSource;
 
   private String _loadQuery;
+  private String _loadBatchQuery;
 
   private String _insertQuery;
   private String _updateSaveQuery;
@@ -190,6 +197,23 @@ public class MnodeStore {
                   + " FROM " + _tableName
                   + " WHERE id=?");
 
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < LOAD_BATCH_SIZE; i++) {
+      if (i > 0)
+        sb.append(",");
+
+      sb.append("?");
+    }
+
+    _loadBatchQuery = ("SELECT value_hash,value_data_id,value_data_time,value_length,"
+                       + "     cache_id,flags,"
+                       + "     item_version,server_version,"
+                       + "     access_timeout,modified_timeout,"
+                       + "     access_time,modified_time,id"
+                       + " FROM " + _tableName
+                       + " WHERE id IN (" + sb + ")");
+
     _insertQuery = ("INSERT into " + _tableName
                     + " (id,value_hash,value_data_id,value_data_time,value_length,cache_id,flags,"
                     + "  item_version,server_version,"
@@ -568,34 +592,7 @@ public class MnodeStore {
       rs = pstmt.executeQuery();
 
       if (rs.next()) {
-        long valueHash = rs.getLong(1);
-        long valueDataId = rs.getLong(2);
-        long valueDataTime = rs.getLong(3);
-        long valueLength = rs.getLong(4);
-
-        byte []cacheHash = rs.getBytes(5);
-        long flags = rs.getLong(6);
-        long itemVersion = rs.getLong(7);
-        long serverVersion = rs.getLong(8);
-        long accessedExpireTimeout = rs.getLong(9);
-        long modifiedExpireTimeout = rs.getLong(10);
-        long accessTime = rs.getLong(11);
-        long modifiedTime = rs.getLong(12);
-        // long accessTime = CurrentTime.getCurrentTime();
-
-        long leaseTimeout = 300000;
-
-        MnodeEntry entry;
-        entry = new MnodeEntry(valueHash, valueLength,
-                               itemVersion,
-                               flags,
-                               accessedExpireTimeout, modifiedExpireTimeout,
-                               leaseTimeout,
-                               valueDataId, valueDataTime,
-                               null,
-                               accessTime, modifiedTime,
-                               serverVersion == _serverVersion,
-                               false);
+        MnodeEntry entry = readMnode(rs);
 
         if (log.isLoggable(Level.FINER))
           log.finer(this + " load " + id + " " + entry);
@@ -619,6 +616,147 @@ public class MnodeStore {
     return null;
   }
 
+  /**
+   * Reads a batch of objects from the data store, using a single
+   * connection for the batch. An external database reads the batch with
+   * IN queries. Resin's database only supports literal IN values without
+   * an index, so it uses the indexed single-id query for each id.
+   *
+   * @param ids the hash identifiers for the data
+   * @return the found entries
+   */
+  public Map<HashKey,MnodeEntry> load(Collection<HashKey> ids)
+  {
+    HashMap<HashKey,MnodeEntry> entryMap = new HashMap<HashKey,MnodeEntry>();
+
+    if (ids.size() == 0)
+      return entryMap;
+
+    CacheMapConnection conn = null;
+
+    try {
+      conn = getConnection();
+
+      if (_isLocalDataSource || ids.size() == 1)
+        loadById(conn, ids, entryMap);
+      else
+        loadByIn(conn, ids, entryMap);
+
+      if (log.isLoggable(Level.FINEST))
+        log.finest(this + " load " + entryMap.size() + " of " + ids.size());
+    } catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      if (conn != null)
+        conn.close();
+    }
+
+    return entryMap;
+  }
+
+  private void loadById(CacheMapConnection conn,
+                        Collection<HashKey> ids,
+                        HashMap<HashKey,MnodeEntry> entryMap)
+    throws SQLException
+  {
+    PreparedStatement pstmt = conn.prepareLoad();
+
+    for (HashKey id : ids) {
+      pstmt.setBytes(1, id.getHash());
+
+      ResultSet rs = pstmt.executeQuery();
+
+      try {
+        if (rs.next()) {
+          MnodeEntry entry = readMnode(rs);
+
+          if (log.isLoggable(Level.FINER))
+            log.finer(this + " load " + id + " " + entry);
+
+          entryMap.put(id, entry);
+        }
+      } finally {
+        JdbcUtil.close(rs);
+      }
+    }
+  }
+
+  /**
+   * Loads the ids in chunks with the IN query. A short final chunk
+   * repeats its last id, so every chunk uses the same statement.
+   */
+  private void loadByIn(CacheMapConnection conn,
+                        Collection<HashKey> ids,
+                        HashMap<HashKey,MnodeEntry> entryMap)
+    throws SQLException
+  {
+    PreparedStatement pstmt = conn.prepareLoadBatch();
+
+    Iterator<HashKey> iter = ids.iterator();
+
+    while (iter.hasNext()) {
+      HashKey id = null;
+
+      for (int i = 1; i <= LOAD_BATCH_SIZE; i++) {
+        if (iter.hasNext())
+          id = iter.next();
+
+        pstmt.setBytes(i, id.getHash());
+      }
+
+      ResultSet rs = pstmt.executeQuery();
+
+      try {
+        while (rs.next()) {
+          MnodeEntry entry = readMnode(rs);
+          HashKey key = new HashKey(rs.getBytes(13));
+
+          if (log.isLoggable(Level.FINER))
+            log.finer(this + " load " + key + " " + entry);
+
+          entryMap.put(key, entry);
+        }
+      } finally {
+        JdbcUtil.close(rs);
+      }
+    }
+  }
+
+  private MnodeEntry readMnode(ResultSet rs)
+    throws SQLException
+  {
+    long valueHash = rs.getLong(1);
+    long valueDataId = rs.getLong(2);
+    long valueDataTime = rs.getLong(3);
+    long valueLength = rs.getLong(4);
+
+    byte []cacheHash = rs.getBytes(5);
+    long flags = rs.getLong(6);
+    long itemVersion = rs.getLong(7);
+    long serverVersion = rs.getLong(8);
+    long accessedExpireTimeout = rs.getLong(9);
+    long modifiedExpireTimeout = rs.getLong(10);
+    long accessTime = rs.getLong(11);
+    long modifiedTime = rs.getLong(12);
+    // long accessTime = CurrentTime.getCurrentTime();
+
+    long leaseTimeout = 300000;
+
+    MnodeEntry entry;
+    entry = new MnodeEntry(valueHash, valueLength,
+                           itemVersion,
+                           flags,
+                           accessedExpireTimeout, modifiedExpireTimeout,
+                           leaseTimeout,
+                           valueDataId, valueDataTime,
+                           null,
+                           accessTime, modifiedTime,
+                           serverVersion == _serverVersion,
+                           false);
+
+    return entry;
+  }
+
   /**
    * Returns the maximum update time on startup
    */
@@ -1071,6 +1209,7 @@ public class MnodeStore {
     private Connection _conn;
 
     private PreparedStatement _loadStatement;
+    private PreparedStatement _loadBatchStatement;
 
     private PreparedStatement _insertStatement;
     private PreparedStatement _updateSaveStatement;
@@ -1096,6 +1235,15 @@ public class MnodeStore {
       return _loadStatement;
     }
 
+    PreparedStatement prepareLoadBatch()
+      throws SQLException
+    {
+      if (_loadBatchStatement == null)
+        _loadBatchStatement = _conn.prepareStatement(_loadBatchQuery);
+
+      return _loadBatchStatement;
+    }
+
     PreparedStatement prepareInsert()
       throws SQLException
     {
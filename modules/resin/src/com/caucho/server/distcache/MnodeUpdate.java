@@ -115,6 +115,27 @@ public class MnodeUpdate extends MnodeValue {
     _accessTime = _modifiedTime;
   }
 
+  /**
+   * Update for a newly written value, adding the value's own data flags
+   * to the cache's flags.
+   */
+  public MnodeUpdate(long valueHash,
+                     long valueLength,
+                     long version,
+                     long dataFlags,
+                     CacheConfig config)
+  {
+    super(valueHash, valueLength, version,
+          config.getFlags() | dataFlags,
+          config.getAccessedExpireTimeout(),
+          config.getModifiedExpireTimeout(),
+          config.getLeaseExpireTimeout());
+    
+    _leaseOwner = -1;
+    _modifiedTime = CurrentTime.getCurrentTime();
+    _accessTime = _modifiedTime;
+  }
+
   public MnodeUpdate(long valueHash,
                      long valueLength,
                      long version,
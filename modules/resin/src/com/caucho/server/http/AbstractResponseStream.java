@@ -263,6 +263,21 @@ public abstract class AbstractResponseStream
   abstract public void print(char []buffer, int offset, int length)
     throws IOException;
 
+  /**
+   * Writes static text which has been encoded ahead of time. Streams
+   * which encode to bytes can write the matching pre-encoded bytes
+   * directly.
+   *
+   * @param buffer the text
+   * @param utf8 the text encoded as UTF-8, or null
+   * @param latin1 the text encoded as ISO-8859-1
+   */
+  public void printStatic(char []buffer, byte []utf8, byte []latin1)
+    throws IOException
+  {
+    print(buffer, 0, buffer.length);
+  }
+
   /**
    * Clears the output buffer, including headers if possible.
    */
@@ -39,6 +39,7 @@ import java.util.logging.Logger;
 
 import com.caucho.env.meter.ActiveTimeMeter;
 import com.caucho.env.meter.AverageMeter;
+import com.caucho.env.meter.HistogramMeter;
 import com.caucho.env.meter.MeterService;
 import com.caucho.network.listen.ProtocolConnection;
 import com.caucho.network.listen.SocketLink;
@@ -81,6 +82,9 @@ public class HttpRequest extends AbstractHttpRequest
 
   private static final String REQUEST_TIME_PROBE
     = "Resin|Http|Request";
+  // not "Request Time", whose "Time Max" belongs to the active time meter
+  private static final String REQUEST_LATENCY_PROBE
+    = "Resin|Http|Request Latency";
   private static final String REQUEST_READ_BYTES_PROBE
   = "Resin|Http|Request Read Bytes";
   private static final String REQUEST_WRITE_BYTES_PROBE
@@ -113,6 +117,7 @@ public class HttpRequest extends AbstractHttpRequest
   private RawInputStream _rawInputStream = new RawInputStream();
 
   private ActiveTimeMeter _requestTimeProbe;
+  private HistogramMeter _requestTimeHistogram;
   private AverageMeter _requestReadBytesProbe;
   private AverageMeter _requestWriteBytesProbe;
 
@@ -128,6 +133,9 @@ public class HttpRequest extends AbstractHttpRequest
     _requestTimeProbe
       = MeterService.createActiveTimeMeter(REQUEST_TIME_PROBE);
 
+    _requestTimeHistogram
+      = MeterService.createHistogramMeter(REQUEST_LATENCY_PROBE);
+
     _requestReadBytesProbe
       = MeterService.createAverageMeter(REQUEST_READ_BYTES_PROBE, "");
 
@@ -885,7 +893,9 @@ public class HttpRequest extends AbstractHttpRequest
       }
 
       if (startTime > 0) {
-        _requestTimeProbe.end(startTime);
+        long requestTime = _requestTimeProbe.end(startTime);
+
+        _requestTimeHistogram.add(requestTime);
         
         long endReadBytes = getRawRead().getPosition();
         long endWriteBytes = getRawWrite().getPosition();
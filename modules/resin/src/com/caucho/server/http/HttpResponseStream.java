@@ -29,7 +29,10 @@
 
 package com.caucho.server.http;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,6 +41,7 @@ import com.caucho.server.webapp.WebApp;
 import com.caucho.util.L10N;
 import com.caucho.vfs.Path;
 import com.caucho.vfs.SendfileOutputStream;
+import com.caucho.vfs.TempBuffer;
 import com.caucho.vfs.WriteStream;
 
 public class HttpResponseStream
@@ -344,10 +348,15 @@ public class HttpResponseStream
     WebApp webApp = request.getWebApp();
 
     if (! isSendfileEnabled()
+        || length < 0
+        || isHead()
         || ! webApp.isSendfileEnabled()
         || (request.getResponseFacade().isCaching()
             && length < webApp.getSendfileMinLength())) {
-      path.writeToStream(this);
+      if (offset > 0 || length >= 0 && length != path.getLength())
+        path.writeToStream(this, offset, length);
+      else
+        path.writeToStream(this);
       return;
     }
     
@@ -397,4 +406,54 @@ public class HttpResponseStream
     
     _nextStream.writeSendfile(fileName, nameLength, fileLength);
   }
+
+  @Override
+  public void writeTransfer(FileChannel channel, long offset, long length)
+    throws IOException
+  {
+    flushBuffer();
+
+    // the headers are written by the flush, so chunking is known here,
+    // e.g. for a multipart range without a content-length
+    if (_isChunkedEncoding) {
+      writeChannel(channel, offset, length);
+      return;
+    }
+
+    _nextStream.writeTransfer(channel, offset, length);
+  }
+
+  /**
+   * Copies the file range through the response buffer.
+   */
+  private void writeChannel(FileChannel channel, long offset, long length)
+    throws IOException
+  {
+    TempBuffer tempBuffer = TempBuffer.allocate();
+
+    try {
+      byte []buffer = tempBuffer.getBuffer();
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+      while (length > 0) {
+        byteBuffer.clear();
+
+        if (length < buffer.length)
+          byteBuffer.limit((int) length);
+
+        int sublen = channel.read(byteBuffer, offset);
+
+        if (sublen <= 0)
+          throw new EOFException(L.l("{0}: unexpected end of file at {1}",
+                                     this, offset));
+
+        write(buffer, 0, sublen);
+
+        offset += sublen;
+        length -= sublen;
+      }
+    } finally {
+      TempBuffer.free(tempBuffer);
+    }
+  }
 }
@@ -39,6 +39,8 @@ import com.caucho.util.L10N;
 import com.caucho.vfs.Encoding;
 import com.caucho.vfs.TempBuffer;
 import com.caucho.vfs.i18n.EncodingWriter;
+import com.caucho.vfs.i18n.ISO8859_1Writer;
+import com.caucho.vfs.i18n.UTF8Writer;
 
 /**
  * Handles the dual char/byte buffering for the response stream.
@@ -426,6 +428,32 @@ public abstract class ToByteResponseStream extends AbstractResponseStream {
     _charLength = charLength;
   }
 
+  /**
+   * Writes pre-encoded static text, skipping the char to byte conversion
+   * when the response encoding matches.
+   */
+  @Override
+  public void printStatic(char []buffer, byte []utf8, byte []latin1)
+    throws IOException
+  {
+    if (isClosed() || isHead() || _isOutputStreamOnly)
+      return;
+
+    byte []bytes = null;
+
+    Class<?> toByteClass = _toByte.getClass();
+
+    if (toByteClass == ISO8859_1Writer.class)
+      bytes = latin1;
+    else if (toByteClass == UTF8Writer.class)
+      bytes = utf8;
+
+    if (bytes != null)
+      write(bytes, 0, bytes.length);
+    else
+      print(buffer, 0, buffer.length);
+  }
+
   /**
    * Converts the char buffer.
    */
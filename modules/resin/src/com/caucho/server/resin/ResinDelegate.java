@@ -59,6 +59,7 @@ import com.caucho.server.admin.Management;
 import com.caucho.server.admin.PrometheusMeterService;
 import com.caucho.server.admin.PrometheusStatSystem;
 import com.caucho.server.admin.StatSystem;
+import com.caucho.server.admin.TimeSeriesStatSystem;
 import com.caucho.server.cluster.ClusterPod;
 import com.caucho.server.cluster.ServletService;
 import com.caucho.server.distcache.CacheStoreManager;
@@ -226,6 +227,7 @@ public class ResinDelegate
   {
     TempFileService.createAndAddService();
     PrometheusStatSystem.createAndAddService();
+    TimeSeriesStatSystem.createAndAddService();
     
     createManagementMBean();
   }
@@ -250,7 +252,12 @@ public class ResinDelegate
 
   public StatSystem createStatSystem()
   {
-    throw new ConfigException("StatSystem is available with Resin Professional");
+    StatSystem statSystem = StatSystem.getCurrent();
+
+    if (statSystem != null)
+      return statSystem;
+
+    return TimeSeriesStatSystem.createAndAddService();
   }
 
   protected String getResinName()
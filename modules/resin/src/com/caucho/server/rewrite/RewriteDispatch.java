@@ -29,7 +29,9 @@
 
 package com.caucho.server.rewrite;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,6 +45,8 @@ import javax.servlet.ServletException;
 import com.caucho.config.ConfigException;
 import com.caucho.config.program.ConfigProgram;
 import com.caucho.config.program.ContainerProgram;
+import com.caucho.rewrite.AbstractRegexpDispatchRule;
+import com.caucho.rewrite.AbstractRewriteFilter;
 import com.caucho.rewrite.DispatchRule;
 import com.caucho.rewrite.RewriteFilter;
 import com.caucho.server.cluster.ServletService;
@@ -73,6 +77,9 @@ public class RewriteDispatch
   private ArrayList<RewriteFilter> _filterList
     = new ArrayList<RewriteFilter>();
 
+  private volatile RewriteRuleIndex _ruleIndex;
+  private volatile RewriteRuleIndex _filterIndex;
+
   private final boolean _isFiner;
   private final boolean _isFinest;
 
@@ -159,11 +166,15 @@ public class RewriteDispatch
   public void addRule(DispatchRule rule)
   {
     _ruleList.add(rule);
+
+    _ruleIndex = null;
   }
 
   public void addAction(RewriteFilter action)
   {
     _filterList.add(action);
+
+    _filterIndex = null;
   }
 
   @PostConstruct
@@ -206,9 +217,16 @@ public class RewriteDispatch
         chain = _matchRule.map(uri, queryString, chain);
       }
 
-      chain = mapChain(0, type, uri, queryString, chain);
+      RewriteRuleIndex ruleIndex = getRuleIndex();
+
+      chain = mapChain(ruleIndex, 0, type, uri, queryString, chain);
 
-      for (int i = _filterList.size() - 1; i >= 0; i--) {
+      RewriteRuleIndex filterIndex = getFilterIndex();
+      BitSet filters = filterIndex.getCandidates(uri);
+
+      for (int i = filters.previousSetBit(filterIndex.size() - 1);
+           i >= 0;
+           i = filters.previousSetBit(i - 1)) {
         chain = _filterList.get(i).map(uri, queryString, chain);
       }
 
@@ -220,7 +238,13 @@ public class RewriteDispatch
     }
   }
 
-  private FilterChain mapChain(int index,
+  /**
+   * Maps the rules starting at index. Rules which the rule index shows
+   * can't match the uri are skipped, since their rewriteUri and map
+   * return the uri and next chain unchanged.
+   */
+  private FilterChain mapChain(RewriteRuleIndex ruleIndex,
+                               int index,
                                DispatcherType type,
                                String uri, String queryString,
                                FilterChain chain)
@@ -228,29 +252,43 @@ public class RewriteDispatch
   {
     FilterChain next = chain;
     
-    int size = _ruleList.size();
+    int size = ruleIndex.size();
     
     if (size <= index)
       return next;
+
+    BitSet candidates = ruleIndex.getCandidates(uri);
     
-    DispatchRule firstRule = _ruleList.get(index);
+    if (candidates.get(index)) {
+      DispatchRule firstRule = _ruleList.get(index);
     
-    uri = firstRule.rewriteUri(uri, queryString);
+      String newUri = firstRule.rewriteUri(uri, queryString);
+
+      if (newUri != uri) {
+        uri = newUri;
+        candidates = ruleIndex.getCandidates(uri);
+      }
+    }
 
     // scan unless the URI is rewritten, then force recursion 
-    int tail = index + 1;
-    for (; tail < size; tail++) {
-      DispatchRule uriRule = _ruleList.get(tail);
+    int tail = size;
+    for (int i = candidates.nextSetBit(index + 1);
+         0 <= i && i < size;
+         i = candidates.nextSetBit(i + 1)) {
+      DispatchRule uriRule = _ruleList.get(i);
       
       String newUri = uriRule.rewriteUri(uri, queryString);
       
       if (newUri != uri) {
-        next = mapChain(tail, type, uri, queryString, chain);
+        tail = i;
+        next = mapChain(ruleIndex, tail, type, uri, queryString, chain);
         break;
       }
     }
 
-    for (int i = tail - 1; index <= i; i--) {
+    for (int i = candidates.previousSetBit(tail - 1);
+         index <= i;
+         i = candidates.previousSetBit(i - 1)) {
       DispatchRule rule = _ruleList.get(i);
     
       next = rule.map(type, uri, queryString, next, chain);
@@ -259,6 +297,101 @@ public class RewriteDispatch
     return next;
   }
 
+  private RewriteRuleIndex getRuleIndex()
+  {
+    RewriteRuleIndex index = _ruleIndex;
+
+    if (index == null) {
+      DispatchRule []rules = new DispatchRule[_ruleList.size()];
+      _ruleList.toArray(rules);
+
+      Pattern []regexps = new Pattern[rules.length];
+
+      for (int i = 0; i < rules.length; i++) {
+        if (isIndexable(rules[i]))
+          regexps[i] = ((AbstractRegexpDispatchRule) rules[i]).getRegexp();
+      }
+
+      index = new RewriteRuleIndex(regexps);
+      _ruleIndex = index;
+    }
+
+    return index;
+  }
+
+  private RewriteRuleIndex getFilterIndex()
+  {
+    RewriteRuleIndex index = _filterIndex;
+
+    if (index == null) {
+      RewriteFilter []filters = new RewriteFilter[_filterList.size()];
+      _filterList.toArray(filters);
+
+      Pattern []regexps = new Pattern[filters.length];
+
+      for (int i = 0; i < filters.length; i++) {
+        if (isIndexable(filters[i]))
+          regexps[i] = ((AbstractRewriteFilter) filters[i]).getRegexp();
+      }
+
+      index = new RewriteRuleIndex(regexps);
+      _filterIndex = index;
+    }
+
+    return index;
+  }
+
+  /**
+   * A rule can be skipped only if its regexp is the only test before
+   * it changes the uri or the chain, i.e. if it uses the stock
+   * map and rewriteUri.
+   */
+  private static boolean isIndexable(DispatchRule rule)
+  {
+    if (! (rule instanceof AbstractRegexpDispatchRule))
+      return false;
+
+    try {
+      Class<?> cl = rule.getClass();
+
+      Method map = cl.getMethod("map", DispatcherType.class,
+                                String.class, String.class,
+                                FilterChain.class, FilterChain.class);
+      Method rewriteUri = cl.getMethod("rewriteUri",
+                                       String.class, String.class);
+
+      return (isRewritePackage(map.getDeclaringClass())
+              && isRewritePackage(rewriteUri.getDeclaringClass()));
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  private static boolean isIndexable(RewriteFilter filter)
+  {
+    if (! (filter instanceof AbstractRewriteFilter))
+      return false;
+
+    try {
+      Method map = filter.getClass().getMethod("map", String.class,
+                                               String.class,
+                                               FilterChain.class);
+
+      return isRewritePackage(map.getDeclaringClass());
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  private static boolean isRewritePackage(Class<?> cl)
+  {
+    return cl.getName().startsWith("com.caucho.rewrite.");
+  }
+
   public void clearCache()
   {
     if (_webApp != null)
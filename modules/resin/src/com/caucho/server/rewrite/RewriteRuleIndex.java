@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.rewrite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the rewrite rules whose regexps can match a uri in one pass.
+ *
+ * Each regexp's leading literal is required for a match. Anchored
+ * literals, like "^/old/", are stored in a prefix trie. Unanchored
+ * literals, like "/legacy", are stored in an Aho-Corasick automaton.
+ * Rules whose regexps have no usable literal are always candidates.
+ * The candidates are still matched by their own regexps, so rule order
+ * and predicate semantics are unchanged.
+ */
+final class RewriteRuleIndex {
+  private final int _size;
+  private final BitSet _always = new BitSet();
+
+  private final Node _prefixRoot = new Node();
+  private final Node _containsRoot = new Node();
+  private boolean _hasContains;
+
+  /**
+   * @param regexps the rule regexps in order, null when a rule must
+   *   always be evaluated.
+   */
+  RewriteRuleIndex(Pattern []regexps)
+  {
+    _size = regexps.length;
+
+    for (int i = 0; i < regexps.length; i++) {
+      Pattern regexp = regexps[i];
+      String pattern = regexp != null ? regexp.pattern() : null;
+
+      if (pattern == null || regexp.flags() != 0) {
+        _always.set(i);
+        continue;
+      }
+
+      boolean isAnchored = pattern.startsWith("^");
+      String literal = getLiteralPrefix(pattern, isAnchored ? 1 : 0);
+
+      if (literal == null || literal.length() == 0)
+        _always.set(i);
+      else if (isAnchored)
+        _prefixRoot.create(literal).addRule(i);
+      else {
+        _containsRoot.create(literal).addRule(i);
+        _hasContains = true;
+      }
+    }
+
+    if (_hasContains)
+      buildFailLinks();
+  }
+
+  /**
+   * Returns the rules which might match the uri.
+   */
+  BitSet getCandidates(String uri)
+  {
+    BitSet candidates = (BitSet) _always.clone();
+
+    int length = uri.length();
+
+    Node node = _prefixRoot;
+    for (int i = 0; i < length && node != null; i++) {
+      node = node.get(uri.charAt(i));
+
+      if (node != null)
+        node.setRules(candidates);
+    }
+
+    if (_hasContains) {
+      node = _containsRoot;
+
+      for (int i = 0; i < length; i++) {
+        char ch = uri.charAt(i);
+
+        Node next;
+        while ((next = node.get(ch)) == null && node != _containsRoot)
+          node = node._fail;
+
+        if (next != null)
+          node = next;
+
+        node.setOutputRules(candidates);
+      }
+    }
+
+    return candidates;
+  }
+
+  int size()
+  {
+    return _size;
+  }
+
+  /**
+   * Returns the literal which must start the regexp's match, or null
+   * if the regexp can't be analyzed. Alternations and quantified
+   * characters end or disqualify the literal.
+   */
+  static String getLiteralPrefix(String pattern, int offset)
+  {
+    if (pattern.indexOf('|') >= 0)
+      return null;
+
+    StringBuilder sb = new StringBuilder();
+    int length = pattern.length();
+
+    for (int i = offset; i < length; i++) {
+      char ch = pattern.charAt(i);
+
+      switch (ch) {
+      case '\\':
+        if (i + 1 < length && ! Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+          sb.append(pattern.charAt(++i));
+          break;
+        }
+        return sb.toString();
+
+      case '?': case '*': case '{':
+        // the previous character is optional
+        if (sb.length() > 0)
+          sb.setLength(sb.length() - 1);
+        return sb.toString();
+
+      case '+':
+        return sb.toString();
+
+      case '.': case '[': case ']': case '(': case ')':
+      case '^': case '$': case '}':
+        return sb.toString();
+
+      default:
+        sb.append(ch);
+        break;
+      }
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Builds the Aho-Corasick failure links and merges each node's
+   * output with its failure node's output.
+   */
+  private void buildFailLinks()
+  {
+    ArrayList<Node> queue = new ArrayList<Node>();
+
+    Node root = _containsRoot;
+    root._fail = root;
+
+    for (Node child : root.getChildren()) {
+      child._fail = root;
+      queue.add(child);
+    }
+
+    for (int head = 0; head < queue.size(); head++) {
+      Node node = queue.get(head);
+
+      for (int i = 0; i < node._size; i++) {
+        char ch = node._chars[i];
+        Node child = node._children[i];
+
+        Node fail = node._fail;
+        Node target;
+
+        while ((target = fail.get(ch)) == null && fail != root)
+          fail = fail._fail;
+
+        child._fail = target != null && target != child ? target : root;
+        child._output = merge(child._rules, child._fail._output);
+
+        queue.add(child);
+      }
+    }
+  }
+
+  private static int []merge(int []a, int []b)
+  {
+    if (a == null)
+      return b;
+    else if (b == null)
+      return a;
+
+    int []result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+
+    return result;
+  }
+
+  /**
+   * A character trie node, shared by the prefix trie and the automaton.
+   */
+  static final class Node {
+    private char []_chars = new char[0];
+    private Node []_children = new Node[0];
+    private int _size;
+
+    private int []_rules;
+    private int []_output;
+    private Node _fail;
+
+    Node get(char ch)
+    {
+      char []chars = _chars;
+      int size = _size;
+
+      if (size < 8) {
+        for (int i = 0; i < size; i++) {
+          if (chars[i] == ch)
+            return _children[i];
+        }
+
+        return null;
+      }
+
+      int i = Arrays.binarySearch(chars, 0, size, ch);
+
+      return i >= 0 ? _children[i] : null;
+    }
+
+    Node create(String literal)
+    {
+      Node node = this;
+
+      for (int i = 0; i < literal.length(); i++) {
+        char ch = literal.charAt(i);
+        Node child = node.get(ch);
+
+        if (child == null)
+          child = node.add(ch);
+
+        node = child;
+      }
+
+      return node;
+    }
+
+    private Node add(char ch)
+    {
+      int i = Arrays.binarySearch(_chars, 0, _size, ch);
+      int index = -(i + 1);
+
+      if (_chars.length <= _size) {
+        _chars = Arrays.copyOf(_chars, _size + 4);
+        _children = Arrays.copyOf(_children, _size + 4);
+      }
+
+      System.arraycopy(_chars, index, _chars, index + 1, _size - index);
+      System.arraycopy(_children, index, _children, index + 1, _size - index);
+
+      Node child = new Node();
+      _chars[index] = ch;
+      _children[index] = child;
+      _size++;
+
+      return child;
+    }
+
+    Node []getChildren()
+    {
+      return Arrays.copyOf(_children, _size);
+    }
+
+    void addRule(int rule)
+    {
+      if (_rules == null)
+        _rules = new int[] { rule };
+      else {
+        _rules = Arrays.copyOf(_rules, _rules.length + 1);
+        _rules[_rules.length - 1] = rule;
+      }
+
+      _output = _rules;
+    }
+
+    void setRules(BitSet candidates)
+    {
+      int []rules = _rules;
+
+      if (rules != null) {
+        for (int rule : rules)
+          candidates.set(rule);
+      }
+    }
+
+    void setOutputRules(BitSet candidates)
+    {
+      int []rules = _output;
+
+      if (rules != null) {
+        for (int rule : rules)
+          candidates.set(rule);
+      }
+    }
+  }
+}
@@ -186,6 +186,7 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
   private boolean _isHessianSerialization = false;
   private SerializerFactory _hessianFactory;
   private boolean _isSerializeCollectionType = true;
+  private String _compression;
 
   // List of the HttpSessionListeners from the configuration file
   private ArrayList<HttpSessionListener> _listeners;
@@ -558,6 +559,15 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
     _isSerializeCollectionType = isEnable;
   }
 
+  /**
+   * Sets the compression of the persistent session data: "none",
+   * "lzf" or "deflate".
+   */
+  public void setCompression(String compression)
+  {
+    _compression = compression;
+  }
+
   /**
    * Returns true for Hessian serialization.
    */
@@ -1214,6 +1224,9 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
       // server/0b12
       cacheBuilder.setLocalExpireTimeoutMillis(100);
       
+      if (_compression != null)
+        cacheBuilder.setCompression(_compression);
+      
       PersistentStoreConfig persistConfig = PersistentStoreConfig.getCurrent();
       
       if (persistConfig != null) {
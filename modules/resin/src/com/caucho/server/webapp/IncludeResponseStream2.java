@@ -159,6 +159,16 @@ public class IncludeResponseStream2 extends ToByteResponseStream {
     return _cacheWriter;
   }
 
+  /**
+   * Static text is passed to the parent writer as chars.
+   */
+  @Override
+  public void printStatic(char []buffer, byte []utf8, byte []latin1)
+    throws IOException
+  {
+    print(buffer, 0, buffer.length);
+  }
+
   /**
    * Converts the char buffer.
    */
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.servlets;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded memory cache for the contents of small, frequently requested
+ * static files. Entries are validated against the file's etag, so a
+ * modified file is never served from memory.
+ */
+final class FileMemoryCache {
+  private final LinkedHashMap<String,Entry> _entryMap
+    = new LinkedHashMap<String,Entry>(64, 0.75f, true);
+
+  private final long _maxSize;
+  private long _size;
+
+  FileMemoryCache(long maxSize)
+  {
+    _maxSize = maxSize;
+  }
+
+  /**
+   * Returns the cached bytes if the entry matches the etag.
+   */
+  synchronized byte []get(String key, String etag)
+  {
+    Entry entry = _entryMap.get(key);
+
+    if (entry == null)
+      return null;
+    else if (entry.getEtag().equals(etag))
+      return entry.getData();
+
+    // stale
+    _entryMap.remove(key);
+    _size -= entry.getData().length;
+
+    return null;
+  }
+
+  synchronized void put(String key, String etag, byte []data)
+  {
+    if (_maxSize < data.length)
+      return;
+
+    Entry oldEntry = _entryMap.put(key, new Entry(etag, data));
+
+    if (oldEntry != null)
+      _size -= oldEntry.getData().length;
+
+    _size += data.length;
+
+    Iterator<Entry> iter = _entryMap.values().iterator();
+
+    while (_maxSize < _size && iter.hasNext()) {
+      Entry entry = iter.next();
+
+      iter.remove();
+      _size -= entry.getData().length;
+    }
+  }
+
+  synchronized long getSize()
+  {
+    return _size;
+  }
+
+  synchronized void clear()
+  {
+    _entryMap.clear();
+    _size = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _size + "/" + _maxSize + "]";
+  }
+
+  private static final class Entry {
+    private final String _etag;
+    private final byte []_data;
+
+    Entry(String etag, byte []data)
+    {
+      _etag = etag;
+      _data = data;
+    }
+
+    String getEtag()
+    {
+      return _etag;
+    }
+
+    byte []getData()
+    {
+      return _data;
+    }
+  }
+}
@@ -29,14 +29,17 @@
 
 package com.caucho.servlets;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.GenericServlet;
 import javax.servlet.RequestDispatcher;
@@ -49,7 +52,9 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.caucho.config.types.Bytes;
 import com.caucho.env.service.ResinSystem;
+import com.caucho.env.thread.ThreadPool;
 import com.caucho.loader.EnvironmentLocal;
 import com.caucho.server.http.CauchoRequest;
 import com.caucho.server.http.CauchoResponse;
@@ -59,6 +64,7 @@ import com.caucho.server.webapp.WebApp;
 import com.caucho.util.Base64;
 import com.caucho.util.CharBuffer;
 import com.caucho.util.Crc64;
+import com.caucho.util.CurrentTime;
 import com.caucho.util.Html;
 import com.caucho.util.L10N;
 import com.caucho.util.LruCache;
@@ -79,6 +85,12 @@ public class FileServlet extends GenericServlet {
   private static final Logger log
     = Logger.getLogger(FileServlet.class.getName());
 
+  // precompressed variants in preference order, served from sibling files
+  private static final String []ENCODINGS = new String[] { "br", "gzip" };
+  private static final String []ENCODING_SUFFIXES
+    = new String[] { ".br", ".gz" };
+  private static final int GZIP_INDEX = 1;
+
   private static final EnvironmentLocal<LruCache<String,Cache>> _pathCacheLocal
     = new EnvironmentLocal<LruCache<String,Cache>>();
 
@@ -97,6 +109,16 @@ public class FileServlet extends GenericServlet {
   private String _characterEncoding;
   private String _defaultContentType;
 
+  private boolean _isPrecompressed = true;
+  private boolean _isGenerateGzip;
+
+  private long _memoryCacheSize = 16 * 1024 * 1024L;
+  private long _memoryCacheMaxLength = 64 * 1024L;
+  private FileMemoryCache _memoryCache;
+
+  private final ConcurrentHashMap<String,Boolean> _gzipPendingMap
+    = new ConcurrentHashMap<String,Boolean>();
+
   public FileServlet()
   {
     ResinSystem resin = ResinSystem.getCurrent();
@@ -143,6 +165,40 @@ public class FileServlet extends GenericServlet {
     _isGenerateSession = isGenerateSession;
   }
 
+  /**
+   * Flag to serve precompressed foo.css.br or foo.css.gz files
+   * when the browser accepts the encoding.
+   */
+  public void setPrecompressed(boolean isPrecompressed)
+  {
+    _isPrecompressed = isPrecompressed;
+  }
+
+  /**
+   * Flag to gzip small text files in the background, keeping the
+   * compressed bytes in the memory cache.
+   */
+  public void setGenerateGzip(boolean isGenerateGzip)
+  {
+    _isGenerateGzip = isGenerateGzip;
+  }
+
+  /**
+   * Sets the total size of the memory cache for hot files, 0 to disable.
+   */
+  public void setMemoryCacheSize(Bytes size)
+  {
+    _memoryCacheSize = size.getBytes();
+  }
+
+  /**
+   * Sets the largest file kept in the memory cache.
+   */
+  public void setMemoryCacheMaxLength(Bytes length)
+  {
+    _memoryCacheMaxLength = length.getBytes();
+  }
+
   /**
    * Clears the cache
    */
@@ -188,6 +244,25 @@ public class FileServlet extends GenericServlet {
     if (contentType != null && ! "".equals(contentType)) {
       _defaultContentType = contentType;
     }
+
+    String precompressed = getInitParameter("precompressed");
+    if (precompressed != null)
+      _isPrecompressed = ! precompressed.equals("false");
+
+    String generateGzip = getInitParameter("generate-gzip");
+    if (generateGzip != null)
+      _isGenerateGzip = generateGzip.equals("true");
+
+    String memoryCacheSize = getInitParameter("memory-cache-size");
+    if (memoryCacheSize != null && ! "".equals(memoryCacheSize))
+      _memoryCacheSize = Bytes.toBytes(memoryCacheSize);
+
+    String memoryCacheMaxLength = getInitParameter("memory-cache-max-length");
+    if (memoryCacheMaxLength != null && ! "".equals(memoryCacheMaxLength))
+      _memoryCacheMaxLength = Bytes.toBytes(memoryCacheMaxLength);
+
+    if (_memoryCacheSize > 0 && _memoryCacheMaxLength > 0)
+      _memoryCache = new FileMemoryCache(_memoryCacheSize);
   }
 
   @Override
@@ -383,8 +458,63 @@ public class FileServlet extends GenericServlet {
       return;
     }
 
-    String ifMatch = req.getHeader("If-None-Match");
+    String range = _isEnableRange ? req.getHeader("Range") : null;
+    String mime = cache.getMimeType();
+
+    // the content is the file itself or one of its compressed variants
+    Cache content = cache;
+    String contentEncoding = null;
     String etag = cache.getEtag();
+    byte []data = null;
+    boolean isVary = false;
+
+    if (! isInclude && (_isPrecompressed || _isGenerateGzip)) {
+      // byte ranges are always served from the uncompressed file
+      String acceptEncoding = null;
+
+      if (range == null)
+        acceptEncoding = req.getHeader("Accept-Encoding");
+
+      if (_isPrecompressed && cache.hasVariant()) {
+        isVary = true;
+
+        for (int i = 0; acceptEncoding != null && i < ENCODINGS.length; i++) {
+          Cache variant = cache.getVariant(i);
+
+          if (variant != null
+              && isAcceptEncoding(acceptEncoding, ENCODINGS[i])) {
+            content = variant;
+            contentEncoding = ENCODINGS[i];
+            etag = variant.getEtag();
+            break;
+          }
+        }
+      }
+
+      if (contentEncoding == null && isGenerateGzip(cache, mime)) {
+        isVary = true;
+
+        if (acceptEncoding != null
+            && isAcceptEncoding(acceptEncoding, ENCODINGS[GZIP_INDEX])) {
+          String gzipEtag = getEncodingEtag(etag, ENCODINGS[GZIP_INDEX]);
+
+          data = _memoryCache.get(getGzipKey(cache), gzipEtag);
+
+          if (data != null) {
+            contentEncoding = ENCODINGS[GZIP_INDEX];
+            etag = gzipEtag;
+          }
+          else {
+            generateGzip(cache);
+          }
+        }
+      }
+    }
+
+    if (isVary)
+      res.addHeader("Vary", "Accept-Encoding");
+
+    String ifMatch = req.getHeader("If-None-Match");
 
     if (ifMatch != null && ifMatch.equals(etag)) {
       res.addHeader("ETag", etag);
@@ -437,8 +567,6 @@ public class FileServlet extends GenericServlet {
     if (_isEnableRange && cauchoReq != null && cauchoReq.isTop()) {
       res.addHeader("Accept-Ranges", "bytes");
     }
-    
-    String mime = cache.getMimeType();
 
     if (_characterEncoding != null && isText(mime)) {
       res.setCharacterEncoding(_characterEncoding);
@@ -451,48 +579,257 @@ public class FileServlet extends GenericServlet {
       res.setContentType(_defaultContentType);
     }
 
+    if (contentEncoding != null) {
+      res.setHeader("Content-Encoding", contentEncoding);
+    }
+
+    long length = data != null ? data.length : content.getLength();
+
     if (method.equalsIgnoreCase("HEAD")) {
       if (res instanceof CauchoResponse) {
         CauchoResponse cRes = (CauchoResponse) res;
-        cRes.setContentLength(cache.getLength());
+        cRes.setContentLength(length);
       }
-      else if (cache.getLength() <= Integer.MAX_VALUE) {
-        res.setContentLength((int) cache.getLength());
+      else if (length <= Integer.MAX_VALUE) {
+        res.setContentLength((int) length);
       }
       return;
     }
 
-    if (_isEnableRange) {
-      String range = req.getHeader("Range");
+    if (range != null) {
+      String ifRange = req.getHeader("If-Range");
 
-      if (range != null) {
-        String ifRange = req.getHeader("If-Range");
+      if (ifRange != null && ! ifRange.equals(etag)) {
+      }
+      else if (handleRange(req, res, cache, range, mime))
+        return;
+    }
 
-        if (ifRange != null && ! ifRange.equals(etag)) {
-        }
-        else if (handleRange(req, res, cache, range, mime))
-          return;
+    if (data == null
+        && _memoryCache != null
+        && 0 < length && length <= _memoryCacheMaxLength) {
+      data = getMemoryData(content, etag);
+    }
+
+    if (data != null) {
+      if (res instanceof CauchoResponse) {
+        CauchoResponse cRes = (CauchoResponse) res;
+
+        cRes.setContentLength(data.length);
       }
+      else {
+        res.setContentLength(data.length);
+      }
+
+      res.getOutputStream().write(data, 0, data.length);
     }
-    
-    if (res instanceof CauchoResponse) {
+    else if (res instanceof CauchoResponse) {
       CauchoResponse cRes = (CauchoResponse) res;
 
-      cRes.setContentLength(cache.getLength());
+      cRes.setContentLength(length);
 
-      cRes.getResponseStream().sendFile(cache.getPath(),
+      cRes.getResponseStream().sendFile(content.getPath(),
                                         0,
-                                        cache.getLength());
+                                        length);
     }
     else {
-      long length = cache.getLength();
-
       if (length >= 0 && length < Integer.MAX_VALUE) {
         res.setContentLength((int) length);
       }
 
       OutputStream os = res.getOutputStream();
-      cache.getPath().writeToStream(os);
+      content.getPath().writeToStream(os);
+    }
+  }
+
+  /**
+   * Returns the bytes of a hot file from the memory cache, loading
+   * them on the file's second request.
+   */
+  private byte []getMemoryData(Cache content, String etag)
+  {
+    Path path = content.getPath();
+    String key = path.getURL();
+
+    byte []data = _memoryCache.get(key, etag);
+
+    if (data != null || content.addHit() < 2)
+      return data;
+
+    try {
+      data = readData(path, content.getLength());
+
+      if (data != null)
+        _memoryCache.put(key, etag, data);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    return data;
+  }
+
+  private static byte []readData(Path path, long length)
+    throws IOException
+  {
+    byte []data = new byte[(int) length];
+
+    ReadStream is = path.openRead();
+
+    try {
+      int readLength = is.readAll(data, 0, data.length);
+
+      if (readLength != data.length || is.read() >= 0)
+        return null;
+    } finally {
+      is.close();
+    }
+
+    return data;
+  }
+
+  private boolean isGenerateGzip(Cache cache, String mime)
+  {
+    return (_isGenerateGzip
+            && _memoryCache != null
+            && 0 < cache.getLength()
+            && cache.getLength() <= _memoryCacheMaxLength
+            && ! cache.isGzipUnused()
+            && isCompressible(mime));
+  }
+
+  private static String getGzipKey(Cache cache)
+  {
+    return cache.getPath().getURL() + ENCODING_SUFFIXES[GZIP_INDEX];
+  }
+
+  /**
+   * Gzips the file in the background into the memory cache. The
+   * uncompressed file is served until the compressed bytes are ready.
+   */
+  private void generateGzip(final Cache cache)
+  {
+    final String key = getGzipKey(cache);
+
+    if (_gzipPendingMap.putIfAbsent(key, Boolean.TRUE) != null)
+      return;
+
+    Runnable task = new Runnable() {
+      @Override
+      public void run()
+      {
+        try {
+          byte []data = readData(cache.getPath(), cache.getLength());
+
+          if (data == null)
+            return;
+
+          ByteArrayOutputStream bos
+            = new ByteArrayOutputStream(data.length / 2 + 64);
+
+          GZIPOutputStream gzip = new GZIPOutputStream(bos);
+          gzip.write(data, 0, data.length);
+          gzip.close();
+
+          byte []gzipData = bos.toByteArray();
+
+          // already compressed content, e.g. a font
+          if (data.length <= gzipData.length) {
+            cache.setGzipUnused();
+            return;
+          }
+
+          String etag = getEncodingEtag(cache.getEtag(),
+                                        ENCODINGS[GZIP_INDEX]);
+
+          _memoryCache.put(key, etag, gzipData);
+        } catch (IOException e) {
+          log.log(Level.FINER, e.toString(), e);
+        } finally {
+          _gzipPendingMap.remove(key);
+        }
+      }
+    };
+
+    if (! ThreadPool.getCurrent().schedule(task))
+      _gzipPendingMap.remove(key);
+  }
+
+  /**
+   * Returns true if the Accept-Encoding header allows the encoding,
+   * i.e. it's listed or matched by '*' without a q=0.
+   */
+  static boolean isAcceptEncoding(String acceptEncoding, String encoding)
+  {
+    int length = acceptEncoding.length();
+    int i = 0;
+
+    boolean isWildcard = false;
+
+    while (i < length) {
+      int tail = acceptEncoding.indexOf(',', i);
+
+      if (tail < 0)
+        tail = length;
+
+      String item = acceptEncoding.substring(i, tail);
+      i = tail + 1;
+
+      int p = item.indexOf(';');
+      String name = (p < 0 ? item : item.substring(0, p)).trim();
+
+      boolean isAccept = p < 0 || ! isZeroQuality(item.substring(p + 1));
+
+      if (name.equalsIgnoreCase(encoding))
+        return isAccept;
+      else if (name.equals("*"))
+        isWildcard = isAccept;
+    }
+
+    return isWildcard;
+  }
+
+  private static boolean isZeroQuality(String params)
+  {
+    int p = params.indexOf("q=");
+
+    if (p < 0)
+      return false;
+
+    int tail = params.indexOf(';', p);
+
+    if (tail < 0)
+      tail = params.length();
+
+    try {
+      return Double.parseDouble(params.substring(p + 2, tail).trim()) <= 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the etag for an encoded variant, e.g. "abc-gzip".
+   */
+  static String getEncodingEtag(String etag, String encoding)
+  {
+    if (etag.endsWith("\""))
+      return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    else
+      return etag + "-" + encoding;
+  }
+
+  private boolean isCompressible(String contentType)
+  {
+    if (contentType == null) {
+      return false;
+    }
+    else if (isText(contentType)) {
+      return true;
+    }
+    else {
+      return (contentType.indexOf("javascript") >= 0
+              || contentType.indexOf("xml") >= 0
+              || contentType.indexOf("json") >= 0);
     }
   }
   
@@ -724,6 +1061,17 @@ public class FileServlet extends GenericServlet {
         res.addHeader("Content-Range", chunkRange);
       }
 
+      if (res instanceof CauchoResponse) {
+        CauchoResponse cRes = (CauchoResponse) res;
+
+        // the multipart headers are already in the response buffer,
+        // which sendFile flushes before the range
+        cRes.getResponseStream().sendFile(cache.getPath(),
+                                          first,
+                                          last - first + 1);
+        continue;
+      }
+
       ReadStream is = null;
       try {
         is = cache.getPath().openRead();
@@ -758,6 +1106,9 @@ public class FileServlet extends GenericServlet {
   }
 
   static class Cache {
+    // interval to recheck for new or removed compressed variants
+    private static final long VARIANT_CHECK_INTERVAL = 2000L;
+
     private Path _path;
     private Path _jarPath;
     private Path _pathResolved;
@@ -769,13 +1120,27 @@ public class FileServlet extends GenericServlet {
     private String _etag;
     private String _lastModifiedString;
     private String _mimeType;
+    private String _encoding;
+
+    private volatile Cache []_variants;
+    private volatile long _variantCheckTime;
+
+    private volatile int _hitCount;
+    private volatile boolean _isGzipUnused;
 
     Cache(Path path, Path jarPath, String relPath, String mimeType)
+    {
+      this(path, jarPath, relPath, mimeType, null);
+    }
+
+    Cache(Path path, Path jarPath, String relPath, String mimeType,
+          String encoding)
     {
       _path = path;
       _jarPath = jarPath;
       _relPath = relPath;
       _mimeType = mimeType;
+      _encoding = encoding;
 
       fillData();
     }
@@ -835,6 +1200,89 @@ public class FileServlet extends GenericServlet {
       return _mimeType;
     }
 
+    /**
+     * Counts a request, used to find the hot files for the memory cache.
+     */
+    int addHit()
+    {
+      int hitCount = _hitCount + 1;
+
+      _hitCount = hitCount;
+
+      return hitCount;
+    }
+
+    boolean isGzipUnused()
+    {
+      return _isGzipUnused;
+    }
+
+    void setGzipUnused()
+    {
+      _isGzipUnused = true;
+    }
+
+    boolean hasVariant()
+    {
+      for (Cache variant : getVariants()) {
+        if (variant != null)
+          return true;
+      }
+
+      return false;
+    }
+
+    Cache getVariant(int index)
+    {
+      return getVariants()[index];
+    }
+
+    /**
+     * Returns the compressed variants, e.g. foo.css.gz, which are
+     * used only when they're at least as new as the file itself.
+     */
+    private Cache []getVariants()
+    {
+      Cache []variants = _variants;
+      long now = CurrentTime.getCurrentTime();
+
+      if (variants != null && now < _variantCheckTime + VARIANT_CHECK_INTERVAL)
+        return variants;
+
+      Cache []newVariants = new Cache[ENCODINGS.length];
+
+      // jar resources and the variants themselves have no variants
+      if (_encoding == null && _path == _pathResolved && _canRead) {
+        Path parent = _path.getParent();
+        String tail = _path.getTail();
+
+        for (int i = 0; i < ENCODINGS.length; i++) {
+          Cache variant = variants != null ? variants[i] : null;
+
+          if (variant != null && ! variant.isModified() && variant.canRead()) {
+            newVariants[i] = variant;
+            continue;
+          }
+
+          Path variantPath = parent.lookup(tail + ENCODING_SUFFIXES[i]);
+
+          if (variantPath.canRead()
+              && ! variantPath.isDirectory()
+              && _lastModified <= variantPath.getLastModified()) {
+            newVariants[i] = new Cache(variantPath, null,
+                                       _relPath + ENCODING_SUFFIXES[i],
+                                       _mimeType,
+                                       ENCODINGS[i]);
+          }
+        }
+      }
+
+      _variants = newVariants;
+      _variantCheckTime = now;
+
+      return newVariants;
+    }
+
     boolean isModified()
     {
       long lastModified = _pathResolved.getLastModified();
@@ -874,6 +1322,10 @@ public class FileServlet extends GenericServlet {
       sb.append('"');
       _etag = sb.toString();
 
+      if (_encoding != null) {
+        _etag = getEncodingEtag(_etag, _encoding);
+      }
+
       QDate cal = QDate.allocateGmtDate();
 
       cal.setGMTTime(lastModified);
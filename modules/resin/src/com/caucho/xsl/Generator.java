@@ -182,6 +182,7 @@ abstract class Generator {
   protected int _destLine = 1;
   boolean _defaultCacheable = true;
   boolean _isCacheable;
+  boolean _isStreamable = true;
   protected String _encoding;
 
   HashMap<String,ArrayList<Template>> _templates = new HashMap<String,ArrayList<Template>>();
@@ -930,9 +931,64 @@ abstract class Generator {
 
   public void addKey(String name, AbstractPattern match, Expr use)
   {
+    setNotStreamable("xsl:key");
+    
     _keyFun.add(name, match, use);
   }
 
+  /**
+   * Returns true if the stylesheet only needs a single forward pass over
+   * the source document, so it can transform a streamed document.
+   */
+  public boolean isStreamable()
+  {
+    return _isStreamable && _strip.isEmpty();
+  }
+
+  /**
+   * Marks the stylesheet as needing the complete source document.
+   */
+  public void setNotStreamable(String reason)
+  {
+    if (_isStreamable && log.isLoggable(Level.FINER))
+      log.finer(L.l("{0} is not streamable because of {1}", _context, reason));
+
+    _isStreamable = false;
+  }
+
+  /**
+   * Checks an XPath expression for constructs that need more than a
+   * forward pass over the source document.
+   *
+   * @param expr the expression or pattern
+   * @param isMatch true for match patterns
+   * @param isRootTemplate true for expressions in the "/" template
+   * @param isGlobal true for global variables and parameters
+   *
+   * @return true if the expression reads its context node's children
+   */
+  public boolean checkStreamable(String expr,
+                                 boolean isMatch,
+                                 boolean isRootTemplate,
+                                 boolean isGlobal)
+  {
+    if (! _isStreamable || expr == null)
+      return false;
+
+    StreamableScanner scanner
+      = new StreamableScanner(expr, isMatch, isRootTemplate, isGlobal);
+
+    String reason = scanner.scan();
+
+    if (reason != null) {
+      setNotStreamable(reason);
+
+      return false;
+    }
+
+    return ! isMatch && scanner.isChildSelection();
+  }
+
   void generateLocale(Element element)
     throws Exception
   {
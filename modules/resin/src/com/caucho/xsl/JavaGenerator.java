@@ -2696,6 +2696,9 @@ public class JavaGenerator extends Generator {
     if (_isRawText)
       println("_defaultDisableEscaping = true;");
 
+    if (isStreamable())
+      println("setStreamable(true);");
+
     printNamespaces();
     printFunctions();
     printSorts();
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 1998-2018 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+package com.caucho.xsl;
+
+import com.caucho.util.L10N;
+
+/**
+ * Scans an XPath expression for constructs that need more than a
+ * single forward pass over the source document.
+ *
+ * The scan is lexical and conservative: anything it cannot prove to be
+ * forward-only makes the stylesheet non-streamable.
+ */
+final class StreamableScanner {
+  private static final L10N L = new L10N(StreamableScanner.class);
+
+  private final String _expr;
+  private final boolean _isMatch;
+  private final boolean _isRootTemplate;
+  private final boolean _isGlobal;
+
+  private int _index;
+
+  // true if the expression reads the context node's children
+  private boolean _isChildSelection;
+
+  /**
+   * @param expr the XPath expression or pattern
+   * @param isMatch true for a match pattern, which only tests a node
+   * @param isRootTemplate true inside the template matching "/"
+   * @param isGlobal true for a global variable or parameter
+   */
+  StreamableScanner(String expr,
+                    boolean isMatch,
+                    boolean isRootTemplate,
+                    boolean isGlobal)
+  {
+    _expr = expr;
+    _isMatch = isMatch;
+    _isRootTemplate = isRootTemplate;
+    _isGlobal = isGlobal;
+  }
+
+  /**
+   * Returns true if the scanned expression reads the children or the
+   * string value of its context node. Two such expressions in the same
+   * context would traverse the same children twice.
+   */
+  boolean isChildSelection()
+  {
+    return _isChildSelection;
+  }
+
+  /**
+   * Returns the reason the expression is not streamable, or null.
+   */
+  String scan()
+  {
+    String expr = _expr;
+    int length = expr.length();
+    // true when the previous token ends an operand
+    boolean isValue = false;
+    // false after '@' or an attribute, namespace or self axis
+    boolean isChildStep = true;
+
+    while (_index < length) {
+      char ch = expr.charAt(_index);
+
+      if (Character.isWhitespace(ch)) {
+        _index++;
+      }
+      else if (ch == '\'' || ch == '"') {
+        int end = expr.indexOf(ch, _index + 1);
+
+        _index = end < 0 ? length : end + 1;
+        isValue = true;
+      }
+      else if (ch == '$') {
+        _index++;
+        readName();
+        isValue = true;
+      }
+      else if (isDigit(ch)
+               || ch == '.' && isDigit(charAt(_index + 1))) {
+        while (_index < length
+               && (isDigit(expr.charAt(_index)) || expr.charAt(_index) == '.')) {
+          _index++;
+        }
+        isValue = true;
+      }
+      else if (Character.isLetter(ch) || ch == '_') {
+        String name = readName();
+
+        int next = skipWhitespace(_index);
+
+        if (expr.startsWith("::", next)) {
+          String reason = checkAxis(name);
+
+          if (reason != null)
+            return reason;
+
+          isChildStep = ! (name.equals("attribute")
+                           || name.equals("namespace")
+                           || name.equals("self"));
+
+          _index = next + 2;
+          isValue = false;
+        }
+        else if (charAt(next) == '(') {
+          String reason = checkFunction(name);
+
+          if (reason != null)
+            return reason;
+
+          if (isNodeTest(name)) {
+            if (isChildStep)
+              _isChildSelection = true;
+
+            isChildStep = true;
+          }
+          else if (isStringValueFunction(name)
+                   && charAt(skipWhitespace(next + 1)) == ')') {
+            // string() of the context node reads all its text
+            _isChildSelection = true;
+          }
+
+          _index = next;
+          isValue = false;
+        }
+        else if (isValue && isOperator(name)) {
+          isValue = false;
+        }
+        else {
+          if (_isGlobal)
+            return L.l("global selection '{0}'", expr);
+
+          if (isChildStep)
+            _isChildSelection = true;
+
+          isChildStep = true;
+          isValue = true;
+        }
+      }
+      else if (ch == '.') {
+        if (charAt(_index + 1) == '.') {
+          if (! _isMatch)
+            return L.l("parent step '..' in '{0}'", expr);
+
+          _index += 2;
+        }
+        else {
+          if (_isGlobal)
+            return L.l("global selection '{0}'", expr);
+
+          _index++;
+
+          // the string value of '.' reads all its text
+          if (charAt(skipWhitespace(_index)) != '/')
+            _isChildSelection = true;
+        }
+
+        isValue = true;
+      }
+      else if (ch == '*') {
+        if (! isValue && _isGlobal)
+          return L.l("global selection '{0}'", expr);
+
+        if (! isValue) {
+          if (isChildStep)
+            _isChildSelection = true;
+
+          isChildStep = true;
+        }
+
+        _index++;
+        isValue = ! isValue;
+      }
+      else if (ch == '@') {
+        if (_isGlobal)
+          return L.l("global selection '{0}'", expr);
+
+        _index++;
+        isChildStep = false;
+        isValue = false;
+      }
+      else if (ch == '/') {
+        if (! isValue) {
+          if (_isGlobal)
+            return L.l("global selection '{0}'", expr);
+          else if (! _isMatch && ! _isRootTemplate)
+            return L.l("absolute path in '{0}'", expr);
+        }
+
+        _index++;
+        if (charAt(_index) == '/')
+          _index++;
+
+        isChildStep = true;
+        isValue = false;
+      }
+      else if (ch == '[') {
+        if (isDigit(charAt(skipWhitespace(_index + 1))))
+          return L.l("numeric predicate in '{0}'", expr);
+
+        _index++;
+        isValue = false;
+      }
+      else {
+        _index++;
+        isValue = (ch == ')' || ch == ']');
+      }
+    }
+
+    return null;
+  }
+
+  private String checkAxis(String axis)
+  {
+    if (axis.equals("preceding")
+        || axis.equals("preceding-sibling")) {
+      return L.l("reverse axis '{0}' in '{1}'", axis, _expr);
+    }
+    else if (_isMatch) {
+      return null;
+    }
+    else if (axis.equals("parent")
+             || axis.equals("ancestor")
+             || axis.equals("ancestor-or-self")) {
+      return L.l("reverse axis '{0}' in '{1}'", axis, _expr);
+    }
+    else if (_isGlobal && ! axis.equals("self"))
+      return L.l("global selection '{0}'", _expr);
+    else
+      return null;
+  }
+
+  private String checkFunction(String name)
+  {
+    if (name.equals("last")
+        || name.equals("position")
+        || name.equals("count")
+        || name.equals("key")
+        || name.equals("id")) {
+      return L.l("{0}() in '{1}'", name, _expr);
+    }
+    else if (_isGlobal
+             && (name.equals("node")
+                 || name.equals("text")
+                 || name.equals("comment")
+                 || name.equals("processing-instruction"))) {
+      return L.l("global selection '{0}'", _expr);
+    }
+    else
+      return null;
+  }
+
+  private static boolean isNodeTest(String name)
+  {
+    return (name.equals("node")
+            || name.equals("text")
+            || name.equals("comment")
+            || name.equals("processing-instruction"));
+  }
+
+  private static boolean isStringValueFunction(String name)
+  {
+    return (name.equals("string")
+            || name.equals("normalize-space")
+            || name.equals("string-length")
+            || name.equals("number"));
+  }
+
+  private static boolean isOperator(String name)
+  {
+    return (name.equals("and")
+            || name.equals("or")
+            || name.equals("div")
+            || name.equals("mod"));
+  }
+
+  /**
+   * Reads a name, including a prefix, but not an axis separator.
+   */
+  private String readName()
+  {
+    String expr = _expr;
+    int length = expr.length();
+    int start = _index;
+
+    while (_index < length) {
+      char ch = expr.charAt(_index);
+
+      if (Character.isLetterOrDigit(ch)
+          || ch == '_' || ch == '-' || ch == '.') {
+        _index++;
+      }
+      else if (ch == ':' && charAt(_index + 1) != ':') {
+        _index++;
+      }
+      else
+        break;
+    }
+
+    return expr.substring(start, _index);
+  }
+
+  private int skipWhitespace(int index)
+  {
+    while (index < _expr.length()
+           && Character.isWhitespace(_expr.charAt(index))) {
+      index++;
+    }
+
+    return index;
+  }
+
+  private char charAt(int index)
+  {
+    if (index < _expr.length())
+      return _expr.charAt(index);
+    else
+      return 0;
+  }
+
+  private static boolean isDigit(char ch)
+  {
+    return '0' <= ch && ch <= '9';
+  }
+}
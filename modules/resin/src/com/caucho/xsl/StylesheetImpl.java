@@ -36,6 +36,7 @@ import com.caucho.vfs.Path;
 import com.caucho.xml.CauchoNode;
 import com.caucho.xml.QAbstractNode;
 import com.caucho.xml.QElement;
+import com.caucho.xml.QStreamDocument;
 import com.caucho.xml.XMLWriter;
 import com.caucho.xml.XmlChar;
 import com.caucho.xml.XmlUtil;
@@ -95,6 +96,8 @@ public class StylesheetImpl extends AbstractStylesheet  {
   long lastModified;
 
   boolean _generateLocation;
+
+  private boolean _isStreamable;
   
   LineMap lineMap;
 
@@ -113,6 +116,7 @@ public class StylesheetImpl extends AbstractStylesheet  {
     stylesheetImpl.lineMap = lineMap;
     stylesheetImpl._properties = _properties;
     stylesheetImpl._defaultDisableEscaping = _defaultDisableEscaping;
+    stylesheetImpl._isStreamable = _isStreamable;
   }
 
   public OutputFormat getOutputFormat()
@@ -140,6 +144,23 @@ public class StylesheetImpl extends AbstractStylesheet  {
     _properties.put(name, value);
   }
 
+  /**
+   * Set by the generated stylesheet when it only needs a single forward
+   * pass over the source document.
+   */
+  protected void setStreamable(boolean isStreamable)
+  {
+    _isStreamable = isStreamable;
+  }
+
+  /**
+   * Returns true if the stylesheet can transform a streamed document.
+   */
+  public boolean isStreamable()
+  {
+    return _isStreamable;
+  }
+
   public void setGenerateLocation(boolean generateLocation)
   {
     _generateLocation = generateLocation;
@@ -211,6 +232,17 @@ public class StylesheetImpl extends AbstractStylesheet  {
 
     out.disableEscaping(_defaultDisableEscaping);
 
+    Node streamNode = xml.getOwnerDocument() != null ? xml.getOwnerDocument() : xml;
+    
+    if (streamNode instanceof QStreamDocument) {
+      QStreamDocument streamDoc = (QStreamDocument) streamNode;
+
+      if (_isStreamable)
+        streamDoc.setForwardOnly(true);
+      else
+        streamDoc.complete();
+    }
+
     if (_strip != null && ! _strip.isEmpty()) {
       stripSpaces(xml);
     }
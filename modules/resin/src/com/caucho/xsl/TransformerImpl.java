@@ -37,6 +37,7 @@ import com.caucho.vfs.Path;
 import com.caucho.vfs.Vfs;
 import com.caucho.vfs.WriteStream;
 import com.caucho.xml.*;
+import com.caucho.xml.stream.XMLStreamReaderImpl;
 import com.caucho.xpath.XPathFun;
 
 import org.w3c.dom.Document;
@@ -47,6 +48,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
@@ -59,10 +62,13 @@ import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -74,6 +80,7 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
   public final static String LINE_MAP = "caucho.line-map";
   public final static String CACHE_DEPENDS = "caucho.cache.depends";
   public final static String GENERATE_LOCATION = "caucho.generate.location";
+  public final static String STREAMING = "caucho.streaming";
 
   protected StylesheetImpl _stylesheet;
   protected HashMap<String,Object> _properties = new HashMap<String,Object>();
@@ -83,6 +90,9 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
   private ErrorListener _errorListener;
 
   private Properties _output;
+
+  // off by default: a stylesheet can still pass over released children
+  private boolean _isStreaming;
   
   protected LineMap _lineMap;
 
@@ -140,6 +150,8 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
       return true;
     else if (name.equals(SAXResult.FEATURE))
       return true;
+    else if (name.equals(STREAMING))
+      return _isStreaming;
     else
       return false;
   }
@@ -148,6 +160,8 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
   {
     if (name.equals(GENERATE_LOCATION))
       _stylesheet.setGenerateLocation(enable);
+    else if (name.equals(STREAMING))
+      _isStreaming = enable;
   }
 
   public StylesheetImpl getStylesheet()
@@ -287,8 +301,10 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
   public void transform(Source source, Result result)
     throws TransformerException
   {
+    Node node = null;
+    
     try {
-      Node node = parseDocument(source);
+      node = parseDocument(source);
       
       if (result instanceof StreamResult) {
         StreamResult stream = (StreamResult) result;
@@ -338,6 +354,9 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
       throw e;
     } catch (Exception e) {
       throw new TransformerExceptionWrapper(e);
+    } finally {
+      if (node instanceof QStreamDocument && source instanceof StreamSource)
+        ((QStreamDocument) node).close();
     }
   }
 
@@ -511,18 +530,12 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
     if (source instanceof StreamSource) {
       StreamSource stream = (StreamSource) source;
 
-      InputSource in = new InputSource();
-      in.setSystemId(stream.getSystemId());
-      in.setByteStream(stream.getInputStream());
-      in.setCharacterStream(stream.getReader());
-
-      XmlParser parser = Xml.create();
+      if (_isStreaming && _stylesheet.isStreamable())
+        return parseStreamDocument(stream);
 
-      Node node = parser.parseDocument(in);
-
-      parser.free();
-
-      return node;
+      return parseDocument(stream.getSystemId(),
+                           stream.getInputStream(),
+                           stream.getReader());
 
       // return new QDocument();
     }
@@ -563,6 +576,89 @@ public class TransformerImpl extends javax.xml.transform.Transformer {
       throw new TransformerException(L.l("unknown source {0}", source));
   }
   
+  /**
+   * Parses a stream source as a DOM document.
+   */
+  private Node parseDocument(String systemId, InputStream is, Reader reader)
+    throws IOException, SAXException
+  {
+    InputSource in = new InputSource();
+    in.setSystemId(systemId);
+    in.setByteStream(is);
+    in.setCharacterStream(reader);
+
+    XmlParser parser = Xml.create();
+
+    Node node = parser.parseDocument(in);
+
+    parser.free();
+
+    return node;
+  }
+
+  /**
+   * Opens the source as a streamed document, which is parsed as the
+   * stylesheet traverses it. A document with a DOCTYPE is parsed by the
+   * DOM parser, which handles the DTD.
+   *
+   * @param stream the JAXP stream source.
+   *
+   * @return the streamed document.
+   */
+  protected Node parseStreamDocument(StreamSource stream)
+    throws IOException, SAXException, TransformerException
+  {
+    String systemId = stream.getSystemId();
+    InputStream is = stream.getInputStream();
+    Reader reader = stream.getReader();
+    boolean isOpened = false;
+
+    if (is == null && reader == null) {
+      if (systemId == null)
+        throw new TransformerException(L.l("stream source needs an input stream, reader, or system id"));
+
+      is = Vfs.lookup(systemId).openRead();
+      isOpened = true;
+    }
+
+    boolean isStreamable;
+
+    if (is != null) {
+      if (! is.markSupported())
+        is = new BufferedInputStream(is);
+
+      isStreamable = QStreamDocument.isStreamableProlog(is);
+    }
+    else {
+      if (! reader.markSupported())
+        reader = new BufferedReader(reader);
+
+      isStreamable = QStreamDocument.isStreamableProlog(reader);
+    }
+
+    if (! isStreamable) {
+      try {
+        return parseDocument(systemId, is, reader);
+      } finally {
+        if (isOpened)
+          is.close();
+      }
+    }
+    
+    try {
+      XMLStreamReader in;
+
+      if (is != null)
+        in = new XMLStreamReaderImpl(is, systemId);
+      else
+        in = new XMLStreamReaderImpl(reader, systemId);
+
+      return new QStreamDocument(in, systemId);
+    } catch (XMLStreamException e) {
+      throw new TransformerExceptionWrapper(e);
+    }
+  }
+  
   /**
    * Parses the source XML document from the input stream.
    *
@@ -103,6 +103,9 @@ public class XslApplyTemplates extends XslNode {
     if (_select != null) {
       selectPattern = parseSelect(_select);
     }
+    else {
+      addChildSelection("node()");
+    }
 
     Sort []sort = null;
 
@@ -65,6 +65,9 @@ public abstract class XslNode {
   protected QName _name;
   protected XslNode _parent;
 
+  // nodes which select this template or for-each's children
+  private ArrayList<XslNode> _childSelections;
+
   protected ArrayList<XslNode> _children;
   protected NamespaceContext _matchNamespace;
   protected NamespaceContext _outputNamespace;
@@ -995,6 +998,8 @@ public abstract class XslNode {
   public AbstractPattern parseMatch(String pattern)
     throws XslParseException, IOException
   {
+    checkStreamable(pattern, true);
+    
     try {
       return XPath.parseMatch(pattern, getMatchNamespace()).getPattern();
     } catch (Exception e) {
@@ -1006,6 +1011,8 @@ public abstract class XslNode {
   protected AbstractPattern parseSelect(String pattern)
     throws XslParseException
   {
+    checkStreamable(pattern, false);
+    
     try {
       return XPath.parseSelect(pattern, getMatchNamespace()).getPattern();
     } catch (Exception e) {
@@ -1025,6 +1032,8 @@ public abstract class XslNode {
   protected Expr parseExpr(String pattern)
     throws XslParseException
   {
+    checkStreamable(pattern, false);
+    
     try {
       return XPath.parseExpr(pattern,
                              getMatchNamespace(),
@@ -1034,6 +1043,65 @@ public abstract class XslNode {
     }
   }
 
+  /**
+   * Checks if the expression allows the stylesheet to transform a
+   * streamed source document.
+   */
+  private void checkStreamable(String pattern, boolean isMatch)
+  {
+    XslTemplate template = null;
+    boolean isGlobalVar = false;
+
+    for (XslNode ptr = this; ptr != null; ptr = ptr.getParent()) {
+      if (ptr instanceof XslTemplate) {
+        template = (XslTemplate) ptr;
+        break;
+      }
+      else if (ptr instanceof XslVariable || ptr instanceof XslParam)
+        isGlobalVar = true;
+    }
+
+    boolean isRootTemplate = (template != null
+                              && "/".equals(template.getMatch()));
+
+    boolean isChildSelection
+      = _gen.checkStreamable(pattern, isMatch, isRootTemplate,
+                             template == null && isGlobalVar);
+
+    if (isChildSelection)
+      addChildSelection(pattern);
+  }
+
+  /**
+   * Records a selection of the context node's children. A second
+   * selection in the same template or for-each traverses the same
+   * children twice, so the stylesheet can't stream.
+   */
+  protected void addChildSelection(String pattern)
+  {
+    // a for-each's own select is evaluated in the enclosing context
+    XslNode scope = this instanceof XslForEach ? getParent() : this;
+
+    for (; scope != null; scope = scope.getParent()) {
+      if (scope instanceof XslTemplate || scope instanceof XslForEach)
+        break;
+    }
+
+    if (scope == null)
+      return;
+
+    if (scope._childSelections == null)
+      scope._childSelections = new ArrayList<XslNode>();
+
+    if (! scope._childSelections.contains(this))
+      scope._childSelections.add(this);
+
+    // a second traversal of the same children needs released nodes
+    if (scope._childSelections.size() > 1) {
+      _gen.setNotStreamable(L.l("repeated child selection '{0}'", pattern));
+    }
+  }
+
   protected int generateId()
   {
     return _gen.generateId();
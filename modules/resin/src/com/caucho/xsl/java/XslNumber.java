@@ -110,6 +110,8 @@ public class XslNumber extends XslNode {
   public void generate(JavaWriter out)
     throws Exception
   {
+    _gen.setNotStreamable("xsl:number");
+    
     int size = 0;
 
     for (int i = 0; i < _groupingSize.length(); i++) {
@@ -98,6 +98,8 @@ public class XslSort extends XslNode {
   public Sort generateSort()
     throws Exception
   {
+    _gen.setNotStreamable("xsl:sort");
+    
     Expr expr = parseExpr(_select);
 
     Expr isAscending = constructBoolean(_order, "ascending");
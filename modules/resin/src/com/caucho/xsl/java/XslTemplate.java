@@ -44,6 +44,14 @@ public class XslTemplate extends XslNode implements XslTopNode {
 
   private String _macroName;
 
+  /**
+   * Returns the match pattern.
+   */
+  public String getMatch()
+  {
+    return _match;
+  }
+
   /**
    * Adds an attribute.
    */